@@ -1,8 +1,10 @@
 package org.fsg1.fmms.backend.app;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.fsg1.fmms.backend.database.Connection;
 import org.fsg1.fmms.backend.services.*;
+import org.fsg1.fmms.backend.util.JsonMapper;
 import org.glassfish.jersey.internal.inject.AbstractBinder;
 
 import javax.inject.Singleton;
@@ -18,6 +20,7 @@ public final class AppBinder extends AbstractBinder {
      */
     @Override
     protected void configure() {
+        bind(JsonMapper.getMapper()).to(ObjectMapper.class);
         bind(BasicDataSource.class).to(BasicDataSource.class).in(Singleton.class);
         bind(Connection.class).to(Connection.class).in(Singleton.class);
         bind(CurriculaService.class).to(CurriculaService.class).in(Singleton.class);
@@ -25,5 +28,8 @@ public final class AppBinder extends AbstractBinder {
         bind(ModulesService.class).to(ModulesService.class).in(Singleton.class);
         bind(SemestersService.class).to(SemestersService.class).in(Singleton.class);
         bind(QualificationsService.class).to(QualificationsService.class).in(Singleton.class);
+        bind(ImportService.class).to(ImportService.class).in(Singleton.class);
+        bind(MonitoringService.class).to(MonitoringService.class).in(Singleton.class);
+        bind(SnapshotService.class).to(SnapshotService.class).in(Singleton.class);
     }
 }
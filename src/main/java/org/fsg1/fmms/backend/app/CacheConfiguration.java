@@ -0,0 +1,174 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.Map;
+
+/**
+ * Settings of the cache of query results, of the coalescing of identical reads and of the snapshots of the catalog
+ * responses.
+ */
+public final class CacheConfiguration {
+
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final long DEFAULT_TTL_MILLIS = 60000;
+
+    private static final long DEFAULT_SNAPSHOT_MAX_BYTES = 128L * 1024 * 1024;
+
+    private static final long DEFAULT_COALESCE_MAX_WAIT_MILLIS = 5000;
+
+    private long maxBytes;
+
+    private long ttlMillis;
+
+    private long snapshotMaxBytes;
+
+    private boolean coalescing;
+
+    private long coalesceMaxWaitMillis;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private CacheConfiguration() {
+    }
+
+    /**
+     * Loads the cache configuration from environment variables.
+     *
+     * @param env Environment variables.
+     * @return Concrete CacheConfiguration instance
+     */
+    static CacheConfiguration fromEnv(final Map<String, String> env) {
+        return new Builder()
+                .setMaxBytes(Env.getLong(env, "CACHE_MAX_BYTES", DEFAULT_MAX_BYTES))
+                .setTtlMillis(Env.getLong(env, "CACHE_TTL_MS", DEFAULT_TTL_MILLIS))
+                .setSnapshotMaxBytes(Env.getLong(env, "SNAPSHOT_MAX_BYTES", DEFAULT_SNAPSHOT_MAX_BYTES))
+                .setCoalescing(Env.getBoolean(env, "COALESCE_READS", true))
+                .setCoalesceMaxWaitMillis(Env.getLong(env, "COALESCE_MAX_WAIT_MS", DEFAULT_COALESCE_MAX_WAIT_MILLIS))
+                .build();
+    }
+
+    /**
+     * @return Maximum number of bytes of results kept in the cache, or 0 to disable the cache.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Milliseconds a result is served from the cache, or 0 to keep results until they are invalidated or
+     * evicted.
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * @return Maximum number of bytes of direct memory that holds the snapshots, or 0 to disable the snapshots.
+     */
+    public long getSnapshotMaxBytes() {
+        return snapshotMaxBytes;
+    }
+
+    /**
+     * @return Whether identical reads that are executing at the same time share one execution.
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * @return Milliseconds a read waits for the execution it shares, or 0 to wait as long as it takes.
+     */
+    public long getCoalesceMaxWaitMillis() {
+        return coalesceMaxWaitMillis;
+    }
+
+    /**
+     * Builder class for the cache configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private long maxBytes = DEFAULT_MAX_BYTES;
+
+        private long ttlMillis = DEFAULT_TTL_MILLIS;
+
+        private long snapshotMaxBytes = DEFAULT_SNAPSHOT_MAX_BYTES;
+
+        private boolean coalescing = true;
+
+        private long coalesceMaxWaitMillis = DEFAULT_COALESCE_MAX_WAIT_MILLIS;
+
+        /**
+         * Sets the maximum number of bytes of results kept in the cache.
+         *
+         * @param newMaxBytes Bytes, or 0 to disable the cache
+         * @return Fluent interface
+         */
+        public Builder setMaxBytes(final long newMaxBytes) {
+            this.maxBytes = newMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets how long a result is served from the cache.
+         *
+         * @param newTtlMillis Milliseconds, or 0 to keep results until they are invalidated or evicted
+         * @return Fluent interface
+         */
+        public Builder setTtlMillis(final long newTtlMillis) {
+            this.ttlMillis = newTtlMillis;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of bytes of direct memory that holds the snapshots.
+         *
+         * @param newSnapshotMaxBytes Bytes, or 0 to disable the snapshots
+         * @return Fluent interface
+         */
+        public Builder setSnapshotMaxBytes(final long newSnapshotMaxBytes) {
+            this.snapshotMaxBytes = newSnapshotMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets whether identical reads that are executing at the same time share one execution.
+         *
+         * @param newCoalescing True to share executions
+         * @return Fluent interface
+         */
+        public Builder setCoalescing(final boolean newCoalescing) {
+            this.coalescing = newCoalescing;
+            return this;
+        }
+
+        /**
+         * Sets the time a read waits for the execution it shares.
+         *
+         * @param newCoalesceMaxWaitMillis Milliseconds, or 0 to wait as long as it takes
+         * @return Fluent interface
+         */
+        public Builder setCoalesceMaxWaitMillis(final long newCoalesceMaxWaitMillis) {
+            this.coalesceMaxWaitMillis = newCoalesceMaxWaitMillis;
+            return this;
+        }
+
+        /**
+         * Builds the cache configuration object.
+         *
+         * @return Concrete cache configuration object
+         */
+        public CacheConfiguration build() {
+            CacheConfiguration config = new CacheConfiguration();
+            config.maxBytes = maxBytes;
+            config.ttlMillis = ttlMillis;
+            config.snapshotMaxBytes = snapshotMaxBytes;
+            config.coalescing = coalescing;
+            config.coalesceMaxWaitMillis = coalesceMaxWaitMillis;
+
+            return config;
+        }
+    }
+}
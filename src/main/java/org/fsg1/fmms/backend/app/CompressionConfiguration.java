@@ -0,0 +1,107 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.Map;
+
+/**
+ * Settings of the gzip compression of responses.
+ */
+public final class CompressionConfiguration {
+
+    private static final int DEFAULT_MIN_BYTES = 1024;
+
+    private static final int DEFAULT_LEVEL = 6;
+
+    private int minBytes;
+
+    private int level;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private CompressionConfiguration() {
+    }
+
+    /**
+     * Loads the compression configuration from environment variables.
+     *
+     * @param env Environment variables.
+     * @return Concrete CompressionConfiguration instance
+     */
+    static CompressionConfiguration fromEnv(final Map<String, String> env) {
+        return new Builder()
+                .setMinBytes(Env.getInt(env, "COMPRESSION_MIN_BYTES", DEFAULT_MIN_BYTES))
+                .setLevel(Env.getInt(env, "COMPRESSION_LEVEL", DEFAULT_LEVEL))
+                .build();
+    }
+
+    /**
+     * @return Size in bytes from which a response is compressed.
+     */
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * @return Compression level from 1 (fastest) to 9 (smallest), or 0 to disable compression.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Whether responses are compressed.
+     */
+    public boolean isEnabled() {
+        return level > 0;
+    }
+
+    /**
+     * Builder class for the compression configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private int minBytes = DEFAULT_MIN_BYTES;
+
+        private int level = DEFAULT_LEVEL;
+
+        /**
+         * Sets the size from which a response is compressed.
+         *
+         * @param newMinBytes Bytes
+         * @return Fluent interface
+         */
+        public Builder setMinBytes(final int newMinBytes) {
+            this.minBytes = newMinBytes;
+            return this;
+        }
+
+        /**
+         * Sets the compression level.
+         *
+         * @param newLevel Level from 1 (fastest) to 9 (smallest), or 0 to disable compression
+         * @return Fluent interface
+         * @throws IllegalArgumentException if the level is not between 0 and 9.
+         */
+        public Builder setLevel(final int newLevel) {
+            if (newLevel < 0 || newLevel > 9) {
+                throw new IllegalArgumentException("Compression level must be between 0 and 9: " + newLevel);
+            }
+            this.level = newLevel;
+            return this;
+        }
+
+        /**
+         * Builds the compression configuration object.
+         *
+         * @return Concrete compression configuration object
+         */
+        public CompressionConfiguration build() {
+            CompressionConfiguration config = new CompressionConfiguration();
+            config.minBytes = minBytes;
+            config.level = level;
+
+            return config;
+        }
+    }
+}
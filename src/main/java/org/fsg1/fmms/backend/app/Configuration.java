@@ -1,5 +1,8 @@
 package org.fsg1.fmms.backend.app;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,10 +24,28 @@ public final class Configuration {
 
     private String db;
 
+    private List<String> replicas;
+
     private String authUsername;
 
     private String authPassword;
 
+    private ServerConfiguration server;
+
+    private PoolConfiguration pool;
+
+    private CacheConfiguration cache;
+
+    private CompressionConfiguration compression;
+
+    private RateLimitConfiguration rateLimits;
+
+    private SlowQueryConfiguration slowQueries;
+
+    private TimeoutConfiguration timeouts;
+
+    private WarmUpConfiguration warmUp;
+
     /**
      * Private constructor.
      * Class cannot be instantiated directly
@@ -48,8 +69,17 @@ public final class Configuration {
                 .setDbUser(env.getOrDefault("DB_USER", "module"))
                 .setDbPassword(env.getOrDefault("DB_PASSWD", ""))
                 .setDb(env.getOrDefault("DB", "172.17.0.1:5432/modulemanagement"))
+                .setReplicas(Env.getList(env, "DB_REPLICAS"))
                 .setAuthUsername(env.getOrDefault("AUTH_USER", "fmms"))
-                .setAuthPassword(env.getOrDefault("AUTH_PASSWORD", "modulemanagement"));
+                .setAuthPassword(env.getOrDefault("AUTH_PASSWORD", "modulemanagement"))
+                .setServer(ServerConfiguration.fromEnv(env))
+                .setPool(PoolConfiguration.fromEnv(env))
+                .setCache(CacheConfiguration.fromEnv(env))
+                .setCompression(CompressionConfiguration.fromEnv(env))
+                .setRateLimits(RateLimitConfiguration.fromEnv(env))
+                .setSlowQueries(SlowQueryConfiguration.fromEnv(env))
+                .setTimeouts(TimeoutConfiguration.fromEnv(env))
+                .setWarmUp(WarmUpConfiguration.fromEnv(env));
 
         return builder.build();
     }
@@ -72,6 +102,19 @@ public final class Configuration {
         return "jdbc:postgresql://" + db;
     }
 
+    /**
+     * Returns the jdbc uris of the read replicas of the database.
+     *
+     * @return Postgresql Db Strings of the replicas, empty if all queries go to the primary database
+     */
+    public List<String> getReplicaDbStrings() {
+        final List<String> dbStrings = new ArrayList<>();
+        for (String replica : replicas) {
+            dbStrings.add("jdbc:postgresql://" + replica);
+        }
+        return dbStrings;
+    }
+
     /**
      * Returns the database username.
      *
@@ -108,6 +151,78 @@ public final class Configuration {
         return authPassword;
     }
 
+    /**
+     * Settings of the HTTP server.
+     *
+     * @return Server configuration
+     */
+    public ServerConfiguration getServer() {
+        return server;
+    }
+
+    /**
+     * Settings of the database connection pool.
+     *
+     * @return Pool configuration
+     */
+    public PoolConfiguration getPool() {
+        return pool;
+    }
+
+    /**
+     * Settings of the cache of query results.
+     *
+     * @return Cache configuration
+     */
+    public CacheConfiguration getCache() {
+        return cache;
+    }
+
+    /**
+     * Settings of the slow-query log.
+     *
+     * @return Slow-query configuration
+     */
+    /**
+     * Settings of the compression of responses.
+     *
+     * @return Compression configuration
+     */
+    public CompressionConfiguration getCompression() {
+        return compression;
+    }
+
+    /**
+     * Settings of the rate limits per client and of the load shedding.
+     *
+     * @return Rate limit configuration
+     */
+    public RateLimitConfiguration getRateLimits() {
+        return rateLimits;
+    }
+
+    public SlowQueryConfiguration getSlowQueries() {
+        return slowQueries;
+    }
+
+    /**
+     * Settings of the statement timeouts.
+     *
+     * @return Timeout configuration
+     */
+    public TimeoutConfiguration getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Settings of the warm-up at startup.
+     *
+     * @return Warm-up configuration
+     */
+    public WarmUpConfiguration getWarmUp() {
+        return warmUp;
+    }
+
     /**
      * Builder class for configuration.
      *
@@ -127,10 +242,28 @@ public final class Configuration {
 
         private String db;
 
+        private List<String> replicas = Collections.emptyList();
+
         private String authUsername;
 
         private String authPassword;
 
+        private ServerConfiguration server = new ServerConfiguration.Builder().build();
+
+        private PoolConfiguration pool = new PoolConfiguration.Builder().build();
+
+        private CacheConfiguration cache = new CacheConfiguration.Builder().build();
+
+        private CompressionConfiguration compression = new CompressionConfiguration.Builder().build();
+
+        private RateLimitConfiguration rateLimits = new RateLimitConfiguration.Builder().build();
+
+        private SlowQueryConfiguration slowQueries = new SlowQueryConfiguration.Builder().build();
+
+        private TimeoutConfiguration timeouts = new TimeoutConfiguration.Builder().build();
+
+        private WarmUpConfiguration warmUp = new WarmUpConfiguration.Builder().build();
+
         /**
          * Sets hostname.
          *
@@ -175,6 +308,18 @@ public final class Configuration {
             return this;
         }
 
+        /**
+         * Sets the read replicas of the database. Read-only queries are spread over the replicas; writes always
+         * go to the database set with {@link #setDb(String)}.
+         *
+         * @param newReplicas Jdbc conform database uris, without the <code>jdbc:postgresql://</code> prefix
+         * @return Fluent interface
+         */
+        public Builder setReplicas(final List<String> newReplicas) {
+            this.replicas = new ArrayList<>(newReplicas);
+            return this;
+        }
+
         /**
          * Sets the database username.
          *
@@ -219,6 +364,94 @@ public final class Configuration {
             return this;
         }
 
+        /**
+         * Set the settings of the HTTP server.
+         *
+         * @param newServer Server configuration
+         * @return Fluent interface
+         */
+        public Builder setServer(final ServerConfiguration newServer) {
+            this.server = newServer;
+            return this;
+        }
+
+        /**
+         * Set the settings of the database connection pool.
+         *
+         * @param newPool Pool configuration
+         * @return Fluent interface
+         */
+        public Builder setPool(final PoolConfiguration newPool) {
+            this.pool = newPool;
+            return this;
+        }
+
+        /**
+         * Set the settings of the cache of query results.
+         *
+         * @param newCache Cache configuration
+         * @return Fluent interface
+         */
+        public Builder setCache(final CacheConfiguration newCache) {
+            this.cache = newCache;
+            return this;
+        }
+
+        /**
+         * Set the settings of the slow-query log.
+         *
+         * @param newSlowQueries Slow-query configuration
+         * @return Fluent interface
+         */
+        public Builder setSlowQueries(final SlowQueryConfiguration newSlowQueries) {
+            this.slowQueries = newSlowQueries;
+            return this;
+        }
+
+        /**
+         * Set the settings of the compression of responses.
+         *
+         * @param newCompression Compression configuration
+         * @return Fluent interface
+         */
+        public Builder setCompression(final CompressionConfiguration newCompression) {
+            this.compression = newCompression;
+            return this;
+        }
+
+        /**
+         * Set the settings of the rate limits per client and of the load shedding.
+         *
+         * @param newRateLimits Rate limit configuration
+         * @return Fluent interface
+         */
+        public Builder setRateLimits(final RateLimitConfiguration newRateLimits) {
+            this.rateLimits = newRateLimits;
+            return this;
+        }
+
+        /**
+         * Set the settings of the statement timeouts.
+         *
+         * @param newTimeouts Timeout configuration
+         * @return Fluent interface
+         */
+        public Builder setTimeouts(final TimeoutConfiguration newTimeouts) {
+            this.timeouts = newTimeouts;
+            return this;
+        }
+
+        /**
+         * Set the settings of the warm-up at startup.
+         *
+         * @param newWarmUp Warm-up configuration
+         * @return Fluent interface
+         */
+        public Builder setWarmUp(final WarmUpConfiguration newWarmUp) {
+            this.warmUp = newWarmUp;
+            return this;
+        }
+
         /**
          * Builds the configuration object.
          * Can be called many times. Returns always a new object
@@ -229,12 +462,21 @@ public final class Configuration {
             Configuration config = new Configuration();
             config.base = base;
             config.db = db;
+            config.replicas = replicas;
             config.dbPasswd = dbPasswd;
             config.dbUser = dbUser;
             config.port = port;
             config.host = host;
             config.authUsername = authUsername;
             config.authPassword = authPassword;
+            config.server = server;
+            config.pool = pool;
+            config.cache = cache;
+            config.compression = compression;
+            config.rateLimits = rateLimits;
+            config.slowQueries = slowQueries;
+            config.timeouts = timeouts;
+            config.warmUp = warmUp;
 
             return config;
         }
@@ -0,0 +1,75 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for reading typed values from environment variables.
+ */
+final class Env {
+
+    /**
+     * Private constructor.
+     * Class should never be instantiated.
+     */
+    private Env() {
+    }
+
+    /**
+     * Reads an integer from the environment.
+     *
+     * @param env          Environment variables.
+     * @param name         Name of the variable.
+     * @param defaultValue Value to use when the variable is not set.
+     * @return The value of the variable.
+     */
+    static int getInt(final Map<String, String> env, final String name, final int defaultValue) {
+        final String value = env.get(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Reads a long from the environment.
+     *
+     * @param env          Environment variables.
+     * @param name         Name of the variable.
+     * @param defaultValue Value to use when the variable is not set.
+     * @return The value of the variable.
+     */
+    static long getLong(final Map<String, String> env, final String name, final long defaultValue) {
+        final String value = env.get(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * Reads a boolean from the environment.
+     *
+     * @param env          Environment variables.
+     * @param name         Name of the variable.
+     * @param defaultValue Value to use when the variable is not set.
+     * @return The value of the variable.
+     */
+    static boolean getBoolean(final Map<String, String> env, final String name, final boolean defaultValue) {
+        final String value = env.get(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Reads a comma separated list from the environment, ignoring empty entries.
+     *
+     * @param env  Environment variables.
+     * @param name Name of the variable.
+     * @return The entries of the list, which is empty when the variable is not set.
+     */
+    static List<String> getList(final Map<String, String> env, final String name) {
+        final List<String> entries = new ArrayList<>();
+        for (String entry : env.getOrDefault(name, "").split(",")) {
+            if (!entry.trim().isEmpty()) entries.add(entry.trim());
+        }
+        return entries;
+    }
+}
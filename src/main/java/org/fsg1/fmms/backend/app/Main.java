@@ -3,14 +3,30 @@ package org.fsg1.fmms.backend.app;
 import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
 import org.fsg1.fmms.backend.filters.AuthFilter;
 import org.fsg1.fmms.backend.filters.CORSResponseFilter;
+import org.fsg1.fmms.backend.filters.CompressionFilter;
+import org.fsg1.fmms.backend.filters.DeadlineFilter;
 import org.fsg1.fmms.backend.filters.POSTRequestFilter;
+import org.fsg1.fmms.backend.filters.RateLimitFilter;
+import org.fsg1.fmms.backend.util.DaemonThreads;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import javax.ws.rs.ProcessingException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class.
@@ -41,16 +57,103 @@ public final class Main {
 
         rc.register(di);
         rc.register(CORSResponseFilter.class);
-        rc.register(POSTRequestFilter.class);
+        rc.register(new POSTRequestFilter(config.getServer().getMaxBodyBytes()));
+        rc.register(RateLimitFilter.class);
         rc.register(AuthFilter.class);
+        rc.register(DeadlineFilter.class);
+        rc.register(CompressionFilter.class);
         rc.register(AppExceptionMapper.class);
+        rc.register(ObjectMapperResolver.class);
         rc.register(JacksonFeature.class);
+        rc.register(StartupListener.class);
 
         rc.packages("org.fsg1.fmms.backend.endpoints");
 
         // create and start a new instance of grizzly http server
         // exposing the Jersey application at BASE_URI
-        return GrizzlyHttpServerFactory.createHttpServer(URI.create(config.getServerString()), rc);
+        final HttpServer server = createServer(URI.create(config.getServerString()), rc, config.getServer());
+        try {
+            server.start();
+        } catch (IOException e) {
+            server.shutdownNow();
+            throw new ProcessingException(e);
+        }
+        return server;
+    }
+
+    /**
+     * Creates a Grizzly HTTP server for a Jersey application with the transport and worker settings of the
+     * configuration. The server is not started yet.
+     *
+     * @param uri    Address the server listens on.
+     * @param rc     The Jersey application.
+     * @param config Settings of the server.
+     * @return Grizzly HTTP server.
+     */
+    static HttpServer createServer(final URI uri, final ResourceConfig rc, final ServerConfiguration config) {
+        final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(uri, rc, false);
+        for (NetworkListener listener : server.getListeners()) {
+            listener.getKeepAlive().setIdleTimeoutInSeconds(config.getKeepAliveIdleSeconds());
+            listener.getKeepAlive().setMaxRequestsCount(config.getKeepAliveMaxRequests());
+            listener.setMaxHttpHeaderSize(config.getMaxHeaderSize());
+
+            final TCPNIOTransport transport = listener.getTransport();
+            transport.setTcpNoDelay(config.isTcpNoDelay());
+            transport.setServerConnectionBackLog(config.getBacklog());
+            if (config.getSelectorThreads() > 0) transport.setSelectorRunnersCount(config.getSelectorThreads());
+            if (config.getReadBufferSize() > 0) transport.setReadBufferSize(config.getReadBufferSize());
+            if (config.getWriteBufferSize() > 0) transport.setWriteBufferSize(config.getWriteBufferSize());
+            if (config.isVirtualThreads()) {
+                transport.setWorkerThreadPool(createVirtualWorkerPool());
+            } else if (config.getWorkerThreads() > 0) {
+                transport.setWorkerThreadPool(createWorkerPool(config));
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Creates an executor that handles every request on a new virtual thread. A request that blocks on a query
+     * releases its carrier thread, so the number of requests in flight is not limited by threads, but by the
+     * connection pool. The executor is looked up reflectively, so the code still builds for Java 8.
+     *
+     * @return The worker pool.
+     * @throws IllegalStateException if the runtime does not have virtual threads.
+     */
+    private static ExecutorService createVirtualWorkerPool() {
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            final Object builder = builderType.getMethod("name", String.class, long.class)
+                    .invoke(Thread.class.getMethod("ofVirtual").invoke(null), "http-worker-", 1L);
+            final ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+        }
+    }
+
+    /**
+     * Creates the pool of threads that handle requests, with a queue of the configured size.
+     *
+     * @param config Settings of the server.
+     * @return The worker pool.
+     */
+    private static ExecutorService createWorkerPool(final ServerConfiguration config) {
+        final BlockingQueue<Runnable> queue;
+        if (config.getWorkerQueueSize() < 0) {
+            queue = new LinkedBlockingQueue<>();
+        } else {
+            queue = new ArrayBlockingQueue<>(Math.max(1, config.getWorkerQueueSize()));
+        }
+        final RejectedExecutionHandler rejection;
+        if (ServerConfiguration.REJECT_CALLER_RUNS.equals(config.getRejectionPolicy())) {
+            rejection = new ThreadPoolExecutor.CallerRunsPolicy();
+        } else {
+            rejection = new ThreadPoolExecutor.AbortPolicy();
+        }
+        return new ThreadPoolExecutor(config.getWorkerThreads(), config.getWorkerThreads(), 0, TimeUnit.MILLISECONDS,
+                queue, DaemonThreads.numbered("http-worker"), rejection);
     }
 
     /**
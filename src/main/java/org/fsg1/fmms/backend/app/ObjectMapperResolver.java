@@ -0,0 +1,26 @@
+package org.fsg1.fmms.backend.app;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.fsg1.fmms.backend.util.JsonMapper;
+
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Makes Jersey's Jackson provider use the shared <code>ObjectMapper</code> of the application, so request bodies
+ * are read with the same configuration and caches as the services use.
+ */
+@Provider
+public final class ObjectMapperResolver implements ContextResolver<ObjectMapper> {
+
+    /**
+     * Get the mapper for a type.
+     *
+     * @param type Type that is read or written.
+     * @return The shared mapper, for any type.
+     */
+    @Override
+    public ObjectMapper getContext(final Class<?> type) {
+        return JsonMapper.getMapper();
+    }
+}
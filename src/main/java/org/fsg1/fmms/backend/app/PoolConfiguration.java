@@ -0,0 +1,458 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.Map;
+
+/**
+ * Sizing, validation and eviction settings of the database connection pool, and the settings of the executor
+ * that runs asynchronous queries on it.
+ */
+public final class PoolConfiguration {
+
+    private static final int DEFAULT_INITIAL_SIZE = 2;
+
+    private static final int DEFAULT_MAX_TOTAL = 8;
+
+    private static final int DEFAULT_MAX_IDLE = 8;
+
+    private static final int DEFAULT_MIN_IDLE = 2;
+
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 10000;
+
+    private static final String DEFAULT_VALIDATION_QUERY = "SELECT 1";
+
+    private static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 30000;
+
+    private static final long DEFAULT_MIN_EVICTABLE_IDLE_MILLIS = 60000;
+
+    private static final int DEFAULT_LEAK_TIMEOUT_SECONDS = 300;
+
+    private static final int DEFAULT_EXECUTOR_QUEUE_SIZE = 256;
+
+    private static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 30000;
+
+    private static final long DEFAULT_REPLICA_RETRY_MILLIS = 5000;
+
+    private int initialSize;
+
+    private int maxTotal;
+
+    private int maxIdle;
+
+    private int minIdle;
+
+    private long maxWaitMillis;
+
+    private String validationQuery;
+
+    private boolean testOnBorrow;
+
+    private boolean testWhileIdle;
+
+    private long evictionIntervalMillis;
+
+    private long minEvictableIdleMillis;
+
+    private int leakTimeoutSeconds;
+
+    private int executorThreads;
+
+    private int executorQueueSize;
+
+    private long asyncTimeoutMillis;
+
+    private long replicaRetryMillis;
+
+    private long readYourWritesMillis;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private PoolConfiguration() {
+    }
+
+    /**
+     * Loads the pool configuration from environment variables.
+     *
+     * @param env Environment variables.
+     * @return Concrete PoolConfiguration instance
+     */
+    static PoolConfiguration fromEnv(final Map<String, String> env) {
+        return new Builder()
+                .setInitialSize(Env.getInt(env, "DB_POOL_INITIAL_SIZE", DEFAULT_INITIAL_SIZE))
+                .setMaxTotal(Env.getInt(env, "DB_POOL_MAX_TOTAL", DEFAULT_MAX_TOTAL))
+                .setMaxIdle(Env.getInt(env, "DB_POOL_MAX_IDLE", DEFAULT_MAX_IDLE))
+                .setMinIdle(Env.getInt(env, "DB_POOL_MIN_IDLE", DEFAULT_MIN_IDLE))
+                .setMaxWaitMillis(Env.getLong(env, "DB_POOL_MAX_WAIT_MS", DEFAULT_MAX_WAIT_MILLIS))
+                .setValidationQuery(env.getOrDefault("DB_POOL_VALIDATION_QUERY", DEFAULT_VALIDATION_QUERY))
+                .setTestOnBorrow(Env.getBoolean(env, "DB_POOL_TEST_ON_BORROW", false))
+                .setTestWhileIdle(Env.getBoolean(env, "DB_POOL_TEST_WHILE_IDLE", true))
+                .setEvictionIntervalMillis(Env.getLong(env, "DB_POOL_EVICTION_INTERVAL_MS", DEFAULT_EVICTION_INTERVAL_MILLIS))
+                .setMinEvictableIdleMillis(Env.getLong(env, "DB_POOL_MIN_EVICTABLE_IDLE_MS", DEFAULT_MIN_EVICTABLE_IDLE_MILLIS))
+                .setLeakTimeoutSeconds(Env.getInt(env, "DB_POOL_LEAK_TIMEOUT_S", DEFAULT_LEAK_TIMEOUT_SECONDS))
+                .setExecutorThreads(Env.getInt(env, "DB_EXECUTOR_THREADS", 0))
+                .setExecutorQueueSize(Env.getInt(env, "DB_EXECUTOR_QUEUE_SIZE", DEFAULT_EXECUTOR_QUEUE_SIZE))
+                .setAsyncTimeoutMillis(Env.getLong(env, "DB_ASYNC_TIMEOUT_MS", DEFAULT_ASYNC_TIMEOUT_MILLIS))
+                .setReplicaRetryMillis(Env.getLong(env, "DB_REPLICA_RETRY_MS", DEFAULT_REPLICA_RETRY_MILLIS))
+                .setReadYourWritesMillis(Env.getLong(env, "DB_READ_YOUR_WRITES_MS", 0))
+                .build();
+    }
+
+    /**
+     * @return Number of connections opened when the pool starts.
+     */
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    /**
+     * @return Maximum number of connections, active and idle together.
+     */
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @return Maximum number of idle connections kept in the pool.
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * @return Minimum number of idle connections kept in the pool.
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * @return Milliseconds to wait for a connection before giving up, or -1 to wait indefinitely.
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @return Query used to validate connections.
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    /**
+     * @return Whether connections are validated before they are handed out.
+     */
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    /**
+     * @return Whether idle connections are validated by the evictor.
+     */
+    public boolean isTestWhileIdle() {
+        return testWhileIdle;
+    }
+
+    /**
+     * @return Milliseconds between evictor runs, or a value below 1 to disable the evictor.
+     */
+    public long getEvictionIntervalMillis() {
+        return evictionIntervalMillis;
+    }
+
+    /**
+     * @return Milliseconds a connection may be idle before the evictor closes it.
+     */
+    public long getMinEvictableIdleMillis() {
+        return minEvictableIdleMillis;
+    }
+
+    /**
+     * @return Seconds a connection may be borrowed before it is considered leaked, or 0 to disable leak detection.
+     */
+    public int getLeakTimeoutSeconds() {
+        return leakTimeoutSeconds;
+    }
+
+    /**
+     * Number of threads that run asynchronous queries. There is no use in having more threads than connections,
+     * so this defaults to the maximum size of the pool.
+     *
+     * @return Number of query executor threads.
+     */
+    public int getExecutorThreads() {
+        if (executorThreads <= 0) return maxTotal;
+        return executorThreads;
+    }
+
+    /**
+     * @return Number of asynchronous queries that may wait for a free executor thread before new ones are rejected.
+     */
+    public int getExecutorQueueSize() {
+        return executorQueueSize;
+    }
+
+    /**
+     * @return Milliseconds a request waits for an asynchronous query before it fails, or 0 to wait indefinitely.
+     */
+    public long getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
+    }
+
+    /**
+     * @return Milliseconds a read replica is skipped after a connection to it failed.
+     */
+    public long getReplicaRetryMillis() {
+        return replicaRetryMillis;
+    }
+
+    /**
+     * @return Milliseconds after a write during which reads go to the primary instead of a replica, or 0 to
+     * always read from replicas.
+     */
+    public long getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    /**
+     * Builder class for the pool configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private int initialSize = DEFAULT_INITIAL_SIZE;
+
+        private int maxTotal = DEFAULT_MAX_TOTAL;
+
+        private int maxIdle = DEFAULT_MAX_IDLE;
+
+        private int minIdle = DEFAULT_MIN_IDLE;
+
+        private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+        private String validationQuery = DEFAULT_VALIDATION_QUERY;
+
+        private boolean testOnBorrow = false;
+
+        private boolean testWhileIdle = true;
+
+        private long evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+
+        private long minEvictableIdleMillis = DEFAULT_MIN_EVICTABLE_IDLE_MILLIS;
+
+        private int leakTimeoutSeconds = DEFAULT_LEAK_TIMEOUT_SECONDS;
+
+        private int executorThreads = 0;
+
+        private int executorQueueSize = DEFAULT_EXECUTOR_QUEUE_SIZE;
+
+        private long asyncTimeoutMillis = DEFAULT_ASYNC_TIMEOUT_MILLIS;
+
+        private long replicaRetryMillis = DEFAULT_REPLICA_RETRY_MILLIS;
+
+        private long readYourWritesMillis = 0;
+
+        /**
+         * Sets the number of connections opened when the pool starts.
+         *
+         * @param newInitialSize Initial size
+         * @return Fluent interface
+         */
+        public Builder setInitialSize(final int newInitialSize) {
+            this.initialSize = newInitialSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections.
+         *
+         * @param newMaxTotal Maximum number of connections
+         * @return Fluent interface
+         */
+        public Builder setMaxTotal(final int newMaxTotal) {
+            this.maxTotal = newMaxTotal;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of idle connections.
+         *
+         * @param newMaxIdle Maximum number of idle connections
+         * @return Fluent interface
+         */
+        public Builder setMaxIdle(final int newMaxIdle) {
+            this.maxIdle = newMaxIdle;
+            return this;
+        }
+
+        /**
+         * Sets the minimum number of idle connections.
+         *
+         * @param newMinIdle Minimum number of idle connections
+         * @return Fluent interface
+         */
+        public Builder setMinIdle(final int newMinIdle) {
+            this.minIdle = newMinIdle;
+            return this;
+        }
+
+        /**
+         * Sets how long to wait for a connection.
+         *
+         * @param newMaxWaitMillis Milliseconds, or -1 to wait indefinitely
+         * @return Fluent interface
+         */
+        public Builder setMaxWaitMillis(final long newMaxWaitMillis) {
+            this.maxWaitMillis = newMaxWaitMillis;
+            return this;
+        }
+
+        /**
+         * Sets the query used to validate connections.
+         *
+         * @param newValidationQuery Validation query
+         * @return Fluent interface
+         */
+        public Builder setValidationQuery(final String newValidationQuery) {
+            this.validationQuery = newValidationQuery;
+            return this;
+        }
+
+        /**
+         * Sets whether connections are validated before they are handed out.
+         *
+         * @param newTestOnBorrow Validate on borrow
+         * @return Fluent interface
+         */
+        public Builder setTestOnBorrow(final boolean newTestOnBorrow) {
+            this.testOnBorrow = newTestOnBorrow;
+            return this;
+        }
+
+        /**
+         * Sets whether idle connections are validated by the evictor.
+         *
+         * @param newTestWhileIdle Validate while idle
+         * @return Fluent interface
+         */
+        public Builder setTestWhileIdle(final boolean newTestWhileIdle) {
+            this.testWhileIdle = newTestWhileIdle;
+            return this;
+        }
+
+        /**
+         * Sets the time between evictor runs.
+         *
+         * @param newEvictionIntervalMillis Milliseconds, or a value below 1 to disable the evictor
+         * @return Fluent interface
+         */
+        public Builder setEvictionIntervalMillis(final long newEvictionIntervalMillis) {
+            this.evictionIntervalMillis = newEvictionIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may be idle before it is evicted.
+         *
+         * @param newMinEvictableIdleMillis Milliseconds
+         * @return Fluent interface
+         */
+        public Builder setMinEvictableIdleMillis(final long newMinEvictableIdleMillis) {
+            this.minEvictableIdleMillis = newMinEvictableIdleMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may be borrowed before it is considered leaked.
+         *
+         * @param newLeakTimeoutSeconds Seconds, or 0 to disable leak detection
+         * @return Fluent interface
+         */
+        public Builder setLeakTimeoutSeconds(final int newLeakTimeoutSeconds) {
+            this.leakTimeoutSeconds = newLeakTimeoutSeconds;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that run asynchronous queries.
+         *
+         * @param newExecutorThreads Number of threads, or 0 to use the maximum size of the pool
+         * @return Fluent interface
+         */
+        public Builder setExecutorThreads(final int newExecutorThreads) {
+            this.executorThreads = newExecutorThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of asynchronous queries that may wait for an executor thread.
+         *
+         * @param newExecutorQueueSize Queue size
+         * @return Fluent interface
+         */
+        public Builder setExecutorQueueSize(final int newExecutorQueueSize) {
+            this.executorQueueSize = newExecutorQueueSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a request waits for an asynchronous query.
+         *
+         * @param newAsyncTimeoutMillis Milliseconds, or 0 to wait indefinitely
+         * @return Fluent interface
+         */
+        public Builder setAsyncTimeoutMillis(final long newAsyncTimeoutMillis) {
+            this.asyncTimeoutMillis = newAsyncTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a read replica is skipped after a connection to it failed.
+         *
+         * @param newReplicaRetryMillis Milliseconds
+         * @return Fluent interface
+         */
+        public Builder setReplicaRetryMillis(final long newReplicaRetryMillis) {
+            this.replicaRetryMillis = newReplicaRetryMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long reads go to the primary after a write.
+         *
+         * @param newReadYourWritesMillis Milliseconds, or 0 to always read from replicas
+         * @return Fluent interface
+         */
+        public Builder setReadYourWritesMillis(final long newReadYourWritesMillis) {
+            this.readYourWritesMillis = newReadYourWritesMillis;
+            return this;
+        }
+
+        /**
+         * Builds the pool configuration object.
+         *
+         * @return Concrete pool configuration object
+         */
+        public PoolConfiguration build() {
+            PoolConfiguration config = new PoolConfiguration();
+            config.initialSize = initialSize;
+            config.maxTotal = maxTotal;
+            config.maxIdle = maxIdle;
+            config.minIdle = minIdle;
+            config.maxWaitMillis = maxWaitMillis;
+            config.validationQuery = validationQuery;
+            config.testOnBorrow = testOnBorrow;
+            config.testWhileIdle = testWhileIdle;
+            config.evictionIntervalMillis = evictionIntervalMillis;
+            config.minEvictableIdleMillis = minEvictableIdleMillis;
+            config.leakTimeoutSeconds = leakTimeoutSeconds;
+            config.executorThreads = executorThreads;
+            config.executorQueueSize = executorQueueSize;
+            config.asyncTimeoutMillis = asyncTimeoutMillis;
+            config.replicaRetryMillis = replicaRetryMillis;
+            config.readYourWritesMillis = readYourWritesMillis;
+
+            return config;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of the rate limits per client and of the number of requests the server handles at once.
+ */
+public final class RateLimitConfiguration {
+
+    /**
+     * Route class of the latex documents of modules, which are built on every request.
+     */
+    public static final String ROUTE_PDF = "pdf";
+
+    /**
+     * Route class of the overviews of a layer and activity and of a complete semester, which read many tables.
+     */
+    public static final String ROUTE_OVERVIEW = "overview";
+
+    /**
+     * Route class of the export of every module document of a curriculum, which streams the whole curriculum.
+     */
+    public static final String ROUTE_EXPORT = "export";
+
+    /**
+     * Route class of every other read.
+     */
+    public static final String ROUTE_READ = "read";
+
+    /**
+     * Route class of the saves and imports.
+     */
+    public static final String ROUTE_WRITE = "write";
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 512;
+
+    private boolean enabled;
+
+    private boolean forwardedFor;
+
+    private int maxInFlight;
+
+    private Map<String, Limit> limits;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private RateLimitConfiguration() {
+    }
+
+    /**
+     * Loads the rate limit configuration from environment variables. The limits of the route classes are listed
+     * in <code>RATE_LIMITS</code> as <code>route=requests per second/burst</code>, separated by commas.
+     *
+     * @param env Environment variables.
+     * @return Concrete RateLimitConfiguration instance
+     */
+    static RateLimitConfiguration fromEnv(final Map<String, String> env) {
+        final Builder builder = new Builder()
+                .setEnabled(Env.getBoolean(env, "RATE_LIMIT_ENABLED", true))
+                .setForwardedFor(Env.getBoolean(env, "RATE_LIMIT_FORWARDED_FOR", false))
+                .setMaxInFlight(Env.getInt(env, "RATE_LIMIT_MAX_IN_FLIGHT", DEFAULT_MAX_IN_FLIGHT));
+        for (String entry : Env.getList(env, "RATE_LIMITS")) {
+            final int separator = entry.indexOf('=');
+            final int slash = entry.indexOf('/', separator);
+            if (separator <= 0 || slash < 0) throw new IllegalArgumentException("Invalid rate limit: " + entry);
+            builder.setLimit(entry.substring(0, separator).trim(),
+                    Double.parseDouble(entry.substring(separator + 1, slash).trim()),
+                    Integer.parseInt(entry.substring(slash + 1).trim()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Whether requests are limited at all.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Whether a client is known by the first address in the <code>X-Forwarded-For</code> header, which
+     * is only safe behind a proxy that sets it.
+     */
+    public boolean isForwardedFor() {
+        return forwardedFor;
+    }
+
+    /**
+     * @return Number of requests the server handles at once before it sheds new ones, or 0 for no limit.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Get the limit of a route class.
+     *
+     * @param route The route class, such as {@value #ROUTE_PDF}.
+     * @return The limit, or null if the route class is not limited.
+     */
+    public Limit getLimit(final String route) {
+        return limits.get(route);
+    }
+
+    /**
+     * A token bucket: a client may send a burst of requests at once, and then as many requests per second as the
+     * bucket fills up.
+     */
+    public static final class Limit {
+
+        private final double perSecond;
+
+        private final int burst;
+
+        /**
+         * Constructor.
+         *
+         * @param perSecond Requests per second.
+         * @param burst     Requests a client may send at once.
+         */
+        Limit(final double perSecond, final int burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        /**
+         * @return Requests per second.
+         */
+        public double getPerSecond() {
+            return perSecond;
+        }
+
+        /**
+         * @return Requests a client may send at once.
+         */
+        public int getBurst() {
+            return burst;
+        }
+    }
+
+    /**
+     * Builder class for the rate limit configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private boolean enabled = true;
+
+        private boolean forwardedFor;
+
+        private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+        private final Map<String, Limit> limits = new HashMap<>();
+
+        /**
+         * Constructor, with the default limits of the route classes.
+         */
+        public Builder() {
+            limits.put(ROUTE_PDF, new Limit(2, 10));
+            limits.put(ROUTE_OVERVIEW, new Limit(5, 20));
+            limits.put(ROUTE_EXPORT, new Limit(1, 5));
+            limits.put(ROUTE_READ, new Limit(50, 100));
+            limits.put(ROUTE_WRITE, new Limit(5, 20));
+        }
+
+        /**
+         * Sets whether requests are limited at all.
+         *
+         * @param newEnabled True to limit requests
+         * @return Fluent interface
+         */
+        public Builder setEnabled(final boolean newEnabled) {
+            this.enabled = newEnabled;
+            return this;
+        }
+
+        /**
+         * Sets whether a client is known by the first address in the <code>X-Forwarded-For</code> header.
+         *
+         * @param newForwardedFor True to trust the header, which is only safe behind a proxy that sets it
+         * @return Fluent interface
+         */
+        public Builder setForwardedFor(final boolean newForwardedFor) {
+            this.forwardedFor = newForwardedFor;
+            return this;
+        }
+
+        /**
+         * Sets the number of requests the server handles at once.
+         *
+         * @param newMaxInFlight Number of requests, or 0 for no limit
+         * @return Fluent interface
+         */
+        public Builder setMaxInFlight(final int newMaxInFlight) {
+            this.maxInFlight = newMaxInFlight;
+            return this;
+        }
+
+        /**
+         * Sets the limit of a route class.
+         *
+         * @param route        The route class
+         * @param newPerSecond Requests per second, or 0 to not limit the route class
+         * @param newBurst     Requests a client may send at once
+         * @return Fluent interface
+         * @throws IllegalArgumentException if the route class is not known, or the burst is less than 1.
+         */
+        public Builder setLimit(final String route, final double newPerSecond, final int newBurst) {
+            if (!ROUTE_PDF.equals(route) && !ROUTE_OVERVIEW.equals(route) && !ROUTE_EXPORT.equals(route) &&
+                    !ROUTE_READ.equals(route) && !ROUTE_WRITE.equals(route)) {
+                throw new IllegalArgumentException("Unknown route class: " + route);
+            }
+            if (newPerSecond <= 0) {
+                limits.remove(route);
+                return this;
+            }
+            if (newBurst < 1) throw new IllegalArgumentException("Burst must be at least 1: " + newBurst);
+            limits.put(route, new Limit(newPerSecond, newBurst));
+            return this;
+        }
+
+        /**
+         * Builds the rate limit configuration object.
+         *
+         * @return Concrete rate limit configuration object
+         */
+        public RateLimitConfiguration build() {
+            RateLimitConfiguration config = new RateLimitConfiguration();
+            config.enabled = enabled;
+            config.forwardedFor = forwardedFor;
+            config.maxInFlight = maxInFlight;
+            config.limits = new HashMap<>(limits);
+
+            return config;
+        }
+    }
+}
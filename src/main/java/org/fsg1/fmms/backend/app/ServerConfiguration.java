@@ -0,0 +1,383 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.Map;
+
+/**
+ * Settings of the Grizzly HTTP server: its worker threads, its transport and the size of requests.
+ */
+public final class ServerConfiguration {
+
+    /**
+     * Rejection policy that closes the connection of a request that does not fit in the queue of the workers.
+     */
+    public static final String REJECT_ABORT = "abort";
+
+    /**
+     * Rejection policy that handles a request that does not fit in the queue of the workers on the selector thread
+     * that received it, so the server stops reading new requests until a worker is free.
+     */
+    public static final String REJECT_CALLER_RUNS = "caller-runs";
+
+    private static final int DEFAULT_WORKER_QUEUE_SIZE = -1;
+
+    private static final int DEFAULT_KEEP_ALIVE_IDLE_SECONDS = 30;
+
+    private static final int DEFAULT_KEEP_ALIVE_MAX_REQUESTS = 256;
+
+    private static final int DEFAULT_BACKLOG = 4096;
+
+    private static final int DEFAULT_MAX_HEADER_SIZE = 8192;
+
+    private boolean virtualThreads;
+
+    private int workerThreads;
+
+    private int workerQueueSize;
+
+    private String rejectionPolicy;
+
+    private int selectorThreads;
+
+    private int keepAliveIdleSeconds;
+
+    private int keepAliveMaxRequests;
+
+    private boolean tcpNoDelay;
+
+    private int readBufferSize;
+
+    private int writeBufferSize;
+
+    private int backlog;
+
+    private int maxHeaderSize;
+
+    private long maxBodyBytes;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private ServerConfiguration() {
+    }
+
+    /**
+     * Loads the server configuration from environment variables.
+     *
+     * @param env Environment variables.
+     * @return Concrete ServerConfiguration instance
+     */
+    static ServerConfiguration fromEnv(final Map<String, String> env) {
+        return new Builder()
+                .setVirtualThreads(Env.getBoolean(env, "SERVER_VIRTUAL_THREADS", false))
+                .setWorkerThreads(Env.getInt(env, "SERVER_WORKER_THREADS", 0))
+                .setWorkerQueueSize(Env.getInt(env, "SERVER_WORKER_QUEUE_SIZE", DEFAULT_WORKER_QUEUE_SIZE))
+                .setRejectionPolicy(env.getOrDefault("SERVER_WORKER_REJECTION", REJECT_ABORT).trim())
+                .setSelectorThreads(Env.getInt(env, "SERVER_SELECTOR_THREADS", 0))
+                .setKeepAliveIdleSeconds(Env.getInt(env, "SERVER_KEEP_ALIVE_IDLE_S", DEFAULT_KEEP_ALIVE_IDLE_SECONDS))
+                .setKeepAliveMaxRequests(Env.getInt(env, "SERVER_KEEP_ALIVE_MAX_REQUESTS", DEFAULT_KEEP_ALIVE_MAX_REQUESTS))
+                .setTcpNoDelay(Env.getBoolean(env, "SERVER_TCP_NO_DELAY", true))
+                .setReadBufferSize(Env.getInt(env, "SERVER_READ_BUFFER_SIZE", 0))
+                .setWriteBufferSize(Env.getInt(env, "SERVER_WRITE_BUFFER_SIZE", 0))
+                .setBacklog(Env.getInt(env, "SERVER_BACKLOG", DEFAULT_BACKLOG))
+                .setMaxHeaderSize(Env.getInt(env, "SERVER_MAX_HEADER_SIZE", DEFAULT_MAX_HEADER_SIZE))
+                .setMaxBodyBytes(Env.getLong(env, "SERVER_MAX_BODY_BYTES", 0))
+                .build();
+    }
+
+    /**
+     * @return Whether every request is handled on a new virtual thread, which needs Java 21. The worker threads,
+     * the queue and the rejection policy do not apply then.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return Number of threads that handle requests, or 0 to use the worker pool of Grizzly.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @return Number of requests that may wait for a worker, or -1 for no limit.
+     */
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    /**
+     * @return What happens to a request that does not fit in the queue: {@value #REJECT_ABORT} or
+     * {@value #REJECT_CALLER_RUNS}.
+     */
+    public String getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * @return Number of threads that accept connections and read requests, or 0 for one per processor.
+     */
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * @return Seconds an idle connection is kept open, or -1 to keep it open indefinitely.
+     */
+    public int getKeepAliveIdleSeconds() {
+        return keepAliveIdleSeconds;
+    }
+
+    /**
+     * @return Number of requests a connection may send before it is closed, or -1 for no limit.
+     */
+    public int getKeepAliveMaxRequests() {
+        return keepAliveMaxRequests;
+    }
+
+    /**
+     * @return Whether responses are sent without waiting to fill a packet.
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @return Size in bytes of the read buffer of a connection, or 0 to keep the default of the system.
+     */
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * @return Size in bytes of the write buffer of a connection, or 0 to keep the default of the system.
+     */
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * @return Number of connections that may wait to be accepted.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return Maximum size in bytes of the request line and headers of a request.
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * @return Maximum size in bytes of a request body other than that of the bulk import, or 0 for no limit.
+     */
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * Builder class for the server configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private boolean virtualThreads;
+
+        private int workerThreads;
+
+        private int workerQueueSize = DEFAULT_WORKER_QUEUE_SIZE;
+
+        private String rejectionPolicy = REJECT_ABORT;
+
+        private int selectorThreads;
+
+        private int keepAliveIdleSeconds = DEFAULT_KEEP_ALIVE_IDLE_SECONDS;
+
+        private int keepAliveMaxRequests = DEFAULT_KEEP_ALIVE_MAX_REQUESTS;
+
+        private boolean tcpNoDelay = true;
+
+        private int readBufferSize;
+
+        private int writeBufferSize;
+
+        private int backlog = DEFAULT_BACKLOG;
+
+        private int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+
+        private long maxBodyBytes;
+
+        /**
+         * Sets whether every request is handled on a new virtual thread.
+         *
+         * @param newVirtualThreads True to use virtual threads, which needs Java 21
+         * @return Fluent interface
+         */
+        public Builder setVirtualThreads(final boolean newVirtualThreads) {
+            this.virtualThreads = newVirtualThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that handle requests.
+         *
+         * @param newWorkerThreads Number of threads, or 0 to use the worker pool of Grizzly
+         * @return Fluent interface
+         */
+        public Builder setWorkerThreads(final int newWorkerThreads) {
+            this.workerThreads = newWorkerThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of requests that may wait for a worker.
+         *
+         * @param newWorkerQueueSize Number of requests, or -1 for no limit
+         * @return Fluent interface
+         */
+        public Builder setWorkerQueueSize(final int newWorkerQueueSize) {
+            this.workerQueueSize = newWorkerQueueSize;
+            return this;
+        }
+
+        /**
+         * Sets what happens to a request that does not fit in the queue of the workers.
+         *
+         * @param newRejectionPolicy {@value #REJECT_ABORT} or {@value #REJECT_CALLER_RUNS}
+         * @return Fluent interface
+         * @throws IllegalArgumentException if the policy is not known.
+         */
+        public Builder setRejectionPolicy(final String newRejectionPolicy) {
+            if (!REJECT_ABORT.equals(newRejectionPolicy) && !REJECT_CALLER_RUNS.equals(newRejectionPolicy)) {
+                throw new IllegalArgumentException("Unknown rejection policy: " + newRejectionPolicy);
+            }
+            this.rejectionPolicy = newRejectionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that accept connections and read requests.
+         *
+         * @param newSelectorThreads Number of threads, or 0 for one per processor
+         * @return Fluent interface
+         */
+        public Builder setSelectorThreads(final int newSelectorThreads) {
+            this.selectorThreads = newSelectorThreads;
+            return this;
+        }
+
+        /**
+         * Sets the time an idle connection is kept open.
+         *
+         * @param newKeepAliveIdleSeconds Seconds, or -1 to keep idle connections open indefinitely
+         * @return Fluent interface
+         */
+        public Builder setKeepAliveIdleSeconds(final int newKeepAliveIdleSeconds) {
+            this.keepAliveIdleSeconds = newKeepAliveIdleSeconds;
+            return this;
+        }
+
+        /**
+         * Sets the number of requests a connection may send before it is closed.
+         *
+         * @param newKeepAliveMaxRequests Number of requests, or -1 for no limit
+         * @return Fluent interface
+         */
+        public Builder setKeepAliveMaxRequests(final int newKeepAliveMaxRequests) {
+            this.keepAliveMaxRequests = newKeepAliveMaxRequests;
+            return this;
+        }
+
+        /**
+         * Sets whether responses are sent without waiting to fill a packet.
+         *
+         * @param newTcpNoDelay True to disable Nagle's algorithm
+         * @return Fluent interface
+         */
+        public Builder setTcpNoDelay(final boolean newTcpNoDelay) {
+            this.tcpNoDelay = newTcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Sets the size of the read buffer of a connection.
+         *
+         * @param newReadBufferSize Bytes, or 0 to keep the default of the system
+         * @return Fluent interface
+         */
+        public Builder setReadBufferSize(final int newReadBufferSize) {
+            this.readBufferSize = newReadBufferSize;
+            return this;
+        }
+
+        /**
+         * Sets the size of the write buffer of a connection.
+         *
+         * @param newWriteBufferSize Bytes, or 0 to keep the default of the system
+         * @return Fluent interface
+         */
+        public Builder setWriteBufferSize(final int newWriteBufferSize) {
+            this.writeBufferSize = newWriteBufferSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of connections that may wait to be accepted.
+         *
+         * @param newBacklog Number of connections
+         * @return Fluent interface
+         */
+        public Builder setBacklog(final int newBacklog) {
+            this.backlog = newBacklog;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the request line and headers of a request.
+         *
+         * @param newMaxHeaderSize Bytes
+         * @return Fluent interface
+         */
+        public Builder setMaxHeaderSize(final int newMaxHeaderSize) {
+            this.maxHeaderSize = newMaxHeaderSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a request body with a length.
+         *
+         * @param newMaxBodyBytes Bytes, or 0 for no limit
+         * @return Fluent interface
+         */
+        public Builder setMaxBodyBytes(final long newMaxBodyBytes) {
+            this.maxBodyBytes = newMaxBodyBytes;
+            return this;
+        }
+
+        /**
+         * Builds the server configuration object.
+         *
+         * @return Concrete server configuration object
+         */
+        public ServerConfiguration build() {
+            ServerConfiguration config = new ServerConfiguration();
+            config.virtualThreads = virtualThreads;
+            config.workerThreads = workerThreads;
+            config.workerQueueSize = workerQueueSize;
+            config.rejectionPolicy = rejectionPolicy;
+            config.selectorThreads = selectorThreads;
+            config.keepAliveIdleSeconds = keepAliveIdleSeconds;
+            config.keepAliveMaxRequests = keepAliveMaxRequests;
+            config.tcpNoDelay = tcpNoDelay;
+            config.readBufferSize = readBufferSize;
+            config.writeBufferSize = writeBufferSize;
+            config.backlog = backlog;
+            config.maxHeaderSize = maxHeaderSize;
+            config.maxBodyBytes = maxBodyBytes;
+
+            return config;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.Map;
+
+/**
+ * Settings of the slow-query log.
+ */
+public final class SlowQueryConfiguration {
+
+    private static final long DEFAULT_THRESHOLD_MILLIS = 500;
+
+    private static final long DEFAULT_EXPLAIN_INTERVAL_MILLIS = 60000;
+
+    private static final long DEFAULT_EXPLAIN_TIMEOUT_MILLIS = 10000;
+
+    private static final int DEFAULT_PLANS = 20;
+
+    private long thresholdMillis;
+
+    private long explainIntervalMillis;
+
+    private long explainTimeoutMillis;
+
+    private int plans;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private SlowQueryConfiguration() {
+    }
+
+    /**
+     * Loads the slow-query configuration from environment variables.
+     *
+     * @param env Environment variables.
+     * @return Concrete SlowQueryConfiguration instance
+     */
+    static SlowQueryConfiguration fromEnv(final Map<String, String> env) {
+        return new Builder()
+                .setThresholdMillis(Env.getLong(env, "SLOW_QUERY_MS", DEFAULT_THRESHOLD_MILLIS))
+                .setExplainIntervalMillis(Env.getLong(env, "SLOW_QUERY_EXPLAIN_INTERVAL_MS", DEFAULT_EXPLAIN_INTERVAL_MILLIS))
+                .setExplainTimeoutMillis(Env.getLong(env, "SLOW_QUERY_EXPLAIN_TIMEOUT_MS", DEFAULT_EXPLAIN_TIMEOUT_MILLIS))
+                .setPlans(Env.getInt(env, "SLOW_QUERY_PLANS", DEFAULT_PLANS))
+                .build();
+    }
+
+    /**
+     * @return Milliseconds after which a read counts as slow, or 0 to disable the slow-query log.
+     */
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    /**
+     * @return Minimum number of milliseconds between two captured plans, or -1 to never capture plans.
+     */
+    public long getExplainIntervalMillis() {
+        return explainIntervalMillis;
+    }
+
+    /**
+     * @return Statement timeout in milliseconds of a captured plan, which executes the query again, or 0 for no
+     * timeout.
+     */
+    public long getExplainTimeoutMillis() {
+        return explainTimeoutMillis;
+    }
+
+    /**
+     * @return Number of slow queries that are kept with their plans.
+     */
+    public int getPlans() {
+        return plans;
+    }
+
+    /**
+     * Builder class for the slow-query configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private long thresholdMillis = DEFAULT_THRESHOLD_MILLIS;
+
+        private long explainIntervalMillis = DEFAULT_EXPLAIN_INTERVAL_MILLIS;
+
+        private long explainTimeoutMillis = DEFAULT_EXPLAIN_TIMEOUT_MILLIS;
+
+        private int plans = DEFAULT_PLANS;
+
+        /**
+         * Sets the time after which a read counts as slow.
+         *
+         * @param newThresholdMillis Milliseconds, or 0 to disable the slow-query log
+         * @return Fluent interface
+         */
+        public Builder setThresholdMillis(final long newThresholdMillis) {
+            this.thresholdMillis = newThresholdMillis;
+            return this;
+        }
+
+        /**
+         * Sets the minimum time between two captured plans.
+         *
+         * @param newExplainIntervalMillis Milliseconds, or -1 to never capture plans
+         * @return Fluent interface
+         */
+        public Builder setExplainIntervalMillis(final long newExplainIntervalMillis) {
+            this.explainIntervalMillis = newExplainIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets the statement timeout of a captured plan.
+         *
+         * @param newExplainTimeoutMillis Milliseconds, or 0 for no timeout
+         * @return Fluent interface
+         */
+        public Builder setExplainTimeoutMillis(final long newExplainTimeoutMillis) {
+            this.explainTimeoutMillis = newExplainTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets the number of slow queries that are kept with their plans.
+         *
+         * @param newPlans Number of slow queries
+         * @return Fluent interface
+         */
+        public Builder setPlans(final int newPlans) {
+            this.plans = newPlans;
+            return this;
+        }
+
+        /**
+         * Builds the slow-query configuration object.
+         *
+         * @return Concrete slow-query configuration object
+         */
+        public SlowQueryConfiguration build() {
+            SlowQueryConfiguration config = new SlowQueryConfiguration();
+            config.thresholdMillis = thresholdMillis;
+            config.explainIntervalMillis = explainIntervalMillis;
+            config.explainTimeoutMillis = explainTimeoutMillis;
+            config.plans = plans;
+
+            return config;
+        }
+    }
+}
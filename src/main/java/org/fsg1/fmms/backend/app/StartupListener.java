@@ -0,0 +1,81 @@
+package org.fsg1.fmms.backend.app;
+
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.Migrations;
+import org.fsg1.fmms.backend.database.Migrator;
+import org.fsg1.fmms.backend.services.ModulesService;
+import org.fsg1.fmms.backend.services.MonitoringService;
+import org.fsg1.fmms.backend.services.SnapshotService;
+import org.glassfish.jersey.internal.inject.InjectionManager;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+/**
+ * Prepares the database when the application starts, before requests are served.
+ */
+public final class StartupListener implements ContainerLifecycleListener {
+
+    /**
+     * Apply the pending schema migrations, which create the tables of the read model and the indexes the services
+     * rely on, fill the read model if modules are missing from it, render the snapshots of the public catalog and
+     * warm the server up. The server still starts if this fails, for instance because the database is not reachable
+     * yet: reads then build documents from the normalized tables, and saves fail until the tables exist. Only then
+     * does the server report that it is ready.
+     *
+     * @param container The container that started.
+     */
+    @Override
+    public void onStartup(final Container container) {
+        final InjectionManager injectionManager = container.getApplicationHandler().getInjectionManager();
+        final Connection connection = injectionManager.getInstance(Connection.class);
+        try {
+            new Migrator(connection).migrate(Migrations.all());
+        } catch (Exception e) {
+            System.err.println("Could not migrate the database: " + e.toString());
+        }
+
+        try {
+            final long start = System.nanoTime();
+            final int built = injectionManager.getInstance(ModulesService.class).buildMissingDocuments();
+            if (built > 0) {
+                System.out.println("Built " + built + " module documents in " +
+                        (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        } catch (Exception e) {
+            System.err.println("Could not build the module documents: " + e.toString());
+        }
+
+        try {
+            final long start = System.nanoTime();
+            final int rendered = injectionManager.getInstance(SnapshotService.class).start();
+            if (rendered > 0) {
+                System.out.println("Rendered " + rendered + " snapshots in " +
+                        (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        } catch (Exception e) {
+            System.err.println("Could not render the snapshots: " + e.toString());
+        }
+
+        final Configuration config = injectionManager.getInstance(Configuration.class);
+        final long warmUpMillis = new WarmUp(config.getWarmUp(), connection, container.getApplicationHandler()).run();
+        injectionManager.getInstance(MonitoringService.class).markReady(warmUpMillis);
+    }
+
+    /**
+     * Nothing to do on a reload.
+     *
+     * @param container The container that reloaded.
+     */
+    @Override
+    public void onReload(final Container container) {
+    }
+
+    /**
+     * Nothing to do on shutdown.
+     *
+     * @param container The container that shut down.
+     */
+    @Override
+    public void onShutdown(final Container container) {
+    }
+}
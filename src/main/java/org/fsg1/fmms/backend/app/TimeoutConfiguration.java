@@ -0,0 +1,105 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of the statement timeouts of reads.
+ */
+public final class TimeoutConfiguration {
+
+    private static final long DEFAULT_MILLIS = 30000;
+
+    private long defaultMillis;
+
+    private Map<String, Long> queryMillis;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private TimeoutConfiguration() {
+    }
+
+    /**
+     * Loads the timeout configuration from environment variables. The timeouts of single queries are listed in
+     * <code>DB_STATEMENT_TIMEOUTS</code> as <code>name=milliseconds</code>, separated by commas.
+     *
+     * @param env Environment variables.
+     * @return Concrete TimeoutConfiguration instance
+     */
+    static TimeoutConfiguration fromEnv(final Map<String, String> env) {
+        final Builder builder = new Builder()
+                .setDefaultMillis(Env.getLong(env, "DB_STATEMENT_TIMEOUT_MS", DEFAULT_MILLIS));
+        for (String entry : Env.getList(env, "DB_STATEMENT_TIMEOUTS")) {
+            final int separator = entry.indexOf('=');
+            if (separator <= 0) throw new IllegalArgumentException("Invalid statement timeout: " + entry);
+            builder.setQueryMillis(entry.substring(0, separator).trim(),
+                    Long.parseLong(entry.substring(separator + 1).trim()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Milliseconds a read may take when no timeout is set for its query, or 0 to not limit reads.
+     */
+    public long getDefaultMillis() {
+        return defaultMillis;
+    }
+
+    /**
+     * Get the timeout of a query.
+     *
+     * @param name Name of the query, such as <code>ModulesService.moduleInformation</code>.
+     * @return Milliseconds the query may take, or 0 if it is not limited.
+     */
+    public long getMillis(final String name) {
+        return queryMillis.getOrDefault(name, defaultMillis);
+    }
+
+    /**
+     * Builder class for the timeout configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private long defaultMillis = DEFAULT_MILLIS;
+
+        private final Map<String, Long> queryMillis = new HashMap<>();
+
+        /**
+         * Sets the time a read may take when no timeout is set for its query.
+         *
+         * @param newDefaultMillis Milliseconds, or 0 to not limit reads
+         * @return Fluent interface
+         */
+        public Builder setDefaultMillis(final long newDefaultMillis) {
+            this.defaultMillis = newDefaultMillis;
+            return this;
+        }
+
+        /**
+         * Sets the time a single query may take.
+         *
+         * @param name      Name of the query
+         * @param newMillis Milliseconds, or 0 to not limit the query
+         * @return Fluent interface
+         */
+        public Builder setQueryMillis(final String name, final long newMillis) {
+            this.queryMillis.put(name, newMillis);
+            return this;
+        }
+
+        /**
+         * Builds the timeout configuration object.
+         *
+         * @return Concrete timeout configuration object
+         */
+        public TimeoutConfiguration build() {
+            TimeoutConfiguration config = new TimeoutConfiguration();
+            config.defaultMillis = defaultMillis;
+            config.queryMillis = new HashMap<>(queryMillis);
+
+            return config;
+        }
+    }
+}
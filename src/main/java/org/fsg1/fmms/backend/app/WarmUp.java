@@ -0,0 +1,87 @@
+package org.fsg1.fmms.backend.app;
+
+import org.fsg1.fmms.backend.database.Connection;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the server up before it reports that it is ready, so the first users do not pay for it. It opens the
+ * minimum number of database connections, prepares every named query on them, and replays a number of
+ * representative GET requests in-process, which fills the result cache and lets the JIT compile the request path.
+ */
+final class WarmUp {
+    private static final URI BASE_URI = URI.create("http://localhost/");
+
+    private final WarmUpConfiguration config;
+
+    private final Connection connection;
+
+    private final ApplicationHandler handler;
+
+    /**
+     * Constructor.
+     *
+     * @param config     Warm-up configuration.
+     * @param connection Connection to the database.
+     * @param handler    The application the requests are replayed on.
+     */
+    WarmUp(final WarmUpConfiguration config, final Connection connection, final ApplicationHandler handler) {
+        this.config = config;
+        this.connection = connection;
+        this.handler = handler;
+    }
+
+    /**
+     * Run the warm-up. A step that fails is logged and skipped; the warm-up itself never fails.
+     *
+     * @return The number of milliseconds the warm-up took.
+     */
+    long run() {
+        final long start = System.nanoTime();
+        int prepared = 0;
+        try {
+            prepared = connection.primePools();
+        } catch (SQLException e) {
+            System.err.println("Could not prime the connection pools: " + e.toString());
+        }
+
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMillis());
+        int replayed = 0;
+        for (String path : config.getPaths()) {
+            if (replay(path, deadline)) replayed++;
+        }
+
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Warm-up took " + millis + " ms: prepared " + prepared + " statements, replayed " +
+                replayed + " of " + config.getPaths().size() + " requests");
+        return millis;
+    }
+
+    /**
+     * Replay a GET request and wait for its response.
+     *
+     * @param path     Path of the request, relative to the base of the server.
+     * @param deadline Value of <code>System.nanoTime()</code> after which the warm-up stops waiting.
+     * @return Whether the request succeeded in time.
+     */
+    private boolean replay(final String path, final long deadline) {
+        final ContainerRequest request = new ContainerRequest(BASE_URI, BASE_URI.resolve(path), "GET", null,
+                new MapPropertiesDelegate());
+        try {
+            final ContainerResponse response = handler.apply(request, new ByteArrayOutputStream())
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (response.getStatus() == 200) return true;
+            System.err.println("Warm-up request " + path + " returned " + response.getStatus());
+        } catch (Exception e) {
+            System.err.println("Warm-up request " + path + " failed: " + e.toString());
+        }
+        return false;
+    }
+}
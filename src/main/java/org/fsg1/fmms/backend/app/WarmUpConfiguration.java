@@ -0,0 +1,101 @@
+package org.fsg1.fmms.backend.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of the warm-up that runs at startup, before the server reports that it is ready.
+ */
+public final class WarmUpConfiguration {
+
+    private static final List<String> DEFAULT_PATHS = Collections.unmodifiableList(Arrays.asList(
+            "curricula", "qualifications"));
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private List<String> paths;
+
+    private long timeoutMillis;
+
+    /**
+     * Private constructor.
+     * Class cannot be instantiated directly
+     */
+    private WarmUpConfiguration() {
+    }
+
+    /**
+     * Loads the warm-up configuration from environment variables.
+     *
+     * @param env Environment variables.
+     * @return Concrete WarmUpConfiguration instance
+     */
+    static WarmUpConfiguration fromEnv(final Map<String, String> env) {
+        final Builder builder = new Builder()
+                .setTimeoutMillis(Env.getLong(env, "WARM_UP_TIMEOUT_MS", DEFAULT_TIMEOUT_MILLIS));
+        if (env.containsKey("WARM_UP_PATHS")) builder.setPaths(Env.getList(env, "WARM_UP_PATHS"));
+        return builder.build();
+    }
+
+    /**
+     * @return Paths of the GET requests that are replayed, relative to the base of the server.
+     */
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @return Maximum number of milliseconds the replayed requests may take together.
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Builder class for the warm-up configuration. Every setting starts at its default.
+     */
+    public static final class Builder {
+
+        private List<String> paths = DEFAULT_PATHS;
+
+        private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+        /**
+         * Sets the GET requests that are replayed, such as <code>curriculum/1/semesters</code>.
+         *
+         * @param newPaths Paths relative to the base of the server, or an empty list to replay nothing
+         * @return Fluent interface
+         */
+        public Builder setPaths(final List<String> newPaths) {
+            this.paths = Collections.unmodifiableList(new ArrayList<>(newPaths));
+            return this;
+        }
+
+        /**
+         * Sets the maximum time the replayed requests may take together.
+         *
+         * @param newTimeoutMillis Milliseconds
+         * @return Fluent interface
+         */
+        public Builder setTimeoutMillis(final long newTimeoutMillis) {
+            this.timeoutMillis = newTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Builds the warm-up configuration object.
+         *
+         * @return Concrete warm-up configuration object
+         */
+        public WarmUpConfiguration build() {
+            WarmUpConfiguration config = new WarmUpConfiguration();
+            config.paths = paths;
+            config.timeoutMillis = timeoutMillis;
+
+            return config;
+        }
+    }
+}
@@ -2,24 +2,104 @@ package org.fsg1.fmms.backend.database;
 
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.app.PoolConfiguration;
+import org.fsg1.fmms.backend.app.SlowQueryConfiguration;
+import org.fsg1.fmms.backend.app.TimeoutConfiguration;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.fsg1.fmms.backend.metrics.QueryStats;
 import org.fsg1.fmms.backend.services.TransactionRunner;
+import org.fsg1.fmms.backend.util.DaemonThreads;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * The class used for connecting with the Database. It uses the JDBC Driver.
  */
 public final class Connection {
+    /**
+     * Number of executions after which the PostgreSQL driver switches a statement to a named server-side
+     * prepared statement. A threshold of 1 keeps the pooled statements parsed and planned on the server from
+     * their first execution.
+     */
+    private static final int PREPARE_THRESHOLD = 1;
+
+    /**
+     * Maximum number of pooled prepared statements per connection. This is well above the number of distinct
+     * statements the services use, so statements are never evicted.
+     */
+    private static final int MAX_OPEN_PREPARED_STATEMENTS = 64;
+
+    /**
+     * Driver properties. Next to the prepare threshold, the driver is told to rewrite batched inserts into
+     * multi-row inserts, so a batch of inserts costs a single round trip.
+     */
+    private static final String CONNECTION_PROPERTIES = "prepareThreshold=" + PREPARE_THRESHOLD +
+            ";reWriteBatchedInserts=true";
+
+    /**
+     * Number of bytes of rows that are buffered before they are sent to the database during a copy.
+     */
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    /**
+     * Number of rows a streamed query fetches from its cursor at a time.
+     */
+    private static final int STREAM_FETCH_SIZE = 100;
+
+    private final StatementCache statementCache = new StatementCache();
+
+    private final PoolMonitor poolMonitor;
+
+    private final ReplicaSet replicaSet;
+
+    private final ResultCache resultCache;
+
+    private final TagVersions tagVersions = new TagVersions();
+
+    private final SnapshotStore snapshots;
+
+    private final SingleFlight singleFlight;
+
+    private final SlowQueryLog slowQueryLog;
+
+    private final ExecutorService explainExecutor;
+
+    private final ExecutorService queryExecutor;
+
+    private final long asyncTimeoutMillis;
+
+    private final TimeoutConfiguration timeouts;
+
+    private final int minConnections;
+
     private BasicDataSource connectionPool;
 
     /**
-     * The constructor. It immediately connects to the database. Uses a connection pool with an
-     * initial size of 2.
+     * The constructor. It immediately connects to the database. The pool is sized, validated and evicted
+     * according to the pool settings of the configuration. Prepared statements are pooled per connection and
+     * kept prepared on the server. Every read replica of the configuration gets a pool with the same settings.
      *
      * @param config         Active server configuration.
      * @param connectionPool The connection pool to obtain Connections from.
@@ -27,12 +107,84 @@ public final class Connection {
      */
     @Inject
     public Connection(final Configuration config, final BasicDataSource connectionPool) throws SQLException {
+        this(config, connectionPool, BasicDataSource::new);
+    }
+
+    /**
+     * Constructor that takes the pools of the read replicas from a supplier.
+     *
+     * @param config         Active server configuration.
+     * @param connectionPool The connection pool of the primary database.
+     * @param replicaPools   Supplier of a new connection pool for every read replica.
+     * @throws SQLException if the database connection closed or the query was malformed.
+     */
+    Connection(final Configuration config,
+               final BasicDataSource connectionPool,
+               final Supplier<BasicDataSource> replicaPools) throws SQLException {
+        final PoolConfiguration poolConfig = config.getPool();
         this.connectionPool = connectionPool;
-        this.connectionPool.setUsername(config.getDbUser());
-        this.connectionPool.setPassword(config.getDbPassword());
-        this.connectionPool.setUrl(config.getDbString());
-        this.connectionPool.setDriverClassName("org.postgresql.Driver");
-        this.connectionPool.setInitialSize(2);
+        configurePool(connectionPool, config.getDbString(), config);
+        this.poolMonitor = new PoolMonitor(connectionPool, poolConfig.getLeakTimeoutSeconds());
+
+        final List<ReplicaSet.Replica> replicas = new ArrayList<>();
+        for (String url : config.getReplicaDbStrings()) {
+            final BasicDataSource replicaPool = replicaPools.get();
+            configurePool(replicaPool, url, config);
+            replicas.add(new ReplicaSet.Replica(url, new PoolMonitor(replicaPool, poolConfig.getLeakTimeoutSeconds())));
+        }
+        this.replicaSet = new ReplicaSet(replicas, poolConfig.getReplicaRetryMillis(), poolConfig.getReadYourWritesMillis());
+
+        final int threads = Math.max(1, poolConfig.getExecutorThreads());
+        this.queryExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, poolConfig.getExecutorQueueSize())),
+                DaemonThreads.numbered("db-query"));
+        this.asyncTimeoutMillis = poolConfig.getAsyncTimeoutMillis();
+        this.timeouts = config.getTimeouts();
+        this.minConnections = Math.max(poolConfig.getInitialSize(), poolConfig.getMinIdle());
+        this.resultCache = new ResultCache(config.getCache().getMaxBytes(), config.getCache().getTtlMillis());
+        this.snapshots = new SnapshotStore(config.getCache().getSnapshotMaxBytes(), tagVersions);
+        this.singleFlight = new SingleFlight(config.getCache().isCoalescing(), config.getCache().getCoalesceMaxWaitMillis(),
+                tagVersions);
+
+        final SlowQueryConfiguration slowQueries = config.getSlowQueries();
+        this.slowQueryLog = new SlowQueryLog(slowQueries.getThresholdMillis(), slowQueries.getExplainIntervalMillis(),
+                slowQueries.getExplainTimeoutMillis(), slowQueries.getPlans());
+        //A single thread with room for one waiting plan: plans that do not fit are not captured.
+        this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                DaemonThreads.named("db-explain"), new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Apply the credentials and pool settings of the configuration to a connection pool.
+     *
+     * @param pool   The pool to configure.
+     * @param url    Jdbc uri of the database the pool connects to.
+     * @param config Active server configuration.
+     */
+    private static void configurePool(final BasicDataSource pool, final String url, final Configuration config) {
+        final PoolConfiguration poolConfig = config.getPool();
+        pool.setUsername(config.getDbUser());
+        pool.setPassword(config.getDbPassword());
+        pool.setUrl(url);
+        pool.setDriverClassName("org.postgresql.Driver");
+        pool.setInitialSize(poolConfig.getInitialSize());
+        pool.setMaxTotal(poolConfig.getMaxTotal());
+        pool.setMaxIdle(poolConfig.getMaxIdle());
+        pool.setMinIdle(poolConfig.getMinIdle());
+        pool.setMaxWaitMillis(poolConfig.getMaxWaitMillis());
+        pool.setValidationQuery(poolConfig.getValidationQuery());
+        pool.setTestOnBorrow(poolConfig.isTestOnBorrow());
+        pool.setTestWhileIdle(poolConfig.isTestWhileIdle());
+        pool.setTimeBetweenEvictionRunsMillis(poolConfig.getEvictionIntervalMillis());
+        pool.setMinEvictableIdleTimeMillis(poolConfig.getMinEvictableIdleMillis());
+        if (poolConfig.getLeakTimeoutSeconds() > 0) {
+            pool.setRemoveAbandonedTimeout(poolConfig.getLeakTimeoutSeconds());
+            pool.setRemoveAbandonedOnMaintenance(true);
+            pool.setLogAbandoned(true);
+        }
+        pool.setPoolPreparedStatements(true);
+        pool.setMaxOpenPreparedStatements(MAX_OPEN_PREPARED_STATEMENTS);
+        pool.setConnectionProperties(CONNECTION_PROPERTIES);
     }
 
     /**
@@ -45,18 +197,415 @@ public final class Connection {
      * @throws Exception if something goes wrong performing the query.
      */
     public String executeQuery(final String columnName, final String statement, final Object... parameters) throws Exception {
-        try (java.sql.Connection connection = connectionPool.getConnection()) {
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
+        final QueryStats stats = plan.getStats();
+        return read(stats, statement, parameters, false, connection -> {
             try (PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
-                mapParams(preparedStatement, parameters);
+                plan.bind(preparedStatement, parameters);
 
+                final long start = System.nanoTime();
+                final QueryDeadline.Registration registration =
+                        QueryDeadline.limit(preparedStatement, timeouts.getMillis(stats.getName()));
                 try (ResultSet result = preparedStatement.executeQuery()) {
+                    final long executed = System.nanoTime();
+                    stats.getExecute().record(executed - start);
                     if (columnName == null) return "";
 
                     if (!result.next() || result.getString(columnName) == null) throw new EntityNotFoundException();
-                    return result.getString(columnName);
+                    final String value = result.getString(columnName);
+                    stats.getFetch().record(System.nanoTime() - executed);
+                    stats.getBytes().record(QueryStats.utf8Length(value));
+                    return value;
+                } finally {
+                    registration.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Execute a query like {@link #executeQuery(String, String, Object...)}, but return the value of the column as
+     * the bytes the driver received. The value is never decoded into a <code>String</code>, so JSON built by the
+     * database can be written to a response as it is.
+     *
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return The UTF-8 encoded value of the column.
+     * @throws Exception if something goes wrong performing the query.
+     */
+    public byte[] executeQueryRaw(final String columnName, final String statement, final Object... parameters) throws Exception {
+        return executeQueryRaw(false, columnName, statement, parameters);
+    }
+
+    /**
+     * Execute a query like {@link #executeQueryRaw(String, String, Object...)}, but always on the primary. A result
+     * that is kept after the request, such as a cached result or a snapshot, is read this way, because a replica
+     * may not have received the write that made the result stale yet.
+     *
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return The UTF-8 encoded value of the column.
+     * @throws Exception if something goes wrong performing the query.
+     */
+    public byte[] executeQueryRawOnPrimary(final String columnName,
+                                           final String statement,
+                                           final Object... parameters) throws Exception {
+        return executeQueryRaw(true, columnName, statement, parameters);
+    }
+
+    /**
+     * @param primary Whether the query has to run on the primary.
+     * @see #executeQueryRaw(String, String, Object...)
+     */
+    private byte[] executeQueryRaw(final boolean primary,
+                                   final String columnName,
+                                   final String statement,
+                                   final Object... parameters) throws Exception {
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
+        final QueryStats stats = plan.getStats();
+        return read(stats, statement, parameters, primary, connection -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
+                plan.bind(preparedStatement, parameters);
+
+                final long start = System.nanoTime();
+                final QueryDeadline.Registration registration =
+                        QueryDeadline.limit(preparedStatement, timeouts.getMillis(stats.getName()));
+                try (ResultSet result = preparedStatement.executeQuery()) {
+                    final long executed = System.nanoTime();
+                    stats.getExecute().record(executed - start);
+                    if (!result.next()) throw new EntityNotFoundException();
+                    final byte[] value = result.getBytes(columnName);
+                    if (value == null) throw new EntityNotFoundException();
+                    stats.getFetch().record(System.nanoTime() - executed);
+                    stats.getBytes().record(value.length);
+                    return value;
+                } finally {
+                    registration.close();
                 }
             }
+        });
+    }
+
+    /**
+     * Execute a query and hand the value of the column of every row to a writer as soon as it is fetched. The rows
+     * are read with a cursor, {@value #STREAM_FETCH_SIZE} at a time, so the memory used does not depend on the
+     * number of rows and the first row is written before the last one is read. Like
+     * {@link #executeQueryRaw(String, String, Object...)} the values are never decoded. The time of a streamed
+     * query depends on how fast the rows are written, so it is not logged as a slow query.
+     *
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param writer     Function that receives the UTF-8 encoded value of every row, in order. Rows where the
+     *                   column is null are skipped.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return The number of rows that were written.
+     * @throws Exception if something goes wrong performing the query or writing a row.
+     */
+    public long executeQueryStreamed(final String columnName,
+                                     final String statement,
+                                     final RowWriter writer,
+                                     final Object... parameters) throws Exception {
+        return executeQueryStreamed(false, columnName, statement, writer, parameters);
+    }
+
+    /**
+     * Execute a query like {@link #executeQueryStreamed(String, String, RowWriter, Object...)}, but always on the
+     * primary, for rows that are kept like {@link #executeQueryRawOnPrimary(String, String, Object...)}.
+     *
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param writer     Function that receives the UTF-8 encoded value of every row, in order.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return The number of rows that were written.
+     * @throws Exception if something goes wrong performing the query or writing a row.
+     */
+    public long executeQueryStreamedOnPrimary(final String columnName,
+                                              final String statement,
+                                              final RowWriter writer,
+                                              final Object... parameters) throws Exception {
+        return executeQueryStreamed(true, columnName, statement, writer, parameters);
+    }
+
+    /**
+     * @param primary Whether the query has to run on the primary.
+     * @see #executeQueryStreamed(String, String, RowWriter, Object...)
+     */
+    private long executeQueryStreamed(final boolean primary,
+                                      final String columnName,
+                                      final String statement,
+                                      final RowWriter writer,
+                                      final Object... parameters) throws Exception {
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
+        final QueryStats stats = plan.getStats();
+        try {
+            return route(stats, primary, connection -> {
+                //The driver only uses a cursor inside a transaction. The pool rolls it back if the query fails.
+                connection.setAutoCommit(false);
+                long rows = 0;
+                try (PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
+                    preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+                    plan.bind(preparedStatement, parameters);
+
+                    final long start = System.nanoTime();
+                    long bytes = 0;
+                    final QueryDeadline.Registration registration =
+                            QueryDeadline.limit(preparedStatement, timeouts.getMillis(stats.getName()));
+                    try (ResultSet result = preparedStatement.executeQuery()) {
+                        final long executed = System.nanoTime();
+                        stats.getExecute().record(executed - start);
+                        while (result.next()) {
+                            final byte[] value = result.getBytes(columnName);
+                            if (value == null) continue;
+                            writer.write(value);
+                            rows++;
+                            bytes += value.length;
+                        }
+                        stats.getFetch().record(System.nanoTime() - executed);
+                        stats.getBytes().record(bytes);
+                    } finally {
+                        registration.close();
+                    }
+                    connection.commit();
+                    return rows;
+                } catch (SQLException e) {
+                    //Running the query again on the primary would write the rows that were written already again.
+                    if (rows > 0 && ReplicaSet.isConnectionFailure(e)) {
+                        throw new IOException("Connection failed after " + rows + " rows were written", e);
+                    }
+                    throw e;
+                }
+            });
+        } catch (Exception e) {
+            recordError(stats, e);
+            throw QueryDeadline.timedOut(e);
+        }
+    }
+
+    /**
+     * Run a read-only query like {@link #route(QueryStats, boolean, Query)}, and count and log it under the name of the
+     * query if it fails. A query that finds nothing does not count as failed. A query that is slow is logged with
+     * its parameters, and its plan is captured in the background.
+     *
+     * @param stats      Timings of the query.
+     * @param statement  The SQL String of the query.
+     * @param parameters The parameters of the query.
+     * @param primary    Whether the query has to run on the primary.
+     * @param query      The query to run.
+     * @param <T>        Type of the result of the query.
+     * @return The result of the query.
+     * @throws Exception if something goes wrong performing the query.
+     */
+    private <T> T read(final QueryStats stats,
+                       final String statement,
+                       final Object[] parameters,
+                       final boolean primary,
+                       final Query<T> query) throws Exception {
+        try {
+            final long start = System.nanoTime();
+            final T result = route(stats, primary, query);
+            final SlowQueryLog.SlowQuery slow = slowQueryLog.record(stats.getName(), statement, parameters,
+                    System.nanoTime() - start);
+            if (slow != null) {
+                explainExecutor.execute(() -> slowQueryLog.explain(slow, poolMonitor, statementCache.planFor(statement),
+                        parameters));
+            }
+            return result;
+        } catch (EntityNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            recordError(stats, e);
+            throw QueryDeadline.timedOut(e);
+        }
+    }
+
+    /**
+     * Run a read-only query on a read replica. When there are no replicas, when none of them is healthy, when
+     * a write was committed within the read-your-writes window or when the caller asks for it, the query runs on
+     * the primary. If the connection
+     * to the replica fails, the replica is taken out of rotation for a while and the query is run on the primary
+     * instead; errors of the query itself are not retried.
+     *
+     * @param stats   Timings of the query, which get the time spent waiting for a connection.
+     * @param primary Whether the query has to run on the primary.
+     * @param query   The query to run.
+     * @param <T>     Type of the result of the query.
+     * @return The result of the query.
+     * @throws Exception if something goes wrong performing the query.
+     */
+    private <T> T route(final QueryStats stats, final boolean primary, final Query<T> query) throws Exception {
+        final ReplicaSet.Replica replica = replicaSet.choose(primary);
+        if (replica == null) return runOn(stats, poolMonitor, query);
+
+        final long start = System.nanoTime();
+        final PoolMonitor.Lease replicaLease;
+        try {
+            replicaLease = replica.borrow();
+        } catch (SQLException e) {
+            if (!(e.getCause() instanceof NoSuchElementException)) replicaSet.markDown(replica);
+            return runOn(stats, poolMonitor, query);
+        }
+        stats.getBorrow().record(System.nanoTime() - start);
+
+        try (PoolMonitor.Lease lease = replicaLease) {
+            return query.run(lease.getConnection());
+        } catch (SQLException e) {
+            if (!ReplicaSet.isConnectionFailure(e)) throw e;
+            replicaSet.markDown(replica);
+        }
+        return runOn(stats, poolMonitor, query);
+    }
+
+    /**
+     * Run a query on a connection borrowed from a pool.
+     *
+     * @param stats Timings of the query, which get the time spent waiting for a connection.
+     * @param pool  The pool to borrow the connection from.
+     * @param query The query to run.
+     * @param <T>   Type of the result of the query.
+     * @return The result of the query.
+     * @throws Exception if something goes wrong performing the query.
+     */
+    private static <T> T runOn(final QueryStats stats, final PoolMonitor pool, final Query<T> query) throws Exception {
+        final long start = System.nanoTime();
+        try (PoolMonitor.Lease lease = pool.borrow()) {
+            stats.getBorrow().record(System.nanoTime() - start);
+            return query.run(lease.getConnection());
+        }
+    }
+
+    /**
+     * Count a failed statement and log it under its name.
+     *
+     * @param stats Timings of the statement.
+     * @param e     The exception of the statement.
+     */
+    private static void recordError(final QueryStats stats, final Exception e) {
+        stats.recordError();
+        System.err.println("Query " + stats.getName() + " failed: " + e);
+    }
+
+    /**
+     * Execute a query like {@link #executeQuery(String, String, Object...)}, but on the query executor instead of
+     * the calling thread. The executor has as many threads as the pool has connections and a bounded queue.
+     *
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return A future of the value of the column. It fails with a <code>ServerBusyException</code> if too many
+     * queries are waiting already.
+     */
+    public CompletableFuture<String> executeQueryAsync(final String columnName,
+                                                       final String statement,
+                                                       final Object... parameters) {
+        return submit(() -> executeQuery(columnName, statement, parameters));
+    }
+
+    /**
+     * Execute a query like {@link #executeQueryRaw(String, String, Object...)}, but on the query executor.
+     *
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return A future of the UTF-8 encoded value of the column. It fails with a <code>ServerBusyException</code>
+     * if too many queries are waiting already.
+     */
+    public CompletableFuture<byte[]> executeQueryRawAsync(final String columnName,
+                                                          final String statement,
+                                                          final Object... parameters) {
+        return submit(() -> executeQueryRaw(columnName, statement, parameters));
+    }
+
+    /**
+     * Execute a query like {@link #executeQueryRawAsync(String, String, Object...)}, but answer it from the result
+     * cache if the same query was executed before. A result that is not in the cache is read from the primary and
+     * stored under the tags, and removed again when one of the tags is invalidated. A replica could still return the
+     * data from before the invalidation, which would then be served until the next one. When the cache is disabled the query is always executed.
+     * Either way, a query that is executing already for another request is not executed again, see
+     * {@link SingleFlight}.
+     *
+     * @param tags       Tags of the data the result is built from.
+     * @param columnName The name of the column that is returned by the query.
+     * @param statement  The SQL String of the query you want to perform.
+     * @param parameters An optional array of Objects from which to fill the parameters.
+     * @return A future of the UTF-8 encoded value of the column. It fails with a <code>ServerBusyException</code>
+     * if the result is not cached and too many queries are waiting already.
+     */
+    public CompletableFuture<byte[]> executeQueryCachedAsync(final Collection<String> tags,
+                                                             final String columnName,
+                                                             final String statement,
+                                                             final Object... parameters) {
+        final ResultCache.Key key = new ResultCache.Key(columnName, statement, parameters);
+        if (!resultCache.isEnabled()) {
+            return singleFlight.execute(key, tags, () -> executeQueryRawAsync(columnName, statement, parameters));
         }
+        final byte[] cached = resultCache.get(key);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        final long stamp = resultCache.getStamp();
+        return singleFlight.execute(key, tags, () -> submit(() -> {
+            final long start = System.nanoTime();
+            final byte[] value = executeQueryRawOnPrimary(columnName, statement, parameters);
+            resultCache.recordLoad(System.nanoTime() - start);
+            resultCache.put(key, value, tags, stamp);
+            return value;
+        }));
+    }
+
+    /**
+     * Remove the cached results of every query that is tagged with one of the tags, and raise the versions of the
+     * tags. This has to be called after the transaction that changed the data is committed.
+     *
+     * @param tags Tags of the data that changed.
+     */
+    public void invalidate(final Collection<String> tags) {
+        resultCache.invalidate(tags);
+        tagVersions.raise(tags);
+    }
+
+    /**
+     * Remove every cached result and raise the version of every tag.
+     */
+    public void invalidateAll() {
+        resultCache.invalidateAll();
+        tagVersions.raiseAll();
+    }
+
+    /**
+     * Run a task on the query executor, under the deadline of the request that submits it.
+     *
+     * @param task Task to run.
+     * @param <T>  Type of the result of the task.
+     * @return A future of the result of the task, which fails with a <code>ServerBusyException</code> if the queue
+     * of the executor is full.
+     */
+    private <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final Callable<T> withDeadline = QueryDeadline.propagate(task);
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return withDeadline.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, queryExecutor);
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new ServerBusyException("Too many queries are waiting to be executed."));
+            return rejected;
+        }
+    }
+
+    /**
+     * Get how long a request should wait for an asynchronous query.
+     *
+     * @return Milliseconds, or 0 to wait indefinitely.
+     */
+    public long getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
     }
 
     /**
@@ -75,9 +624,10 @@ public final class Connection {
     public int executeUpdate(final java.sql.Connection connection,
                               final String statement,
                               final Object... parameters) throws SQLException {
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
         try (PreparedStatement preparedStatement = connection.prepareStatement(statement, Statement.RETURN_GENERATED_KEYS)) {
-            mapParams(preparedStatement, parameters);
-            preparedStatement.executeUpdate();
+            plan.bind(preparedStatement, parameters);
+            timed(plan.getStats(), preparedStatement::executeUpdate);
             try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
                 if (generatedKeys.next()) {
                     return (int) generatedKeys.getLong(1);
@@ -90,6 +640,162 @@ public final class Connection {
         }
     }
 
+    /**
+     * Executes a query on the given connection and returns all rows. Like
+     * {@link #executeUpdate(java.sql.Connection, String, Object...)} the query is part of the open transaction,
+     * so it sees the changes made earlier in the transaction.
+     *
+     * @param connection Connection to execute the query on.
+     * @param statement  Query to perform.
+     * @param parameters Array of parameters to map to the query.
+     * @return The values of every row, in the order of the columns.
+     * @throws SQLException If a database access error occurs.
+     */
+    public List<Object[]> executeSelect(final java.sql.Connection connection,
+                                        final String statement,
+                                        final Object... parameters) throws SQLException {
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
+            plan.bind(preparedStatement, parameters);
+            try (ResultSet result = timed(plan.getStats(), preparedStatement::executeQuery)) {
+                final long executed = System.nanoTime();
+                final int columns = result.getMetaData().getColumnCount();
+                final List<Object[]> rows = new ArrayList<>();
+                while (result.next()) {
+                    final Object[] row = new Object[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = result.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+                plan.getStats().getFetch().record(System.nanoTime() - executed);
+                return rows;
+            }
+        }
+    }
+
+    /**
+     * Executes one statement for a number of parameter rows in a single batch on the given connection. Like
+     * {@link #executeUpdate(java.sql.Connection, String, Object...)} the batch is part of the open transaction.
+     * An empty list of rows does not touch the database.
+     *
+     * @param connection Connection to execute the batch on.
+     * @param statement  Statement to perform for every row.
+     * @param rows       Parameters of every execution of the statement.
+     * @return The update count of every row.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int[] executeBatch(final java.sql.Connection connection,
+                              final String statement,
+                              final List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) return new int[0];
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
+            addBatch(preparedStatement, plan, rows);
+            return timed(plan.getStats(), preparedStatement::executeBatch);
+        }
+    }
+
+    /**
+     * Executes an insert for a number of parameter rows in a single batch on the given connection, and returns the
+     * generated ids in the order of the rows.
+     *
+     * @param connection Connection to execute the batch on.
+     * @param statement  Insert statement to perform for every row.
+     * @param rows       Parameters of every execution of the statement.
+     * @return The generated id of every row.
+     * @throws SQLException If a database access error occurs, or the database did not return an id for every row.
+     */
+    public int[] executeBatchInsert(final java.sql.Connection connection,
+                                    final String statement,
+                                    final List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) return new int[0];
+        final StatementCache.StatementPlan plan = statementCache.planFor(statement);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(statement, Statement.RETURN_GENERATED_KEYS)) {
+            addBatch(preparedStatement, plan, rows);
+            timed(plan.getStats(), preparedStatement::executeBatch);
+            final int[] ids = new int[rows.size()];
+            int count = 0;
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                while (generatedKeys.next() && count < ids.length) {
+                    ids[count++] = (int) generatedKeys.getLong(1);
+                }
+            }
+            if (count != ids.length) {
+                throw new SQLException("Expected " + ids.length + " generated ids but got " + count);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Copies rows into a table with <code>COPY ... FROM STDIN</code> on the given connection. Like
+     * {@link #executeUpdate(java.sql.Connection, String, Object...)} the copy is part of the open transaction. The
+     * rows are streamed to the database while they are written; if writing fails, the copy is cancelled.
+     *
+     * @param connection Connection to copy on.
+     * @param statement  The <code>COPY ... FROM STDIN</code> statement.
+     * @param writer     Function that writes the rows.
+     * @return The number of rows that were copied.
+     * @throws Exception If a database access error occurs or the rows could not be written.
+     */
+    public long copyIn(final java.sql.Connection connection,
+                       final String statement,
+                       final CopyWriter writer) throws Exception {
+        final QueryStats stats = statementCache.planFor(statement).getStats();
+        final long start = System.nanoTime();
+        final PGCopyOutputStream out = new PGCopyOutputStream(connection.unwrap(PGConnection.class), statement,
+                COPY_BUFFER_SIZE);
+        try {
+            writer.write(out);
+            final long rows = out.endCopy();
+            stats.getExecute().record(System.nanoTime() - start);
+            return rows;
+        } catch (Exception e) {
+            if (out.isActive()) out.cancelCopy();
+            recordError(stats, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Binds every row of parameters to a statement and adds it to the batch of the statement.
+     *
+     * @param preparedStatement Statement to add the rows to.
+     * @param plan              Binding plan of the statement.
+     * @param rows              Parameters of every execution of the statement.
+     * @throws SQLException If a database access error occurs.
+     */
+    private static void addBatch(final PreparedStatement preparedStatement,
+                                 final StatementCache.StatementPlan plan,
+                                 final List<Object[]> rows) throws SQLException {
+        for (Object[] row : rows) {
+            plan.bind(preparedStatement, row);
+            preparedStatement.addBatch();
+        }
+    }
+
+    /**
+     * Execute a statement inside a transaction, timing it and counting it if it fails.
+     *
+     * @param stats     Timings of the statement.
+     * @param execution The execution of the statement.
+     * @param <T>       Type of the result of the execution.
+     * @return The result of the execution.
+     * @throws SQLException If a database access error occurs.
+     */
+    private static <T> T timed(final QueryStats stats, final Execution<T> execution) throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            final T result = execution.run();
+            stats.getExecute().record(System.nanoTime() - start);
+            return result;
+        } catch (SQLException e) {
+            recordError(stats, e);
+            throw e;
+        }
+    }
+
     /**
      * Execute an arbitrary function inside an open transaction. Any number of updates can be performed
      * in this transaction. Afterwards it is committed and closed.
@@ -98,40 +804,192 @@ public final class Connection {
      * @throws Exception If a database access error occurs.
      */
     public void executeTransactional(final TransactionRunner transaction) throws Exception {
-        try (java.sql.Connection conn = connectionPool.getConnection()) {
+        try (PoolMonitor.Lease lease = poolMonitor.borrow()) {
+            final java.sql.Connection conn = lease.getConnection();
             conn.setAutoCommit(false);
             transaction.run(conn);
             conn.commit();
         }
+        replicaSet.recordWrite();
     }
 
     /**
-     * Maps parameters to a PreparedStatement.
-     * Any objects given in the `args` array will be mapped sequentially to any question mark in the
-     * <code>PreparedStatement</code>. For example, a <code>PreparedStatement</code>
-     * with the query `SELECT * from ?` will have one open parameter to be mapped and the
-     * first object given will be mapped to that position. Any excess parameters will not be mapped.
-     *
-     * @param ps   PreparedStatement to map parameters to.
-     * @param args Array of Integers or Strings that represent the parameters.
-     * @throws SQLException if a database access error occurs or
-     *                      this method is called on a closed <code>PreparedStatement</code>.
-     */
-    private void mapParams(final PreparedStatement ps, final Object... args) throws SQLException {
-        final int parameterCount = ps.getParameterMetaData().getParameterCount();
-        int i = 1;
-        for (Object arg : args) {
-            if (i > parameterCount) return;
-            if (arg instanceof Integer) {
-                ps.setInt(i++, (Integer) arg);
-            } else if (arg instanceof String) {
-                ps.setString(i++, (String) arg);
-            } else if (arg instanceof Boolean) {
-                ps.setBoolean(i++, (Boolean) arg);
-            } else if (arg instanceof Double) {
-                ps.setDouble(i++, (Double) arg);
+     * Open the minimum number of connections of the primary pool and of every replica pool at once, and prepare
+     * every named query on each of them. The prepared statements stay in the statement pool of their connection, so
+     * the first requests neither wait for a new connection nor for the driver and the server to parse their query.
+     * A query that cannot be prepared, for instance because a table is missing, is skipped.
+     *
+     * @return The number of statements that were prepared.
+     * @throws SQLException If a connection could not be opened.
+     */
+    public int primePools() throws SQLException {
+        int prepared = primePool(poolMonitor);
+        for (ReplicaSet.Replica replica : replicaSet.getReplicas()) {
+            prepared += primePool(replica.getMonitor());
+        }
+        return prepared;
+    }
+
+    /**
+     * Open the minimum number of connections of a pool at once and prepare every named query on each of them.
+     *
+     * @param pool The pool.
+     * @return The number of statements that were prepared.
+     * @throws SQLException If a connection could not be opened.
+     */
+    private int primePool(final PoolMonitor pool) throws SQLException {
+        final List<PoolMonitor.Lease> leases = new ArrayList<>();
+        int prepared = 0;
+        try {
+            for (int i = 0; i < minConnections; i++) {
+                leases.add(pool.borrow());
+            }
+            for (PoolMonitor.Lease lease : leases) {
+                for (Map.Entry<String, String> statement : statementCache.getNamedStatements().entrySet()) {
+                    //Describing the statement makes the server parse it and look up its tables and types.
+                    try (PreparedStatement preparedStatement = lease.getConnection().prepareStatement(statement.getKey())) {
+                        preparedStatement.getMetaData();
+                        prepared++;
+                    } catch (SQLException e) {
+                        System.err.println("Could not prepare " + statement.getValue() + ": " + e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            for (PoolMonitor.Lease lease : leases) {
+                lease.close();
             }
         }
+        return prepared;
+    }
+
+    /**
+     * Get the monitor of the connection pool, which exposes the live state of the pool.
+     *
+     * @return The pool monitor.
+     */
+    public PoolMonitor getPoolMonitor() {
+        return poolMonitor;
+    }
+
+    /**
+     * Get the read replicas, which expose the health and the number of reads of every replica.
+     *
+     * @return The read replicas.
+     */
+    public ReplicaSet getReplicaSet() {
+        return replicaSet;
+    }
+
+    /**
+     * Get the result cache, which exposes its size and hit ratio.
+     *
+     * @return The result cache.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Get the versions of the cache tags, which validate results without executing their queries.
+     *
+     * @return The tag versions.
+     */
+    public TagVersions getTagVersions() {
+        return tagVersions;
+    }
+
+    /**
+     * @return The snapshots of the catalog responses.
+     */
+    public SnapshotStore getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * @return The coalescing of identical reads.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Get the slow-query log, which holds the last slow reads and their plans.
+     *
+     * @return The slow-query log.
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Give a query a stable name, under which its executions are timed. Queries that are not named are timed under
+     * their command and the first table they touch.
+     *
+     * @param statement The SQL String of the query.
+     * @param name      Name of the query, such as <code>ModulesService.moduleInformation</code>.
+     */
+    public void nameQuery(final String statement, final String name) {
+        statementCache.name(statement, name);
+    }
+
+    /**
+     * Get the timings of every named query.
+     *
+     * @return The timings, in no particular order.
+     */
+    public Collection<QueryStats> getQueryStats() {
+        return statementCache.getQueryStats();
+    }
+
+    /**
+     * Get the number of statement executions for which a binding plan already existed.
+     *
+     * @return Number of statement cache hits.
+     */
+    public long getStatementCacheHits() {
+        return statementCache.getHits();
+    }
+
+    /**
+     * Get the number of statement executions that were the first of their statement text.
+     *
+     * @return Number of statement cache misses.
+     */
+    public long getStatementCacheMisses() {
+        return statementCache.getMisses();
+    }
+
+    /**
+     * A read-only query that runs on a borrowed connection.
+     *
+     * @param <T> Type of the result of the query.
+     */
+    @FunctionalInterface
+    private interface Query<T> {
+        /**
+         * Run the query.
+         *
+         * @param connection Connection to run the query on.
+         * @return The result of the query.
+         * @throws Exception if something goes wrong performing the query.
+         */
+        T run(java.sql.Connection connection) throws Exception;
     }
-}
 
+    /**
+     * The execution of a statement that is already bound.
+     *
+     * @param <T> Type of the result of the execution.
+     */
+    @FunctionalInterface
+    private interface Execution<T> {
+        /**
+         * Execute the statement.
+         *
+         * @return The result of the execution.
+         * @throws SQLException If a database access error occurs.
+         */
+        T run() throws SQLException;
+    }
+}
@@ -0,0 +1,18 @@
+package org.fsg1.fmms.backend.database;
+
+import java.io.OutputStream;
+
+/**
+ * Functional interface for functions that write the rows of a <code>COPY ... FROM STDIN</code>.
+ */
+@FunctionalInterface
+public interface CopyWriter {
+
+    /**
+     * Write the rows, in the format the <code>COPY</code> statement expects.
+     *
+     * @param out Stream to the database. It must not be closed.
+     * @throws Exception If the rows could not be written.
+     */
+    void write(OutputStream out) throws Exception;
+}
@@ -0,0 +1,84 @@
+package org.fsg1.fmms.backend.database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The migrations of the schema, applied at startup by the {@link Migrator}. The tables of the study schema itself
+ * are created outside of the backend; the migrations add what the backend needs on top of them.
+ * An applied migration must never be changed: add a new one instead.
+ */
+public final class Migrations {
+    private static final List<Migrator.Migration> ALL = Collections.unmodifiableList(Arrays.asList(
+            //Every module document is stored as it is served, so reading a module is a lookup instead of an
+            //aggregation over every table of the module. The documents are rebuilt whenever a module is saved.
+            new Migrator.Migration(1, "Tables of the module document read model",
+                    "CREATE TABLE IF NOT EXISTS study.module_document ( " +
+                            "  module_id int NOT NULL REFERENCES study.module (id) ON DELETE CASCADE, " +
+                            "  studyprogramme_id int NOT NULL, " +
+                            "  code text NOT NULL, " +
+                            "  document jsonb NOT NULL, " +
+                            "  PRIMARY KEY (module_id, studyprogramme_id))",
+                    "CREATE INDEX IF NOT EXISTS module_document_code ON study.module_document (code, studyprogramme_id)",
+                    "CREATE TABLE IF NOT EXISTS study.module_edit_document ( " +
+                            "  module_id int PRIMARY KEY REFERENCES study.module (id) ON DELETE CASCADE, " +
+                            "  code text NOT NULL, " +
+                            "  document jsonb NOT NULL)",
+                    "CREATE INDEX IF NOT EXISTS module_edit_document_code ON study.module_edit_document (code)"),
+
+            //The child rows of a module are read, diffed and rebuilt by module id on every save, and the modules
+            //that refer to a saved module are found by their dependency. Modules are built by code when the read
+            //model has no document for them.
+            new Migrator.Migration(2, "Indexes on the module of every module table",
+                    "CREATE INDEX IF NOT EXISTS module_code ON study.module (code)",
+                    "CREATE INDEX IF NOT EXISTS moduledescription_module ON study.moduledescription (module_id)",
+                    "CREATE INDEX IF NOT EXISTS teachingmaterial_moduledescription ON study.teachingmaterial (moduledescription_id)",
+                    "CREATE INDEX IF NOT EXISTS moduletopic_module ON study.moduletopic (module_id, sequenceno)",
+                    "CREATE INDEX IF NOT EXISTS module_employee_module ON study.module_employee (module_id, employee_id)",
+                    "CREATE INDEX IF NOT EXISTS moduleassessment_module ON study.moduleassessment (module_id, code)",
+                    "CREATE INDEX IF NOT EXISTS learninggoal_module ON study.learninggoal (module_id, sequenceno, id)",
+                    "CREATE INDEX IF NOT EXISTS moduledependency_module " +
+                            "ON study.moduledependency (module_id, dependency_module_id)",
+                    "CREATE INDEX IF NOT EXISTS moduledependency_dependency " +
+                            "ON study.moduledependency (dependency_module_id, module_id)"),
+
+            //The skill matrices join learning goals to their qualifications, and the layer activity overview
+            //filters qualifications by layer and activity. Both indexes cover the columns the joins read, so the
+            //qualification rows themselves are not visited.
+            new Migrator.Migration(3, "Covering indexes of the qualification joins",
+                    "CREATE INDEX IF NOT EXISTS learninggoal_qualification_learninggoal " +
+                            "ON study.learninggoal_qualification (learninggoal_id, qualification_id)",
+                    "CREATE INDEX IF NOT EXISTS qualification_layer_activity " +
+                            "ON study.qualification (architecturallayer_id, activity_id, levelofskill_id, id)"),
+
+            //Semesters, complete semesters and the layer activity overview select the profiles of a study
+            //programme and the modules of a semester; module documents join the profiles of a module.
+            new Migrator.Migration(4, "Covering indexes of the curriculum joins",
+                    "CREATE INDEX IF NOT EXISTS profile_studyprogramme ON study.profile (studyprogramme_id, id)",
+                    "CREATE INDEX IF NOT EXISTS module_profile_profile " +
+                            "ON study.module_profile (profile_id, semester, module_id)",
+                    "CREATE INDEX IF NOT EXISTS module_profile_module " +
+                            "ON study.module_profile (module_id, profile_id, semester)"),
+
+            //Every save of a module increments its version, which editors send back in If-Match. The stored
+            //editable documents get the version as well, so they do not have to be rebuilt.
+            new Migrator.Migration(5, "Version of every module for optimistic concurrency",
+                    "ALTER TABLE study.module ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0",
+                    "UPDATE study.module_edit_document SET document = document || jsonb_build_object('version', 0)")
+    ));
+
+    /**
+     * Private constructor.
+     * Class should never be instantiated.
+     */
+    private Migrations() {
+    }
+
+    /**
+     * @return Every migration, in order of their version.
+     */
+    public static List<Migrator.Migration> all() {
+        return ALL;
+    }
+}
@@ -0,0 +1,189 @@
+package org.fsg1.fmms.backend.database;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Applies versioned changes to the schema. Every applied migration is recorded with a checksum of its statements in
+ * <code>study.schema_migration</code>, so it is applied only once and a migration that was changed after it was
+ * applied is detected. All pending migrations are applied in a single transaction that holds an advisory lock, so
+ * instances that start at the same time do not apply them twice.
+ */
+public final class Migrator {
+    /**
+     * Key of the advisory lock, the characters "fmms".
+     */
+    private static final long LOCK_KEY = 0x666d6d73L;
+
+    private static final String LOCK = "SELECT pg_advisory_xact_lock(?)";
+
+    private static final String CREATE_HISTORY =
+            "CREATE TABLE IF NOT EXISTS study.schema_migration ( " +
+                    "  version int PRIMARY KEY, " +
+                    "  description text NOT NULL, " +
+                    "  checksum bigint NOT NULL, " +
+                    "  applied_at timestamptz NOT NULL DEFAULT now())";
+
+    private static final String SELECT_APPLIED = "SELECT version, checksum FROM study.schema_migration";
+
+    private static final String INSERT_APPLIED =
+            "INSERT INTO study.schema_migration (version, description, checksum) VALUES (?, ?, ?)";
+
+    private final Connection connection;
+
+    /**
+     * Constructor.
+     *
+     * @param connection Connection to the primary database.
+     */
+    public Migrator(final Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Apply the migrations that were not applied yet, in order of their version.
+     *
+     * @param migrations The migrations.
+     * @return The migrations that were applied.
+     * @throws Exception If a database access error occurs, or an applied migration was changed since.
+     */
+    public List<Migration> migrate(final List<Migration> migrations) throws Exception {
+        final List<Migration> sorted = new ArrayList<>(migrations);
+        sorted.sort((a, b) -> Integer.compare(a.getVersion(), b.getVersion()));
+
+        final List<Migration> applied = new ArrayList<>();
+        connection.executeTransactional(conn -> {
+            applied.clear();
+            try (PreparedStatement lock = conn.prepareStatement(LOCK)) {
+                lock.setLong(1, LOCK_KEY);
+                lock.execute();
+            }
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(CREATE_HISTORY);
+            }
+
+            final Map<Integer, Long> checksums = selectApplied(conn);
+            for (Migration migration : sorted) {
+                final Long checksum = checksums.get(migration.getVersion());
+                if (checksum == null) {
+                    apply(conn, migration);
+                    applied.add(migration);
+                } else if (checksum != migration.getChecksum()) {
+                    throw new IllegalStateException("Migration " + migration.getVersion() + " (" +
+                            migration.getDescription() + ") was changed after it was applied");
+                }
+            }
+        });
+        return applied;
+    }
+
+    /**
+     * @param conn Connection of the open transaction.
+     * @return The checksum of every applied migration, by version.
+     * @throws SQLException If a database access error occurs.
+     */
+    private static Map<Integer, Long> selectApplied(final java.sql.Connection conn) throws SQLException {
+        final Map<Integer, Long> checksums = new HashMap<>();
+        try (PreparedStatement select = conn.prepareStatement(SELECT_APPLIED);
+             ResultSet result = select.executeQuery()) {
+            while (result.next()) {
+                checksums.put(result.getInt(1), result.getLong(2));
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Execute the statements of a migration and record it.
+     *
+     * @param conn      Connection of the open transaction.
+     * @param migration The migration.
+     * @throws SQLException If a database access error occurs.
+     */
+    private static void apply(final java.sql.Connection conn, final Migration migration) throws SQLException {
+        System.err.println("Applying migration " + migration.getVersion() + ": " + migration.getDescription());
+        try (Statement statement = conn.createStatement()) {
+            for (String sql : migration.getStatements()) {
+                statement.execute(sql);
+            }
+        }
+        try (PreparedStatement insert = conn.prepareStatement(INSERT_APPLIED)) {
+            insert.setInt(1, migration.getVersion());
+            insert.setString(2, migration.getDescription());
+            insert.setLong(3, migration.getChecksum());
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * A versioned change to the schema. Once a migration is applied it must not be changed; further changes go in
+     * a migration with a higher version.
+     */
+    public static final class Migration {
+        private final int version;
+
+        private final String description;
+
+        private final List<String> statements;
+
+        private final long checksum;
+
+        /**
+         * Constructor.
+         *
+         * @param version     Version of the migration. Migrations are applied in order of their version.
+         * @param description Description of the migration.
+         * @param statements  Statements of the migration.
+         */
+        public Migration(final int version, final String description, final String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = Collections.unmodifiableList(Arrays.asList(statements.clone()));
+
+            final CRC32 crc = new CRC32();
+            for (String statement : statements) {
+                crc.update(statement.getBytes(StandardCharsets.UTF_8));
+                crc.update(';');
+            }
+            this.checksum = crc.getValue();
+        }
+
+        /**
+         * @return Version of the migration.
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @return Description of the migration.
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return Statements of the migration.
+         */
+        public List<String> getStatements() {
+            return statements;
+        }
+
+        /**
+         * @return Checksum of the statements of the migration.
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+}
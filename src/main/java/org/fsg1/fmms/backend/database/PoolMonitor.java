@@ -0,0 +1,154 @@
+package org.fsg1.fmms.backend.database;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.fsg1.fmms.backend.metrics.Histogram;
+
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out connections from a connection pool and keeps track of the state of that pool: how long borrowing a
+ * connection takes, how often it times out and which connections are held for suspiciously long.
+ */
+public final class PoolMonitor {
+    private final BasicDataSource pool;
+
+    private final long leakTimeoutNanos;
+
+    private final Histogram borrowWait = Histogram.forLatency();
+
+    private final LongAdder borrowTimeouts = new LongAdder();
+
+    private final LongAdder leaks = new LongAdder();
+
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor.
+     *
+     * @param pool               The connection pool to monitor.
+     * @param leakTimeoutSeconds Seconds after which a borrowed connection is considered leaked, or 0 to disable
+     *                           leak detection.
+     */
+    PoolMonitor(final BasicDataSource pool, final int leakTimeoutSeconds) {
+        this.pool = pool;
+        this.leakTimeoutNanos = TimeUnit.SECONDS.toNanos(leakTimeoutSeconds);
+    }
+
+    /**
+     * Borrow a connection from the pool. Closing the lease returns the connection.
+     *
+     * @return A lease on a connection.
+     * @throws SQLException if no connection could be obtained.
+     */
+    Lease borrow() throws SQLException {
+        final long start = System.nanoTime();
+        final java.sql.Connection connection;
+        try {
+            connection = pool.getConnection();
+        } catch (SQLException e) {
+            if (e.getCause() instanceof NoSuchElementException) borrowTimeouts.increment();
+            throw e;
+        }
+        final long borrowed = System.nanoTime();
+        borrowWait.record(borrowed - start);
+
+        final Lease lease = new Lease(connection, borrowed);
+        leases.add(lease);
+        return lease;
+    }
+
+    /**
+     * @return Number of connections currently borrowed from the pool.
+     */
+    public int getActive() {
+        return pool.getNumActive();
+    }
+
+    /**
+     * @return Number of idle connections in the pool.
+     */
+    public int getIdle() {
+        return pool.getNumIdle();
+    }
+
+    /**
+     * @return Maximum number of connections of the pool.
+     */
+    public int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    /**
+     * @return Time spent waiting for a connection, in nanoseconds.
+     */
+    public Histogram getBorrowWait() {
+        return borrowWait;
+    }
+
+    /**
+     * @return Number of times no connection became available within the maximum wait time.
+     */
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.sum();
+    }
+
+    /**
+     * @return Number of connections that were returned after being held longer than the leak timeout.
+     */
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * @return Number of connections that are borrowed right now and have been held longer than the leak timeout.
+     */
+    public long getOverdueLeases() {
+        if (leakTimeoutNanos <= 0) return 0;
+        final long now = System.nanoTime();
+        return leases.stream().filter(lease -> now - lease.borrowedAt > leakTimeoutNanos).count();
+    }
+
+    /**
+     * A borrowed connection. Closing the lease returns the connection to the pool.
+     */
+    final class Lease implements AutoCloseable {
+        private final java.sql.Connection connection;
+
+        private final long borrowedAt;
+
+        /**
+         * Constructor.
+         *
+         * @param connection The borrowed connection.
+         * @param borrowedAt Value of <code>System.nanoTime()</code> when the connection was borrowed.
+         */
+        private Lease(final java.sql.Connection connection, final long borrowedAt) {
+            this.connection = connection;
+            this.borrowedAt = borrowedAt;
+        }
+
+        /**
+         * @return The borrowed connection.
+         */
+        java.sql.Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Return the connection to the pool.
+         *
+         * @throws SQLException if the connection could not be closed.
+         */
+        @Override
+        public void close() throws SQLException {
+            leases.remove(this);
+            if (leakTimeoutNanos > 0 && System.nanoTime() - borrowedAt > leakTimeoutNanos) leaks.increment();
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.fsg1.fmms.backend.database;
+
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.postgresql.jdbc.PgStatement;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The deadline of the queries of a request. The deadline belongs to the thread that handles the request and is
+ * carried over to the query executor with the queries the request submits. It limits the statement timeout of
+ * every read, and cancelling it cancels the statements that are executing for the request. Once the response is sent
+ * the deadline is finished: it lets go of its statements, and the threads that still hold it no longer see it.
+ */
+public final class QueryDeadline {
+
+    /**
+     * SQLState of a statement that was cancelled, by its timeout or by a request that ended.
+     */
+    private static final String QUERY_CANCELED = "57014";
+
+    private static final ThreadLocal<QueryDeadline> CURRENT = new ThreadLocal<>();
+
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+
+    private final long deadlineNanos;
+
+    private final boolean limited;
+
+    private volatile boolean cancelled;
+
+    private volatile boolean finished;
+
+    /**
+     * Constructor.
+     *
+     * @param timeoutMillis Milliseconds the queries of the request may take together, or 0 to not limit them.
+     */
+    QueryDeadline(final long timeoutMillis) {
+        this.limited = timeoutMillis > 0;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+    }
+
+    /**
+     * Start a deadline for the request handled by the current thread. It replaces the deadline of the previous
+     * request of the thread.
+     *
+     * @param timeoutMillis Milliseconds the queries of the request may take together, or 0 to not limit them.
+     * @return The deadline.
+     */
+    public static QueryDeadline start(final long timeoutMillis) {
+        final QueryDeadline deadline = new QueryDeadline(timeoutMillis);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Get the deadline of the request handled by the current thread.
+     *
+     * @return The deadline, or null if the thread does not handle a request.
+     */
+    public static QueryDeadline current() {
+        final QueryDeadline deadline = CURRENT.get();
+        if (deadline == null || !deadline.finished) return deadline;
+        CURRENT.remove();
+        return null;
+    }
+
+    /**
+     * Set the statement timeout of a read: the timeout of its query, or the time left until the deadline of the
+     * request of the current thread if that is shorter. The timeout is always set, because pooled statements keep
+     * the timeout of their previous execution. The statement is registered with the deadline, so it is cancelled
+     * when the request is.
+     *
+     * @param preparedStatement The statement that is about to be executed.
+     * @param timeoutMillis     Timeout of the query in milliseconds, or 0 for none.
+     * @return Registration of the statement with the deadline, to close once the statement completed.
+     * @throws SQLException if the deadline passed or the request was cancelled already.
+     */
+    static Registration limit(final PreparedStatement preparedStatement, final long timeoutMillis) throws SQLException {
+        long millis = timeoutMillis;
+        final QueryDeadline deadline = current();
+        if (deadline != null) {
+            final long remaining = deadline.remainingMillis();
+            if (deadline.isCancelled() || remaining <= 0) {
+                throw new SQLException("The request ended before the query was executed", QUERY_CANCELED);
+            }
+            if (millis <= 0 || remaining < millis) millis = remaining;
+        }
+        if (millis == Long.MAX_VALUE) millis = 0;
+
+        if (preparedStatement.isWrapperFor(PgStatement.class)) {
+            preparedStatement.unwrap(PgStatement.class).setQueryTimeoutMs((int) Math.min(millis, Integer.MAX_VALUE));
+        } else {
+            preparedStatement.setQueryTimeout((int) Math.min(TimeUnit.MILLISECONDS.toSeconds(millis + 999),
+                    Integer.MAX_VALUE));
+        }
+        if (deadline == null) return () -> { };
+        return deadline.register(preparedStatement);
+    }
+
+    /**
+     * Turn the exception of a statement that was cancelled into the exception of a request that took too long.
+     *
+     * @param e The exception of the statement.
+     * @return A <code>ServerBusyException</code> if the statement was cancelled, otherwise the exception itself.
+     */
+    static Exception timedOut(final Exception e) {
+        if (e instanceof SQLException && QUERY_CANCELED.equals(((SQLException) e).getSQLState())) {
+            return new ServerBusyException("The query did not complete in time.");
+        }
+        return e;
+    }
+
+    /**
+     * Run a task as if the current thread handled no request, so the queries it submits are not limited or
+     * cancelled by the deadline of the request.
+     *
+     * @param task Task to run.
+     * @param <T>  Type of the result of the task.
+     * @return The result of the task.
+     */
+    static <T> T detached(final Supplier<T> task) {
+        final QueryDeadline previous = CURRENT.get();
+        CURRENT.remove();
+        try {
+            return task.get();
+        } finally {
+            if (previous != null) CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Wrap a task so it runs under the deadline of the current thread, on whichever thread it is run.
+     *
+     * @param task Task to wrap.
+     * @param <T>  Type of the result of the task.
+     * @return The wrapped task.
+     */
+    static <T> Callable<T> propagate(final Callable<T> task) {
+        final QueryDeadline deadline = current();
+        if (deadline == null) return task;
+        return () -> {
+            final QueryDeadline previous = CURRENT.get();
+            CURRENT.set(deadline);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Cancel the request: statements that are executing for it are cancelled, and it cannot execute new ones.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Statement statement : statements) {
+            cancel(statement);
+        }
+    }
+
+    /**
+     * Finish the request once its response is sent. The deadline is removed from the current thread; other threads
+     * that still hold it drop it the next time they look for their deadline.
+     */
+    public void finish() {
+        finished = true;
+        statements.clear();
+        if (CURRENT.get() == this) CURRENT.remove();
+    }
+
+    /**
+     * @return Whether the response of the request was sent.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return Whether the request was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get the time that is left until the deadline.
+     *
+     * @return Milliseconds, rounded up, which are 0 or less if the deadline has passed, or
+     * <code>Long.MAX_VALUE</code> if the queries are not limited.
+     */
+    public long remainingMillis() {
+        if (!limited) return Long.MAX_VALUE;
+        final long remaining = deadlineNanos - System.nanoTime();
+        if (remaining <= 0) return 0;
+        return TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    /**
+     * Register a statement that is about to be executed for the request, so it is cancelled with the request.
+     *
+     * @param statement The statement.
+     * @return Registration which removes the statement again when it is closed.
+     */
+    Registration register(final Statement statement) {
+        statements.add(statement);
+        //The request may have been cancelled between the check of the caller and the registration.
+        if (cancelled) cancel(statement);
+        return () -> statements.remove(statement);
+    }
+
+    /**
+     * Cancel a statement, ignoring statements that completed in the meantime.
+     *
+     * @param statement The statement.
+     */
+    private static void cancel(final Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            System.err.println("Could not cancel a statement: " + e);
+        }
+    }
+
+    /**
+     * A statement that is registered with a deadline.
+     */
+    @FunctionalInterface
+    interface Registration extends AutoCloseable {
+
+        /**
+         * Remove the statement from the deadline.
+         */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,196 @@
+package org.fsg1.fmms.backend.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The read replicas of the database. Reads are spread over the healthy replicas in turn. A replica whose
+ * connection failed is skipped for a while, after which the next read tries it again; reads that find no healthy
+ * replica go to the primary.
+ */
+public final class ReplicaSet {
+    private final List<Replica> replicas;
+
+    private final long retryNanos;
+
+    private final long readYourWritesNanos;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong lastWrite = new AtomicLong();
+
+    private final LongAdder primaryReads = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param replicas             The replicas, which may be empty.
+     * @param retryMillis          Milliseconds a replica is skipped after its connection failed.
+     * @param readYourWritesMillis Milliseconds after a write during which reads go to the primary, or 0.
+     */
+    ReplicaSet(final List<Replica> replicas, final long retryMillis, final long readYourWritesMillis) {
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMillis);
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+    }
+
+    /**
+     * Choose the replica the next read goes to.
+     *
+     * @param primary Whether the read has to see every write that was committed before it, whatever the lag of the
+     *                replicas.
+     * @return A healthy replica, or null if the read has to go to the primary.
+     */
+    Replica choose(final boolean primary) {
+        if (primary || replicas.isEmpty() || isWithinReadYourWrites()) {
+            primaryReads.increment();
+            return null;
+        }
+
+        final long now = System.nanoTime();
+        final int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            final Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.isAvailable(now)) return replica;
+        }
+        primaryReads.increment();
+        return null;
+    }
+
+    /**
+     * Take a replica out of rotation because a connection to it failed.
+     *
+     * @param replica The replica that failed.
+     */
+    void markDown(final Replica replica) {
+        replica.downUntil = System.nanoTime() + retryNanos;
+        replica.failures.increment();
+    }
+
+    /**
+     * Record that a transaction was committed on the primary, so reads in the read-your-writes window see it.
+     */
+    void recordWrite() {
+        if (readYourWritesNanos > 0) lastWrite.set(System.nanoTime());
+    }
+
+    /**
+     * @return Whether a write was committed so recently that reads have to go to the primary.
+     */
+    private boolean isWithinReadYourWrites() {
+        final long written = lastWrite.get();
+        return readYourWritesNanos > 0 && written != 0 && System.nanoTime() - written < readYourWritesNanos;
+    }
+
+    /**
+     * @return The replicas.
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return Number of reads that went to the primary.
+     */
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    /**
+     * Decide whether a failed query failed because of its connection rather than because of the query itself. Only
+     * then is it safe and useful to run the query again on another server.
+     *
+     * @param e The exception of the query.
+     * @return Whether the connection to the server failed.
+     */
+    static boolean isConnectionFailure(final SQLException e) {
+        final String state = e.getSQLState();
+        return state != null && (state.startsWith("08") || state.startsWith("57P"));
+    }
+
+    /**
+     * A read replica with its own connection pool.
+     */
+    public static final class Replica {
+        private final String url;
+
+        private final PoolMonitor monitor;
+
+        private final LongAdder reads = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private volatile long downUntil;
+
+        /**
+         * Constructor.
+         *
+         * @param url     Jdbc uri of the replica.
+         * @param monitor Monitor of the connection pool of the replica.
+         */
+        Replica(final String url, final PoolMonitor monitor) {
+            this.url = url;
+            this.monitor = monitor;
+        }
+
+        /**
+         * Borrow a connection from the replica.
+         *
+         * @return A lease on a connection.
+         * @throws SQLException if no connection could be obtained.
+         */
+        PoolMonitor.Lease borrow() throws SQLException {
+            reads.increment();
+            return monitor.borrow();
+        }
+
+        /**
+         * @param now Value of <code>System.nanoTime()</code>.
+         * @return Whether reads may go to the replica.
+         */
+        private boolean isAvailable(final long now) {
+            return failures.sum() == 0 || now - downUntil >= 0;
+        }
+
+        /**
+         * @return Jdbc uri of the replica.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return Monitor of the connection pool of the replica.
+         */
+        public PoolMonitor getMonitor() {
+            return monitor;
+        }
+
+        /**
+         * @return Whether the replica is out of rotation because a connection to it failed recently.
+         */
+        public boolean isDown() {
+            return !isAvailable(System.nanoTime());
+        }
+
+        /**
+         * @return Number of reads that were sent to the replica.
+         */
+        public long getReads() {
+            return reads.sum();
+        }
+
+        /**
+         * @return Number of times a connection to the replica failed.
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+    }
+}
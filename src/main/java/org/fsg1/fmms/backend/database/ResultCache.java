@@ -0,0 +1,520 @@
+package org.fsg1.fmms.backend.database;
+
+import org.fsg1.fmms.backend.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps the results of read-only queries, bounded by the number of bytes of the results. Entries are evicted in
+ * least recently used order, but a new result is only admitted if it is requested more often than the entry it
+ * would evict, so a burst of one-off queries cannot flush the results that are requested all the time. How often
+ * a result is requested is estimated by a small sketch that also counts requests for results that are not in the
+ * cache.
+ * Every result carries tags, such as the module or curriculum it was built from, by which it is invalidated when a
+ * transaction changes that data.
+ * A result can keep a compressed copy next to it, so a result that is sent compressed is compressed only once.
+ */
+public final class ResultCache {
+    /**
+     * Estimated number of bytes an entry takes next to its result: the key, the map entries and the tag index.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Assumed average size of a result, used to size the frequency sketch.
+     */
+    private static final int AVERAGE_RESULT_BYTES = 4096;
+
+    private final long maxBytes;
+
+    private final long ttlNanos;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, Set<Key>> keysByTag = new HashMap<>();
+
+    private final Map<byte[], Entry> entriesByValue = new IdentityHashMap<>();
+
+    private final FrequencySketch sketch;
+
+    private long bytes;
+
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder rejections = new LongAdder();
+
+    private final LongAdder compressedHits = new LongAdder();
+
+    private final Histogram loadTime = Histogram.forLatency();
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes  Maximum number of bytes of the cache, or 0 to disable it.
+     * @param ttlMillis Milliseconds after which a result expires, or 0 to never expire results.
+     */
+    ResultCache(final long maxBytes, final long ttlMillis) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 16, Math.max(256, this.maxBytes / AVERAGE_RESULT_BYTES)));
+    }
+
+    /**
+     * @return Whether results are cached at all.
+     */
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Look up a result.
+     *
+     * @param key Key of the query.
+     * @return The result, or null if it is not in the cache or expired.
+     */
+    synchronized byte[] get(final Key key) {
+        sketch.increment(key.hash);
+        final Entry entry = entries.get(key);
+        if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.storedAt > ttlNanos) {
+            remove(key);
+        } else if (entry != null) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Get a stamp to pass to {@link #put(Key, byte[], Collection, long)}, taken before the query is executed.
+     *
+     * @return The number of invalidations so far.
+     */
+    synchronized long getStamp() {
+        return invalidations;
+    }
+
+    /**
+     * Store a result. The result is not stored if anything was invalidated since the query started, since the
+     * query may have read data from before the invalidating transaction, nor if it is not requested more often
+     * than the entries it would evict.
+     *
+     * @param key   Key of the query.
+     * @param value The result.
+     * @param tags  Tags by which the result is invalidated.
+     * @param stamp Stamp taken before the query started.
+     */
+    synchronized void put(final Key key, final byte[] value, final Collection<String> tags, final long stamp) {
+        if (stamp != invalidations) return;
+        final long size = (long) value.length + key.size + ENTRY_OVERHEAD;
+        if (size > maxBytes) {
+            rejections.increment();
+            return;
+        }
+        remove(key);
+
+        final List<Key> victims = victims(key, size, null);
+        if (victims == null) {
+            rejections.increment();
+            return;
+        }
+        evict(victims);
+
+        final Entry entry = new Entry(key, value, new ArrayList<>(tags), size, System.nanoTime());
+        entries.put(key, entry);
+        entriesByValue.put(value, entry);
+        bytes += size;
+        for (String tag : entry.tags) {
+            keysByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Find the least recently used entries that have to be evicted to make room for a number of bytes. Either all
+     * of them are evicted or none, so a result that is not admitted does not evict anything.
+     *
+     * @param key  Key of the result that needs the room.
+     * @param size Number of bytes it needs.
+     * @param keep Entry that is not evicted, or null.
+     * @return The keys of the entries to evict, or null if one of them is requested at least as often as the
+     * result that needs the room, or the room cannot be made.
+     */
+    private List<Key> victims(final Key key, final long size, final Entry keep) {
+        final List<Key> victims = new ArrayList<>();
+        final int frequency = sketch.frequency(key.hash);
+        long freed = 0;
+        final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes - freed + size > maxBytes && eldest.hasNext()) {
+            final Map.Entry<Key, Entry> victim = eldest.next();
+            if (victim.getValue() == keep) continue;
+            if (frequency <= sketch.frequency(victim.getKey().hash)) return null;
+            victims.add(victim.getKey());
+            freed += victim.getValue().size;
+        }
+        if (bytes - freed + size > maxBytes) return null;
+        return victims;
+    }
+
+    /**
+     * Evict entries to make room for another result.
+     *
+     * @param victims Keys of the entries, see {@link #victims(Key, long, Entry)}.
+     */
+    private void evict(final List<Key> victims) {
+        for (Key victim : victims) {
+            remove(victim);
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Remove every result that carries one of the tags.
+     *
+     * @param tags Tags of the data that changed.
+     */
+    synchronized void invalidate(final Collection<String> tags) {
+        invalidations++;
+        for (String tag : tags) {
+            final Set<Key> keys = keysByTag.remove(tag);
+            if (keys == null) continue;
+            for (Key key : keys) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Remove every result.
+     */
+    synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+        keysByTag.clear();
+        entriesByValue.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the compressed copy of a result. If the result is cached, the copy is kept with it, so it is only
+     * compressed the first time and dropped together with the result. The copy counts towards the size of the
+     * cache, and is admitted like a new result: only if the entries evicted to make room for it are requested less
+     * often than the result. A result that is not cached, or whose copy is not admitted, is compressed every time.
+     *
+     * @param value      The result, as returned by {@link #get(Key)}.
+     * @param compressor Function that compresses the result.
+     * @return The compressed result.
+     */
+    public byte[] getCompressed(final byte[] value, final UnaryOperator<byte[]> compressor) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entriesByValue.get(value);
+            if (entry != null && entry.compressed != null) {
+                compressedHits.increment();
+                return entry.compressed;
+            }
+        }
+        //Compress outside of the lock; if two requests race, one of the copies is kept.
+        final byte[] compressed = compressor.apply(value);
+        if (entry == null) return compressed;
+        synchronized (this) {
+            if (entry.compressed == null && entriesByValue.get(value) == entry) {
+                final List<Key> victims = victims(entry.key, compressed.length, entry);
+                if (victims != null) {
+                    evict(victims);
+                    entry.compressed = compressed;
+                    entry.size += compressed.length;
+                    bytes += compressed.length;
+                }
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Record how long it took to execute a query whose result was not in the cache.
+     *
+     * @param nanos Duration in nanoseconds.
+     */
+    void recordLoad(final long nanos) {
+        loadTime.record(nanos);
+    }
+
+    /**
+     * Remove an entry and its tags.
+     *
+     * @param key Key of the entry.
+     */
+    private void remove(final Key key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) unlink(key, entry);
+    }
+
+    /**
+     * Remove an entry that was already taken out of the map from the tag index and the byte count.
+     *
+     * @param key   Key of the entry.
+     * @param entry The entry.
+     */
+    private void unlink(final Key key, final Entry entry) {
+        bytes -= entry.size;
+        entriesByValue.remove(entry.value);
+        for (String tag : entry.tags) {
+            final Set<Key> keys = keysByTag.get(tag);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) keysByTag.remove(tag);
+        }
+    }
+
+    /**
+     * @return Number of responses that were sent with a compressed copy that was kept with its result.
+     */
+    public long getCompressedHits() {
+        return compressedHits.sum();
+    }
+
+    /**
+     * @return Number of lookups that found a result.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of lookups that found no result.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Fraction of lookups that found a result, or 0 if there were none.
+     */
+    public double getHitRatio() {
+        final long hitCount = getHits();
+        final long total = hitCount + getMisses();
+        if (total == 0) return 0;
+        return (double) hitCount / total;
+    }
+
+    /**
+     * @return Number of results evicted to make room for others.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Number of results that were not admitted.
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return Time spent executing queries whose result was not in the cache, in nanoseconds.
+     */
+    public Histogram getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * @return Number of results in the cache.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return Estimated number of bytes the results in the cache take.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Maximum number of bytes of the cache.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * The key of a query: its result column, its SQL text and its parameters.
+     */
+    static final class Key {
+        private final List<Object> parts;
+
+        private final int hash;
+
+        private final int size;
+
+        /**
+         * Constructor.
+         *
+         * @param columnName The name of the column that is returned by the query.
+         * @param statement  The SQL String of the query.
+         * @param parameters The parameters of the query.
+         */
+        Key(final String columnName, final String statement, final Object... parameters) {
+            final List<Object> keyParts = new ArrayList<>(parameters.length + 2);
+            keyParts.add(columnName);
+            keyParts.add(statement);
+            keyParts.addAll(Arrays.asList(parameters));
+            this.parts = keyParts;
+            this.hash = keyParts.hashCode();
+
+            int length = 0;
+            for (Object part : keyParts) {
+                length += String.valueOf(part).length();
+            }
+            //The statement text is shared with the service, so only the parameters really take space.
+            this.size = length - statement.length() + parameters.length * 16;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && parts.equals(((Key) o).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry {
+        private final Key key;
+
+        private final byte[] value;
+
+        private final List<String> tags;
+
+        private final long storedAt;
+
+        private long size;
+
+        private byte[] compressed;
+
+        /**
+         * Constructor.
+         *
+         * @param key      Key of the query.
+         * @param value    The result.
+         * @param tags     Tags by which the result is invalidated.
+         * @param size     Estimated number of bytes the entry takes.
+         * @param storedAt Value of <code>System.nanoTime()</code> when the result was stored.
+         */
+        private Entry(final Key key, final byte[] value, final List<String> tags, final long size, final long storedAt) {
+            this.key = key;
+            this.value = value;
+            this.tags = tags;
+            this.size = size;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * Estimates how often keys were requested recently, in a fixed amount of memory. Every key increments one
+     * counter in each of four rows; its estimate is the smallest of those counters. Counters stop at 15 and are all
+     * halved after a number of increments, so keys that are no longer requested lose their weight.
+     */
+    private static final class FrequencySketch {
+        private static final int ROWS = 4;
+
+        private static final int MAX_COUNT = 15;
+
+        private static final int[] SEEDS = {0x97cb3127, 0x8f2b3e53, 0x5c6e7a95, 0x2f1d3b8b};
+
+        private final byte[][] counters;
+
+        private final int mask;
+
+        private final int resetAfter;
+
+        private int increments;
+
+        /**
+         * Constructor.
+         *
+         * @param width Number of counters per row. Rounded up to a power of two.
+         */
+        private FrequencySketch(final int width) {
+            final int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+            this.counters = new byte[ROWS][size];
+            this.mask = size - 1;
+            this.resetAfter = size * 10;
+        }
+
+        /**
+         * Count a request for a key.
+         *
+         * @param hash Hash of the key.
+         */
+        private void increment(final int hash) {
+            for (int row = 0; row < ROWS; row++) {
+                final int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT) counters[row][index]++;
+            }
+            if (++increments >= resetAfter) halve();
+        }
+
+        /**
+         * Estimate how often a key was requested.
+         *
+         * @param hash Hash of the key.
+         * @return The estimated number of requests.
+         */
+        private int frequency(final int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        /**
+         * @param hash Hash of the key.
+         * @param row  Row of the sketch.
+         * @return Index of the counter of the key in the row.
+         */
+        private int index(final int hash, final int row) {
+            final int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+            return (h ^ (h >>> 15)) & mask;
+        }
+
+        /**
+         * Halve every counter.
+         */
+        private void halve() {
+            increments /= 2;
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >> 1);
+                }
+            }
+        }
+    }
+}
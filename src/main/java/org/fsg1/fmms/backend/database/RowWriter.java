@@ -0,0 +1,18 @@
+package org.fsg1.fmms.backend.database;
+
+import java.io.IOException;
+
+/**
+ * Functional interface for functions that receive the rows of a streamed query one at a time.
+ */
+@FunctionalInterface
+public interface RowWriter {
+
+    /**
+     * Write a row.
+     *
+     * @param value The UTF-8 encoded value of the column of the row.
+     * @throws IOException If the row could not be written.
+     */
+    void write(byte[] value) throws IOException;
+}
@@ -0,0 +1,196 @@
+package org.fsg1.fmms.backend.database;
+
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.fsg1.fmms.backend.util.DaemonThreads;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical reads: a read of the same query with the same parameters as a read that is executing already
+ * waits for that execution and shares its result, instead of executing the query again. A read only joins an
+ * execution that started after the last write to its tags, so it never gets a result that is older than the writes
+ * it may have made itself.
+ * <p>
+ * The shared execution does not belong to any of the requests that wait for it: it is limited by the statement
+ * timeout of its query, and a request that ends does not cancel it for the others. Every request waits for it at
+ * most the maximum wait, and then fails with a 503.
+ */
+public final class SingleFlight {
+
+    private final boolean enabled;
+
+    private final long maxWaitMillis;
+
+    private final TagVersions versions;
+
+    private final Map<ResultCache.Key, Flight> flights = new ConcurrentHashMap<>();
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final LongAdder executions = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param enabled       Whether identical reads share their execution.
+     * @param maxWaitMillis Milliseconds a read waits for a shared execution, or 0 to wait as long as it takes.
+     * @param versions      Versions of the tags of the reads.
+     */
+    SingleFlight(final boolean enabled, final long maxWaitMillis, final TagVersions versions) {
+        this.enabled = enabled;
+        this.maxWaitMillis = maxWaitMillis;
+        this.versions = versions;
+        if (enabled && maxWaitMillis > 0) {
+            this.timer = new ScheduledThreadPoolExecutor(1, DaemonThreads.named("db-coalesce-timer"));
+            this.timer.setRemoveOnCancelPolicy(true);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Execute a read, or join the execution of the same read that is in flight.
+     *
+     * @param key   Key of the read.
+     * @param tags  Tags of the data the read returns.
+     * @param query Starts the execution of the read.
+     * @return A future of the result, which may be shared with other reads. Cancelling it does not cancel the
+     * execution.
+     */
+    CompletableFuture<byte[]> execute(final ResultCache.Key key,
+                                      final Collection<String> tags,
+                                      final Supplier<CompletableFuture<byte[]>> query) {
+        if (!enabled) return query.get();
+        //The version is taken before the query, see TagVersions.
+        final String version = versions.get(tags);
+        while (true) {
+            final Flight flight = flights.get(key);
+            if (flight != null && flight.version.equals(version)) {
+                coalesced.increment();
+                return await(flight.result);
+            }
+            final Flight started = new Flight(version);
+            final boolean leader;
+            if (flight == null) {
+                leader = flights.putIfAbsent(key, started) == null;
+            } else {
+                leader = flights.replace(key, flight, started);
+            }
+            if (!leader) continue;
+
+            executions.increment();
+            QueryDeadline.detached(query).whenComplete((value, error) -> {
+                flights.remove(key, started);
+                if (error == null) {
+                    started.result.complete(value);
+                } else {
+                    started.result.completeExceptionally(error);
+                }
+            });
+            return await(started.result);
+        }
+    }
+
+    /**
+     * Wait for a shared execution, for at most the maximum wait.
+     *
+     * @param result Future of the result of the execution.
+     * @return A future of the result that belongs to the caller alone.
+     */
+    private CompletableFuture<byte[]> await(final CompletableFuture<byte[]> result) {
+        final CompletableFuture<byte[]> own = new CompletableFuture<>();
+        result.whenComplete((value, error) -> {
+            if (error == null) {
+                own.complete(value);
+            } else {
+                own.completeExceptionally(error);
+            }
+        });
+        if (timer == null || own.isDone()) return own;
+        final ScheduledFuture<?> timeout = timer.schedule(() -> {
+            //Counted before the waiter fails, so whoever sees the failure sees the count as well.
+            timeouts.increment();
+            if (!own.completeExceptionally(new ServerBusyException("The shared query did not complete in time."))) {
+                timeouts.decrement();
+            }
+        }, maxWaitMillis, TimeUnit.MILLISECONDS);
+        own.whenComplete((value, error) -> timeout.cancel(false));
+        return own;
+    }
+
+    /**
+     * @return Whether identical reads share their execution.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Number of reads that were executed.
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * @return Number of reads that shared an execution that was in flight.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Share of the reads that shared an execution, between 0 and 1.
+     */
+    public double getCoalescingRatio() {
+        final long shared = getCoalesced();
+        final long total = shared + getExecutions();
+        if (total == 0) return 0;
+        return shared / (double) total;
+    }
+
+    /**
+     * @return Number of reads that stopped waiting for a shared execution.
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return Number of executions in flight.
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * An execution in flight.
+     */
+    private static final class Flight {
+
+        private final String version;
+
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        /**
+         * Constructor.
+         *
+         * @param version Version of the tags of the read when the execution started.
+         */
+        Flight(final String version) {
+            this.version = version;
+        }
+    }
+}
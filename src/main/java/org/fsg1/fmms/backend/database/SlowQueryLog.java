@@ -0,0 +1,232 @@
+package org.fsg1.fmms.backend.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs reads that take longer than a threshold, with their parameters, and keeps the last of them so their plans
+ * can be inspected. Capturing a plan executes the query again, so at most one plan is captured per interval, and
+ * the query gets a statement timeout of its own so a pathological query does not hold a connection of the primary
+ * for as long as it ran, or longer.
+ */
+public final class SlowQueryLog {
+    private static final String EXPLAIN = "EXPLAIN (ANALYZE, BUFFERS) ";
+
+    private final long thresholdNanos;
+
+    private final long explainIntervalNanos;
+
+    private final long explainTimeoutMillis;
+
+    private final int capacity;
+
+    private final Deque<SlowQuery> queries = new ArrayDeque<>();
+
+    private final AtomicLong lastExplain = new AtomicLong();
+
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param thresholdMillis       Milliseconds after which a read counts as slow, or 0 to disable the log.
+     * @param explainIntervalMillis Minimum number of milliseconds between two captured plans, or -1 to never
+     *                              capture plans.
+     * @param explainTimeoutMillis  Statement timeout in milliseconds of a captured plan, or 0 for no timeout.
+     * @param capacity              Number of slow queries that are kept.
+     */
+    SlowQueryLog(final long thresholdMillis,
+                 final long explainIntervalMillis,
+                 final long explainTimeoutMillis,
+                 final int capacity) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.explainIntervalNanos = TimeUnit.MILLISECONDS.toNanos(explainIntervalMillis);
+        this.explainTimeoutMillis = Math.max(0, explainTimeoutMillis);
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Record the duration of a read, and log it if it was slow.
+     *
+     * @param name       Name of the query.
+     * @param statement  SQL text of the query.
+     * @param parameters Parameters the query was executed with.
+     * @param nanos      Duration of the read in nanoseconds.
+     * @return The slow query if its plan should be captured, or null if the read was not slow or a plan was
+     * captured too recently.
+     */
+    SlowQuery record(final String name, final String statement, final Object[] parameters, final long nanos) {
+        if (thresholdNanos <= 0 || nanos < thresholdNanos) return null;
+
+        final List<String> values = new ArrayList<>(parameters.length);
+        for (Object parameter : parameters) {
+            values.add(String.valueOf(parameter));
+        }
+        final SlowQuery query = new SlowQuery(name, statement, values, nanos, System.currentTimeMillis());
+        count.increment();
+        System.err.println("Slow query " + name + " took " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms with " +
+                "parameters " + values);
+        synchronized (queries) {
+            if (queries.size() == capacity) queries.removeFirst();
+            queries.addLast(query);
+        }
+
+        if (explainIntervalNanos < 0) return null;
+        final long now = System.nanoTime();
+        final long last = lastExplain.get();
+        if (last != 0 && now - last < explainIntervalNanos) return null;
+        if (!lastExplain.compareAndSet(last, now)) return null;
+        return query;
+    }
+
+    /**
+     * Capture the plan of a slow query by running it again with <code>EXPLAIN (ANALYZE, BUFFERS)</code> on a
+     * connection of its own.
+     *
+     * @param query      The slow query.
+     * @param pool       The pool to borrow the connection from.
+     * @param plan       Binding plan of the query.
+     * @param parameters The parameters the query was executed with.
+     */
+    void explain(final SlowQuery query,
+                 final PoolMonitor pool,
+                 final StatementCache.StatementPlan plan,
+                 final Object[] parameters) {
+        try (PoolMonitor.Lease lease = pool.borrow();
+             PreparedStatement preparedStatement = lease.getConnection().prepareStatement(EXPLAIN + query.getStatement())) {
+            plan.bind(preparedStatement, parameters);
+            //Pooled statements keep the timeout of their previous execution, so it is always set.
+            preparedStatement.setQueryTimeout((int) Math.min(TimeUnit.MILLISECONDS.toSeconds(explainTimeoutMillis + 999),
+                    Integer.MAX_VALUE));
+            final StringBuilder lines = new StringBuilder();
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                while (result.next()) {
+                    if (lines.length() > 0) lines.append('\n');
+                    lines.append(result.getString(1));
+                }
+            }
+            query.setPlan(lines.toString());
+        } catch (Exception e) {
+            query.setPlan("Could not capture the plan: " + e);
+        }
+    }
+
+    /**
+     * @return The last slow queries, oldest first.
+     */
+    public List<SlowQuery> getQueries() {
+        synchronized (queries) {
+            return Collections.unmodifiableList(new ArrayList<>(queries));
+        }
+    }
+
+    /**
+     * @return Number of slow reads since startup.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Milliseconds after which a read counts as slow, or 0 if the log is disabled.
+     */
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    /**
+     * A read that took longer than the threshold.
+     */
+    public static final class SlowQuery {
+        private final String name;
+
+        private final String statement;
+
+        private final List<String> parameters;
+
+        private final long nanos;
+
+        private final long loggedAt;
+
+        private volatile String plan;
+
+        /**
+         * Constructor.
+         *
+         * @param name       Name of the query.
+         * @param statement  SQL text of the query.
+         * @param parameters Parameters the query was executed with.
+         * @param nanos      Duration of the read in nanoseconds.
+         * @param loggedAt   Time the read finished, in milliseconds since the epoch.
+         */
+        private SlowQuery(final String name,
+                          final String statement,
+                          final List<String> parameters,
+                          final long nanos,
+                          final long loggedAt) {
+            this.name = name;
+            this.statement = statement;
+            this.parameters = Collections.unmodifiableList(parameters);
+            this.nanos = nanos;
+            this.loggedAt = loggedAt;
+        }
+
+        /**
+         * @return Name of the query.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return SQL text of the query.
+         */
+        public String getStatement() {
+            return statement;
+        }
+
+        /**
+         * @return Parameters the query was executed with.
+         */
+        public List<String> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return Duration of the read in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return Time the read finished, in milliseconds since the epoch.
+         */
+        public long getLoggedAt() {
+            return loggedAt;
+        }
+
+        /**
+         * @return The output of <code>EXPLAIN (ANALYZE, BUFFERS)</code> for the parameters, or null if no plan was
+         * captured (yet).
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        /**
+         * @param newPlan The captured plan.
+         */
+        void setPlan(final String newPlan) {
+            this.plan = newPlan;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package org.fsg1.fmms.backend.database;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Complete responses that are rendered ahead of the requests, held in direct memory outside of the heap so that
+ * many of them add nothing to the work of the garbage collector. The responses are appended to segments of direct
+ * memory and found through an index by key. A replaced or removed response leaves a gap in its segment, and once
+ * the gaps make up half of the memory the responses are copied to new segments without them.
+ * <p>
+ * A response is only stored if the versions of its tags did not change while it was rendered, and it is removed
+ * as soon as one of its tags is raised, so a stored response is never older than the data it is built from.
+ */
+public final class SnapshotStore {
+
+    private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    private final long maxBytes;
+
+    private final TagVersions versions;
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<String>> keysByTag = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private ByteBuffer segment;
+
+    private long allocatedBytes;
+
+    private long bytes;
+
+    private long rejections;
+
+    private long compactions;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes Maximum number of bytes of direct memory the segments may take, or 0 to store nothing.
+     * @param versions Versions of the tags of the responses.
+     */
+    SnapshotStore(final long maxBytes, final TagVersions versions) {
+        this.maxBytes = maxBytes;
+        this.versions = versions;
+    }
+
+    /**
+     * @return Whether responses are stored at all.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Look up a response. This takes no lock.
+     *
+     * @param key Key of the response, such as its path.
+     * @return The response, or null if it is not stored.
+     */
+    public Snapshot get(final String key) {
+        final Snapshot snapshot = snapshots.get(key);
+        if (snapshot == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Store a response, replacing the response that was stored under its key.
+     *
+     * @param key        Key of the response.
+     * @param tags       Tags of the data the response is built from.
+     * @param version    Version of the tags, taken before the response was rendered.
+     * @param value      The response.
+     * @param compressed The response compressed with gzip, or null if it is not sent compressed.
+     * @return Whether the response was stored. It is not if one of its tags changed since the version was taken,
+     * or if it does not fit.
+     */
+    public synchronized boolean put(final String key, final Collection<String> tags, final String version,
+                                    final byte[] value, final byte[] compressed) {
+        if (!isEnabled() || !version.equals(versions.get(tags))) return false;
+        int size = value.length;
+        if (compressed != null) size += compressed.length;
+        if (!reserve(size)) {
+            rejections++;
+            return false;
+        }
+        ByteBuffer compressedBody = null;
+        if (compressed != null) compressedBody = append(compressed);
+        final Snapshot snapshot = new Snapshot(version, new ArrayList<>(tags), append(value), compressedBody);
+        final Snapshot previous = snapshots.put(key, snapshot);
+        if (previous != null) unlink(key, previous);
+        for (String tag : snapshot.tags) {
+            keysByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+        }
+        bytes += snapshot.size;
+        return true;
+    }
+
+    /**
+     * Remove every response that is built from data of one of the tags.
+     *
+     * @param tags Tags of the data that changed.
+     * @return Keys of the responses that were removed.
+     */
+    public synchronized Set<String> remove(final Collection<String> tags) {
+        final Set<String> removed = new HashSet<>();
+        for (String tag : tags) {
+            final Set<String> keys = keysByTag.get(tag);
+            if (keys != null) removed.addAll(keys);
+        }
+        for (String key : removed) {
+            final Snapshot snapshot = snapshots.remove(key);
+            if (snapshot != null) unlink(key, snapshot);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove every response and release the segments.
+     *
+     * @return Keys of the responses that were removed.
+     */
+    public synchronized Set<String> removeAll() {
+        final Set<String> removed = new HashSet<>(snapshots.keySet());
+        snapshots.clear();
+        keysByTag.clear();
+        segment = null;
+        allocatedBytes = 0;
+        bytes = 0;
+        return removed;
+    }
+
+    /**
+     * Make room for a response in the current segment, starting a new segment or compacting the segments if it
+     * does not fit.
+     *
+     * @param size Size of the response in bytes.
+     * @return Whether there is room.
+     */
+    private boolean reserve(final int size) {
+        if (segment != null && segment.remaining() >= size) return true;
+        final int segmentBytes = Math.max(SEGMENT_BYTES, size);
+        if (allocatedBytes + segmentBytes > maxBytes || getGapBytes() > allocatedBytes / 2) {
+            compact();
+            if (segment != null && segment.remaining() >= size) return true;
+            if (allocatedBytes + segmentBytes > maxBytes) return false;
+        }
+        segment = ByteBuffer.allocateDirect(segmentBytes);
+        allocatedBytes += segmentBytes;
+        return true;
+    }
+
+    /**
+     * Copy every response to new segments, leaving out the gaps. Requests that are writing a response from the
+     * old segments keep them alive until they are done.
+     */
+    private void compact() {
+        if (getGapBytes() == 0) return;
+        compactions++;
+        segment = null;
+        allocatedBytes = 0;
+        for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+            final Snapshot snapshot = entry.getValue();
+            final int size = (int) snapshot.size;
+            if (segment == null || segment.remaining() < size) {
+                final int segmentBytes = Math.max(SEGMENT_BYTES, size);
+                segment = ByteBuffer.allocateDirect(segmentBytes);
+                allocatedBytes += segmentBytes;
+            }
+            ByteBuffer compressedBody = null;
+            if (snapshot.compressed != null) compressedBody = append(snapshot.compressed.duplicate());
+            entry.setValue(new Snapshot(snapshot.version, snapshot.tags, append(snapshot.body.duplicate()),
+                    compressedBody));
+        }
+    }
+
+    /**
+     * Append bytes to the current segment, which has room for them.
+     *
+     * @param value The bytes.
+     * @return A read-only view of the bytes in the segment.
+     */
+    private ByteBuffer append(final byte[] value) {
+        return append(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Append bytes to the current segment, which has room for them.
+     *
+     * @param value The bytes.
+     * @return A read-only view of the bytes in the segment.
+     */
+    private ByteBuffer append(final ByteBuffer value) {
+        final int start = segment.position();
+        segment.put(value);
+        final ByteBuffer view = segment.duplicate();
+        view.position(start);
+        view.limit(segment.position());
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Remove a response from the tag index.
+     *
+     * @param key      Key of the response.
+     * @param snapshot The response.
+     */
+    private void unlink(final String key, final Snapshot snapshot) {
+        bytes -= snapshot.size;
+        for (String tag : snapshot.tags) {
+            final Set<String> keys = keysByTag.get(tag);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) keysByTag.remove(tag);
+        }
+    }
+
+    /**
+     * @return Bytes of the segments that hold no response, except for the free end of the current segment.
+     */
+    private long getGapBytes() {
+        long free = 0;
+        if (segment != null) free = segment.remaining();
+        return allocatedBytes - bytes - free;
+    }
+
+    /**
+     * @return Number of stored responses.
+     */
+    public int getSize() {
+        return snapshots.size();
+    }
+
+    /**
+     * @return Bytes of the stored responses.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Bytes of direct memory taken by the segments.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return Maximum number of bytes of direct memory the segments may take.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Number of lookups that found a response.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of lookups that found no response.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of responses that did not fit.
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * @return Number of times the segments were compacted.
+     */
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * A stored response, which writes itself from direct memory.
+     */
+    public static final class Snapshot implements StreamingOutput {
+
+        private static final int CHUNK_BYTES = 8192;
+
+        private final String version;
+
+        private final List<String> tags;
+
+        private final ByteBuffer body;
+
+        private final ByteBuffer compressed;
+
+        private final long size;
+
+        /**
+         * Constructor.
+         *
+         * @param version    Version of the tags of the response.
+         * @param tags       Tags of the data the response is built from.
+         * @param body       The response.
+         * @param compressed The response compressed with gzip, or null.
+         */
+        Snapshot(final String version, final List<String> tags, final ByteBuffer body, final ByteBuffer compressed) {
+            this.version = version;
+            this.tags = tags;
+            this.body = body;
+            this.compressed = compressed;
+            long bodySize = body.capacity();
+            if (compressed != null) bodySize += compressed.capacity();
+            this.size = bodySize;
+        }
+
+        /**
+         * @return Version of the tags of the response, which serves as its <code>ETag</code>.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * @return Whether the response is also stored compressed with gzip.
+         */
+        public boolean isCompressed() {
+            return compressed != null;
+        }
+
+        /**
+         * Write the response.
+         *
+         * @param out Stream to write to.
+         * @throws IOException if the response could not be written.
+         */
+        @Override
+        public void write(final OutputStream out) throws IOException {
+            copy(body, out);
+        }
+
+        /**
+         * Write the response compressed with gzip.
+         *
+         * @param out Stream to write to.
+         * @throws IOException if the response could not be written.
+         */
+        public void writeCompressed(final OutputStream out) throws IOException {
+            copy(compressed, out);
+        }
+
+        /**
+         * Copy bytes from direct memory to a stream, through a small buffer on the heap.
+         *
+         * @param buffer The bytes, which are not changed.
+         * @param out    Stream to write to.
+         * @throws IOException if the bytes could not be written.
+         */
+        private static void copy(final ByteBuffer buffer, final OutputStream out) throws IOException {
+            final ByteBuffer source = buffer.duplicate();
+            final byte[] chunk = new byte[Math.min(CHUNK_BYTES, source.remaining())];
+            while (source.hasRemaining()) {
+                final int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+}
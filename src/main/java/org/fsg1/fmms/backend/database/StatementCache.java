@@ -0,0 +1,227 @@
+package org.fsg1.fmms.backend.database;
+
+import org.fsg1.fmms.backend.metrics.QueryStats;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a binding plan for every SQL text that passes through the <code>Connection</code>.
+ * The plan holds the number of parameters of the statement, so parameters can be mapped without asking the
+ * driver for <code>ParameterMetaData</code>, which costs an extra round trip with the PostgreSQL driver.
+ * The prepared statements themselves are pooled per connection by DBCP, this class only counts how often a
+ * statement text was seen before.
+ * Every statement also has a name under which its executions are timed. Services name their queries; other
+ * statements are named after their command and the first table they touch, such as
+ * <code>insert study.moduletopic</code>.
+ */
+final class StatementCache {
+    private static final Map<Class<?>, ParameterSetter> SETTERS = new HashMap<>();
+
+    static {
+        SETTERS.put(Integer.class, (ps, index, value) -> ps.setInt(index, (Integer) value));
+        SETTERS.put(Long.class, (ps, index, value) -> ps.setLong(index, (Long) value));
+        SETTERS.put(String.class, (ps, index, value) -> ps.setString(index, (String) value));
+        SETTERS.put(Boolean.class, (ps, index, value) -> ps.setBoolean(index, (Boolean) value));
+        SETTERS.put(Double.class, (ps, index, value) -> ps.setDouble(index, (Double) value));
+    }
+
+    private final Map<String, StatementPlan> plans = new ConcurrentHashMap<>();
+
+    private final Map<String, QueryStats> stats = new ConcurrentHashMap<>();
+
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Get the plan of a statement, creating it the first time the statement is seen.
+     *
+     * @param statement SQL text of the statement.
+     * @return The plan of the statement.
+     */
+    StatementPlan planFor(final String statement) {
+        final StatementPlan plan = plans.get(statement);
+        if (plan != null) {
+            hits.increment();
+            return plan;
+        }
+        misses.increment();
+        return plans.computeIfAbsent(statement, this::newPlan);
+    }
+
+    /**
+     * Give a statement a stable name, under which its executions are timed.
+     *
+     * @param statement SQL text of the statement.
+     * @param name      Name of the statement.
+     */
+    void name(final String statement, final String name) {
+        plans.computeIfAbsent(statement, this::newPlan).stats = statsFor(name);
+        names.put(statement, name);
+    }
+
+    /**
+     * @return The name of every named statement, by its SQL text.
+     */
+    Map<String, String> getNamedStatements() {
+        return names;
+    }
+
+    /**
+     * @return The timings of every named statement.
+     */
+    Collection<QueryStats> getQueryStats() {
+        return stats.values();
+    }
+
+    /**
+     * Create the plan of a statement that was not seen before.
+     *
+     * @param statement SQL text of the statement.
+     * @return The plan, named after the statement.
+     */
+    private StatementPlan newPlan(final String statement) {
+        return new StatementPlan(statement, statsFor(defaultName(statement)));
+    }
+
+    /**
+     * @param name Name of a statement.
+     * @return The timings of the statements with that name.
+     */
+    private QueryStats statsFor(final String name) {
+        return stats.computeIfAbsent(name, QueryStats::new);
+    }
+
+    /**
+     * Name a statement after its command and the first table that follows <code>FROM</code>, <code>INTO</code>,
+     * <code>UPDATE</code> or <code>TABLE</code>.
+     *
+     * @param statement SQL text of the statement.
+     * @return The name, such as <code>delete study.moduletopic</code>.
+     */
+    static String defaultName(final String statement) {
+        final String[] words = statement.trim().split("[\\s(),;]+");
+        if (words.length == 0 || words[0].isEmpty()) return "unnamed";
+        final String command = words[0].toLowerCase(Locale.ROOT);
+        for (int i = 0; i < words.length - 1; i++) {
+            final String word = words[i].toUpperCase(Locale.ROOT);
+            if (word.equals("FROM") || word.equals("INTO") || word.equals("UPDATE") || word.equals("TABLE")) {
+                String table = words[i + 1];
+                if (table.equalsIgnoreCase("IF") && i + 4 < words.length) table = words[i + 4];
+                return command + " " + table.toLowerCase(Locale.ROOT);
+            }
+        }
+        return command;
+    }
+
+    /**
+     * @return The number of times a statement was executed that had been executed before.
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of times a statement was executed for the first time.
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Sets one parameter of a <code>PreparedStatement</code>.
+     */
+    @FunctionalInterface
+    private interface ParameterSetter {
+        /**
+         * Set the parameter.
+         *
+         * @param ps    Statement to set the parameter on.
+         * @param index Index of the parameter, starting at 1.
+         * @param value Value of the parameter.
+         * @throws SQLException if the parameter could not be set.
+         */
+        void set(PreparedStatement ps, int index, Object value) throws SQLException;
+    }
+
+    /**
+     * The binding plan of one statement.
+     */
+    static final class StatementPlan {
+        private final int parameterCount;
+
+        private volatile QueryStats stats;
+
+        /**
+         * Constructor. Counts the parameter markers of the statement once.
+         *
+         * @param statement SQL text of the statement.
+         * @param stats     Timings of the statement.
+         */
+        private StatementPlan(final String statement, final QueryStats stats) {
+            this.parameterCount = countParameters(statement);
+            this.stats = stats;
+        }
+
+        /**
+         * @return The timings of the statement.
+         */
+        QueryStats getStats() {
+            return stats;
+        }
+
+        /**
+         * @return The number of parameter markers in the statement.
+         */
+        int getParameterCount() {
+            return parameterCount;
+        }
+
+        /**
+         * Maps parameters to a PreparedStatement.
+         * Any objects given in the `args` array will be mapped sequentially to any question mark in the
+         * <code>PreparedStatement</code>. Any excess parameters will not be mapped.
+         *
+         * @param ps   PreparedStatement to map parameters to.
+         * @param args Array of Integers, Longs, Strings, Booleans or Doubles that represent the parameters.
+         * @throws SQLException if a database access error occurs, an argument has an unsupported type, or
+         *                      this method is called on a closed <code>PreparedStatement</code>.
+         */
+        void bind(final PreparedStatement ps, final Object... args) throws SQLException {
+            int i = 1;
+            for (Object arg : args) {
+                if (i > parameterCount) return;
+                if (arg == null) continue;
+                final ParameterSetter setter = SETTERS.get(arg.getClass());
+                if (setter == null) {
+                    throw new SQLException("Unsupported parameter type: " + arg.getClass().getName());
+                }
+                setter.set(ps, i++, arg);
+            }
+        }
+
+        /**
+         * Counts the question marks in a statement. None of the statements of this application use question marks
+         * for anything else than parameters, so no SQL parsing is done.
+         *
+         * @param statement SQL text.
+         * @return The number of parameter markers.
+         */
+        private static int countParameters(final String statement) {
+            int count = 0;
+            for (int i = 0; i < statement.length(); i++) {
+                if (statement.charAt(i) == '?') count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.fsg1.fmms.backend.database;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions of the data behind the cache tags, which are raised whenever the results of a tag are invalidated. The
+ * versions of the tags of a result validate it without executing its query: as long as they are the same, so is
+ * the result. They are counted from the start of the application, so a restart changes every version.
+ */
+public final class TagVersions {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add a listener that is told about every raise, after the versions are raised.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Raise the versions of tags. This has to be called after the transaction that changed the data is committed.
+     *
+     * @param tags Tags of the data that changed.
+     */
+    void raise(final Collection<String> tags) {
+        for (String tag : tags) {
+            versions.computeIfAbsent(tag, key -> new AtomicLong()).incrementAndGet();
+        }
+        for (Listener listener : listeners) {
+            listener.raised(tags);
+        }
+    }
+
+    /**
+     * Raise the version of every tag.
+     */
+    void raiseAll() {
+        generation.incrementAndGet();
+        for (Listener listener : listeners) {
+            listener.raisedAll();
+        }
+    }
+
+    /**
+     * Get the version of a result. It has to be taken before the query of the result is executed, so a change
+     * that is committed in the meantime gives a later result a new version rather than an old result the new one.
+     *
+     * @param tags Tags of the data the result is built from.
+     * @return The version, which changes whenever one of the tags is invalidated.
+     */
+    public String get(final Collection<String> tags) {
+        final StringBuilder version = new StringBuilder(epoch).append('-').append(generation.get());
+        for (String tag : tags) {
+            final AtomicLong tagVersion = versions.get(tag);
+            version.append('-');
+            if (tagVersion == null) {
+                version.append(0);
+            } else {
+                version.append(tagVersion.get());
+            }
+        }
+        return version.toString();
+    }
+
+    /**
+     * Listener that keeps data derived from the tags up to date.
+     */
+    public interface Listener {
+
+        /**
+         * The versions of tags were raised.
+         *
+         * @param tags Tags of the data that changed.
+         */
+        void raised(Collection<String> tags);
+
+        /**
+         * The version of every tag was raised.
+         */
+        void raisedAll();
+    }
+}
@@ -1,14 +1,20 @@
 package org.fsg1.fmms.backend.endpoints;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.CurriculaService;
+import org.fsg1.fmms.backend.services.SnapshotService;
 
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * The class containing the curricula endpoints.
@@ -29,16 +35,16 @@ public class CurriculaEndpoint extends Endpoint<CurriculaService> {
     /**
      * Returns all curricula.
      *
-     * @return A JSON array of all the curricula.
-     * @throws Exception In case the querying goes wrong.
+     * @param request  The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response Suspended response, resumed with a JSON array of all the curricula.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getCurriculumSemesters() throws Exception {
+    public void getCurriculumSemesters(@Context final Request request, @Suspended final AsyncResponse response) {
         final CurriculaService service = getService();
-        final JsonNode result = service.get(service.getQueryCurriculaString(), "curricula");
-        final String jsonString = result.toString();
-        return Response.status(Response.Status.OK).entity(jsonString).build();
+        final List<String> tags = Collections.singletonList(CacheTags.CURRICULA);
+        resumeConditionally(request, response, SnapshotService.CURRICULA, tags, maxAge(LIST_MAX_AGE_SECONDS), () ->
+                service.getCachedAsync(tags, service.getQueryCurriculaString(), "curricula"));
     }
 }
 
@@ -1,13 +1,38 @@
 package org.fsg1.fmms.backend.endpoints;
 
+import org.fsg1.fmms.backend.database.QueryDeadline;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
 import org.fsg1.fmms.backend.services.Service;
 
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
 /**
  * Abstract class for an Endpoint.
  *
  * @param <ServiceType> Type of Service this endpoint uses.
  */
 public abstract class Endpoint<ServiceType extends Service> {
+    /**
+     * Media type of newline delimited JSON.
+     */
+    static final String NDJSON = "application/x-ndjson";
+
+    /**
+     * Seconds a client may use the lists of curricula and qualifications before it revalidates them. They only
+     * change with an import.
+     */
+    static final int LIST_MAX_AGE_SECONDS = 60;
+
     private final ServiceType service;
 
     /**
@@ -28,4 +53,122 @@ public abstract class Endpoint<ServiceType extends Service> {
     public ServiceType getService() {
         return service;
     }
+
+    /**
+     * Resumes a suspended response with the outcome of a future once it completes. Exceptions are unwrapped so the
+     * exception mappers see the original exception. If the future does not complete within the asynchronous timeout
+     * of the service it is cancelled, together with the statement that is executing for the request, and the response
+     * is resumed with a 503.
+     *
+     * @param response Suspended response.
+     * @param result   Future of the entity of the response.
+     */
+    final void resume(final AsyncResponse response, final CompletableFuture<?> result) {
+        final long timeout = service.getAsyncTimeoutMillis();
+        if (timeout > 0) {
+            final QueryDeadline deadline = QueryDeadline.current();
+            response.setTimeoutHandler(timedOut -> {
+                timedOut.resume(new ServerBusyException("The query did not complete in time."));
+                result.cancel(true);
+                if (deadline != null) deadline.cancel();
+            });
+            response.setTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        result.whenComplete((entity, error) -> {
+            if (error == null) {
+                response.resume(entity);
+            } else if (error instanceof CompletionException && error.getCause() != null) {
+                response.resume(error.getCause());
+            } else {
+                response.resume(error);
+            }
+        });
+    }
+
+    /**
+     * Resumes a suspended response like {@link #resume(AsyncResponse, CompletableFuture)}, with the version of
+     * its tags as weak <code>ETag</code>. When the <code>If-None-Match</code> header of the request holds that
+     * version, the response is resumed with a 304 and the entity is not computed at all.
+     *
+     * @param request      The request, with its conditional headers.
+     * @param response     Suspended response.
+     * @param tags         Tags of the data the entity is built from.
+     * @param cacheControl Cache policy of the response.
+     * @param entity       Computes the future of the entity of the response.
+     */
+    final void resumeConditionally(final Request request, final AsyncResponse response,
+                                   final Collection<String> tags, final CacheControl cacheControl,
+                                   final Supplier<CompletableFuture<?>> entity) {
+        resumeConditionally(request, response, null, tags, cacheControl, entity);
+    }
+
+    /**
+     * Resumes a suspended response like {@link #resumeConditionally(Request, AsyncResponse, Collection,
+     * CacheControl, Supplier)}, but with the response that was rendered ahead of the request under the key if
+     * there is one, see {@link org.fsg1.fmms.backend.services.SnapshotService}. A rendered response is never older
+     * than its tags, so its own version serves as <code>ETag</code>.
+     *
+     * @param request      The request, with its conditional headers.
+     * @param response     Suspended response.
+     * @param snapshotKey  Key of the rendered response, or null if it is never rendered.
+     * @param tags         Tags of the data the entity is built from.
+     * @param cacheControl Cache policy of the response.
+     * @param entity       Computes the future of the entity of the response if it is not rendered.
+     */
+    final void resumeConditionally(final Request request, final AsyncResponse response, final String snapshotKey,
+                                   final Collection<String> tags, final CacheControl cacheControl,
+                                   final Supplier<CompletableFuture<?>> entity) {
+        SnapshotStore.Snapshot snapshot = null;
+        if (snapshotKey != null) snapshot = service.getSnapshot(snapshotKey);
+        if (snapshot != null) {
+            final EntityTag tag = new EntityTag(snapshot.getVersion(), true);
+            final Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                response.resume(notModified.cacheControl(cacheControl).build());
+            } else {
+                response.resume(Response.ok(snapshot).tag(tag).cacheControl(cacheControl).build());
+            }
+            return;
+        }
+        //The version is taken before the query, see TagVersions.
+        final String version = service.getVersion(tags);
+        if (version == null) {
+            resume(response, entity.get().thenApply(result ->
+                    Response.status(Response.Status.OK).entity(result).cacheControl(cacheControl).build()));
+            return;
+        }
+        final EntityTag tag = new EntityTag(version, true);
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            response.resume(notModified.cacheControl(cacheControl).build());
+            return;
+        }
+        resume(response, entity.get().thenApply(result ->
+                Response.status(Response.Status.OK).entity(result).tag(tag).cacheControl(cacheControl).build()));
+    }
+
+    /**
+     * Cache policy of responses that change with every save: caches keep them, but revalidate them on every use.
+     *
+     * @return The cache policy.
+     */
+    static CacheControl revalidate() {
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoTransform(false);
+        cacheControl.setNoCache(true);
+        return cacheControl;
+    }
+
+    /**
+     * Cache policy of responses that may be used for a while without revalidating them.
+     *
+     * @param seconds Seconds the response may be used.
+     * @return The cache policy.
+     */
+    static CacheControl maxAge(final int seconds) {
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoTransform(false);
+        cacheControl.setMaxAge(seconds);
+        return cacheControl;
+    }
 }
@@ -0,0 +1,45 @@
+package org.fsg1.fmms.backend.endpoints;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.services.MonitoringService;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * The class containing the readiness endpoint. Unlike the monitoring endpoints it does not require
+ * authentication, so load balancers and orchestrators can poll it.
+ */
+@Path("health")
+public class HealthEndpoint extends Endpoint<MonitoringService> {
+
+    /**
+     * Constructor which receives the service as dependency.
+     *
+     * @param service Service object.
+     */
+    @Inject
+    HealthEndpoint(final MonitoringService service) {
+        super(service);
+    }
+
+    /**
+     * Returns whether the server is ready to serve requests. It is not until the database is migrated and the
+     * warm-up finished.
+     *
+     * @return 200 with the duration of the warm-up once the server is ready, 503 before that.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getHealth() {
+        final JsonNode result = getService().getHealth();
+        final String jsonString = result.toString();
+        Response.Status status = Response.Status.SERVICE_UNAVAILABLE;
+        if (getService().isReady()) status = Response.Status.OK;
+        return Response.status(status).entity(jsonString).build();
+    }
+}
@@ -1,6 +1,6 @@
 package org.fsg1.fmms.backend.endpoints;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.LayerActivityService;
 
 import javax.inject.Inject;
@@ -8,8 +8,13 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * The class containing the architecturallayer/activity endpoints.
@@ -34,17 +39,19 @@ public class LayerActivityEndpoint extends Endpoint<LayerActivityService> {
      * @param curriculumId Identifier of the curriculum.
      * @param layerId      The number of the architectural layer.
      * @param activityId   The number of the lifecycle activity.
-     * @return A JSON Object of the whole qualifications overview.
-     * @throws Exception In case the querying goes wrong.
+     * @param request      The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response     Suspended response, resumed with a JSON Object of the whole qualifications overview.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getQualificationsOverview(@PathParam("curriculum_id") final int curriculumId,
-                                              @PathParam("layer_id") final int layerId,
-                                              @PathParam("activity_id") final int activityId) throws Exception {
+    public void getQualificationsOverview(@PathParam("curriculum_id") final int curriculumId,
+                                          @PathParam("layer_id") final int layerId,
+                                          @PathParam("activity_id") final int activityId,
+                                          @Context final Request request,
+                                          @Suspended final AsyncResponse response) {
         final LayerActivityService service = getService();
-        final JsonNode result = service.get(service.getQueryQualificationsOverview(), "qualifications_overview", layerId, activityId, curriculumId);
-        final String jsonString = result.toString();
-        return Response.status(Response.Status.OK).entity(jsonString).build();
+        final List<String> tags = Arrays.asList(CacheTags.curriculum(curriculumId), CacheTags.MODULES);
+        resumeConditionally(request, response, tags, revalidate(), () -> service.getCachedAsync(tags,
+                service.getQueryQualificationsOverview(), "qualifications_overview", layerId, activityId, curriculumId));
     }
 }
@@ -0,0 +1,53 @@
+package org.fsg1.fmms.backend.endpoints;
+
+import org.fsg1.fmms.backend.services.ModulesService;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+
+/**
+ * The class containing the endpoint of the export of every module of a curriculum.
+ */
+@Path("curriculum/{curriculum_id}/modules")
+public class ModuleExportEndpoint extends Endpoint<ModulesService> {
+
+    /**
+     * Constructor which receives the service as dependency.
+     *
+     * @param service Service object.
+     */
+    @Inject
+    ModuleExportEndpoint(final ModulesService service) {
+        super(service);
+    }
+
+    /**
+     * Export the readable documents of every module of a curriculum. The documents are streamed while they are
+     * read, so the response starts right away and its size does not matter.
+     *
+     * @param curriculumId Identifier of the curriculum.
+     * @return A Response with status code 200 and newline delimited JSON, one module document in the shape of
+     * test/resources/json/module.json per line, ordered by code.
+     */
+    @GET
+    @Produces(NDJSON)
+    public Response exportModules(@PathParam("curriculum_id") final int curriculumId) {
+        final StreamingOutput output = out -> {
+            try {
+                getService().exportModules(curriculumId, out);
+            } catch (IOException | WebApplicationException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new WebApplicationException(e);
+            }
+        };
+        return Response.status(Response.Status.OK).entity(output).build();
+    }
+}
@@ -0,0 +1,50 @@
+package org.fsg1.fmms.backend.endpoints;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.services.ImportService;
+
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+
+/**
+ * The class containing the endpoint of the bulk import of the modules of a curriculum.
+ */
+@Path("curriculum/{curriculum_id}/modules/import")
+public class ModuleImportEndpoint extends Endpoint<ImportService> {
+
+    /**
+     * Constructor which receives the service as dependency.
+     *
+     * @param service Service object.
+     */
+    @Inject
+    ModuleImportEndpoint(final ImportService service) {
+        super(service);
+    }
+
+    /**
+     * Import modules. The body is read while it is received, so it may be sent in chunks.
+     *
+     * @param curriculumId Identifier of the curriculum the modules are added to.
+     * @param body         Newline delimited JSON, with one module document in the shape of
+     *                     test/resources/json/editableModuleInput.json per line.
+     * @return A Response with status code 200 and a report of the import, which lists the records that were
+     * skipped, or status code 500 if nothing could be imported.
+     * @throws Exception In case the import went wrong.
+     */
+    @POST
+    @Consumes(NDJSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response importModules(@PathParam("curriculum_id") final int curriculumId,
+                                  final InputStream body) throws Exception {
+        final JsonNode report = getService().importModules(curriculumId, body);
+        return Response.status(Response.Status.OK).entity(report.toString()).build();
+    }
+}
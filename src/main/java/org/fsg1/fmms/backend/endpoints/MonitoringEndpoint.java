@@ -0,0 +1,99 @@
+package org.fsg1.fmms.backend.endpoints;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.metrics.PrometheusText;
+import org.fsg1.fmms.backend.services.MonitoringService;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * The class containing the monitoring endpoints. These require authentication.
+ *
+ * @see org.fsg1.fmms.backend.filters.AuthFilter
+ */
+@Path("monitoring")
+public class MonitoringEndpoint extends Endpoint<MonitoringService> {
+
+    /**
+     * Constructor which receives the service as dependency.
+     *
+     * @param service Service object.
+     */
+    @Inject
+    MonitoringEndpoint(final MonitoringService service) {
+        super(service);
+    }
+
+    /**
+     * Returns the live state of the database connection pool.
+     *
+     * @return A JSON object with the active and idle connections, borrow wait times, timeouts and leaks.
+     */
+    @GET
+    @Path("/pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getPoolStatus() {
+        final JsonNode result = getService().getPoolStatus();
+        final String jsonString = result.toString();
+        return Response.status(Response.Status.OK).entity(jsonString).build();
+    }
+
+    /**
+     * Returns the state of the result cache.
+     *
+     * @return A JSON object with the size, hit ratio, evictions and rejections of the cache.
+     */
+    @GET
+    @Path("/cache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCacheStatus() {
+        final JsonNode result = getService().getCacheStatus();
+        final String jsonString = result.toString();
+        return Response.status(Response.Status.OK).entity(jsonString).build();
+    }
+
+    /**
+     * Returns the last slow reads with their parameters and plans.
+     *
+     * @return A JSON object with the slow reads, newest first.
+     */
+    @GET
+    @Path("/slow-queries")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSlowQueries() {
+        final JsonNode result = getService().getSlowQueries();
+        final String jsonString = result.toString();
+        return Response.status(Response.Status.OK).entity(jsonString).build();
+    }
+
+    /**
+     * Returns the timings of every query, the state of the pool and the result cache for Prometheus to scrape.
+     *
+     * @return The metrics in the Prometheus text format.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(PrometheusText.CONTENT_TYPE)
+    public Response getPrometheusMetrics() {
+        return Response.status(Response.Status.OK).entity(getService().getPrometheusMetrics()).build();
+    }
+
+    /**
+     * Returns the number of rows written by module saves.
+     *
+     * @return A JSON object with the distribution of rows written per save and the rows inserted, updated and deleted.
+     */
+    @GET
+    @Path("/saves")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getModuleSaveStatus() {
+        final JsonNode result = getService().getModuleSaveStatus();
+        final String jsonString = result.toString();
+        return Response.status(Response.Status.OK).entity(jsonString).build();
+    }
+}
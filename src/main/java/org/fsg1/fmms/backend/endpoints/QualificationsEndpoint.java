@@ -1,14 +1,20 @@
 package org.fsg1.fmms.backend.endpoints;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.QualificationsService;
+import org.fsg1.fmms.backend.services.SnapshotService;
 
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * The qualifications endpoints.
@@ -27,14 +33,17 @@ public class QualificationsEndpoint extends Endpoint<QualificationsService> {
     }
 
     /**
-     * {@inheritDoc}
+     * Returns all qualifications.
+     *
+     * @param request  The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response Suspended response, resumed with a JSON array of all the qualifications.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getQualifications() throws Exception {
+    public void getQualifications(@Context final Request request, @Suspended final AsyncResponse response) {
         final QualificationsService service = getService();
-        final JsonNode result = service.get(service.getQualificationsQuery(), "qualifications");
-        final String jsonString = result.toString();
-        return Response.status(Response.Status.OK).entity(jsonString).build();
+        final List<String> tags = Collections.singletonList(CacheTags.QUALIFICATIONS);
+        resumeConditionally(request, response, SnapshotService.QUALIFICATIONS, tags, maxAge(LIST_MAX_AGE_SECONDS), () ->
+                service.getCachedAsync(tags, service.getQualificationsQuery(), "qualifications"));
     }
 }
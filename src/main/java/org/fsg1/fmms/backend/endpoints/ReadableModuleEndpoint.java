@@ -2,8 +2,11 @@ package org.fsg1.fmms.backend.endpoints;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.ModulesService;
+import org.fsg1.fmms.backend.services.SnapshotService;
 import org.fsg1.fmms.backend.util.ArchitecturalLayerMapper;
+import org.fsg1.fmms.backend.util.JsonMapper;
 import org.fsg1.fmms.backend.util.LifecycleActivityMapper;
 
 import javax.inject.Inject;
@@ -11,10 +14,16 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -42,17 +51,18 @@ public class ReadableModuleEndpoint extends Endpoint<ModulesService> {
      *
      * @param curriculumId Identifier of the curriculum.
      * @param moduleId     Identifier of the module.
-     * @return A JSON list of all semesters in this curriculum.
-     * @throws Exception In case the querying goes wrong.
+     * @param request      The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response     Suspended response, resumed with a JSON object of the module.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getModuleInformation(@PathParam("curriculum_id") final int curriculumId,
-                                         @PathParam("module_id") final String moduleId) throws Exception {
-        final ModulesService service = getService();
-        final JsonNode result = service.get(service.getQueryModuleInformation(), "module", moduleId, curriculumId);
-        final String jsonString = result.toString();
-        return Response.status(Response.Status.OK).entity(jsonString).build();
+    public void getModuleInformation(@PathParam("curriculum_id") final int curriculumId,
+                                     @PathParam("module_id") final String moduleId,
+                                     @Context final Request request,
+                                     @Suspended final AsyncResponse response) {
+        resumeConditionally(request, response, SnapshotService.module(curriculumId, moduleId),
+                Collections.singletonList(CacheTags.module(moduleId)), revalidate(),
+                () -> getService().getModuleDocumentAsync(moduleId, curriculumId));
     }
 
     /**
@@ -60,17 +70,36 @@ public class ReadableModuleEndpoint extends Endpoint<ModulesService> {
      *
      * @param curriculumId Identifier of the curriculum.
      * @param moduleId     Identifier of the module.
-     * @return A filled in latex template as plain text.
-     * @throws Exception In case the querying goes wrong.
+     * @param request      The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response     Suspended response, resumed with a filled in latex template as plain text.
      */
     @GET
     @Path("/pdf")
     @Produces(MediaType.TEXT_PLAIN + ";charset=utf-8")
-    public Response getModulePDF(@PathParam("curriculum_id") final int curriculumId,
-                                 @PathParam("module_id") final String moduleId) throws Exception {
+    public void getModulePDF(@PathParam("curriculum_id") final int curriculumId,
+                             @PathParam("module_id") final String moduleId,
+                             @Context final Request request,
+                             @Suspended final AsyncResponse response) {
         final ModulesService service = getService();
-        final JsonNode module = service.get(service.getQueryModuleInformation(), "module", moduleId, curriculumId);
+        resumeConditionally(request, response, Collections.singletonList(CacheTags.module(moduleId)), revalidate(),
+                () -> service.getModuleDocumentAsync(moduleId, curriculumId).thenApply(document -> {
+                    try {
+                        return buildLatex(service, JsonMapper.readTree(document));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+    }
 
+    /**
+     * Fills in the latex template with the information of a module.
+     *
+     * @param service Service that formats the parts of the template.
+     * @param module  JSON object of the module.
+     * @return The latex source.
+     * @throws IOException if the latex functions could not be read.
+     */
+    private String buildLatex(final ModulesService service, final JsonNode module) throws IOException {
         final String code = module.findValue("code").asText();
         final String name = module.findValue("name").asText();
         final int semester = module.findValue("semester").asInt();
@@ -210,7 +239,6 @@ public class ReadableModuleEndpoint extends Endpoint<ModulesService> {
 
         latexBuilder.append("\\end{document}\n");
 
-        return Response.status(Response.Status.OK).entity(latexBuilder.toString())
-                .build();
+        return latexBuilder.toString();
     }
 }
@@ -1,15 +1,21 @@
 package org.fsg1.fmms.backend.endpoints;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.SemestersService;
+import org.fsg1.fmms.backend.services.SnapshotService;
 
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * The class containing the 'semesters' endpoints.
@@ -31,17 +37,19 @@ public class SemestersEndpoint extends Endpoint<SemestersService> {
      * Returns all semesters in a curriculum.
      *
      * @param curriculumId Identifier of the curriculum.
-     * @return A JSON list of all semesters in this curriculum.
-     * @throws Exception In case the querying goes wrong.
+     * @param request      The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response     Suspended response, resumed with a JSON list of all semesters in this curriculum.
      */
     @GET
     @Path("/semesters")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getCurriculumSemesters(@PathParam("curriculum_id") final int curriculumId) throws Exception {
+    public void getCurriculumSemesters(@PathParam("curriculum_id") final int curriculumId,
+                                       @Context final Request request,
+                                       @Suspended final AsyncResponse response) {
         final SemestersService service = getService();
-        final JsonNode result = service.get(service.getQueryCurriculumSemestersString(), "semesters", curriculumId);
-        final String jsonString = result.toString();
-        return Response.status(Response.Status.OK).entity(jsonString).build();
+        final List<String> tags = Arrays.asList(CacheTags.curriculum(curriculumId), CacheTags.MODULES);
+        resumeConditionally(request, response, SnapshotService.semesters(curriculumId), tags, revalidate(), () ->
+                service.getCachedAsync(tags, service.getQueryCurriculumSemestersString(), "semesters", curriculumId));
     }
 
     /**
@@ -49,17 +57,21 @@ public class SemestersEndpoint extends Endpoint<SemestersService> {
      *
      * @param curriculumId Identifier of the curriculum.
      * @param semesterId   Identifier of the semester.
-     * @return A JSON Object containing the complete information of this semester.
-     * @throws Exception In case the querying goes wrong.
+     * @param request      The request, which is answered with a 304 if it holds the current <code>ETag</code>.
+     * @param response     Suspended response, resumed with a JSON Object containing the complete information of
+     *                     this semester.
      */
     @GET
     @Path("/semester/{semester_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getCompleteSemester(@PathParam("curriculum_id") final int curriculumId,
-                                        @PathParam("semester_id") final int semesterId) throws Exception {
+    public void getCompleteSemester(@PathParam("curriculum_id") final int curriculumId,
+                                    @PathParam("semester_id") final int semesterId,
+                                    @Context final Request request,
+                                    @Suspended final AsyncResponse response) {
         final SemestersService service = getService();
-        final JsonNode result = service.get(service.getQueryCompleteSemester(), "complete_semester", curriculumId, semesterId, curriculumId, semesterId);
-        final String jsonString = result.toString();
-        return Response.status(Response.Status.OK).entity(jsonString).build();
+        final List<String> tags = Arrays.asList(CacheTags.curriculum(curriculumId), CacheTags.MODULES);
+        resumeConditionally(request, response, tags, revalidate(), () -> service.getCachedAsync(tags,
+                service.getQueryCompleteSemester(), "complete_semester", curriculumId, semesterId, curriculumId,
+                semesterId));
     }
 }
@@ -2,6 +2,7 @@ package org.fsg1.fmms.backend.exceptions;
 
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 /**
@@ -20,6 +21,19 @@ public class AppException extends WebApplicationException {
                 .build());
     }
 
+    /**
+     * @param status            status code.
+     * @param errorMessage      error message.
+     * @param retryAfterSeconds seconds after which the client may try again, sent in the Retry-After header.
+     */
+    public AppException(final int status, final String errorMessage, final long retryAfterSeconds) {
+        super(Response
+                .status(status)
+                .entity(errorMessage)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                .build());
+    }
+
     /**
      * Default constructor so object mapping from Jackson does not break.
      */
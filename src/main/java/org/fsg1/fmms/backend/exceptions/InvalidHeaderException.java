@@ -0,0 +1,17 @@
+package org.fsg1.fmms.backend.exceptions;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+
+/**
+ * Exception to throw when a header of the request has a value that cannot be used.
+ */
+public class InvalidHeaderException extends AppException {
+    /**
+     * Constructor.
+     *
+     * @param header Name of the header.
+     */
+    public InvalidHeaderException(final String header) {
+        super(BAD_REQUEST.getStatusCode(), "The value of the " + header + " header is not valid.");
+    }
+}
@@ -0,0 +1,16 @@
+package org.fsg1.fmms.backend.exceptions;
+
+import static javax.ws.rs.core.Response.Status.PRECONDITION_FAILED;
+
+/**
+ * Exception to throw when a resource was changed since the client read it.
+ */
+public class PreconditionFailedException extends AppException {
+    /**
+     * Constructor.
+     */
+    public PreconditionFailedException() {
+        super(PRECONDITION_FAILED.getStatusCode(),
+                "The module was changed by someone else. Reload it and apply your changes again.");
+    }
+}
@@ -0,0 +1,17 @@
+package org.fsg1.fmms.backend.exceptions;
+
+import static javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE;
+
+/**
+ * Exception to throw when the body of a request is larger than the server accepts.
+ */
+public class RequestTooLargeException extends AppException {
+    /**
+     * Constructor.
+     *
+     * @param maxBytes Maximum size in bytes of a request body.
+     */
+    public RequestTooLargeException(final long maxBytes) {
+        super(REQUEST_ENTITY_TOO_LARGE.getStatusCode(), "The request body is larger than " + maxBytes + " bytes.");
+    }
+}
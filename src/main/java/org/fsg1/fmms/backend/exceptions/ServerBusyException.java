@@ -0,0 +1,27 @@
+package org.fsg1.fmms.backend.exceptions;
+
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Exception to throw when the server cannot take on more work right now.
+ */
+public class ServerBusyException extends AppException {
+    /**
+     * Constructor.
+     *
+     * @param errorMessage error message.
+     */
+    public ServerBusyException(final String errorMessage) {
+        super(SERVICE_UNAVAILABLE.getStatusCode(), errorMessage);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param errorMessage      error message.
+     * @param retryAfterSeconds seconds after which the client may try again.
+     */
+    public ServerBusyException(final String errorMessage, final long retryAfterSeconds) {
+        super(SERVICE_UNAVAILABLE.getStatusCode(), errorMessage, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,18 @@
+package org.fsg1.fmms.backend.exceptions;
+
+import static javax.ws.rs.core.Response.Status.TOO_MANY_REQUESTS;
+
+/**
+ * Exception to throw when a client sends more requests than its rate limit allows.
+ */
+public class TooManyRequestsException extends AppException {
+    /**
+     * Constructor.
+     *
+     * @param retryAfterSeconds seconds after which the client may send its next request.
+     */
+    public TooManyRequestsException(final long retryAfterSeconds) {
+        super(TOO_MANY_REQUESTS.getStatusCode(), "Too many requests, retry after " + retryAfterSeconds + " s.",
+                retryAfterSeconds);
+    }
+}
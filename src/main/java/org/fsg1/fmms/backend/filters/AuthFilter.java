@@ -14,7 +14,7 @@ import java.util.regex.Pattern;
 
 /**
  * Authentication Filters.
- * Enforces authentication for everything which tries to modify data
+ * Enforces authentication for everything which tries to modify data, and for the monitoring endpoints.
  *
  * @author Tobias Derksen
  */
@@ -27,6 +27,11 @@ public class AuthFilter implements ContainerRequestFilter {
      */
     private static final String REGEX = "^Basic\\s([A-Za-z0-9+/=-]+)$";
 
+    /**
+     * Path prefix of the endpoints that expose the internal state of the application.
+     */
+    private static final String MONITORING_PATH = "monitoring";
+
     private final Configuration config;
 
     /**
@@ -46,7 +51,9 @@ public class AuthFilter implements ContainerRequestFilter {
      */
     @Override
     public void filter(final ContainerRequestContext containerRequest) throws UnauthorizedException {
-        if (!containerRequest.getMethod().equals("GET") && !containerRequest.getMethod().equals("OPTIONS")) {
+        final String method = containerRequest.getMethod();
+        final boolean monitoring = containerRequest.getUriInfo().getPath().startsWith(MONITORING_PATH);
+        if (!method.equals("OPTIONS") && (!method.equals("GET") || monitoring)) {
             String header = containerRequest.getHeaderString("Authorization");
             if (header != null && !header.isEmpty()) {
                 Pattern pattern = Pattern.compile(REGEX);
@@ -24,6 +24,8 @@ public class CORSResponseFilter
         MultivaluedMap<String, Object> headers = responseContext.getHeaders();
         headers.add("Access-Control-Allow-Origin", "*");
         headers.add("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT, OPTIONS");
-        headers.add("Access-Control-Allow-Headers", "X-Requested-With, Content-Type, Authorization");
+        headers.add("Access-Control-Allow-Headers", "X-Requested-With, Content-Type, Authorization, X-Request-Timeout-Ms" +
+                ", If-Match, If-None-Match");
+        headers.add("Access-Control-Expose-Headers", "ETag");
     }
 }
@@ -0,0 +1,151 @@
+package org.fsg1.fmms.backend.filters;
+
+import org.fsg1.fmms.backend.app.CompressionConfiguration;
+import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.ResultCache;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.util.Gzip;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Filter that compresses JSON and text responses with gzip for clients that accept it. Responses smaller than the
+ * threshold are sent as they are, since compressing them saves less than it costs. A response with a cached result
+ * is compressed once, and later hits send the compressed copy that is kept with the result. A response that was
+ * rendered ahead of the request is sent in the compressed form it was stored with.
+ */
+public class CompressionFilter implements ContainerResponseFilter {
+
+    private static final String GZIP = "gzip";
+
+    private final CompressionConfiguration config;
+
+    private final ResultCache cache;
+
+    /**
+     * Constructor.
+     *
+     * @param config     Configuration of the application.
+     * @param connection Connection with the cache of query results.
+     */
+    @Inject
+    public CompressionFilter(final Configuration config, final Connection connection) {
+        this(config.getCompression(), connection.getResultCache());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param config Settings of the compression.
+     * @param cache  Cache that keeps the compressed copies of its results.
+     */
+    CompressionFilter(final CompressionConfiguration config, final ResultCache cache) {
+        this.config = config;
+        this.cache = cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Replaces the entity of the response with its compressed form.
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+        if (!config.isEnabled() || responseContext.getStatus() != 200 ||
+                !isCompressible(responseContext.getMediaType()) ||
+                responseContext.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return;
+        }
+        final Object entity = responseContext.getEntity();
+        if (!(entity instanceof byte[]) && !(entity instanceof StreamingOutput)) return;
+        responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (!acceptsGzip(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING))) return;
+
+        if (entity instanceof SnapshotStore.Snapshot) {
+            //A rendered response is compressed along with it if it is large enough, and sent as it is otherwise.
+            final SnapshotStore.Snapshot snapshot = (SnapshotStore.Snapshot) entity;
+            if (!snapshot.isCompressed()) return;
+            responseContext.setEntity((StreamingOutput) snapshot::writeCompressed);
+        } else if (entity instanceof byte[]) {
+            final byte[] value = (byte[]) entity;
+            if (value.length < config.getMinBytes()) return;
+            responseContext.setEntity(cache.getCompressed(value, bytes -> Gzip.compress(bytes, config.getLevel())));
+        } else {
+            //A stream has no size in advance, and is flushed as it is written so the client receives it in parts.
+            final StreamingOutput output = (StreamingOutput) entity;
+            responseContext.setEntity((StreamingOutput) out -> {
+                final GZIPOutputStream gzip = Gzip.stream(out, config.getLevel());
+                output.write(gzip);
+                gzip.finish();
+            });
+        }
+        responseContext.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+
+    /**
+     * Check whether a response of a media type is worth compressing. Binary formats such as PDF are compressed
+     * already.
+     *
+     * @param mediaType Media type of the response.
+     * @return Whether the response is JSON or text.
+     */
+    static boolean isCompressible(final MediaType mediaType) {
+        if (mediaType == null) return false;
+        final String subtype = mediaType.getSubtype();
+        return "text".equals(mediaType.getType()) || "json".equals(subtype) || subtype.endsWith("+json") ||
+                "x-ndjson".equals(subtype);
+    }
+
+    /**
+     * Check whether a client accepts gzip, either by name or by a wildcard, with a quality above 0.
+     *
+     * @param header Value of the Accept-Encoding header, or null if it was not sent.
+     * @return Whether the response may be compressed with gzip.
+     */
+    static boolean acceptsGzip(final String header) {
+        if (header == null) return false;
+        Boolean gzip = null;
+        boolean wildcard = false;
+        for (String coding : header.split(",")) {
+            final String[] parts = coding.split(";");
+            final String name = parts[0].trim().toLowerCase();
+            final boolean accepted = quality(parts) > 0;
+            if (GZIP.equals(name) || "x-gzip".equals(name)) {
+                gzip = accepted;
+            } else if ("*".equals(name)) {
+                wildcard = accepted;
+            }
+        }
+        if (gzip != null) return gzip;
+        return wildcard;
+    }
+
+    /**
+     * Get the quality of a content coding.
+     *
+     * @param parts The name of the coding followed by its parameters.
+     * @return The value of the q parameter, 1 if there is none, or 0 if it is not a number.
+     */
+    private static double quality(final String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            final String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.fsg1.fmms.backend.filters;
+
+import org.fsg1.fmms.backend.database.QueryDeadline;
+import org.fsg1.fmms.backend.exceptions.InvalidHeaderException;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.jersey.internal.util.collection.Ref;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+
+/**
+ * Filter that starts the deadline of the queries of every request. A client can shorten the statement timeouts of
+ * its request by sending the number of milliseconds it is willing to wait in the {@value #TIMEOUT_HEADER} header.
+ * When the client closes its connection before the response is sent, the statement that is executing for the
+ * request is cancelled. The deadline is finished once the response is written, which for a streamed response is
+ * after the response filters ran, and for a suspended response happens on another thread than the one it started on.
+ */
+@PreMatching
+public class DeadlineFilter implements ContainerRequestFilter, ContainerResponseFilter, ApplicationEventListener {
+
+    /**
+     * Header with the number of milliseconds the client waits for the response.
+     */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+    private static final String DETACH_PROPERTY = DeadlineFilter.class.getName() + ".detach";
+
+    private static final String DEADLINE_PROPERTY = DeadlineFilter.class.getName() + ".deadline";
+
+    private final Provider<Ref<Request>> requests;
+
+    /**
+     * Constructor.
+     *
+     * @param requests Provider of the Grizzly request, which is empty for requests that are not received by the
+     *                 Grizzly server, such as the requests of the warm-up.
+     */
+    @Inject
+    public DeadlineFilter(final Provider<Ref<Request>> requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Start the deadline of the request and cancel it when the connection of the client closes.
+     *
+     * @param requestContext request context.
+     * @throws InvalidHeaderException if the timeout header is not a positive number.
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext) throws InvalidHeaderException {
+        final QueryDeadline deadline = QueryDeadline.start(parseTimeout(requestContext.getHeaderString(TIMEOUT_HEADER)));
+        requestContext.setProperty(DEADLINE_PROPERTY, deadline);
+
+        final Request request = requests.get().get();
+        if (request == null || request.getContext() == null) return;
+        final org.glassfish.grizzly.Connection<?> connection = request.getContext().getConnection();
+        final CloseListener<?, ?> listener = (closeable, type) -> deadline.cancel();
+        connection.addCloseListener(listener);
+        requestContext.setProperty(DETACH_PROPERTY, (Runnable) () -> connection.removeCloseListener(listener));
+    }
+
+    /**
+     * Stop watching the connection of the client once the response is sent, since the connection may be kept
+     * alive for other requests.
+     *
+     * @param requestContext  request context.
+     * @param responseContext response context.
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+        final Object detach = requestContext.getProperty(DETACH_PROPERTY);
+        if (detach instanceof Runnable) ((Runnable) detach).run();
+    }
+
+    /**
+     * Nothing happens on the events of the application.
+     *
+     * @param event event of the application.
+     */
+    @Override
+    public void onEvent(final ApplicationEvent event) {
+    }
+
+    /**
+     * Finish the deadline of every request once its response is written, whether it succeeded or not.
+     *
+     * @param requestEvent event that starts the request.
+     * @return Listener to the events of the request.
+     */
+    @Override
+    public RequestEventListener onRequest(final RequestEvent requestEvent) {
+        return event -> {
+            if (event.getType() != RequestEvent.Type.FINISHED) return;
+            final Object deadline = event.getContainerRequest().getProperty(DEADLINE_PROPERTY);
+            if (deadline instanceof QueryDeadline) ((QueryDeadline) deadline).finish();
+        };
+    }
+
+    /**
+     * Parse the value of the timeout header.
+     *
+     * @param header Value of the header, or null if it was not sent.
+     * @return Milliseconds, or 0 if the header was not sent.
+     * @throws InvalidHeaderException if the value is not a positive number.
+     */
+    static long parseTimeout(final String header) throws InvalidHeaderException {
+        if (header == null || header.trim().isEmpty()) return 0;
+        final long millis;
+        try {
+            millis = Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidHeaderException(TIMEOUT_HEADER);
+        }
+        if (millis <= 0) throw new InvalidHeaderException(TIMEOUT_HEADER);
+        return millis;
+    }
+}
@@ -1,29 +1,134 @@
 package org.fsg1.fmms.backend.filters;
 
 import org.fsg1.fmms.backend.exceptions.EmptyRequestBodyException;
+import org.fsg1.fmms.backend.exceptions.RequestTooLargeException;
 
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
- * Filter for all POST requests.
+ * Filter for all POST requests. It also limits the size of every request body while the body is read, so a chunked
+ * body, which has no length, cannot be larger than a body with a length. The bulk import, the only route that
+ * consumes newline delimited JSON, streams its body and is not limited.
  */
 @PreMatching
-public class POSTRequestFilter implements ContainerRequestFilter {
+public class POSTRequestFilter implements ContainerRequestFilter, ReaderInterceptor {
+
+    private static final MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    private final long maxBodyBytes;
+
+    /**
+     * Constructor for a filter that does not limit the size of request bodies.
+     */
+    public POSTRequestFilter() {
+        this(0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxBodyBytes Maximum size in bytes of a request body, or 0 for no limit.
+     */
+    public POSTRequestFilter(final long maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
 
     /**
      * Filter to check POST requests for their request bodies. If there is an empty or null body,
-     * throw an error.
+     * throw an error. A chunked body, such as a streamed import, has no length and is let through.
+     * A body whose length is larger than the maximum size is refused before it is read.
      *
      * @param requestContext request context.
      * @throws IOException if an I/O exception occurs.
      */
     @Override
     public void filter(final ContainerRequestContext requestContext) throws IOException {
-        if (requestContext.getMethod().equals("POST") && requestContext.getLength() <= 0) {
+        if (isLimited(requestContext.getMediaType()) && requestContext.getLength() > maxBodyBytes) {
+            throw new RequestTooLargeException(maxBodyBytes);
+        }
+        if (requestContext.getMethod().equals("POST") && requestContext.getLength() <= 0 &&
+                !"chunked".equalsIgnoreCase(requestContext.getHeaderString("Transfer-Encoding"))) {
             throw new EmptyRequestBodyException();
         }
     }
+
+    /**
+     * Count the bytes of a request body while it is read, and refuse it once it is larger than the maximum size.
+     *
+     * @param context Context of the entity that is read.
+     * @return The entity.
+     * @throws IOException if an I/O exception occurs.
+     */
+    @Override
+    public Object aroundReadFrom(final ReaderInterceptorContext context) throws IOException {
+        if (isLimited(context.getMediaType())) {
+            context.setInputStream(new LimitedInputStream(context.getInputStream(), maxBodyBytes));
+        }
+        return context.proceed();
+    }
+
+    /**
+     * @param mediaType Media type of the request body.
+     * @return Whether the size of the body is limited.
+     */
+    private boolean isLimited(final MediaType mediaType) {
+        return maxBodyBytes > 0 && (mediaType == null || !NDJSON.isCompatible(mediaType));
+    }
+
+    /**
+     * A stream that fails with a <code>RequestTooLargeException</code> once more than a number of bytes is read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+
+        private long read;
+
+        /**
+         * Constructor.
+         *
+         * @param in       The stream of the request body.
+         * @param maxBytes Maximum number of bytes that may be read.
+         */
+        private LimitedInputStream(final InputStream in, final long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        /**
+         * @param n Number of bytes that were read.
+         */
+        private void count(final long n) {
+            read += n;
+            if (read > maxBytes) throw new RequestTooLargeException(maxBytes);
+        }
+    }
 }
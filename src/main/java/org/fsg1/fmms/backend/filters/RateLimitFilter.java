@@ -0,0 +1,265 @@
+package org.fsg1.fmms.backend.filters;
+
+import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.app.RateLimitConfiguration;
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.fsg1.fmms.backend.exceptions.TooManyRequestsException;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.jersey.internal.util.collection.Ref;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filter that limits the requests of every client, and sheds requests when the server is handling too many at once.
+ * A client is known by its address and, when it sends credentials, by a hash of those credentials as well; both have
+ * a token bucket per route class, and a request needs a token from each. The credentials are not checked yet, but
+ * keying on all of them rather than the user name means a client that guesses the user name cannot empty the bucket
+ * of the real user. A request that exceeds a limit gets a 429, and a
+ * request that arrives while the server is full gets a 503, both with a <code>Retry-After</code> header. The filter
+ * runs before the authentication, so rejected requests cost no work.
+ * <p>
+ * Requests that are not received from the network, such as those of the warm-up, and health checks are not limited.
+ */
+@PreMatching
+@Priority(Priorities.AUTHENTICATION - 100)
+public class RateLimitFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String IN_FLIGHT_PROPERTY = RateLimitFilter.class.getName() + ".inFlight";
+
+    private static final String HEALTH_PATH = "health";
+
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimitConfiguration config;
+
+    private final Provider<Ref<Request>> requests;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_NANOS);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param config   Configuration of the application.
+     * @param requests Provider of the Grizzly request, which is empty for requests that are not received by the
+     *                 Grizzly server.
+     */
+    @Inject
+    public RateLimitFilter(final Configuration config, final Provider<Ref<Request>> requests) {
+        this.config = config.getRateLimits();
+        this.requests = requests;
+    }
+
+    /**
+     * Take a token from the buckets of the client, and count the request as in flight.
+     *
+     * @param requestContext request context.
+     * @throws TooManyRequestsException if the client exceeds its limit.
+     * @throws ServerBusyException      if the server is handling too many requests.
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext) throws TooManyRequestsException,
+            ServerBusyException {
+        if (!config.isEnabled() || "OPTIONS".equals(requestContext.getMethod())) return;
+        final String path = requestContext.getUriInfo().getPath();
+        if (path.startsWith(HEALTH_PATH)) return;
+        final Request request = requests.get().get();
+        if (request == null) return;
+
+        final long now = System.nanoTime();
+        sweep(now);
+        final String route = route(requestContext.getMethod(), path);
+        final RateLimitConfiguration.Limit limit = config.getLimit(route);
+        if (limit != null) {
+            final String credentials = credentials(requestContext.getHeaderString("Authorization"));
+            Bucket granted = null;
+            if (credentials != null) granted = acquire(route + " credentials " + credentials, limit, now);
+            try {
+                acquire(route + " address " + address(request, requestContext), limit, now);
+            } catch (TooManyRequestsException e) {
+                //The request is refused, so it does not use the token of the credentials.
+                if (granted != null) granted.release(limit);
+                throw e;
+            }
+        }
+
+        final int maxInFlight = config.getMaxInFlight();
+        if (maxInFlight <= 0) return;
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            throw new ServerBusyException("The server is handling too many requests.", 1);
+        }
+        //The response is filtered by another instance of the filter.
+        requestContext.setProperty(IN_FLIGHT_PROPERTY, (Runnable) inFlight::decrementAndGet);
+    }
+
+    /**
+     * Stop counting the request as in flight once its response is sent.
+     *
+     * @param requestContext  request context.
+     * @param responseContext response context.
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+        final Object done = requestContext.getProperty(IN_FLIGHT_PROPERTY);
+        if (!(done instanceof Runnable)) return;
+        requestContext.removeProperty(IN_FLIGHT_PROPERTY);
+        ((Runnable) done).run();
+    }
+
+    /**
+     * Take a token from a bucket, creating it if the client has none.
+     *
+     * @param key   Key of the bucket.
+     * @param limit Limit of the bucket.
+     * @param now   Current time in nanoseconds.
+     * @return The bucket the token was taken from.
+     * @throws TooManyRequestsException if the bucket is empty.
+     */
+    private Bucket acquire(final String key, final RateLimitConfiguration.Limit limit, final long now)
+            throws TooManyRequestsException {
+        final Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(now));
+        final long waitNanos = bucket.acquire(limit, now);
+        if (waitNanos > 0) throw new TooManyRequestsException(TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1);
+        return bucket;
+    }
+
+    /**
+     * Drop the buckets that are full once a second. A full bucket is the same as no bucket, so this loses nothing,
+     * and the map only holds the clients that were active recently.
+     *
+     * @param now Current time in nanoseconds.
+     */
+    private void sweep(final long now) {
+        final long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + SWEEP_NANOS)) return;
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    /**
+     * Get the address of the client.
+     *
+     * @param request        The Grizzly request.
+     * @param requestContext request context, with the <code>X-Forwarded-For</code> header.
+     * @return The address.
+     */
+    private String address(final Request request, final ContainerRequestContext requestContext) {
+        final String forwarded = requestContext.getHeaderString("X-Forwarded-For");
+        if (config.isForwardedFor() && forwarded != null && !forwarded.trim().isEmpty()) {
+            return forwarded.split(",")[0].trim();
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Get the route class of a request.
+     *
+     * @param method Method of the request.
+     * @param path   Path of the request, relative to the base.
+     * @return The route class.
+     */
+    static String route(final String method, final String path) {
+        if (!"GET".equals(method) && !"HEAD".equals(method)) return RateLimitConfiguration.ROUTE_WRITE;
+        if (path.endsWith("/pdf")) return RateLimitConfiguration.ROUTE_PDF;
+        if (path.contains("/architecturallayer/") || path.matches("curriculum/[^/]+/semester/.*")) {
+            return RateLimitConfiguration.ROUTE_OVERVIEW;
+        }
+        if (path.matches("curriculum/[^/]+/modules/?")) return RateLimitConfiguration.ROUTE_EXPORT;
+        return RateLimitConfiguration.ROUTE_READ;
+    }
+
+    /**
+     * Get a hash of basic credentials, user name and password together. The credentials are not checked here.
+     *
+     * @param header Value of the Authorization header, or null if it was not sent.
+     * @return The hash, or null if the header holds no basic credentials.
+     */
+    static String credentials(final String header) {
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) return null;
+        final byte[] credentials;
+        try {
+            credentials = Base64.getDecoder().decode(header.substring(6).trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (new String(credentials, StandardCharsets.UTF_8).indexOf(':') <= 0) return null;
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(credentials));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A token bucket that takes no lock. It holds the time at which it is full again: every request moves that time
+     * one interval further, and a request is refused when the time is more than the burst ahead.
+     */
+    static final class Bucket {
+
+        private final AtomicLong fullAt;
+
+        /**
+         * Constructor for a full bucket.
+         *
+         * @param now Current time in nanoseconds.
+         */
+        Bucket(final long now) {
+            this.fullAt = new AtomicLong(now);
+        }
+
+        /**
+         * Take a token.
+         *
+         * @param limit Limit of the bucket.
+         * @param now   Current time in nanoseconds.
+         * @return 0 if a token was taken, or the nanoseconds until the next token otherwise.
+         */
+        long acquire(final RateLimitConfiguration.Limit limit, final long now) {
+            final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / limit.getPerSecond());
+            final long burst = interval * limit.getBurst();
+            while (true) {
+                final long current = fullAt.get();
+                final long next = Math.max(current, now) + interval;
+                if (next - now > burst) return next - now - burst;
+                if (fullAt.compareAndSet(current, next)) return 0;
+            }
+        }
+
+        /**
+         * Give back a token that was taken for a request that was refused anyway.
+         *
+         * @param limit Limit of the bucket.
+         */
+        void release(final RateLimitConfiguration.Limit limit) {
+            fullAt.addAndGet(-(long) (TimeUnit.SECONDS.toNanos(1) / limit.getPerSecond()));
+        }
+
+        /**
+         * @param now Current time in nanoseconds.
+         * @return Whether the bucket is full.
+         */
+        boolean isFull(final long now) {
+            return fullAt.get() - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.fsg1.fmms.backend.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed bucket boundaries. Recording a value never blocks, so it can be used on every request.
+ */
+public final class Histogram {
+    private static final long[] LATENCY_BOUNDS_MICROS = {
+            100, 250, 500,
+            1000, 2500, 5000,
+            10000, 25000, 50000,
+            100000, 250000, 500000,
+            1000000, 2500000, 5000000,
+            10000000, 30000000
+    };
+
+    private final long[] bounds;
+
+    private final LongAdder[] buckets;
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructor.
+     *
+     * @param bounds Inclusive upper bounds of the buckets, in ascending order. Values above the last bound are
+     *               counted in an overflow bucket.
+     */
+    public Histogram(final long... bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Create a histogram for durations in nanoseconds, with buckets from 100 microseconds up to 30 seconds.
+     *
+     * @return A new histogram.
+     */
+    public static Histogram forLatency() {
+        final long[] bounds = new long[LATENCY_BOUNDS_MICROS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = TimeUnit.MICROSECONDS.toNanos(LATENCY_BOUNDS_MICROS[i]);
+        }
+        return new Histogram(bounds);
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value Value to record.
+     */
+    public void record(final long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) index = -index - 1;
+        buckets[index].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return Sum of all recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return Largest recorded value, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return A copy of the upper bounds of the buckets.
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Get the number of values per bucket. The last element is the overflow bucket.
+     *
+     * @return The bucket counts, not cumulative.
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Estimate a percentile. The estimate is the upper bound of the bucket the percentile falls in, so it is never
+     * lower than the real value. Values in the overflow bucket are estimated by the maximum.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return The estimated value, or 0 if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = getBucketCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) return 0;
+
+        final double rank = Math.ceil(total * percentile / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) return Math.min(bounds[i], getMax());
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,111 @@
+package org.fsg1.fmms.backend.metrics;
+
+import java.util.Locale;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. Every metric family starts with a header, followed by
+ * its samples:
+ * <pre>
+ * # HELP fmms_query_execute_seconds Time spent executing a query.
+ * # TYPE fmms_query_execute_seconds histogram
+ * fmms_query_execute_seconds_bucket{query="CurriculaService.curricula",le="0.0001"} 3
+ * </pre>
+ */
+public final class PrometheusText {
+    /**
+     * The content type of the format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder();
+
+    /**
+     * Write the header of a metric family.
+     *
+     * @param name Name of the metric.
+     * @param help Description of the metric.
+     * @param type Type of the metric, such as <code>counter</code>, <code>gauge</code> or <code>histogram</code>.
+     * @return This writer.
+     */
+    public PrometheusText header(final String name, final String help, final String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Write a single sample.
+     *
+     * @param name   Name of the metric.
+     * @param labels Labels of the sample, see {@link #label(String, String)}, or an empty string.
+     * @param value  Value of the sample.
+     * @return This writer.
+     */
+    public PrometheusText sample(final String name, final String labels, final double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Write the buckets, sum and count of a histogram. Bucket counts are written cumulatively, as the format
+     * requires.
+     *
+     * @param name      Name of the metric.
+     * @param labels    Labels of the histogram, see {@link #label(String, String)}, or an empty string.
+     * @param histogram The histogram.
+     * @param scale     Factor by which values are divided, such as 1e9 to write nanoseconds as seconds.
+     * @return This writer.
+     */
+    public PrometheusText histogram(final String name,
+                                    final String labels,
+                                    final Histogram histogram,
+                                    final double scale) {
+        final String prefix;
+        if (labels.isEmpty()) {
+            prefix = "";
+        } else {
+            prefix = labels + ",";
+        }
+        final long[] bounds = histogram.getBounds();
+        final long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            sample(name + "_bucket", prefix + label("le", format(bounds[i] / scale)), cumulative);
+        }
+        cumulative += counts[bounds.length];
+        sample(name + "_bucket", prefix + label("le", "+Inf"), cumulative);
+        sample(name + "_sum", labels, histogram.getSum() / scale);
+        sample(name + "_count", labels, cumulative);
+        return this;
+    }
+
+    /**
+     * Format a label, escaping its value.
+     *
+     * @param name  Name of the label.
+     * @param value Value of the label.
+     * @return The label, such as <code>query="CurriculaService.curricula"</code>.
+     */
+    public static String label(final String name, final String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * Format a value without a trailing <code>.0</code> for whole numbers.
+     *
+     * @param value The value.
+     * @return The formatted value.
+     */
+    private static String format(final double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return String.format(Locale.ROOT, "%d", (long) value);
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package org.fsg1.fmms.backend.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of one named query, split into the phases of an execution: waiting for a connection from the pool,
+ * executing the statement and fetching its result. Reads also record the number of bytes they returned.
+ */
+public final class QueryStats {
+    private static final long[] BYTES_BOUNDS = {
+            256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216
+    };
+
+    private final String name;
+
+    private final Histogram borrow = Histogram.forLatency();
+
+    private final Histogram execute = Histogram.forLatency();
+
+    private final Histogram fetch = Histogram.forLatency();
+
+    private final Histogram bytes = new Histogram(BYTES_BOUNDS);
+
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param name Stable name of the query, such as <code>ModulesService.moduleInformation</code>.
+     */
+    public QueryStats(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return Name of the query.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Time spent waiting for a connection, in nanoseconds.
+     */
+    public Histogram getBorrow() {
+        return borrow;
+    }
+
+    /**
+     * @return Time spent executing the statement until the database answered, in nanoseconds.
+     */
+    public Histogram getExecute() {
+        return execute;
+    }
+
+    /**
+     * @return Time spent reading the result, in nanoseconds.
+     */
+    public Histogram getFetch() {
+        return fetch;
+    }
+
+    /**
+     * @return Number of bytes of the results.
+     */
+    public Histogram getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Count the bytes of a text in UTF-8, the encoding it is written to a response in, without encoding it.
+     *
+     * @param text The text.
+     * @return Number of bytes of the text in UTF-8.
+     */
+    public static long utf8Length(final CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Count an execution that failed.
+     */
+    public void recordError() {
+        errors.increment();
+    }
+
+    /**
+     * @return Number of executions that failed.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * This package contains the classes used to measure the application, such as counters and histograms.
+ */
+package org.fsg1.fmms.backend.metrics;
@@ -0,0 +1,62 @@
+package org.fsg1.fmms.backend.services;
+
+/**
+ * The tags under which results are cached. A result is tagged with the data it is built from, and a transaction
+ * that changes that data invalidates the tags after it is committed.
+ */
+public final class CacheTags {
+    /**
+     * Every result that contains information of more than one module, such as semesters and overviews.
+     */
+    public static final String MODULES = "modules";
+
+    /**
+     * The list of curricula.
+     */
+    public static final String CURRICULA = "curricula";
+
+    /**
+     * The list of qualifications.
+     */
+    public static final String QUALIFICATIONS = "qualifications";
+
+    private static final String MODULE_PREFIX = "module:";
+
+    /**
+     * Private constructor.
+     * Class should never be instantiated.
+     */
+    private CacheTags() {
+    }
+
+    /**
+     * Get the tag of the results that contain information of one module.
+     *
+     * @param moduleCode Code of the module.
+     * @return The tag.
+     */
+    public static String module(final String moduleCode) {
+        return MODULE_PREFIX + moduleCode;
+    }
+
+    /**
+     * Get the code of the module of a tag, see {@link #module(String)}.
+     *
+     * @param tag The tag.
+     * @return The code of the module, or null if the tag is not the tag of a module.
+     */
+    public static String moduleCode(final String tag) {
+        if (!tag.startsWith(MODULE_PREFIX)) return null;
+        return tag.substring(MODULE_PREFIX.length());
+    }
+
+    /**
+     * Get the tag of the results that contain information of one curriculum.
+     *
+     * @param curriculumId Identifier of the curriculum.
+     * @return The tag.
+     */
+    public static String curriculum(final int curriculumId) {
+        return "curriculum:" + curriculumId;
+    }
+}
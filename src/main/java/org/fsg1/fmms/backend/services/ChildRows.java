@@ -0,0 +1,180 @@
+package org.fsg1.fmms.backend.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of rows that belong to a module, such as its topics or its lecturers. The rows are saved by comparing
+ * them with the rows that are in the database, so only rows that changed are written.
+ * A row consists of key columns, which identify the row, followed by value columns, which can be updated in place.
+ * The statements of the table take their parameters in this order:
+ * <ul>
+ * <li>select: the owner id, returns a locator (an id or ctid) followed by the key and value columns;</li>
+ * <li>insert: the key and value columns;</li>
+ * <li>update: the value columns followed by the locator;</li>
+ * <li>delete: the locator.</li>
+ * </ul>
+ */
+final class ChildRows {
+    private final String select;
+
+    private final String insert;
+
+    private final String update;
+
+    private final String delete;
+
+    private final int keyWidth;
+
+    /**
+     * Constructor.
+     *
+     * @param select   Statement that selects the current rows.
+     * @param insert   Statement that inserts a row.
+     * @param update   Statement that updates the values of a row, or null if the rows only have key columns.
+     * @param delete   Statement that deletes a row.
+     * @param keyWidth Number of key columns.
+     */
+    ChildRows(final String select, final String insert, final String update, final String delete, final int keyWidth) {
+        this.select = select;
+        this.insert = insert;
+        this.update = update;
+        this.delete = delete;
+        this.keyWidth = keyWidth;
+    }
+
+    /**
+     * @return Statement that selects the current rows.
+     */
+    String getSelect() {
+        return select;
+    }
+
+    /**
+     * @return Statement that inserts a row.
+     */
+    String getInsert() {
+        return insert;
+    }
+
+    /**
+     * @return Statement that updates the values of a row.
+     */
+    String getUpdate() {
+        return update;
+    }
+
+    /**
+     * @return Statement that deletes a row.
+     */
+    String getDelete() {
+        return delete;
+    }
+
+    /**
+     * Compare the rows in the database with the rows that should be there. Rows are matched on their key columns;
+     * rows with the same key are matched in order, so duplicate rows are kept as duplicates.
+     *
+     * @param current Rows as returned by the select statement.
+     * @param desired Rows as they should be, with the key columns followed by the value columns.
+     * @return The rows to insert, update and delete.
+     */
+    Diff diff(final List<Object[]> current, final List<Object[]> desired) {
+        final Map<List<Object>, Deque<Object[]>> currentByKey = new HashMap<>();
+        for (Object[] row : current) {
+            final List<Object> key = Arrays.asList(row).subList(1, keyWidth + 1);
+            currentByKey.computeIfAbsent(key, k -> new ArrayDeque<>()).add(row);
+        }
+
+        final Diff diff = new Diff(desired.size());
+        for (int i = 0; i < desired.size(); i++) {
+            final Object[] row = desired.get(i);
+            final Deque<Object[]> matches = currentByKey.get(Arrays.asList(row).subList(0, keyWidth));
+            if (matches == null || matches.isEmpty()) {
+                diff.inserts.add(row);
+                continue;
+            }
+
+            final Object[] match = matches.poll();
+            diff.locators[i] = match[0];
+            final Object[] values = Arrays.copyOfRange(row, keyWidth, row.length);
+            if (!Arrays.equals(values, Arrays.copyOfRange(match, keyWidth + 1, match.length))) {
+                final Object[] parameters = Arrays.copyOf(values, values.length + 1);
+                parameters[values.length] = match[0];
+                diff.updates.add(parameters);
+            }
+        }
+
+        for (Deque<Object[]> remaining : currentByKey.values()) {
+            for (Object[] row : remaining) {
+                diff.deletes.add(new Object[]{row[0]});
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * The difference between the rows in the database and the rows that should be there.
+     */
+    static final class Diff {
+        private final List<Object[]> inserts = new ArrayList<>();
+
+        private final List<Object[]> updates = new ArrayList<>();
+
+        private final List<Object[]> deletes = new ArrayList<>();
+
+        private final Object[] locators;
+
+        /**
+         * Constructor.
+         *
+         * @param desiredRows Number of rows that should be there.
+         */
+        private Diff(final int desiredRows) {
+            this.locators = new Object[desiredRows];
+        }
+
+        /**
+         * @return Parameters of the insert statement for every row that is not in the database yet.
+         */
+        List<Object[]> getInserts() {
+            return inserts;
+        }
+
+        /**
+         * @return Parameters of the update statement for every row whose values changed.
+         */
+        List<Object[]> getUpdates() {
+            return updates;
+        }
+
+        /**
+         * @return Parameters of the delete statement for every row that should no longer be there.
+         */
+        List<Object[]> getDeletes() {
+            return deletes;
+        }
+
+        /**
+         * Get the locator of a desired row that is already in the database.
+         *
+         * @param index Index of the desired row.
+         * @return The locator, or null if the row has to be inserted.
+         */
+        Object getLocator(final int index) {
+            return locators[index];
+        }
+
+        /**
+         * @return Number of rows that are inserted, updated or deleted.
+         */
+        int size() {
+            return inserts.size() + updates.size() + deletes.size();
+        }
+    }
+}
@@ -17,6 +17,7 @@ public class CurriculaService extends Service {
     @Inject
     CurriculaService(final Connection connection) {
         super(connection);
+        nameQuery(getQueryCurriculaString(), "curricula");
     }
 
     /**
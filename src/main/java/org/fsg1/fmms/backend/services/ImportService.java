@@ -0,0 +1,413 @@
+package org.fsg1.fmms.backend.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.util.JsonMapper;
+
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Service class for the bulk import of modules. The modules are streamed as newline delimited JSON, one module
+ * document per line, in the shape of the editable module document. Every line is parsed and checked on its own:
+ * the lines that are not valid are reported and skipped, the others are copied into a staging table with
+ * <code>COPY</code> while the request body is still being read. Staged records that refer to types, lecturers or
+ * modules that do not exist are reported and removed as well. The remaining staged modules are then merged into the
+ * normalized tables with one statement per table, and the documents of the read model are rebuilt, all in one
+ * transaction. Modules are matched on their code: existing modules are updated and their collections replaced,
+ * new modules are inserted.
+ */
+public class ImportService extends Service {
+
+    /**
+     * Maximum number of per-record errors that are reported. Records beyond that still fail, they are only counted.
+     */
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    static final String CREATE_STAGING =
+            "CREATE TEMPORARY TABLE import_document (line int NOT NULL, document jsonb NOT NULL) ON COMMIT DROP";
+
+    static final String COPY_STAGING = "COPY import_document (line, document) FROM STDIN";
+
+    /**
+     * Matches every staged module with the module of the same code, if there is one.
+     */
+    static final String STAGE_MODULES =
+            "CREATE TEMPORARY TABLE import_module ON COMMIT DROP AS " +
+                    "SELECT d.line, m.id AS module_id, d.document " +
+                    "FROM import_document AS d " +
+                    "  LEFT JOIN study.module AS m ON m.code = d.document->>'code'";
+
+    /**
+     * Removes the staged modules the merge would fail on or silently lose data of: teaching materials and
+     * dependencies of a type that is not known, lecturers that do not exist, and dependencies on modules that
+     * neither exist nor are staged. Returns the line and the first reason of every record it removes.
+     */
+    static final String REJECT_RECORDS =
+            "WITH rejected AS ( " +
+                    "  SELECT DISTINCT ON (r.line) r.line, r.error FROM ( " +
+                    "    SELECT i.line, 'Unknown teaching material type: ' || (tm->>'type') AS error " +
+                    "    FROM import_module AS i " +
+                    "      CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'teaching_material', '[]')) AS tm " +
+                    "    WHERE upper(tm->>'type') NOT IN (SELECT unnest(enum_range(NULL::study.teachingmaterials))::text) " +
+                    "    UNION ALL " +
+                    "    SELECT i.line, 'Unknown dependency type: ' || (dep->>'type') " +
+                    "    FROM import_module AS i " +
+                    "      CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'prior_knowledge_references', '[]')) AS dep " +
+                    "    WHERE upper(dep->>'type') NOT IN (SELECT unnest(enum_range(NULL::study.dependencytype))::text) " +
+                    "    UNION ALL " +
+                    "    SELECT i.line, 'Unknown lecturer: ' || e.employee_id " +
+                    "    FROM import_module AS i " +
+                    "      CROSS JOIN LATERAL jsonb_array_elements_text(coalesce(i.document->'lecturers', '[]')) AS e(employee_id) " +
+                    "    WHERE NOT EXISTS (SELECT 1 FROM study.employee AS se WHERE se.id = e.employee_id::int) " +
+                    "    UNION ALL " +
+                    "    SELECT i.line, 'Unknown prior module: ' || coalesce(dep->>'code', dep->>'id') " +
+                    "    FROM import_module AS i " +
+                    "      CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'prior_knowledge_references', '[]')) AS dep " +
+                    "    WHERE (dep->>'code' IS NOT NULL " +
+                    "        AND NOT EXISTS (SELECT 1 FROM study.module AS dm WHERE dm.code = dep->>'code') " +
+                    "        AND NOT EXISTS (SELECT 1 FROM import_module AS s WHERE s.document->>'code' = dep->>'code')) " +
+                    "      OR (dep->>'code' IS NULL AND NOT EXISTS (SELECT 1 FROM study.module AS dm WHERE dm.id = (dep->>'id')::int)) " +
+                    "  ) AS r ORDER BY r.line, r.error) " +
+                    "DELETE FROM import_module AS i USING rejected AS r WHERE i.line = r.line RETURNING r.line, r.error";
+
+    static final String INSERT_MODULES =
+            "WITH inserted AS ( " +
+                    "  INSERT INTO study.module (code, name, credits, lecturesperweek, practicalperweek, isproject, totaleffort) " +
+                    "  SELECT i.document->>'code', i.document->>'name', (i.document->>'credits')::int, " +
+                    "    coalesce((i.document->>'lectures_in_week')::int, 0), coalesce((i.document->>'practical_hours_week')::int, 0), " +
+                    "    coalesce((i.document->>'project_flag')::boolean, FALSE), (i.document->>'credits')::int * 28 " +
+                    "  FROM import_module AS i WHERE i.module_id IS NULL " +
+                    "  RETURNING id, code) " +
+                    "UPDATE import_module AS i SET module_id = inserted.id FROM inserted WHERE inserted.code = i.document->>'code'";
+
+    static final String UPDATE_MODULES =
+            "UPDATE study.module AS m " +
+                    "  SET name = i.document->>'name', credits = (i.document->>'credits')::int, " +
+                    "    lecturesperweek = coalesce((i.document->>'lectures_in_week')::int, 0), " +
+                    "    practicalperweek = coalesce((i.document->>'practical_hours_week')::int, 0), " +
+                    "    isproject = coalesce((i.document->>'project_flag')::boolean, FALSE), " +
+                    "    totaleffort = (i.document->>'credits')::int * 28 " +
+                    "FROM import_module AS i " +
+                    "WHERE m.id = i.module_id " +
+                    "  AND (m.name, m.credits, m.lecturesperweek, m.practicalperweek, m.isproject) IS DISTINCT FROM " +
+                    "    (i.document->>'name', (i.document->>'credits')::int, coalesce((i.document->>'lectures_in_week')::int, 0), " +
+                    "     coalesce((i.document->>'practical_hours_week')::int, 0), coalesce((i.document->>'project_flag')::boolean, FALSE))";
+
+    /**
+     * Every imported module counts as saved, so editors that read it before the import can not overwrite it.
+     */
+    static final String INCREMENT_VERSIONS =
+            "UPDATE study.module SET version = version + 1 WHERE id IN (SELECT module_id FROM import_module)";
+
+    /**
+     * Statements that merge the staged modules into the normalized tables, after the modules themselves are.
+     * The collections of every staged module are replaced as a whole.
+     */
+    static final String[] MERGE_CHILDREN = {
+            "INSERT INTO study.moduledescription (module_id) " +
+                    "SELECT i.module_id FROM import_module AS i " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM study.moduledescription AS md WHERE md.module_id = i.module_id)",
+            "UPDATE study.moduledescription AS md " +
+                    "  SET introduction = coalesce(i.document->>'introductorytext', ''), " +
+                    "    additionalinfo = coalesce(i.document->>'additional_information', ''), " +
+                    "    credentials = coalesce(i.document->>'credentials', '') " +
+                    "FROM import_module AS i " +
+                    "WHERE md.module_id = i.module_id " +
+                    "  AND (coalesce(md.introduction, ''), coalesce(md.additionalinfo, ''), coalesce(md.credentials, '')) IS DISTINCT FROM " +
+                    "    (coalesce(i.document->>'introductorytext', ''), coalesce(i.document->>'additional_information', ''), " +
+                    "     coalesce(i.document->>'credentials', ''))",
+            "DELETE FROM study.moduletopic WHERE module_id IN (SELECT module_id FROM import_module)",
+            "INSERT INTO study.moduletopic (module_id, sequenceno, description) " +
+                    "SELECT i.module_id, t.sequenceno, t.description " +
+                    "FROM import_module AS i " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements_text(coalesce(i.document->'topics', '[]')) WITH ORDINALITY AS t(description, sequenceno)",
+            "DELETE FROM study.teachingmaterial WHERE moduledescription_id IN " +
+                    "  (SELECT md.id FROM study.moduledescription AS md INNER JOIN import_module AS i ON i.module_id = md.module_id)",
+            "INSERT INTO study.teachingmaterial (moduledescription_id, type, description) " +
+                    "SELECT md.id, upper(tm->>'type')::study.teachingmaterials, tm->>'name' " +
+                    "FROM import_module AS i " +
+                    "  INNER JOIN study.moduledescription AS md ON md.module_id = i.module_id " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'teaching_material', '[]')) AS tm",
+            "DELETE FROM study.module_employee WHERE module_id IN (SELECT module_id FROM import_module)",
+            "INSERT INTO study.module_employee (module_id, employee_id) " +
+                    "SELECT DISTINCT i.module_id, e.employee_id::int " +
+                    "FROM import_module AS i " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements_text(coalesce(i.document->'lecturers', '[]')) AS e(employee_id)",
+            "DELETE FROM study.moduledependency WHERE module_id IN (SELECT module_id FROM import_module)",
+            "INSERT INTO study.moduledependency (module_id, dependency_module_id, type, remarks) " +
+                    "SELECT i.module_id, dm.id, upper(dep->>'type')::study.dependencytype, coalesce(dep->>'remarks', '') " +
+                    "FROM import_module AS i " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'prior_knowledge_references', '[]')) AS dep " +
+                    "  INNER JOIN study.module AS dm ON dm.code = dep->>'code' OR (dep->>'code' IS NULL AND dm.id = (dep->>'id')::int)",
+            "DELETE FROM study.learninggoal WHERE module_id IN (SELECT module_id FROM import_module)",
+            "INSERT INTO study.learninggoal (module_id, description, groupgoal, sequenceno, weight) " +
+                    "SELECT i.module_id, coalesce(g.goal->>'description', ''), coalesce(g.goal->>'type', '') = 'group', g.sequenceno, " +
+                    "  coalesce((g.goal->>'weight')::float8, 0) " +
+                    "FROM import_module AS i " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'learning_goals', '[]')) WITH ORDINALITY AS g(goal, sequenceno)",
+            "INSERT INTO study.learninggoal_qualification (learninggoal_id, qualification_id) " +
+                    "SELECT DISTINCT lg.id, q.id " +
+                    "FROM import_module AS i " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'learning_goals', '[]')) WITH ORDINALITY AS g(goal, sequenceno) " +
+                    "  INNER JOIN study.learninggoal AS lg ON lg.module_id = i.module_id AND lg.sequenceno = g.sequenceno " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements(coalesce(g.goal->'skillmatrix', '[]')) AS s " +
+                    "  INNER JOIN study.qualification AS q ON q.architecturallayer_id = (s->>'architectural_layer')::int " +
+                    "    AND q.activity_id = (s->>'lifecycle_activity')::int AND q.levelofskill_id = (s->>'level')::int",
+            "DELETE FROM study.moduleassessment WHERE module_id IN (SELECT module_id FROM import_module)",
+            "INSERT INTO study.moduleassessment (module_id, code, weight, minimumgrade, remarks, description) " +
+                    "SELECT i.module_id, a->>'subcode', coalesce((a->>'percentage')::float8, 0), coalesce((a->>'minimal_grade')::float8, 0), " +
+                    "  coalesce(a->>'remark', ''), coalesce(a->>'description', '') " +
+                    "FROM import_module AS i " +
+                    "  CROSS JOIN LATERAL jsonb_array_elements(coalesce(i.document->'assesment_parts', '[]')) AS a"};
+
+    /**
+     * Adds the staged modules that name a semester to every profile of the curriculum they are not part of yet.
+     */
+    static final String LINK_PROFILES =
+            "INSERT INTO study.module_profile (module_id, profile_id, semester) " +
+                    "SELECT i.module_id, p.id, (i.document->>'semester')::int " +
+                    "FROM import_module AS i " +
+                    "  INNER JOIN study.profile AS p ON p.studyprogramme_id = ? " +
+                    "WHERE i.document->>'semester' IS NOT NULL " +
+                    "  AND NOT EXISTS (SELECT 1 FROM study.module_profile AS mp WHERE mp.module_id = i.module_id AND mp.profile_id = p.id)";
+
+    private final ModulesService modulesService;
+
+    /**
+     * Constructor which receives the connection and the service that builds the module documents as
+     * dependencies.
+     *
+     * @param connection     The database connection object.
+     * @param modulesService Service of the modules, which rebuilds their documents.
+     */
+    @Inject
+    ImportService(final Connection connection, final ModulesService modulesService) {
+        super(connection);
+        this.modulesService = modulesService;
+        nameQuery(CREATE_STAGING, "importStaging");
+        nameQuery(COPY_STAGING, "importCopy");
+        nameQuery(STAGE_MODULES, "importMatch");
+        nameQuery(REJECT_RECORDS, "importRejectRecords");
+        nameQuery(INSERT_MODULES, "importInsertModules");
+        nameQuery(UPDATE_MODULES, "importUpdateModules");
+        nameQuery(INCREMENT_VERSIONS, "importIncrementVersions");
+        nameQuery(LINK_PROFILES, "importLinkProfiles");
+    }
+
+    /**
+     * Import the modules of a curriculum. After the transaction is committed every cached result is dropped.
+     *
+     * @param curriculumId Identifier of the curriculum the modules that name a semester are added to.
+     * @param body         Newline delimited JSON, one module document per line.
+     * @return A report with the number of records that were received and imported, the errors of the records
+     * that were skipped, and the throughput.
+     * @throws Exception If a database access error occurs or the body could not be read. Nothing is imported then.
+     */
+    public JsonNode importModules(final int curriculumId, final InputStream body) throws Exception {
+        final long start = System.nanoTime();
+        final ArrayNode errors = JsonNodeFactory.instance.arrayNode();
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong imported = new AtomicLong();
+        final AtomicInteger inserted = new AtomicInteger();
+        final AtomicInteger updated = new AtomicInteger();
+        executeTransactional(conn -> {
+            update(conn, CREATE_STAGING);
+            imported.set(copyIn(conn, COPY_STAGING, out -> copyRecords(body, out, received, failed, errors)));
+            if (imported.get() == 0) return;
+
+            update(conn, STAGE_MODULES);
+            //A rejected record may be the dependency of another staged record, so reject until none is left.
+            List<Object[]> rejected = select(conn, REJECT_RECORDS);
+            while (!rejected.isEmpty()) {
+                for (Object[] row : rejected) {
+                    imported.decrementAndGet();
+                    failed.incrementAndGet();
+                    report(errors, ((Number) row[0]).intValue(), (String) row[1]);
+                }
+                rejected = select(conn, REJECT_RECORDS);
+            }
+            if (imported.get() == 0) return;
+
+            inserted.set(update(conn, INSERT_MODULES));
+            updated.set(update(conn, UPDATE_MODULES));
+            update(conn, INCREMENT_VERSIONS);
+            for (String statement : MERGE_CHILDREN) update(conn, statement);
+            update(conn, LINK_PROFILES, curriculumId);
+            modulesService.rebuildAllDocuments(conn);
+        });
+        if (imported.get() > 0) invalidateAll();
+
+        final long nanos = System.nanoTime() - start;
+        final ObjectNode report = JsonNodeFactory.instance.objectNode();
+        report.put("received", received.get());
+        report.put("imported", imported.get());
+        report.put("inserted", inserted.get());
+        report.put("updated", updated.get());
+        report.put("failed", failed.get());
+        report.set("errors", errors);
+        report.put("duration_ms", TimeUnit.NANOSECONDS.toMillis(nanos));
+        report.put("records_per_second", received.get() * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos));
+        return report;
+    }
+
+    /**
+     * Read the records line by line and write the valid ones as rows of the staging table. A module code that
+     * occurs twice fails the second record.
+     *
+     * @param body     Newline delimited JSON.
+     * @param out      Stream of the copy, in text format.
+     * @param received Incremented for every record.
+     * @param failed   Incremented for every record that is skipped.
+     * @param errors   Receives the line and the reason of the first records that are skipped.
+     * @throws IOException If the body could not be read or the rows could not be written.
+     */
+    private static void copyRecords(final InputStream body,
+                                    final OutputStream out,
+                                    final AtomicInteger received,
+                                    final AtomicInteger failed,
+                                    final ArrayNode errors) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        final Set<String> codes = new HashSet<>();
+        int line = 0;
+        for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+            line++;
+            if (text.trim().isEmpty()) continue;
+            received.incrementAndGet();
+
+            String error;
+            JsonNode record = null;
+            try {
+                record = JsonMapper.readTree(text);
+                error = validate(record);
+            } catch (JsonProcessingException e) {
+                error = "Not valid JSON: " + e.getOriginalMessage();
+            }
+            if (error == null && !codes.add(record.get("code").asText())) {
+                error = "Module " + record.get("code").asText() + " occurs more than once";
+            }
+            if (error != null) {
+                failed.incrementAndGet();
+                report(errors, line, error);
+                continue;
+            }
+
+            //The compact JSON has no tabs or newlines; only backslashes have a meaning in the text format of COPY.
+            final String row = line + "\t" + JsonMapper.getWriter().writeValueAsString(record).replace("\\", "\\\\") + "\n";
+            out.write(row.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Report the error of a record that is skipped, unless the maximum number of errors is reported already.
+     *
+     * @param errors Errors reported so far.
+     * @param line   Line of the record.
+     * @param error  Reason the record is skipped.
+     */
+    private static void report(final ArrayNode errors, final int line, final String error) {
+        if (errors.size() < MAX_REPORTED_ERRORS) errors.addObject().put("line", line).put("error", error);
+    }
+
+    /**
+     * Check that a record has every value the merge casts, with the right type. Values that are checked against the
+     * database, such as the types of teaching materials and the lecturers, are checked by {@link #REJECT_RECORDS}.
+     *
+     * @param record The module document.
+     * @return The reason the record is not valid, or null if it is.
+     */
+    static String validate(final JsonNode record) {
+        if (!record.isObject()) return "Not a JSON object";
+        if (!isPresent(record, "code") || !record.get("code").isTextual() || record.get("code").asText().isEmpty()) {
+            return "Field 'code' is required and must be a non-empty string";
+        }
+        if (!isPresent(record, "name") || !record.get("name").isTextual()) {
+            return "Field 'name' is required and must be a string";
+        }
+        if (!isPresent(record, "credits") || !record.get("credits").isInt()) {
+            return "Field 'credits' is required and must be an integer";
+        }
+        for (String field : new String[]{"lectures_in_week", "practical_hours_week", "semester"}) {
+            if (isPresent(record, field) && !record.get(field).isInt()) return "Field '" + field + "' must be an integer";
+        }
+        for (String field : new String[]{"introductorytext", "additional_information", "credentials"}) {
+            if (isPresent(record, field) && !record.get(field).isTextual()) return "Field '" + field + "' must be a string";
+        }
+        if (isPresent(record, "project_flag") && !record.get("project_flag").isBoolean()) {
+            return "Field 'project_flag' must be a boolean";
+        }
+        if (!isArrayOf(record, "topics", JsonNode::isTextual)) return "Field 'topics' must be an array of strings";
+        if (!isArrayOf(record, "lecturers", JsonNode::isInt)) return "Field 'lecturers' must be an array of integers";
+        if (!isArrayOf(record, "teaching_material", material -> hasText(material, "type") && hasText(material, "name"))) {
+            return "Field 'teaching_material' must be an array of objects with a 'type' and a 'name'";
+        }
+        if (!isArrayOf(record, "prior_knowledge_references", dependency -> hasText(dependency, "type") &&
+                (hasText(dependency, "code") || isPresent(dependency, "id") && dependency.get("id").isInt()))) {
+            return "Field 'prior_knowledge_references' must be an array of objects with a 'type' and a 'code' or an 'id'";
+        }
+        if (!isArrayOf(record, "learning_goals", goal -> goal.isObject() &&
+                (!isPresent(goal, "weight") || goal.get("weight").isNumber()) &&
+                isArrayOf(goal, "skillmatrix", skill -> skill.isObject() && skill.path("architectural_layer").isInt() &&
+                        skill.path("lifecycle_activity").isInt() && skill.path("level").isInt()))) {
+            return "Field 'learning_goals' must be an array of objects with a numeric 'weight' and a 'skillmatrix' of integers";
+        }
+        if (!isArrayOf(record, "assesment_parts", part -> hasText(part, "subcode") &&
+                (!isPresent(part, "percentage") || part.get("percentage").isNumber()) &&
+                (!isPresent(part, "minimal_grade") || part.get("minimal_grade").isNumber()))) {
+            return "Field 'assesment_parts' must be an array of objects with a 'subcode' and numeric grades";
+        }
+        return null;
+    }
+
+    /**
+     * @param node  Object node.
+     * @param field Name of the field.
+     * @return Whether the field exists and is not null.
+     */
+    private static boolean isPresent(final JsonNode node, final String field) {
+        return node.hasNonNull(field);
+    }
+
+    /**
+     * @param node  Node that should be an object.
+     * @param field Name of the field.
+     * @return Whether the node is an object with a field that is a string.
+     */
+    private static boolean hasText(final JsonNode node, final String field) {
+        return node.isObject() && node.path(field).isTextual();
+    }
+
+    /**
+     * @param node    Object node.
+     * @param field   Name of the field.
+     * @param element Condition every element must satisfy.
+     * @return Whether the field is absent, or an array of which every element satisfies the condition.
+     */
+    private static boolean isArrayOf(final JsonNode node,
+                                     final String field,
+                                     final Predicate<JsonNode> element) {
+        if (!isPresent(node, field)) return true;
+        if (!node.get(field).isArray()) return false;
+        for (JsonNode value : node.get(field)) {
+            if (!element.test(value)) return false;
+        }
+        return true;
+    }
+}
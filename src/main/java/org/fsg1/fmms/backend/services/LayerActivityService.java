@@ -16,6 +16,7 @@ public class LayerActivityService extends Service {
     @Inject
     LayerActivityService(final Connection connection) {
         super(connection);
+        nameQuery(getQueryQualificationsOverview(), "qualificationsOverview");
     }
 
     /**
@@ -1,13 +1,334 @@
 package org.fsg1.fmms.backend.services;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.RowWriter;
+import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.exceptions.PreconditionFailedException;
+import org.fsg1.fmms.backend.metrics.Histogram;
+import org.fsg1.fmms.backend.util.JsonMapper;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Service class for the 'modules' endpoint.
  */
 public class ModulesService extends Service {
+    private static final String UNDEFINED_TABLE = "42P01";
+
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    private static final String INCREMENT_VERSION = "UPDATE study.module SET version = version + 1 WHERE id = ?";
+
+    /**
+     * Increments the version of a module only if it still has the version the client read. The row is locked
+     * without waiting: if another save holds it, that save changes the version, so this one fails right away.
+     */
+    private static final String INCREMENT_MATCHING_VERSION =
+            "UPDATE study.module SET version = version + 1 " +
+                    "WHERE id = (SELECT id FROM study.module WHERE id = ? AND version = ? FOR UPDATE NOWAIT)";
+
+    private static final String UPDATE_MODULE =
+            "UPDATE study.module " +
+                    "    SET code = ?, name = ?, credits = ?, lecturesperweek = ?, practicalperweek = ?, isproject = ?, totaleffort = credits * 28 " +
+                    "WHERE id = ? " +
+                    "  AND (code, name, credits, lecturesperweek, practicalperweek, isproject) IS DISTINCT FROM (?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_DESCRIPTION =
+            "UPDATE study.moduledescription " +
+                    "  SET introduction = ?, additionalinfo = ?, credentials = ? " +
+                    "WHERE module_id = ? " +
+                    "  AND (coalesce(introduction, ''), coalesce(additionalinfo, ''), coalesce(credentials, '')) IS DISTINCT FROM (?, ?, ?)";
+
+    /**
+     * Topics are ordered by their position, which is a value column: a topic that moved is updated in place.
+     */
+    private static final ChildRows TOPICS = new ChildRows(
+            "SELECT ctid::text, module_id::int, description, sequenceno::int FROM study.moduletopic WHERE module_id = ?",
+            "INSERT INTO study.moduletopic(module_id, description, sequenceno) VALUES (?, ?, ?)",
+            "UPDATE study.moduletopic SET sequenceno = ? WHERE ctid = ?::tid",
+            "DELETE FROM study.moduletopic WHERE ctid = ?::tid",
+            2);
+
+    private static final ChildRows TEACHING_MATERIALS = new ChildRows(
+            "SELECT tm.ctid::text, md.module_id::int, tm.type::text, tm.description " +
+                    "FROM study.teachingmaterial AS tm " +
+                    "  INNER JOIN study.moduledescription AS md ON md.id = tm.moduledescription_id " +
+                    "WHERE md.module_id = ?",
+            "INSERT INTO study.teachingmaterial (moduledescription_id, type, description) " +
+                    "    VALUES ((SELECT id FROM study.moduledescription WHERE module_id = ?), (upper(?)::study.teachingmaterials), ?)",
+            null,
+            "DELETE FROM study.teachingmaterial WHERE ctid = ?::tid",
+            3);
+
+    private static final ChildRows LECTURERS = new ChildRows(
+            "SELECT ctid::text, module_id::int, employee_id::int FROM study.module_employee WHERE module_id = ?",
+            "INSERT INTO study.module_employee(module_id, employee_id) VALUES (?, ?)",
+            null,
+            "DELETE FROM study.module_employee WHERE ctid = ?::tid",
+            2);
+
+    private static final ChildRows DEPENDENCIES = new ChildRows(
+            "SELECT ctid::text, module_id::int, dependency_module_id::int, type::text, coalesce(remarks, '') " +
+                    "FROM study.moduledependency WHERE module_id = ?",
+            "INSERT INTO study.moduledependency(module_id, dependency_module_id, type, remarks) " +
+                    "  VALUES (?, ?, (upper(?)::study.dependencytype), ?)",
+            "UPDATE study.moduledependency SET type = (upper(?)::study.dependencytype), remarks = ? WHERE ctid = ?::tid",
+            "DELETE FROM study.moduledependency WHERE ctid = ?::tid",
+            2);
+
+    /**
+     * Learning goals are named after their position, which is a value column like that of the topics, so the goals
+     * are numbered without gaps after every save.
+     */
+    private static final ChildRows LEARNING_GOALS = new ChildRows(
+            "SELECT id::int, module_id::int, coalesce(description, ''), groupgoal, coalesce(weight, 0)::float8, " +
+                    "  sequenceno::int " +
+                    "FROM study.learninggoal WHERE module_id = ? ORDER BY sequenceno, id",
+            "INSERT INTO study.learninggoal(module_id, description, groupgoal, weight, sequenceno) " +
+                    "    VALUES (?, ?, ?, ?, ?)",
+            "UPDATE study.learninggoal SET weight = ?, sequenceno = ? WHERE id = ?",
+            "DELETE FROM study.learninggoal WHERE id = ?",
+            3);
+
+    /**
+     * The qualifications of the learning goals are saved by their id, which is looked up once per save with
+     * {@link #SELECT_QUALIFICATIONS} instead of for every inserted row.
+     */
+    private static final ChildRows QUALIFICATIONS = new ChildRows(
+            "SELECT lq.ctid::text, lq.learninggoal_id::int, lq.qualification_id::int " +
+                    "FROM study.learninggoal_qualification AS lq " +
+                    "  INNER JOIN study.learninggoal AS lg ON lg.id = lq.learninggoal_id " +
+                    "WHERE lg.module_id = ?",
+            "INSERT INTO study.learninggoal_qualification(learninggoal_id, qualification_id) VALUES (?, ?)",
+            null,
+            "DELETE FROM study.learninggoal_qualification WHERE ctid = ?::tid",
+            2);
+
+    private static final String SELECT_QUALIFICATIONS =
+            "SELECT architecturallayer_id::int, activity_id::int, levelofskill_id::int, id::int FROM study.qualification";
+
+    private static final ChildRows ASSESSMENTS = new ChildRows(
+            "SELECT ctid::text, module_id::int, code, coalesce(weight, 0)::float8, coalesce(minimumgrade, 0)::float8, " +
+                    "  coalesce(remarks, ''), coalesce(description, '') " +
+                    "FROM study.moduleassessment WHERE module_id = ?",
+            "INSERT INTO study.moduleassessment(module_id, code, weight, minimumgrade, remarks, description) " +
+                    "  VALUES (?, ?, ?, ?, ?, ?)",
+            "UPDATE study.moduleassessment SET weight = ?, minimumgrade = ?, remarks = ?, description = ? WHERE ctid = ?::tid",
+            "DELETE FROM study.moduleassessment WHERE ctid = ?::tid",
+            2);
+
+    /**
+     * Common table expressions of the readable module document. Every module is aggregated at once, so the
+     * statements that use them filter on the module in their final select.
+     */
+    private static final String MODULE_INFORMATION_CTE =
+            "WITH " +
+                    "    prior AS (SELECT Json_build_object('id', m.id, 'code',m.code , 'name', m.name, 'type', lower(md.type::text), 'remarks', Coalesce(md.remarks, '')) AS prior_modules, md.module_id AS module FROM study.moduledependency AS md inner join study.module AS m ON m.id = md.dependency_module_id), " +
+                    "    alrow AS (SELECT Row_number() over () AS num, id FROM study.architecturallayer), " +
+                    "    acrow AS (SELECT Row_number() over () AS num, id FROM study.activity), " +
+                    "    material AS (SELECT Array_agg(tm.description) AS descs, tm.moduledescription_id AS md_id FROM study.teachingmaterial AS tm GROUP BY tm.moduledescription_id), " +
+                    "    skills AS (SELECT Array_to_json(Array_agg(Json_build_object('architectural_layer', (SELECT (num - 1) FROM alrow WHERE alrow.id = q.architecturallayer_id), 'lifecycle_activity', (SELECT (num - 1) FROM acrow WHERE acrow.id = q.activity_id), 'level', los.LEVEL))) AS json, lq.learninggoal_id FROM study.learninggoal_qualification AS lq inner join study.qualification AS q ON q.id = lq.qualification_id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lq.learninggoal_id), " +
+                    "    lg AS (SELECT Array_to_json(Array_agg(Json_build_object('name', Concat('LG ', sequenceno), 'description', description, 'type', (CASE lg.groupgoal WHEN TRUE THEN 'group' ELSE 'personal' END), 'skillmatrix', Coalesce((SELECT json FROM skills WHERE skills.learninggoal_id = lg.id), '[]'::json)) order by lg.sequenceno)) AS json, lg.module_id FROM study.learninggoal AS lg GROUP BY module_id), " +
+                    "    activities AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.activity), " +
+                    "    als AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.architecturallayer), " +
+                    "    topics AS (SELECT array_to_json(array_agg(t.description order BY t.sequenceno)) AS topics, t.module_id AS module FROM study.moduletopic AS t GROUP BY t.module_id), " +
+                    "    moduleskills AS (SELECT lg.module_id AS module, json_build_object('lifecycle_activity', (SELECT (num - 1) FROM acrow WHERE id = q.activity_id), 'architectural_layer', (SELECT (num - 1) FROM alrow WHERE id = q.architecturallayer_id), 'level', max(los.LEVEL)) AS json FROM study.learninggoal AS lg inner join study.learninggoal_qualification AS lg2q ON lg2q.learninggoal_id = lg.id inner join study.qualification AS q ON lg2q.qualification_id = q.id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lg.module_id, q.activity_id, q.architecturallayer_id), " +
+                    "    lecturers AS (SELECT array_to_json(array_agg(concat(e.firstname, ' ', e.lastname))) AS json, me.module_id AS module FROM study.module_employee AS me inner join study.employee AS e ON e.id = me.employee_id GROUP BY me.module_id), " +
+                    "    grading AS (SELECT array_agg(json_build_object('subcode', ma.code, 'description', ma.description, 'percentage', coalesce(ma.weight, 0.0), 'minimal_grade', ma.minimumgrade, 'remark', coalesce(ma.remarks, '')) ORDER BY ma.code) AS json, ma.module_id AS module FROM study.moduleassessment AS ma GROUP BY ma.module_id) ";
+
+    /**
+     * The readable module document of the module <code>m</code>, its description <code>md</code> and its
+     * profile <code>mp</code>.
+     */
+    private static final String MODULE_INFORMATION_DOCUMENT =
+            "json_build_object( " +
+                    "  'id', m.id, " +
+                    "  'code', m.code, " +
+                    "  'name', m.name, " +
+                    "  'credits', m.credits, " +
+                    "  'credentials', coalesce(md.credentials, ''), " +
+                    "  'lecturers', coalesce((SELECT json FROM lecturers WHERE module = m.id), '[]'::json), " +
+                    "  'lifecycle_activities', (SELECT json FROM activities), " +
+                    "  'architectural_layers', (SELECT json FROM als), " +
+                    "  'learning_goals', coalesce((SELECT json FROM lg WHERE lg.module_id = m.id), '[]'::json), " +
+                    "  'lectures_in_week', m.lecturesperweek, " +
+                    "  'practical_hours_week', m.practicalperweek, " +
+                    "  'total_effort', coalesce(m.totaleffort, (m.credits * 28)), " +
+                    "  'introductorytext', coalesce(md.introduction, ''), " +
+                    "  'additional_information', coalesce(md.additionalinfo, ''), " +
+                    "  'topics', coalesce((SELECT topics FROM topics WHERE module = m.id), '[]'::json), " +
+                    "  'semester', mp.semester, " +
+                    "  'teaching_material', coalesce((SELECT array_to_json(mat.descs) FROM material AS mat WHERE mat.md_id = md.id), '[]'::json), " +
+                    "  'prior_knowledge_references', coalesce((SELECT array_to_json(array_agg(PRIOR.prior_modules)) FROM PRIOR WHERE PRIOR.module = m.id), '[]'::json), " +
+                    "  'qualifications', coalesce((SELECT array_to_json(array_agg(json)) FROM moduleskills WHERE module = m.id), '[]'::json), " +
+                    "  'assesment_parts', coalesce((SELECT array_to_json(json) FROM grading WHERE module = m.id), '[]'::json) " +
+                    ") ";
+
+    /**
+     * The modules with their description and the profiles they are part of.
+     */
+    private static final String MODULE_INFORMATION_FROM =
+            "FROM study.module AS m " +
+                    "  left join study.moduledescription AS md ON md.module_id = m.id " +
+                    "  left join study.module_profile AS mp ON mp.module_id = m.id " +
+                    "  left join study.profile AS p ON mp.profile_id = p.id ";
+
+    /**
+     * Common table expressions of the editable module document that depend on the module itself.
+     */
+    private static final String EDITABLE_MODULE_CTE =
+            "WITH " +
+                    "    prior AS (SELECT Json_build_object('id', m.id, 'code',m.code , 'name', m.name, 'type', (lower(md.type::text)), 'remarks', Coalesce(md.remarks, '')) AS prior_modules, md.module_id AS module  FROM study.moduledependency AS md inner join study.module  AS m ON m.id = md.dependency_module_id), " +
+                    "    alrow AS (SELECT Row_number() over () AS num, id FROM study.architecturallayer), " +
+                    "    acrow AS (SELECT Row_number() over () AS num, id FROM study.activity), " +
+                    "    material AS (SELECT Array_agg(Json_build_object('name', tm.description, 'type', tm.TYPE)) AS json, tm.moduledescription_id AS md_id FROM study.teachingmaterial AS tm GROUP BY tm.moduledescription_id), " +
+                    "    skills AS (SELECT Array_to_json(Array_agg(Json_build_object('architectural_layer', (SELECT (num) FROM alrow WHERE alrow.id = q.architecturallayer_id), 'lifecycle_activity', (SELECT (num) FROM acrow WHERE acrow.id = q.activity_id), 'level', los.LEVEL))) AS json, lq.learninggoal_id FROM study.learninggoal_qualification AS lq inner join study.qualification AS q ON q.id = lq.qualification_id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lq.learninggoal_id), " +
+                    "    lg AS (SELECT Array_to_json(Array_agg(Json_build_object('name', Concat('LG ', sequenceno), 'weight', weight::DECIMAL, 'description', description, 'type', (CASE lg.groupgoal WHEN TRUE THEN 'group' ELSE 'personal' END), 'skillmatrix', Coalesce((SELECT json FROM skills WHERE skills.learninggoal_id = lg.id), '[]'::json)) ORDER BY lg.sequenceno)) AS json, lg.module_id FROM study.learninggoal AS lg GROUP BY module_id), " +
+                    "    topics AS (SELECT array_to_json(array_agg(t.description order BY t.sequenceno)) AS topics, t.module_id AS module  FROM study.moduletopic AS t GROUP BY t.module_id), " +
+                    "    moduleskills AS (SELECT lg.module_id AS module , json_build_object('lifecycle_activity', (SELECT (num - 1) FROM acrow WHERE id = q.activity_id), 'architectural_layer', (SELECT (num - 1) FROM alrow WHERE id = q.architecturallayer_id), 'level', max(los.LEVEL)) AS json FROM study.learninggoal AS lg inner join study.learninggoal_qualification AS lg2q ON lg2q.learninggoal_id = lg.id inner join study.qualification AS q ON lg2q.qualification_id = q.id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lg.module_id, q.activity_id, q.architecturallayer_id), " +
+                    "    lecturers AS (SELECT array_to_json(array_agg(json_build_object('id', e.id, 'name', concat(firstname, ' ', lastname)) ORDER BY e.lastname)) AS json, me.module_id AS module  FROM study.module_employee AS me inner join study.employee AS e ON e.id = me.employee_id GROUP BY me.module_id), " +
+                    "    grading AS (SELECT array_agg(json_build_object('subcode', ma.code, 'description', ma.description, 'percentage', coalesce(ma.weight, 0.0), 'minimal_grade', ma.minimumgrade, 'remark', coalesce(ma.remarks, '')) ORDER BY ma.code) AS json, ma.module_id AS module  FROM study.moduleassessment AS ma GROUP BY ma.module_id), " +
+                    "    semesters AS (SELECT array_to_json(array_agg(DISTINCT mp.semester)) AS json, mp.module_id AS module  FROM study.module_profile AS mp GROUP BY mp.module_id) ";
+
+    /**
+     * Common table expressions of the lists every editable module document offers to choose from: all lecturers,
+     * all modules, all lifecycle activities and all architectural layers. They are the same for every module, so
+     * they are not stored in the read model but added when a document is read.
+     */
+    private static final String EDITABLE_MODULE_LOOKUPS =
+            "acitivies AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.activity), " +
+                    "    als AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.architecturallayer), " +
+                    "    all_lecturers AS (SELECT array_to_json(array_agg(json_build_object('id', id, 'name', concat(firstname, ' ', lastname)) ORDER BY lastname)) AS json FROM study.employee), " +
+                    "    modules AS (SELECT array_to_json(array_agg(json_build_object('id', id, 'code', code, 'name', name))) AS modules FROM study.module ) ";
+
+    /**
+     * Keys and values of the editable module document that depend on the module itself.
+     */
+    private static final String EDITABLE_MODULE_FIELDS =
+            "  'id', m.id, " +
+                    "  'version', m.version, " +
+                    "  'code', m.code, " +
+                    "  'name', m.name, " +
+                    "  'credits', m.credits, " +
+                    "  'semesters',coalesce((SELECT json FROM semesters WHERE module  = m.id), '[]'::json), " +
+                    "  'lectures_in_week', m.lecturesperweek, " +
+                    "  'practical_hours_week', m.practicalperweek, " +
+                    "  'introductorytext', coalesce(md.introduction, ''), " +
+                    "  'topics', coalesce((SELECT topics FROM topics WHERE module  = m.id), '[]'::json), " +
+                    "  'teaching_material', coalesce((SELECT array_to_json(mat.json) FROM material AS mat WHERE mat.md_id = md.id), '[]'::json), " +
+                    "  'teaching_material_types', '[\"BOOK\", \"WEBSITE\", \"ARTICLE\", \"OTHER\"]'::json, " +
+                    "  'additional_information', coalesce(md.additionalinfo, ''), " +
+                    "  'active_lecturers', coalesce((SELECT json FROM lecturers WHERE module  = m.id), '[]'::json), " +
+                    "  'credentials', coalesce(md.credentials, ''), " +
+                    "  'project_flag', m.isproject, " +
+                    "  'learning_goals', coalesce((SELECT json FROM lg WHERE lg.module_id = m.id), '[]'::json), " +
+                    "  'assesment_parts', coalesce((SELECT array_to_json(json) FROM grading WHERE module  = m.id), '[]'::json), " +
+                    "  'prior_knowledge_references', coalesce((SELECT array_to_json(array_agg(PRIOR.prior_modules)) FROM PRIOR WHERE PRIOR.module  = m.id), '[]'::json), " +
+                    "  'total_effort', coalesce(m.totaleffort, (m.credits * 28)), " +
+                    "  'qualifications', coalesce((SELECT array_to_json(array_agg(json)) FROM moduleskills WHERE module  = m.id), '[]'::json) ";
+
+    /**
+     * Keys and values of the lists every editable module document offers to choose from.
+     */
+    private static final String EDITABLE_MODULE_LOOKUP_FIELDS =
+            "  'all_lecturers', coalesce((SELECT json FROM all_lecturers), '[]'::json), " +
+                    "  'modules', (SELECT modules FROM modules), " +
+                    "  'lifecycle_activities', (SELECT json FROM acitivies), " +
+                    "  'architectural_layers', (SELECT json FROM als) ";
+
+    /**
+     * The modules whose documents change when a module is saved: the module itself and the modules that refer to
+     * it as prior knowledge, since their documents contain its code and name. Takes the module id twice.
+     */
+    private static final String SAVED_MODULES =
+            "(SELECT ?::int UNION SELECT module_id FROM study.moduledependency WHERE dependency_module_id = ?) ";
+
+    private static final String SELECT_SAVED_CODES = "SELECT code FROM study.module WHERE id IN " + SAVED_MODULES;
+
+    private static final String INSERT_MODULE_DOCUMENTS =
+            "INSERT INTO study.module_document (module_id, studyprogramme_id, code, document) " +
+                    MODULE_INFORMATION_CTE +
+                    "SELECT DISTINCT ON (m.id, p.studyprogramme_id) m.id, p.studyprogramme_id, m.code, " +
+                    MODULE_INFORMATION_DOCUMENT + "::jsonb " +
+                    MODULE_INFORMATION_FROM +
+                    "WHERE p.studyprogramme_id IS NOT NULL ";
+
+    private static final String MODULE_DOCUMENTS_ORDER = "ORDER BY m.id, p.studyprogramme_id, mp.semester";
+
+    private static final String INSERT_EDITABLE_MODULE_DOCUMENTS =
+            "INSERT INTO study.module_edit_document (module_id, code, document) " +
+                    EDITABLE_MODULE_CTE +
+                    "SELECT m.id, m.code, json_build_object( " + EDITABLE_MODULE_FIELDS + ")::jsonb " +
+                    "FROM study.module AS m " +
+                    "  left join study.moduledescription AS md ON md.module_id = m.id ";
+
+    private static final String[] REBUILD_SAVED_DOCUMENTS = {
+            "DELETE FROM study.module_document WHERE module_id IN " + SAVED_MODULES,
+            INSERT_MODULE_DOCUMENTS + "AND m.id IN " + SAVED_MODULES + MODULE_DOCUMENTS_ORDER,
+            "DELETE FROM study.module_edit_document WHERE module_id IN " + SAVED_MODULES,
+            INSERT_EDITABLE_MODULE_DOCUMENTS + "WHERE m.id IN " + SAVED_MODULES
+    };
+
+    private static final String[] REBUILD_ALL_DOCUMENTS = {
+            "DELETE FROM study.module_document",
+            INSERT_MODULE_DOCUMENTS + MODULE_DOCUMENTS_ORDER,
+            "DELETE FROM study.module_edit_document",
+            INSERT_EDITABLE_MODULE_DOCUMENTS
+    };
+
+    /**
+     * Keeps saves and other instances from changing the documents while they are built at startup. The mode
+     * conflicts with itself, so instances that start at the same time build them once.
+     */
+    private static final String LOCK_DOCUMENTS =
+            "LOCK TABLE study.module_document, study.module_edit_document IN SHARE ROW EXCLUSIVE MODE";
+
+    private static final String SELECT_MISSING_DOCUMENTS =
+            "SELECT EXISTS (SELECT 1 FROM study.module AS m " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM study.module_edit_document AS d WHERE d.module_id = m.id))";
+
+    static final String SELECT_MODULE_DOCUMENT =
+            "SELECT document::text AS module FROM study.module_document WHERE code = ? AND studyprogramme_id = ? LIMIT 1";
+
+    private static final String SELECT_CURRICULUM_DOCUMENTS =
+            "SELECT document::text AS module FROM study.module_document WHERE studyprogramme_id = ? ORDER BY code";
+
+    private static final String SELECT_EDITABLE_MODULE_DOCUMENT =
+            "WITH " + EDITABLE_MODULE_LOOKUPS +
+                    "SELECT (d.document || jsonb_build_object( " + EDITABLE_MODULE_LOOKUP_FIELDS + "))::text AS module " +
+                    "FROM study.module_edit_document AS d WHERE d.code = ? LIMIT 1";
+
+    private final Histogram rowsTouchedPerSave = new Histogram(0, 1, 2, 5, 10, 20, 50, 100, 200, 500);
+
+    private final LongAdder rowsInserted = new LongAdder();
+
+    private final LongAdder rowsUpdated = new LongAdder();
+
+    private final LongAdder rowsDeleted = new LongAdder();
+
     /**
      * Constructor. Takes a connection object which it uses to query a database.
      *
@@ -16,178 +337,545 @@ public class ModulesService extends Service {
     @Inject
     ModulesService(final Connection connection) {
         super(connection);
+        nameQuery(getQueryModuleInformation(), "moduleInformation");
+        nameQuery(getQueryEditableModule(), "editableModule");
+        nameQuery(SELECT_MODULE_DOCUMENT, "moduleDocument");
+        nameQuery(SELECT_EDITABLE_MODULE_DOCUMENT, "editableModuleDocument");
+        nameQuery(SELECT_SAVED_CODES, "savedModuleCodes");
+        nameQuery(INCREMENT_MATCHING_VERSION, "incrementMatchingVersion");
+        nameQuery(SELECT_QUALIFICATIONS, "qualificationIds");
+        nameQuery(SELECT_CURRICULUM_DOCUMENTS, "curriculumDocuments");
+        nameQuery(getQueryCurriculumModules(), "curriculumModules");
     }
 
     /**
-     * Get the query string that retrieves the information of a module.
+     * Get the query string that retrieves the information of a module. It builds the document from the normalized
+     * tables; requests read it from the read model, see {@link #getModuleDocumentAsync(String, int)}.
      *
      * @return Query string.
      */
     public String getQueryModuleInformation() {
-        return
-                "WITH " +
-                        "    prior AS (SELECT Json_build_object('id', m.id, 'code',m.code , 'name', m.name, 'type', lower(md.type::text), 'remarks', Coalesce(md.remarks, '')) AS prior_modules, md.module_id AS module FROM study.moduledependency AS md inner join study.module AS m ON m.id = md.dependency_module_id), " +
-                        "    alrow AS (SELECT Row_number() over () AS num, id FROM study.architecturallayer), " +
-                        "    acrow AS (SELECT Row_number() over () AS num, id FROM study.activity), " +
-                        "    material AS (SELECT Array_agg(tm.description) AS descs, tm.moduledescription_id AS md_id FROM study.teachingmaterial AS tm GROUP BY tm.moduledescription_id), " +
-                        "    skills AS (SELECT Array_to_json(Array_agg(Json_build_object('architectural_layer', (SELECT (num - 1) FROM alrow WHERE alrow.id = q.architecturallayer_id), 'lifecycle_activity', (SELECT (num - 1) FROM acrow WHERE acrow.id = q.activity_id), 'level', los.LEVEL))) AS json, lq.learninggoal_id FROM study.learninggoal_qualification AS lq inner join study.qualification AS q ON q.id = lq.qualification_id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lq.learninggoal_id), " +
-                        "    lg AS (SELECT Array_to_json(Array_agg(Json_build_object('name', Concat('LG ', sequenceno), 'description', description, 'type', (CASE lg.groupgoal WHEN TRUE THEN 'group' ELSE 'personal' END), 'skillmatrix', Coalesce((SELECT json FROM skills WHERE skills.learninggoal_id = lg.id), '[]'::json)) order by lg.sequenceno)) AS json, lg.module_id FROM study.learninggoal AS lg GROUP BY module_id), " +
-                        "    activities AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.activity), " +
-                        "    als AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.architecturallayer), " +
-                        "    topics AS (SELECT array_to_json(array_agg(t.description order BY t.sequenceno)) AS topics, t.module_id AS module FROM study.moduletopic AS t GROUP BY t.module_id), " +
-                        "    moduleskills AS (SELECT lg.module_id AS module, json_build_object('lifecycle_activity', (SELECT (num - 1) FROM acrow WHERE id = q.activity_id), 'architectural_layer', (SELECT (num - 1) FROM alrow WHERE id = q.architecturallayer_id), 'level', max(los.LEVEL)) AS json FROM study.learninggoal AS lg inner join study.learninggoal_qualification AS lg2q ON lg2q.learninggoal_id = lg.id inner join study.qualification AS q ON lg2q.qualification_id = q.id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lg.module_id, q.activity_id, q.architecturallayer_id), " +
-                        "    lecturers AS (SELECT array_to_json(array_agg(concat(e.firstname, ' ', e.lastname))) AS json, me.module_id AS module FROM study.module_employee AS me inner join study.employee AS e ON e.id = me.employee_id GROUP BY me.module_id), " +
-                        "    grading AS (SELECT array_agg(json_build_object('subcode', ma.code, 'description', ma.description, 'percentage', coalesce(ma.weight, 0.0), 'minimal_grade', ma.minimumgrade, 'remark', coalesce(ma.remarks, '')) ORDER BY ma.code) AS json, ma.module_id AS module FROM study.moduleassessment AS ma GROUP BY ma.module_id) " +
-                        "SELECT json_build_object( " +
-                        "  'id', m.id, " +
-                        "  'code', m.code, " +
-                        "  'name', m.name, " +
-                        "  'credits', m.credits, " +
-                        "  'credentials', coalesce(md.credentials, ''), " +
-                        "  'lecturers', coalesce((SELECT json FROM lecturers WHERE module = m.id), '[]'::json), " +
-                        "  'lifecycle_activities', (SELECT json FROM activities), " +
-                        "  'architectural_layers', (SELECT json FROM als), " +
-                        "  'learning_goals', coalesce((SELECT json FROM lg WHERE lg.module_id = m.id), '[]'::json), " +
-                        "  'lectures_in_week', m.lecturesperweek, " +
-                        "  'practical_hours_week', m.practicalperweek, " +
-                        "  'total_effort', coalesce(m.totaleffort, (m.credits * 28)), " +
-                        "  'introductorytext', coalesce(md.introduction, ''), " +
-                        "  'additional_information', coalesce(md.additionalinfo, ''), " +
-                        "  'topics', coalesce((SELECT topics FROM topics WHERE module = m.id), '[]'::json), " +
-                        "  'semester', mp.semester, " +
-                        "  'teaching_material', coalesce((SELECT array_to_json(mat.descs) FROM material AS mat WHERE mat.md_id = md.id), '[]'::json), " +
-                        "  'prior_knowledge_references', coalesce((SELECT array_to_json(array_agg(PRIOR.prior_modules)) FROM PRIOR WHERE PRIOR.module = m.id), '[]'::json), " +
-                        "  'qualifications', coalesce((SELECT array_to_json(array_agg(json)) FROM moduleskills WHERE module = m.id), '[]'::json), " +
-                        "  'assesment_parts', coalesce((SELECT array_to_json(json) FROM grading WHERE module = m.id), '[]'::json) " +
-                        ") as module FROM study.module AS m " +
-                        "  left join study.moduledescription AS md ON md.module_id = m.id " +
-                        "  left join study.module_profile AS mp ON mp.module_id = m.id " +
-                        "  left join study.profile AS p ON mp.profile_id = p.id " +
-                        "WHERE m.code = ? AND p.studyprogramme_id = ?;";
-    }
-
-    /**
-     * Get the queries to update module information.
+        return MODULE_INFORMATION_CTE +
+                "SELECT " + MODULE_INFORMATION_DOCUMENT + "AS module " +
+                MODULE_INFORMATION_FROM +
+                "WHERE m.code = ? AND p.studyprogramme_id = ?;";
+    }
+
+    /**
+     * Get the query string that builds the readable documents of every module of a curriculum from the normalized
+     * tables, ordered by code. The export reads them from the read model instead, see
+     * {@link #exportModules(int, OutputStream)}.
      *
-     * @return The query string.
+     * @return Query string.
      */
-    public String[] getUpdateModuleInformationStatements() {
-        return new String[]{
-                //Index 0: update base module
-                "UPDATE study.module " +
-                        "    SET code = ?, name = ?, credits = ?, lecturesperweek = ?, practicalperweek = ?, isproject = ?, totaleffort = credits * 28 " +
-                        "WHERE id = ?",
-
-                //index 1: delete topics linked to module
-                "DELETE FROM study.moduletopic " +
-                        "WHERE module_id = ?",
-
-                //index 2: re-insert module topics
-                "INSERT INTO study.moduletopic(module_id, sequenceno, description) " +
-                        "    VALUES (?, NULL, ?)",
-
-                //index 3: update module description
-                "UPDATE study.moduledescription  " +
-                        "  SET introduction = ?, additionalinfo = ?, credentials = ? " +
-                        "WHERE module_id = ?;",
-
-                //index 4: delete module teaching materials
-                "DELETE FROM study.teachingmaterial " +
-                        "WHERE moduledescription_id = (SELECT id FROM study.moduledescription WHERE module_id = ?); ",
-
-                //index 5: re-insert module teaching materials
-                "INSERT INTO study.teachingmaterial (moduledescription_id, type, description) " +
-                        "    VALUES ((SELECT id FROM study.moduledescription WHERE module_id = ?), (upper(?)::study.teachingmaterials), ?)",
-
-                //index 6: delete linked employees
-                "DELETE FROM study.module_employee " +
-                        "  WHERE module_id = ?",
-
-                //index 7: re-insert employees linked to module
-                "INSERT INTO study.module_employee(module_id, employee_id) " +
-                        "  VALUES (?, ?)",
-
-                //index 8: delete module's dependencies
-                "DELETE FROM study.moduledependency " +
-                        "  WHERE module_id = ?;",
-
-                //index 9: re-insert module dependencies
-                "INSERT INTO study.moduledependency(module_id, dependency_module_id, type, remarks) " +
-                        "  VALUES (?, ?, (upper(?)::study.dependencytype), ?);",
-
-                //index 10: delete studies learning goals.
-                "DELETE FROM study.learninggoal " +
-                        "  WHERE module_id = ?;",
-
-                //index 11: insert learning goals
-                "INSERT INTO study.learninggoal(module_id, description, sequenceno, weight, groupgoal) " +
-                        "    VALUES (?, ?, NULL, ?, ?);",
-
-                //index 12: link learning goals to qualifications
-                "INSERT INTO study.learninggoal_qualification(learninggoal_id, qualification_id) " +
-                        "    VALUES (?, (SELECT id FROM study.qualification WHERE architecturallayer_id = ? AND activity_id = ? AND levelofskill_id = ?)); ",
-
-                //index 13: delete module assessments
-                "DELETE FROM study.moduleassessment " +
-                        "  WHERE module_id = ?;",
-
-                //index 14: re insert module assessments
-                "INSERT INTO study.moduleassessment(code, weight, minimumgrade, remarks, module_id, description) " +
-                        "  VALUES (?, ?, ?, ?, ?, ?);"
-        };
+    public String getQueryCurriculumModules() {
+        return MODULE_INFORMATION_CTE +
+                "SELECT DISTINCT ON (m.code) " + MODULE_INFORMATION_DOCUMENT + "AS module " +
+                MODULE_INFORMATION_FROM +
+                "WHERE p.studyprogramme_id = ? " +
+                "ORDER BY m.code, mp.semester;";
+    }
+
+    /**
+     * Save a module. Only what differs from the database is written: the module and its description are updated
+     * only if one of their values changed, and every collection of the module is compared row by row with the
+     * rows in the database. The documents of the module in the read model are rebuilt in the same transaction.
+     * After the transaction is committed the cached results of the module, of the modules that refer to it and of
+     * every list of modules are invalidated.
+     *
+     * @param module Module object containing the updated information. In this case an object resembling a Module,
+     *               which is shown in test/resources/json/editableModuleInput.json.
+     * @return The number of rows that were inserted, updated or deleted.
+     * @throws Exception If a database access error occurs or anything else goes wrong.
+     */
+    public int saveModule(final JsonNode module) throws Exception {
+        return writeModule(module, null);
+    }
+
+    /**
+     * Save a module like {@link #saveModule(JsonNode)}, but only if nobody saved it since the client read it.
+     * The version is compared and incremented first thing in the transaction, so a conflicting save fails before
+     * it has written or locked anything else.
+     *
+     * @param module          Module object containing the updated information.
+     * @param expectedVersion Version of the module the client read, see {@link #versionOf(byte[])}.
+     * @return The number of rows that were inserted, updated or deleted.
+     * @throws Exception A <code>PreconditionFailedException</code> if the module has another version or is being
+     *                   saved right now, or any exception {@link #saveModule(JsonNode)} throws.
+     */
+    public int saveModule(final JsonNode module, final long expectedVersion) throws Exception {
+        return writeModule(module, expectedVersion);
+    }
+
+    /**
+     * Save a module and increment its version.
+     *
+     * @param module          Module object containing the updated information.
+     * @param expectedVersion Version the module must have, or null to save it whatever its version.
+     * @return The number of rows that were inserted, updated or deleted.
+     * @throws Exception If a database access error occurs, the version does not match or anything else goes wrong.
+     */
+    private int writeModule(final JsonNode module, final Long expectedVersion) throws Exception {
+        final int id = module.findValue("id").asInt();
+        final String code = module.findValue("code").asText();
+        final String name = module.findValue("name").asText();
+        final int credits = module.findValue("credits").asInt();
+        final int lecturesPerWeek = module.findValue("lectures_in_week").asInt();
+        final int practicalPerWeek = module.findValue("practical_hours_week").asInt();
+        final String introText = module.findValue("introductorytext").asText();
+        final ArrayNode topics = ((ArrayNode) module.findValue("topics"));
+        final ArrayNode teachingMaterials = ((ArrayNode) module.findValue("teaching_material"));
+        final String additionalInformation = module.findValue("additional_information").asText();
+        final ArrayNode lecturers = ((ArrayNode) module.findValue("lecturers"));
+        final String credentials = module.findValue("credentials").asText();
+        final boolean isProject = module.findValue("project_flag").asBoolean();
+        final ArrayNode learningGoals = (ArrayNode) module.findValue("learning_goals");
+        final ArrayNode assessmentParts = (ArrayNode) module.findValue("assesment_parts");
+        final ArrayNode moduleLinks = (ArrayNode) module.findValue("prior_knowledge_references");
+
+        final List<Object[]> topicRows = new ArrayList<>();
+        for (JsonNode topic : topics) {
+            topicRows.add(new Object[]{id, topic.asText(), topicRows.size() + 1});
+        }
+
+        final List<Object[]> teachingMaterialRows = new ArrayList<>();
+        for (JsonNode teachingMaterial : teachingMaterials) {
+            teachingMaterialRows.add(new Object[]{
+                    id,
+                    teachingMaterial.findValue("type").asText().toUpperCase(Locale.ROOT),
+                    teachingMaterial.findValue("name").asText()});
+        }
+
+        final List<Object[]> lecturerRows = new ArrayList<>();
+        for (JsonNode lecturer : lecturers) {
+            lecturerRows.add(new Object[]{id, lecturer.asInt()});
+        }
+
+        final List<Object[]> dependencyRows = new ArrayList<>();
+        for (JsonNode dependency : moduleLinks) {
+            dependencyRows.add(new Object[]{
+                    id,
+                    dependency.findValue("id").asInt(),
+                    dependency.findValue("type").asText().toUpperCase(Locale.ROOT),
+                    dependency.findValue("remarks").asText()});
+        }
+
+        final List<Object[]> learningGoalRows = new ArrayList<>();
+        for (JsonNode learningGoal : learningGoals) {
+            learningGoalRows.add(new Object[]{
+                    id,
+                    learningGoal.findValue("description").asText(),
+                    !learningGoal.findValue("type").asText().equals("group"),
+                    learningGoal.findValue("weight").asDouble(),
+                    learningGoalRows.size() + 1});
+        }
+
+        final List<Object[]> assessmentPartRows = new ArrayList<>();
+        for (JsonNode assessmentPart : assessmentParts) {
+            assessmentPartRows.add(new Object[]{
+                    id,
+                    assessmentPart.findValue("subcode").asText(),
+                    assessmentPart.findValue("percentage").asDouble(),
+                    assessmentPart.findValue("minimal_grade").asDouble(),
+                    assessmentPart.findValue("remark").asText(),
+                    assessmentPart.findValue("description").asText()});
+        }
+
+        final List<ChildRows.Diff> diffs = new ArrayList<>();
+        final AtomicInteger updated = new AtomicInteger();
+        final Set<String> tags = new HashSet<>();
+        executeTransactional(conn -> {
+            diffs.clear();
+            updated.set(0);
+            tags.clear();
+            incrementVersion(conn, id, expectedVersion);
+            //Select the codes before the update, so the results cached under the old code are invalidated as well.
+            for (Object[] row : select(conn, SELECT_SAVED_CODES, id, id)) {
+                tags.add(CacheTags.module(String.valueOf(row[0])));
+            }
+            updated.addAndGet(updateBatch(conn, UPDATE_MODULE, Collections.singletonList(new Object[]{
+                    code, name, credits, lecturesPerWeek, practicalPerWeek, isProject, id,
+                    code, name, credits, lecturesPerWeek, practicalPerWeek, isProject}))[0]);
+            updated.addAndGet(updateBatch(conn, UPDATE_DESCRIPTION, Collections.singletonList(new Object[]{
+                    introText, additionalInformation, credentials, id,
+                    introText, additionalInformation, credentials}))[0]);
+
+            diffs.add(save(conn, TOPICS, id, topicRows));
+            diffs.add(save(conn, TEACHING_MATERIALS, id, teachingMaterialRows));
+            diffs.add(save(conn, LECTURERS, id, lecturerRows));
+            diffs.add(save(conn, DEPENDENCIES, id, dependencyRows));
+
+            final ChildRows.Diff goals = LEARNING_GOALS.diff(select(conn, LEARNING_GOALS.getSelect(), id),
+                    learningGoalRows);
+            updateBatch(conn, LEARNING_GOALS.getDelete(), goals.getDeletes());
+            updateBatch(conn, LEARNING_GOALS.getUpdate(), goals.getUpdates());
+            final int[] insertedIds = insertBatch(conn, LEARNING_GOALS.getInsert(), goals.getInserts());
+            diffs.add(goals);
+
+            //Qualifications of deleted learning goals are removed by the cascade, so only compare the remaining goals.
+            final Set<Object> keptGoals = new HashSet<>();
+            final List<Object[]> qualificationRows = new ArrayList<>();
+            Map<List<Object>, Object> qualificationIds = null;
+            int inserted = 0;
+            for (int i = 0; i < learningGoals.size(); i++) {
+                Object goalId = goals.getLocator(i);
+                if (goalId == null) {
+                    goalId = insertedIds[inserted++];
+                } else {
+                    keptGoals.add(goalId);
+                }
+
+                final ArrayNode skillmatrix = (ArrayNode) learningGoals.get(i).findValue("skillmatrix");
+                for (JsonNode qualification : skillmatrix) {
+                    if (qualificationIds == null) qualificationIds = selectQualificationIds(conn);
+                    qualificationRows.add(new Object[]{goalId, qualificationId(qualificationIds, qualification)});
+                }
+            }
+            final List<Object[]> currentQualifications = new ArrayList<>();
+            for (Object[] row : select(conn, QUALIFICATIONS.getSelect(), id)) {
+                if (keptGoals.contains(row[1])) currentQualifications.add(row);
+            }
+            diffs.add(save(conn, QUALIFICATIONS, currentQualifications, qualificationRows));
+
+            diffs.add(save(conn, ASSESSMENTS, id, assessmentPartRows));
+
+            rebuildDocuments(conn, id);
+        });
+        tags.add(CacheTags.module(code));
+        tags.add(CacheTags.MODULES);
+        invalidate(tags);
+
+        long insertedRows = 0;
+        long updatedRows = updated.get();
+        long deletedRows = 0;
+        for (ChildRows.Diff diff : diffs) {
+            insertedRows += diff.getInserts().size();
+            updatedRows += diff.getUpdates().size();
+            deletedRows += diff.getDeletes().size();
+        }
+        rowsInserted.add(insertedRows);
+        rowsUpdated.add(updatedRows);
+        rowsDeleted.add(deletedRows);
+        rowsTouchedPerSave.record(insertedRows + updatedRows + deletedRows);
+        return (int) (insertedRows + updatedRows + deletedRows);
+    }
+
+    /**
+     * Look up the id of every qualification, so the qualifications of the learning goals of a module are saved
+     * without a subselect per row.
+     *
+     * @param conn Connection of the open transaction.
+     * @return The id of every qualification, by its layer, activity and level of skill.
+     * @throws Exception If a database access error occurs.
+     */
+    private Map<List<Object>, Object> selectQualificationIds(final java.sql.Connection conn) throws Exception {
+        final Map<List<Object>, Object> ids = new HashMap<>();
+        for (Object[] row : select(conn, SELECT_QUALIFICATIONS)) {
+            ids.put(Arrays.asList(row[0], row[1], row[2]), row[3]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param ids           The id of every qualification, see {@link #selectQualificationIds(java.sql.Connection)}.
+     * @param qualification A qualification of the skill matrix of a learning goal.
+     * @return The id of the qualification.
+     * @throws SQLException If there is no qualification with its layer, activity and level.
+     */
+    private static Object qualificationId(final Map<List<Object>, Object> ids, final JsonNode qualification)
+            throws SQLException {
+        final List<Object> key = Arrays.asList(
+                qualification.findValue("architectural_layer").asInt(),
+                qualification.findValue("lifecycle_activity").asInt(),
+                qualification.findValue("level").asInt());
+        final Object id = ids.get(key);
+        if (id == null) throw new SQLException("No qualification with layer, activity and level " + key);
+        return id;
+    }
+
+    /**
+     * Bring the rows of a module in a table in line with the rows that should be there.
+     *
+     * @param conn     Connection of the open transaction.
+     * @param table    Table to save the rows in.
+     * @param moduleId Identifier of the module.
+     * @param desired  Rows that should be there.
+     * @return The changes that were made.
+     * @throws Exception If a database access error occurs.
+     */
+    private ChildRows.Diff save(final java.sql.Connection conn,
+                                final ChildRows table,
+                                final int moduleId,
+                                final List<Object[]> desired) throws Exception {
+        return save(conn, table, select(conn, table.getSelect(), moduleId), desired);
+    }
+
+    /**
+     * Bring rows in a table in line with the rows that should be there. Rows are deleted first, so a row that is
+     * inserted never conflicts with a row that is about to be deleted.
+     *
+     * @param conn    Connection of the open transaction.
+     * @param table   Table to save the rows in.
+     * @param current Rows that are in the table now.
+     * @param desired Rows that should be there.
+     * @return The changes that were made.
+     * @throws Exception If a database access error occurs.
+     */
+    private ChildRows.Diff save(final java.sql.Connection conn,
+                                final ChildRows table,
+                                final List<Object[]> current,
+                                final List<Object[]> desired) throws Exception {
+        final ChildRows.Diff diff = table.diff(current, desired);
+        updateBatch(conn, table.getDelete(), diff.getDeletes());
+        if (table.getUpdate() != null) updateBatch(conn, table.getUpdate(), diff.getUpdates());
+        updateBatch(conn, table.getInsert(), diff.getInserts());
+        return diff;
+    }
+
+    /**
+     * @return Distribution of the number of rows written per module save.
+     */
+    public Histogram getRowsTouchedPerSave() {
+        return rowsTouchedPerSave;
+    }
+
+    /**
+     * @return Number of rows inserted by module saves.
+     */
+    public long getRowsInserted() {
+        return rowsInserted.sum();
+    }
+
+    /**
+     * @return Number of rows updated by module saves.
+     */
+    public long getRowsUpdated() {
+        return rowsUpdated.sum();
+    }
+
+    /**
+     * @return Number of rows deleted by module saves.
+     */
+    public long getRowsDeleted() {
+        return rowsDeleted.sum();
     }
 
     /**
-     * Get the query string to get a module that has extra information for editing.
+     * Get the query string to get a module that has extra information for editing. It builds the document from the
+     * normalized tables; requests read it from the read model, see {@link #getEditableModuleDocumentAsync(String)}.
      *
      * @return The query string.
      */
     public String getQueryEditableModule() {
-        return
-                "WITH " +
-                        "    prior AS (SELECT Json_build_object('id', m.id, 'code',m.code , 'name', m.name, 'type', (lower(md.type::text)), 'remarks', Coalesce(md.remarks, '')) AS prior_modules, md.module_id AS module  FROM study.moduledependency AS md inner join study.module  AS m ON m.id = md.dependency_module_id), " +
-                        "    alrow AS (SELECT Row_number() over () AS num, id FROM study.architecturallayer), " +
-                        "    acrow AS (SELECT Row_number() over () AS num, id FROM study.activity), " +
-                        "    material AS (SELECT Array_agg(Json_build_object('name', tm.description, 'type', tm.TYPE)) AS json, tm.moduledescription_id AS md_id FROM study.teachingmaterial AS tm GROUP BY tm.moduledescription_id), " +
-                        "    skills AS (SELECT Array_to_json(Array_agg(Json_build_object('architectural_layer', (SELECT (num) FROM alrow WHERE alrow.id = q.architecturallayer_id), 'lifecycle_activity', (SELECT (num) FROM acrow WHERE acrow.id = q.activity_id), 'level', los.LEVEL))) AS json, lq.learninggoal_id FROM study.learninggoal_qualification AS lq inner join study.qualification AS q ON q.id = lq.qualification_id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lq.learninggoal_id), " +
-                        "    lg AS (SELECT Array_to_json(Array_agg(Json_build_object('name', Concat('LG ', sequenceno), 'weight', weight::DECIMAL, 'description', description, 'type', (CASE lg.groupgoal WHEN TRUE THEN 'group' ELSE 'personal' END), 'skillmatrix', Coalesce((SELECT json FROM skills WHERE skills.learninggoal_id = lg.id), '[]'::json)) ORDER BY lg.sequenceno)) AS json, lg.module_id FROM study.learninggoal AS lg GROUP BY module_id), " +
-                        "    acitivies AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.activity), " +
-                        "    als AS (SELECT Array_to_json(Array_agg(Json_build_object('id', id, 'name', name, 'description', description))) AS json FROM study.architecturallayer), " +
-                        "    topics AS (SELECT array_to_json(array_agg(t.description order BY t.sequenceno)) AS topics, t.module_id AS module  FROM study.moduletopic AS t GROUP BY t.module_id), " +
-                        "    moduleskills AS (SELECT lg.module_id AS module , json_build_object('lifecycle_activity', (SELECT (num - 1) FROM acrow WHERE id = q.activity_id), 'architectural_layer', (SELECT (num - 1) FROM alrow WHERE id = q.architecturallayer_id), 'level', max(los.LEVEL)) AS json FROM study.learninggoal AS lg inner join study.learninggoal_qualification AS lg2q ON lg2q.learninggoal_id = lg.id inner join study.qualification AS q ON lg2q.qualification_id = q.id inner join study.levelofskill AS los ON los.id = q.levelofskill_id GROUP BY lg.module_id, q.activity_id, q.architecturallayer_id), " +
-                        "    all_lecturers AS (SELECT array_to_json(array_agg(json_build_object('id', id, 'name', concat(firstname, ' ', lastname)) ORDER BY lastname)) AS json FROM study.employee), " +
-                        "    lecturers AS (SELECT array_to_json(array_agg(json_build_object('id', e.id, 'name', concat(firstname, ' ', lastname)) ORDER BY e.lastname)) AS json, me.module_id AS module  FROM study.module_employee AS me inner join study.employee AS e ON e.id = me.employee_id GROUP BY me.module_id), " +
-                        "    grading AS (SELECT array_agg(json_build_object('subcode', ma.code, 'description', ma.description, 'percentage', coalesce(ma.weight, 0.0), 'minimal_grade', ma.minimumgrade, 'remark', coalesce(ma.remarks, '')) ORDER BY ma.code) AS json, ma.module_id AS module  FROM study.moduleassessment AS ma GROUP BY ma.module_id), " +
-                        "    semesters AS (SELECT array_to_json(array_agg(DISTINCT mp.semester)) AS json, mp.module_id AS module  FROM study.module_profile AS mp GROUP BY mp.module_id), " +
-                        "    modules AS (SELECT array_to_json(array_agg(json_build_object('id', id, 'code', code, 'name', name))) AS modules FROM study.module ) " +
-                        "SELECT json_build_object( " +
-                        "  'id', m.id, " +
-                        "  'code', m.code, " +
-                        "  'name', m.name, " +
-                        "  'credits', m.credits, " +
-                        "  'semesters',coalesce((SELECT json FROM semesters WHERE module  = m.id), '[]'::json), " +
-                        "  'lectures_in_week', m.lecturesperweek, " +
-                        "  'practical_hours_week', m.practicalperweek, " +
-                        "  'introductorytext', coalesce(md.introduction, ''), " +
-                        "  'topics', coalesce((SELECT topics FROM topics WHERE module  = m.id), '[]'::json), " +
-                        "  'teaching_material', coalesce((SELECT array_to_json(mat.json) FROM material AS mat WHERE mat.md_id = md.id), '[]'::json), " +
-                        "  'teaching_material_types', '[\"BOOK\", \"WEBSITE\", \"ARTICLE\", \"OTHER\"]'::json, " +
-                        "  'additional_information', coalesce(md.additionalinfo, ''), " +
-                        "  'all_lecturers', coalesce((SELECT json FROM all_lecturers), '[]'::json), " +
-                        "  'active_lecturers', coalesce((SELECT json FROM lecturers WHERE module  = m.id), '[]'::json), " +
-                        "  'credentials', coalesce(md.credentials, ''), " +
-                        "  'project_flag', m.isproject, " +
-                        "  'learning_goals', coalesce((SELECT json FROM lg WHERE lg.module_id = m.id), '[]'::json), " +
-                        "  'assesment_parts', coalesce((SELECT array_to_json(json) FROM grading WHERE module  = m.id), '[]'::json), " +
-                        "  'prior_knowledge_references', coalesce((SELECT array_to_json(array_agg(PRIOR.prior_modules)) FROM PRIOR WHERE PRIOR.module  = m.id), '[]'::json), " +
-                        "  'modules', (SELECT modules FROM modules), " +
-                        "  'lifecycle_activities', (SELECT json FROM acitivies), " +
-                        "  'architectural_layers', (SELECT json FROM als), " +
-                        "  'total_effort', coalesce(m.totaleffort, (m.credits * 28)), " +
-                        "  'qualifications', coalesce((SELECT array_to_json(array_agg(json)) FROM moduleskills WHERE module  = m.id), '[]'::json) " +
-                        ") AS module FROM study.module AS m " +
-                        "  left join study.moduledescription AS md ON md.module_id = m.id " +
-                        "WHERE m.code = ?;";
+        return EDITABLE_MODULE_CTE + ", " + EDITABLE_MODULE_LOOKUPS +
+                "SELECT json_build_object( " + EDITABLE_MODULE_FIELDS + ", " + EDITABLE_MODULE_LOOKUP_FIELDS + ") AS module " +
+                "FROM study.module AS m " +
+                "  left join study.moduledescription AS md ON md.module_id = m.id " +
+                "WHERE m.code = ?;";
+    }
+
+    /**
+     * Get the readable document of a module from the read model. A module that has no document yet, because the
+     * read model was not rebuilt since it was added, is built from the normalized tables instead.
+     *
+     * @param moduleCode   Code of the module.
+     * @param curriculumId Identifier of the study programme.
+     * @return A future of the UTF-8 encoded JSON document.
+     */
+    public CompletableFuture<byte[]> getModuleDocumentAsync(final String moduleCode, final int curriculumId) {
+        return getDocumentAsync(Collections.singletonList(CacheTags.module(moduleCode)),
+                SELECT_MODULE_DOCUMENT, getQueryModuleInformation(), moduleCode, curriculumId);
+    }
+
+    /**
+     * Get the editable document of a module from the read model, together with the lists to choose from. Like
+     * {@link #getModuleDocumentAsync(String, int)} a missing document is built from the normalized tables.
+     *
+     * @param moduleCode Code of the module.
+     * @return A future of the UTF-8 encoded JSON document.
+     */
+    public CompletableFuture<byte[]> getEditableModuleDocumentAsync(final String moduleCode) {
+        //The lists to choose from contain every module, so the document changes when any module is saved.
+        return getDocumentAsync(Arrays.asList(CacheTags.module(moduleCode), CacheTags.MODULES),
+                SELECT_EDITABLE_MODULE_DOCUMENT, getQueryEditableModule(), moduleCode);
+    }
+
+    /**
+     * Read a document from the read model, or build it when it is not there or the read model does not exist.
+     * Either way the document is cached under the tags.
+     *
+     * @param tags          Tags of the data the document is built from.
+     * @param documentQuery Query that reads the document from the read model.
+     * @param buildQuery    Query that builds the document from the normalized tables.
+     * @param parameters    Parameters of both queries.
+     * @return A future of the UTF-8 encoded JSON document.
+     */
+    private CompletableFuture<byte[]> getDocumentAsync(final Collection<String> tags,
+                                                       final String documentQuery,
+                                                       final String buildQuery,
+                                                       final Object... parameters) {
+        return getCachedAsync(tags, documentQuery, "module", parameters).handle((document, e) -> {
+            if (e == null) return CompletableFuture.completedFuture(document);
+
+            Throwable cause = e;
+            if (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+            if (cause instanceof EntityNotFoundException || isUndefinedTable(cause)) {
+                return getCachedAsync(tags, buildQuery, "module", parameters);
+            }
+
+            final CompletableFuture<byte[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(cause);
+            return failed;
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Write the readable document of every module of a curriculum as newline delimited JSON, ordered by code. The
+     * documents are written while they are read from the read model, and the first one is flushed right away. The
+     * documents are built from the normalized tables if the read model does not exist or has no documents of the
+     * curriculum, as before it is filled.
+     *
+     * @param curriculumId Identifier of the study programme.
+     * @param out          Stream to write the documents to.
+     * @return The number of modules that were written.
+     * @throws Exception If a database access error occurs or the documents could not be written.
+     */
+    public long exportModules(final int curriculumId, final OutputStream out) throws Exception {
+        final AtomicLong written = new AtomicLong();
+        final RowWriter writer = document -> {
+            out.write(document);
+            out.write('\n');
+            if (written.getAndIncrement() == 0) out.flush();
+        };
+        try {
+            final long exported = stream(SELECT_CURRICULUM_DOCUMENTS, "module", writer, curriculumId);
+            //Nothing was written yet, so the documents can still be built if the read model has none of them.
+            if (exported > 0) return exported;
+        } catch (SQLException e) {
+            if (!isUndefinedTable(e)) throw e;
+        }
+        return stream(getQueryCurriculumModules(), "module", writer, curriculumId);
+    }
+
+    /**
+     * Increment the version of a module, after checking that it has the expected version.
+     *
+     * @param conn            Connection of the open transaction.
+     * @param id              Identifier of the module.
+     * @param expectedVersion Version the module must have, or null to increment it whatever its version.
+     * @throws Exception A <code>PreconditionFailedException</code> if the module has another version or its row is
+     *                   locked by another save, or an exception of the database.
+     */
+    private void incrementVersion(final java.sql.Connection conn, final int id, final Long expectedVersion)
+            throws Exception {
+        if (expectedVersion == null) {
+            update(conn, INCREMENT_VERSION, id);
+            return;
+        }
+        try {
+            if (update(conn, INCREMENT_MATCHING_VERSION, id, expectedVersion) == 0) {
+                throw new PreconditionFailedException();
+            }
+        } catch (SQLException e) {
+            if (LOCK_NOT_AVAILABLE.equals(e.getSQLState())) throw new PreconditionFailedException();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the version of a module from its editable document without parsing the rest of the document.
+     *
+     * @param document UTF-8 encoded editable module document.
+     * @return The version, or null if the document has none.
+     * @throws IOException If the document is not valid JSON.
+     */
+    public static Long versionOf(final byte[] document) throws IOException {
+        try (JsonParser parser = JsonMapper.getMapper().getFactory().createParser(document)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("version".equals(field)) {
+                    if (value == JsonToken.VALUE_NUMBER_INT) return parser.getLongValue();
+                    return null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param e Exception of a query.
+     * @return Whether the query failed because a table does not exist.
+     */
+    private static boolean isUndefinedTable(final Throwable e) {
+        return e instanceof SQLException && UNDEFINED_TABLE.equals(((SQLException) e).getSQLState());
+    }
+
+    /**
+     * Rebuild the documents of every module in the read model. Every cached result is dropped afterwards.
+     *
+     * @return The number of readable and editable documents that were built.
+     * @throws Exception If a database access error occurs.
+     */
+    public int rebuildAllDocuments() throws Exception {
+        final AtomicInteger built = new AtomicInteger();
+        executeTransactional(conn -> built.set(rebuildAllDocuments(conn)));
+        invalidateAll();
+        return built.get();
+    }
+
+    /**
+     * Rebuild the documents of every module in the read model if a module has no documents, which is the case right
+     * after the read model was created, or after modules were added directly in the database. Every cached result is
+     * dropped afterwards.
+     *
+     * @return The number of readable and editable documents that were built, or 0 if every module had its documents.
+     * @throws Exception If a database access error occurs.
+     */
+    public int buildMissingDocuments() throws Exception {
+        final AtomicInteger built = new AtomicInteger();
+        executeTransactional(conn -> {
+            built.set(0);
+            updateBatch(conn, LOCK_DOCUMENTS, Collections.singletonList(new Object[0]));
+            if (Boolean.TRUE.equals(select(conn, SELECT_MISSING_DOCUMENTS).get(0)[0])) {
+                built.set(rebuildAllDocuments(conn));
+            }
+        });
+        if (built.get() > 0) invalidateAll();
+        return built.get();
+    }
+
+    /**
+     * Rebuild the documents of every module in the read model, inside an open transaction. The cached results are
+     * not invalidated: the caller does that after the transaction is committed.
+     *
+     * @param conn Connection of the open transaction.
+     * @return The number of readable and editable documents that were built.
+     * @throws Exception If a database access error occurs.
+     */
+    final int rebuildAllDocuments(final java.sql.Connection conn) throws Exception {
+        int built = 0;
+        for (int i = 0; i < REBUILD_ALL_DOCUMENTS.length; i++) {
+            final int count = updateBatch(conn, REBUILD_ALL_DOCUMENTS[i], Collections.singletonList(new Object[0]))[0];
+            //The statements alternate between deleting the old documents and inserting the new ones.
+            if (i % 2 == 1) built += count;
+        }
+        return built;
+    }
+
+    /**
+     * Rebuild the documents that change when a module is saved, inside the transaction of the save.
+     *
+     * @param conn     Connection of the open transaction.
+     * @param moduleId Identifier of the saved module.
+     * @throws Exception If a database access error occurs.
+     */
+    private void rebuildDocuments(final java.sql.Connection conn, final int moduleId) throws Exception {
+        for (String statement : REBUILD_SAVED_DOCUMENTS) {
+            updateBatch(conn, statement, Collections.singletonList(new Object[]{moduleId, moduleId}));
+        }
     }
 
     /**
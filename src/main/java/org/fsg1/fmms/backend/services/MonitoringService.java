@@ -0,0 +1,307 @@
+package org.fsg1.fmms.backend.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.PoolMonitor;
+import org.fsg1.fmms.backend.database.ReplicaSet;
+import org.fsg1.fmms.backend.database.ResultCache;
+import org.fsg1.fmms.backend.database.SlowQueryLog;
+import org.fsg1.fmms.backend.database.SingleFlight;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.metrics.Histogram;
+import org.fsg1.fmms.backend.metrics.PrometheusText;
+import org.fsg1.fmms.backend.metrics.QueryStats;
+
+import javax.inject.Inject;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The service class for the monitoring endpoints. It reports on the state of the application instead of
+ * querying the database.
+ */
+public class MonitoringService extends Service {
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private final ModulesService modulesService;
+
+    private volatile long warmUpMillis = -1;
+
+    /**
+     * Constructor. Takes a connection object and a modules service whose state it reports.
+     *
+     * @param connection     The connection object.
+     * @param modulesService The service that saves modules.
+     */
+    @Inject
+    MonitoringService(final Connection connection, final ModulesService modulesService) {
+        super(connection);
+        this.modulesService = modulesService;
+    }
+
+    /**
+     * Report that the server finished starting up.
+     *
+     * @param newWarmUpMillis Number of milliseconds the warm-up took.
+     */
+    public void markReady(final long newWarmUpMillis) {
+        this.warmUpMillis = newWarmUpMillis;
+    }
+
+    /**
+     * @return Whether the server finished starting up and can serve requests.
+     */
+    public boolean isReady() {
+        return warmUpMillis >= 0;
+    }
+
+    /**
+     * Get whether the server is ready to serve requests.
+     *
+     * @return A JSON object with the status of the server and, once it is ready, how long its warm-up took.
+     */
+    public JsonNode getHealth() {
+        final ObjectNode health = JsonNodeFactory.instance.objectNode();
+        if (!isReady()) {
+            health.put("status", "starting");
+            return health;
+        }
+        health.put("status", "ready");
+        health.put("warm_up_ms", warmUpMillis);
+        return health;
+    }
+
+    /**
+     * Get the live state of the connection pool.
+     *
+     * @return A JSON object with the pool sizes, borrow wait times, timeouts and leaks, and the health and number of
+     * reads of every read replica.
+     */
+    public JsonNode getPoolStatus() {
+        final Connection connection = getConn();
+        final PoolMonitor monitor = connection.getPoolMonitor();
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("active", monitor.getActive());
+        status.put("idle", monitor.getIdle());
+        status.put("max_total", monitor.getMaxTotal());
+        status.set("borrow_wait", latencyToJson(monitor.getBorrowWait()));
+        status.put("borrow_timeouts", monitor.getBorrowTimeouts());
+        status.put("leaked", monitor.getLeaks());
+        status.put("overdue", monitor.getOverdueLeases());
+
+        final ObjectNode statements = status.putObject("statement_cache");
+        statements.put("hits", connection.getStatementCacheHits());
+        statements.put("misses", connection.getStatementCacheMisses());
+
+        final ReplicaSet replicaSet = connection.getReplicaSet();
+        status.put("primary_reads", replicaSet.getPrimaryReads());
+        final ArrayNode replicas = status.putArray("replicas");
+        for (ReplicaSet.Replica replica : replicaSet.getReplicas()) {
+            final ObjectNode node = replicas.addObject();
+            node.put("url", replica.getUrl());
+            node.put("down", replica.isDown());
+            node.put("reads", replica.getReads());
+            node.put("failures", replica.getFailures());
+            node.put("active", replica.getMonitor().getActive());
+            node.put("idle", replica.getMonitor().getIdle());
+        }
+        return status;
+    }
+
+    /**
+     * Get the state of the result cache.
+     *
+     * @return A JSON object with the size of the cache, its hit ratio, evictions and rejected results, the
+     * time spent executing the queries that missed, the state of the snapshots, and how many reads shared an
+     * execution.
+     */
+    public JsonNode getCacheStatus() {
+        final ResultCache cache = getConn().getResultCache();
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("size", cache.getSize());
+        status.put("bytes", cache.getBytes());
+        status.put("max_bytes", cache.getMaxBytes());
+        status.put("hits", cache.getHits());
+        status.put("misses", cache.getMisses());
+        status.put("hit_ratio", cache.getHitRatio());
+        status.put("evictions", cache.getEvictions());
+        status.put("rejections", cache.getRejections());
+        status.put("compressed_hits", cache.getCompressedHits());
+        status.set("load_time", latencyToJson(cache.getLoadTime()));
+
+        final SnapshotStore store = getConn().getSnapshots();
+        final ObjectNode snapshots = status.putObject("snapshots");
+        snapshots.put("size", store.getSize());
+        snapshots.put("bytes", store.getBytes());
+        snapshots.put("allocated_bytes", store.getAllocatedBytes());
+        snapshots.put("max_bytes", store.getMaxBytes());
+        snapshots.put("hits", store.getHits());
+        snapshots.put("misses", store.getMisses());
+        snapshots.put("rejections", store.getRejections());
+        snapshots.put("compactions", store.getCompactions());
+
+        final SingleFlight singleFlight = getConn().getSingleFlight();
+        final ObjectNode coalescing = status.putObject("coalescing");
+        coalescing.put("enabled", singleFlight.isEnabled());
+        coalescing.put("executions", singleFlight.getExecutions());
+        coalescing.put("coalesced", singleFlight.getCoalesced());
+        coalescing.put("ratio", singleFlight.getCoalescingRatio());
+        coalescing.put("timeouts", singleFlight.getTimeouts());
+        coalescing.put("in_flight", singleFlight.getInFlight());
+        return status;
+    }
+
+    /**
+     * Get the last slow reads.
+     *
+     * @return A JSON object with the threshold, the number of slow reads since startup and the last slow reads,
+     * newest first, with their parameters and captured plans.
+     */
+    public JsonNode getSlowQueries() {
+        final SlowQueryLog log = getConn().getSlowQueryLog();
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("threshold_ms", log.getThresholdMillis());
+        status.put("count", log.getCount());
+        final ArrayNode queries = status.putArray("queries");
+        final List<SlowQueryLog.SlowQuery> slowQueries = new ArrayList<>(log.getQueries());
+        Collections.reverse(slowQueries);
+        for (SlowQueryLog.SlowQuery query : slowQueries) {
+            final ObjectNode node = queries.addObject();
+            node.put("query", query.getName());
+            node.put("duration_ms", query.getNanos() / NANOS_PER_MILLI);
+            node.put("logged_at", Instant.ofEpochMilli(query.getLoggedAt()).toString());
+            final ArrayNode parameters = node.putArray("parameters");
+            query.getParameters().forEach(parameters::add);
+            node.put("statement", query.getStatement());
+            node.put("plan", query.getPlan());
+        }
+        return status;
+    }
+
+    /**
+     * Get the timings of every query, the state of the pool and the result cache in the Prometheus text format.
+     * Query timings are labelled with the name of the query, so alerts can be set on the latency of one query.
+     *
+     * @return The metrics.
+     */
+    public String getPrometheusMetrics() {
+        final Connection connection = getConn();
+        final List<QueryStats> queries = new ArrayList<>(connection.getQueryStats());
+        queries.sort(Comparator.comparing(QueryStats::getName));
+        final PrometheusText text = new PrometheusText();
+
+        text.header("fmms_query_borrow_seconds", "Time a query waited for a connection.", "histogram");
+        for (QueryStats query : queries) {
+            text.histogram("fmms_query_borrow_seconds", queryLabel(query), query.getBorrow(), NANOS_PER_SECOND);
+        }
+        text.header("fmms_query_execute_seconds", "Time until the database answered a query.", "histogram");
+        for (QueryStats query : queries) {
+            text.histogram("fmms_query_execute_seconds", queryLabel(query), query.getExecute(), NANOS_PER_SECOND);
+        }
+        text.header("fmms_query_fetch_seconds", "Time spent reading the result of a query.", "histogram");
+        for (QueryStats query : queries) {
+            text.histogram("fmms_query_fetch_seconds", queryLabel(query), query.getFetch(), NANOS_PER_SECOND);
+        }
+        text.header("fmms_query_result_bytes", "Size of the JSON returned by a query.", "histogram");
+        for (QueryStats query : queries) {
+            text.histogram("fmms_query_result_bytes", queryLabel(query), query.getBytes(), 1);
+        }
+        text.header("fmms_query_errors_total", "Executions of a query that failed.", "counter");
+        for (QueryStats query : queries) {
+            text.sample("fmms_query_errors_total", queryLabel(query), query.getErrors());
+        }
+
+        final PoolMonitor monitor = connection.getPoolMonitor();
+        text.header("fmms_pool_active_connections", "Connections borrowed from the pool.", "gauge")
+                .sample("fmms_pool_active_connections", "", monitor.getActive());
+        text.header("fmms_pool_idle_connections", "Idle connections in the pool.", "gauge")
+                .sample("fmms_pool_idle_connections", "", monitor.getIdle());
+        text.header("fmms_pool_borrow_timeouts_total", "Borrows that timed out.", "counter")
+                .sample("fmms_pool_borrow_timeouts_total", "", monitor.getBorrowTimeouts());
+
+        final ResultCache cache = connection.getResultCache();
+        text.header("fmms_cache_hits_total", "Lookups that found a cached result.", "counter")
+                .sample("fmms_cache_hits_total", "", cache.getHits());
+        text.header("fmms_cache_misses_total", "Lookups that found no cached result.", "counter")
+                .sample("fmms_cache_misses_total", "", cache.getMisses());
+        text.header("fmms_cache_bytes", "Estimated size of the cached results.", "gauge")
+                .sample("fmms_cache_bytes", "", cache.getBytes());
+        text.header("fmms_cache_compressed_hits_total", "Responses sent with a cached compressed copy.", "counter")
+                .sample("fmms_cache_compressed_hits_total", "", cache.getCompressedHits());
+
+        final SnapshotStore snapshots = connection.getSnapshots();
+        text.header("fmms_snapshots", "Responses rendered ahead of the requests.", "gauge")
+                .sample("fmms_snapshots", "", snapshots.getSize());
+        text.header("fmms_snapshot_bytes", "Direct memory taken by the rendered responses.", "gauge")
+                .sample("fmms_snapshot_bytes", "", snapshots.getAllocatedBytes());
+        text.header("fmms_snapshot_hits_total", "Requests answered with a rendered response.", "counter")
+                .sample("fmms_snapshot_hits_total", "", snapshots.getHits());
+
+        final SingleFlight singleFlight = connection.getSingleFlight();
+        text.header("fmms_coalescing_executions_total", "Reads that were executed by the coalescing.", "counter")
+                .sample("fmms_coalescing_executions_total", "", singleFlight.getExecutions());
+        text.header("fmms_coalesced_reads_total", "Reads that shared an execution of the same read.", "counter")
+                .sample("fmms_coalesced_reads_total", "", singleFlight.getCoalesced());
+        text.header("fmms_coalescing_timeouts_total", "Reads that stopped waiting for a shared execution.", "counter")
+                .sample("fmms_coalescing_timeouts_total", "", singleFlight.getTimeouts());
+        return text.toString();
+    }
+
+    /**
+     * @param query Timings of a query.
+     * @return The label that identifies the query.
+     */
+    private static String queryLabel(final QueryStats query) {
+        return PrometheusText.label("query", query.getName());
+    }
+
+    /**
+     * Get the number of rows written by module saves.
+     *
+     * @return A JSON object with the number of saves, the distribution of rows written per save and the total
+     * number of rows inserted, updated and deleted.
+     */
+    public JsonNode getModuleSaveStatus() {
+        final Histogram rowsTouched = modulesService.getRowsTouchedPerSave();
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("saves", rowsTouched.getCount());
+
+        final ObjectNode perSave = status.putObject("rows_per_save");
+        if (rowsTouched.getCount() > 0) perSave.put("mean", (double) rowsTouched.getSum() / rowsTouched.getCount());
+        perSave.put("p50", rowsTouched.getPercentile(50));
+        perSave.put("p90", rowsTouched.getPercentile(90));
+        perSave.put("p99", rowsTouched.getPercentile(99));
+        perSave.put("max", rowsTouched.getMax());
+
+        status.put("inserted", modulesService.getRowsInserted());
+        status.put("updated", modulesService.getRowsUpdated());
+        status.put("deleted", modulesService.getRowsDeleted());
+        return status;
+    }
+
+    /**
+     * Summarize a histogram of durations in milliseconds.
+     *
+     * @param histogram Histogram of durations in nanoseconds.
+     * @return A JSON object with the count, mean and percentiles of the histogram.
+     */
+    private static ObjectNode latencyToJson(final Histogram histogram) {
+        final ObjectNode node = JsonNodeFactory.instance.objectNode();
+        final long count = histogram.getCount();
+        node.put("count", count);
+        if (count > 0) node.put("mean_ms", histogram.getSum() / NANOS_PER_MILLI / count);
+        node.put("p50_ms", histogram.getPercentile(50) / NANOS_PER_MILLI);
+        node.put("p90_ms", histogram.getPercentile(90) / NANOS_PER_MILLI);
+        node.put("p99_ms", histogram.getPercentile(99) / NANOS_PER_MILLI);
+        node.put("max_ms", histogram.getMax() / NANOS_PER_MILLI);
+        return node;
+    }
+}
@@ -17,6 +17,7 @@ public class QualificationsService extends Service {
     @Inject
     QualificationsService(final Connection connection) {
         super(connection);
+        nameQuery(getQualificationsQuery(), "qualifications");
     }
 
     /**
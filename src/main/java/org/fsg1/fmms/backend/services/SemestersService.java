@@ -16,6 +16,8 @@ public class SemestersService extends Service {
     @Inject
     SemestersService(final Connection connection) {
         super(connection);
+        nameQuery(getQueryCurriculumSemestersString(), "semesters");
+        nameQuery(getQueryCompleteSemester(), "completeSemester");
     }
 
     /**
@@ -1,8 +1,17 @@
 package org.fsg1.fmms.backend.services;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.CopyWriter;
+import org.fsg1.fmms.backend.database.RowWriter;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.util.JsonMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * An abstract class representing a Service to be used by the REST API.
@@ -19,10 +28,25 @@ public abstract class Service {
         conn = connection;
     }
 
-    private Connection getConn() {
+    /**
+     * Get the connection object of this service.
+     *
+     * @return The connection object.
+     */
+    final Connection getConn() {
         return conn;
     }
 
+    /**
+     * Give a query of this service a stable name, under which its executions are timed.
+     *
+     * @param query Query string.
+     * @param name  Name of the query, which is prefixed with the name of the service.
+     */
+    final void nameQuery(final String query, final String name) {
+        getConn().nameQuery(query, getClass().getSimpleName() + "." + name);
+    }
+
     /**
      * Execute a retrieval query on the database with any parameters.
      *
@@ -34,8 +58,123 @@ public abstract class Service {
      */
     public JsonNode get(final String query, final String columnName, final Object... parameters) throws Exception {
         final String jsonString = getConn().executeQuery(columnName, query, parameters);
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.readTree(jsonString);
+        return JsonMapper.readTree(jsonString);
+    }
+
+    /**
+     * Execute a retrieval query on the database without blocking the calling thread. The query runs on the query
+     * executor of the connection.
+     *
+     * @param query      Query string to perform.
+     * @param columnName Name of the column of the result.
+     * @param parameters Optional array of parameters to give to the query
+     * @return A future of the result of the query in JSON format. It fails with the same exceptions as
+     * {@link #get(String, String, Object...)}, or with a <code>ServerBusyException</code> if the executor is full.
+     */
+    public CompletableFuture<JsonNode> getAsync(final String query, final String columnName, final Object... parameters) {
+        return getConn().executeQueryAsync(columnName, query, parameters).thenApply(jsonString -> {
+            try {
+                return JsonMapper.readTree(jsonString);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Execute a retrieval query on the database without blocking the calling thread, and return the JSON the
+     * database built without parsing it. Use this when the result is passed on as it is.
+     *
+     * @param query      Query string to perform.
+     * @param columnName Name of the column of the result.
+     * @param parameters Optional array of parameters to give to the query
+     * @return A future of the UTF-8 encoded JSON result of the query. It fails like
+     * {@link #getAsync(String, String, Object...)}.
+     */
+    public CompletableFuture<byte[]> getRawAsync(final String query, final String columnName, final Object... parameters) {
+        return getConn().executeQueryRawAsync(columnName, query, parameters);
+    }
+
+    /**
+     * Execute a retrieval query on the calling thread and hand the value of every row to a writer while the rows
+     * are fetched, without holding all of them in memory.
+     *
+     * @param query      Query string to perform.
+     * @param columnName Name of the column of the result.
+     * @param writer     Function that receives the UTF-8 encoded value of every row, in order.
+     * @param parameters Optional array of parameters to give to the query
+     * @return The number of rows that were written.
+     * @throws Exception If a database access error occurs or a row could not be written.
+     */
+    public long stream(final String query,
+                       final String columnName,
+                       final RowWriter writer,
+                       final Object... parameters) throws Exception {
+        return getConn().executeQueryStreamed(columnName, query, writer, parameters);
+    }
+
+    /**
+     * Execute a retrieval query like {@link #getRawAsync(String, String, Object...)}, but answer it from the result
+     * cache if it was executed before. The result is dropped from the cache when one of its tags is invalidated.
+     *
+     * @param tags       Tags of the data the result is built from, see {@link CacheTags}.
+     * @param query      Query string to perform.
+     * @param columnName Name of the column of the result.
+     * @param parameters Optional array of parameters to give to the query
+     * @return A future of the UTF-8 encoded JSON result of the query. It fails like
+     * {@link #getAsync(String, String, Object...)}.
+     */
+    public CompletableFuture<byte[]> getCachedAsync(final Collection<String> tags,
+                                                    final String query,
+                                                    final String columnName,
+                                                    final Object... parameters) {
+        return getConn().executeQueryCachedAsync(tags, columnName, query, parameters);
+    }
+
+    /**
+     * Drop the cached results that are tagged with one of the tags. Call this after a transaction that changed
+     * the data of the tags is committed.
+     *
+     * @param tags Tags of the data that changed.
+     */
+    public void invalidate(final Collection<String> tags) {
+        getConn().invalidate(tags);
+    }
+
+    /**
+     * Drop every cached result.
+     */
+    public void invalidateAll() {
+        getConn().invalidateAll();
+    }
+
+    /**
+     * Get how long a request should wait for the result of {@link #getAsync(String, String, Object...)}.
+     *
+     * @return Milliseconds, or 0 to wait indefinitely.
+     */
+    public long getAsyncTimeoutMillis() {
+        return getConn().getAsyncTimeoutMillis();
+    }
+
+    /**
+     * Get the version of a result without executing its query, see {@link org.fsg1.fmms.backend.database.TagVersions}.
+     *
+     * @param tags Tags of the data the result is built from.
+     * @return The version, which changes whenever one of the tags is invalidated.
+     */
+    public String getVersion(final Collection<String> tags) {
+        return getConn().getTagVersions().get(tags);
+    }
+
+    /**
+     * Get a response that was rendered ahead of the request, see {@link SnapshotService}.
+     *
+     * @param key Key of the response.
+     * @return The response, or null if it is not rendered.
+     */
+    public SnapshotStore.Snapshot getSnapshot(final String key) {
+        return getConn().getSnapshots().get(key);
     }
 
     /**
@@ -53,6 +192,68 @@ public abstract class Service {
         return getConn().executeUpdate(connection, statement, parameters);
     }
 
+    /**
+     * Execute a retrieval query inside an open transaction with the given connection.
+     *
+     * @param connection Connection to use.
+     * @param query      Query to perform.
+     * @param parameters Array of parameters to give to the query.
+     * @return The values of every row, in the order of the columns.
+     * @throws Exception if a database access error occurs.
+     */
+    public List<Object[]> select(final java.sql.Connection connection,
+                                 final String query,
+                                 final Object... parameters) throws Exception {
+        return getConn().executeSelect(connection, query, parameters);
+    }
+
+    /**
+     * Execute an update or insert statement for a number of parameter rows in one batch, with the given connection.
+     * Like {@link #update(java.sql.Connection, String, Object...)} the batch is part of the open transaction.
+     *
+     * @param connection Connection to use.
+     * @param statement  Statement to perform for every row.
+     * @param rows       Parameters of every execution of the statement.
+     * @return The update count of every row.
+     * @throws Exception if a database access error occurs.
+     */
+    public int[] updateBatch(final java.sql.Connection connection,
+                             final String statement,
+                             final List<Object[]> rows) throws Exception {
+        return getConn().executeBatch(connection, statement, rows);
+    }
+
+    /**
+     * Execute an insert statement for a number of parameter rows in one batch, with the given connection.
+     *
+     * @param connection Connection to use.
+     * @param statement  Insert statement to perform for every row.
+     * @param rows       Parameters of every execution of the statement.
+     * @return The generated id of every row, in the order of the rows.
+     * @throws Exception if a database access error occurs.
+     */
+    public int[] insertBatch(final java.sql.Connection connection,
+                             final String statement,
+                             final List<Object[]> rows) throws Exception {
+        return getConn().executeBatchInsert(connection, statement, rows);
+    }
+
+    /**
+     * Copy rows into a table with <code>COPY ... FROM STDIN</code>, with the given connection. Like
+     * {@link #update(java.sql.Connection, String, Object...)} the copy is part of the open transaction.
+     *
+     * @param connection Connection to use.
+     * @param statement  The <code>COPY ... FROM STDIN</code> statement.
+     * @param writer     Function that writes the rows.
+     * @return The number of rows that were copied.
+     * @throws Exception if a database access error occurs or the rows could not be written.
+     */
+    public long copyIn(final java.sql.Connection connection,
+                       final String statement,
+                       final CopyWriter writer) throws Exception {
+        return getConn().copyIn(connection, statement, writer);
+    }
+
     /**
      * Executes a TransactionRunner on a Connection.
      *
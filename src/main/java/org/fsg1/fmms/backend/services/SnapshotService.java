@@ -0,0 +1,341 @@
+package org.fsg1.fmms.backend.services;
+
+import org.fsg1.fmms.backend.app.CompressionConfiguration;
+import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.TagVersions;
+import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.util.DaemonThreads;
+import org.fsg1.fmms.backend.util.Gzip;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders the responses of the public catalog ahead of the requests: the curricula, the qualifications, the
+ * semesters of every curriculum and the readable document of every module. Everything is rendered at startup. When
+ * a write is committed, the responses built from the data it changed are removed right away and rendered again in
+ * the background, so requests never get a response that is older than their own writes. The responses are always
+ * read from the primary, because a replica may not have received the write yet.
+ */
+public class SnapshotService extends Service implements TagVersions.Listener {
+
+    /**
+     * Key of the list of curricula.
+     */
+    public static final String CURRICULA = "curricula";
+
+    /**
+     * Key of the list of qualifications.
+     */
+    public static final String QUALIFICATIONS = "qualifications";
+
+    private static final String SELECT_CURRICULUM_IDS =
+            "SELECT id::text AS id FROM study.studyprogramme ORDER BY id";
+
+    /**
+     * Every readable document of the read model, preceded by its curriculum and code on lines of their own.
+     */
+    private static final String SELECT_MODULE_DOCUMENTS =
+            "SELECT DISTINCT ON (studyprogramme_id, code) " +
+                    "studyprogramme_id || chr(10) || code || chr(10) || document::text AS module " +
+                    "FROM study.module_document ORDER BY studyprogramme_id, code";
+
+    /**
+     * The readable documents of one module code, like {@link #SELECT_MODULE_DOCUMENTS}.
+     */
+    private static final String SELECT_MODULE_DOCUMENTS_OF_CODE =
+            "SELECT DISTINCT ON (studyprogramme_id) " +
+                    "studyprogramme_id || chr(10) || code || chr(10) || document::text AS module " +
+                    "FROM study.module_document WHERE code = ? ORDER BY studyprogramme_id";
+
+    /**
+     * The responses other than the module documents. The module documents are found in the read model instead, so
+     * a module that is saved under a new code is rendered as well.
+     */
+    private final Map<String, Render> renders = new ConcurrentHashMap<>();
+
+    private final ExecutorService renderer =
+            Executors.newSingleThreadExecutor(DaemonThreads.named("snapshot-renderer"));
+
+    private final CompressionConfiguration compression;
+
+    private final CurriculaService curriculaService;
+
+    private final QualificationsService qualificationsService;
+
+    private final SemestersService semestersService;
+
+    /**
+     * Constructor.
+     *
+     * @param connection            The connection object.
+     * @param config                Configuration of the application, with the compression of the responses.
+     * @param curriculaService      Service with the query of the curricula.
+     * @param qualificationsService Service with the query of the qualifications.
+     * @param semestersService      Service with the query of the semesters.
+     */
+    @Inject
+    SnapshotService(final Connection connection,
+                    final Configuration config,
+                    final CurriculaService curriculaService,
+                    final QualificationsService qualificationsService,
+                    final SemestersService semestersService) {
+        super(connection);
+        this.compression = config.getCompression();
+        this.curriculaService = curriculaService;
+        this.qualificationsService = qualificationsService;
+        this.semestersService = semestersService;
+        nameQuery(SELECT_CURRICULUM_IDS, "curriculumIds");
+        nameQuery(SELECT_MODULE_DOCUMENTS, "moduleDocuments");
+        nameQuery(SELECT_MODULE_DOCUMENTS_OF_CODE, "moduleDocumentsOfCode");
+    }
+
+    /**
+     * Get the key of the semesters of a curriculum.
+     *
+     * @param curriculumId Identifier of the curriculum.
+     * @return The key.
+     */
+    public static String semesters(final int curriculumId) {
+        return "curriculum/" + curriculumId + "/semesters";
+    }
+
+    /**
+     * Get the key of the readable document of a module.
+     *
+     * @param curriculumId Identifier of the curriculum.
+     * @param moduleCode   Code of the module.
+     * @return The key.
+     */
+    public static String module(final int curriculumId, final String moduleCode) {
+        return "curriculum/" + curriculumId + "/module/" + moduleCode;
+    }
+
+    /**
+     * Render every response, and keep them up to date with the writes from now on.
+     *
+     * @return The number of responses that were rendered, or 0 if the snapshots are disabled.
+     * @throws Exception If a database access error occurs.
+     */
+    public int start() throws Exception {
+        if (!getConn().getSnapshots().isEnabled()) return 0;
+        getConn().getTagVersions().addListener(this);
+        return renderAll();
+    }
+
+    /**
+     * Remove the responses built from the data that changed, and render them again in the background. The
+     * documents of the modules whose code was raised are read from the read model again, which has the documents
+     * of their current curricula, including a module that was saved under the code.
+     *
+     * @param tags Tags of the data that changed.
+     */
+    @Override
+    public void raised(final Collection<String> tags) {
+        getConn().getSnapshots().remove(tags);
+        renderer.execute(() -> {
+            for (Render render : renders.values()) {
+                if (!Collections.disjoint(render.tags, tags)) renderLogged(render);
+            }
+            for (String tag : tags) {
+                final String code = CacheTags.moduleCode(tag);
+                if (code == null) continue;
+                try {
+                    renderModules(Collections.singletonList(tag), SELECT_MODULE_DOCUMENTS_OF_CODE, code);
+                } catch (Exception e) {
+                    System.err.println("Could not render module " + code + ": " + e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove every response, and render them again in the background.
+     */
+    @Override
+    public void raisedAll() {
+        getConn().getSnapshots().removeAll();
+        renderer.execute(() -> {
+            try {
+                renderAll();
+            } catch (Exception e) {
+                System.err.println("Could not render the snapshots: " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Render every response. The module documents are read from the read model in one query.
+     *
+     * @return The number of responses that were rendered.
+     * @throws Exception If a database access error occurs.
+     */
+    private int renderAll() throws Exception {
+        final List<Render> all = new ArrayList<>();
+        all.add(new Render(CURRICULA, Collections.singletonList(CacheTags.CURRICULA),
+                curriculaService.getQueryCurriculaString(), "curricula"));
+        all.add(new Render(QUALIFICATIONS, Collections.singletonList(CacheTags.QUALIFICATIONS),
+                qualificationsService.getQualificationsQuery(), "qualifications"));
+        getConn().executeQueryStreamedOnPrimary("id", SELECT_CURRICULUM_IDS, value -> {
+            final int curriculumId = Integer.parseInt(new String(value, StandardCharsets.UTF_8));
+            all.add(new Render(semesters(curriculumId),
+                    Arrays.asList(CacheTags.curriculum(curriculumId), CacheTags.MODULES),
+                    semestersService.getQueryCurriculumSemestersString(), "semesters", curriculumId));
+        });
+
+        final List<String> keys = new ArrayList<>();
+        int rendered = 0;
+        for (Render render : all) {
+            keys.add(render.key);
+            renders.put(render.key, render);
+            if (render(render)) rendered++;
+        }
+        renders.keySet().retainAll(keys);
+        return rendered + renderModules(Collections.singletonList(CacheTags.MODULES), SELECT_MODULE_DOCUMENTS);
+    }
+
+    /**
+     * Render readable documents of modules from the read model. The version of a document can only be taken once
+     * its row is read, which is only right if none of the modules was saved since the query started; the documents
+     * that were read after a save are rendered again on their own.
+     *
+     * @param modules    Tags that are raised by a save of any of the modules.
+     * @param query      Query of the documents, see {@link #SELECT_MODULE_DOCUMENTS}.
+     * @param parameters Parameters of the query.
+     * @return The number of documents that were rendered.
+     * @throws Exception If a database access error occurs.
+     */
+    private int renderModules(final List<String> modules,
+                              final String query,
+                              final Object... parameters) throws Exception {
+        final String start = getVersion(modules);
+        final List<Render> late = new ArrayList<>();
+        final int[] rendered = {0};
+        getConn().executeQueryStreamedOnPrimary("module", query, value -> {
+            final int curriculumEnd = indexOf(value, 0);
+            final int codeEnd = indexOf(value, curriculumEnd + 1);
+            final int curriculumId = Integer.parseInt(new String(value, 0, curriculumEnd, StandardCharsets.UTF_8));
+            final String code = new String(value, curriculumEnd + 1, codeEnd - curriculumEnd - 1,
+                    StandardCharsets.UTF_8);
+            final Render render = new Render(module(curriculumId, code),
+                    Collections.singletonList(CacheTags.module(code)),
+                    ModulesService.SELECT_MODULE_DOCUMENT, "module", code, curriculumId);
+
+            final String version = getVersion(render.tags);
+            if (!start.equals(getVersion(modules))) {
+                late.add(render);
+            } else if (put(render, version, Arrays.copyOfRange(value, codeEnd + 1, value.length))) {
+                rendered[0]++;
+            }
+        }, parameters);
+        for (Render render : late) {
+            if (render(render)) rendered[0]++;
+        }
+        return rendered[0];
+    }
+
+    /**
+     * Render a response in the background, where a failure can only be logged.
+     *
+     * @param render The response.
+     */
+    private void renderLogged(final Render render) {
+        try {
+            render(render);
+        } catch (Exception e) {
+            System.err.println("Could not render " + render.key + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Render a response and store it.
+     *
+     * @param render The response.
+     * @return Whether the response was stored. It is not if its data changed while it was rendered, in which case
+     * it is rendered again, or if it does not exist.
+     * @throws Exception If a database access error occurs.
+     */
+    private boolean render(final Render render) throws Exception {
+        //The version is taken before the query, see TagVersions.
+        final String version = getVersion(render.tags);
+        final byte[] value;
+        try {
+            value = getConn().executeQueryRawOnPrimary(render.column, render.query, render.parameters);
+        } catch (EntityNotFoundException e) {
+            return false;
+        }
+        return put(render, version, value);
+    }
+
+    /**
+     * Store a rendered response, together with its compressed form if it is large enough to be sent compressed.
+     *
+     * @param render  The response.
+     * @param version Version of its tags, taken before it was read.
+     * @param value   The rendered response.
+     * @return Whether the response was stored.
+     */
+    private boolean put(final Render render, final String version, final byte[] value) {
+        byte[] compressed = null;
+        if (compression.isEnabled() && value.length >= compression.getMinBytes()) {
+            compressed = Gzip.compress(value, compression.getLevel());
+        }
+        return getConn().getSnapshots().put(render.key, render.tags, version, value, compressed);
+    }
+
+    /**
+     * @param value Bytes to search.
+     * @param from  Index to start at.
+     * @return Index of the first line feed from the index on.
+     */
+    private static int indexOf(final byte[] value, final int from) {
+        for (int i = from; i < value.length; i++) {
+            if (value[i] == '\n') return i;
+        }
+        throw new IllegalStateException("Malformed module document row");
+    }
+
+    /**
+     * How a response is rendered: the query that returns it and the tags of the data it is built from.
+     */
+    private static final class Render {
+
+        private final String key;
+
+        private final List<String> tags;
+
+        private final String query;
+
+        private final String column;
+
+        private final Object[] parameters;
+
+        /**
+         * Constructor.
+         *
+         * @param key        Key of the response.
+         * @param tags       Tags of the data the response is built from.
+         * @param query      Query that returns the response.
+         * @param column     Column of the response.
+         * @param parameters Parameters of the query.
+         */
+        Render(final String key, final List<String> tags, final String query, final String column,
+               final Object... parameters) {
+            this.key = key;
+            this.tags = tags;
+            this.query = query;
+            this.column = column;
+            this.parameters = parameters;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.fsg1.fmms.backend.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factories of daemon threads, which do not keep the application running when the server stops.
+ */
+public final class DaemonThreads {
+
+    /**
+     * Private constructor.
+     * Class should never be instantiated.
+     */
+    private DaemonThreads() {
+    }
+
+    /**
+     * Get a factory of threads that all have the same name, for executors with a single thread.
+     *
+     * @param name Name of the threads.
+     * @return The factory.
+     */
+    public static ThreadFactory named(final String name) {
+        return runnable -> daemon(runnable, name);
+    }
+
+    /**
+     * Get a factory of threads that are numbered from 1.
+     *
+     * @param prefix Name of the threads, which is followed by a dash and the number.
+     * @return The factory.
+     */
+    public static ThreadFactory numbered(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> daemon(runnable, prefix + "-" + count.incrementAndGet());
+    }
+
+    /**
+     * Create a daemon thread.
+     *
+     * @param runnable Task of the thread.
+     * @param name     Name of the thread.
+     * @return The thread, which is not started.
+     */
+    private static Thread daemon(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
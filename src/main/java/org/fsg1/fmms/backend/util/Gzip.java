@@ -0,0 +1,70 @@
+package org.fsg1.fmms.backend.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses responses with gzip at a configurable level.
+ */
+public final class Gzip {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Private constructor.
+     * Class should never be instantiated.
+     */
+    private Gzip() {
+    }
+
+    /**
+     * Compress a response.
+     *
+     * @param value The response.
+     * @param level Compression level from 1 (fastest) to 9 (smallest).
+     * @return The response compressed with gzip.
+     */
+    public static byte[] compress(final byte[] value, final int level) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 4 + 64);
+        try (GZIPOutputStream gzip = stream(out, level)) {
+            gzip.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Open a stream that compresses what is written to it. Flushing it flushes what was compressed so far, so a
+     * client receives a streamed response in parts.
+     *
+     * @param out   Stream the compressed bytes are written to.
+     * @param level Compression level from 1 (fastest) to 9 (smallest).
+     * @return The stream, which has to be finished or closed to write the end of the gzip data.
+     * @throws IOException if the header cannot be written.
+     */
+    public static GZIPOutputStream stream(final OutputStream out, final int level) throws IOException {
+        return new LevelGZIPOutputStream(out, level);
+    }
+
+    /**
+     * Gzip stream with a compression level.
+     */
+    private static final class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        /**
+         * Constructor.
+         *
+         * @param out   Stream the compressed bytes are written to.
+         * @param level Compression level.
+         * @throws IOException if the header cannot be written.
+         */
+        LevelGZIPOutputStream(final OutputStream out, final int level) throws IOException {
+            super(out, BUFFER_SIZE, true);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.fsg1.fmms.backend.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+
+/**
+ * Holds the one Jackson configuration of the application. An <code>ObjectMapper</code> caches the serializers and
+ * deserializers it builds, so it is created once and shared by the services and by Jersey instead of being
+ * created per request. Readers and writers are immutable and thread-safe and are built up front as well.
+ */
+public final class JsonMapper {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ObjectReader TREE_READER = MAPPER.readerFor(JsonNode.class);
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    /**
+     * Private constructor.
+     * Class should never be instantiated.
+     */
+    private JsonMapper() {
+    }
+
+    /**
+     * @return The shared mapper. It must not be reconfigured.
+     */
+    public static ObjectMapper getMapper() {
+        return MAPPER;
+    }
+
+    /**
+     * @return A reader that reads JSON into a tree.
+     */
+    public static ObjectReader getTreeReader() {
+        return TREE_READER;
+    }
+
+    /**
+     * @return A writer with the shared configuration.
+     */
+    public static ObjectWriter getWriter() {
+        return WRITER;
+    }
+
+    /**
+     * Read a JSON document into a tree.
+     *
+     * @param json JSON document.
+     * @return The root of the tree.
+     * @throws IOException if the document is not valid JSON.
+     */
+    public static JsonNode readTree(final String json) throws IOException {
+        return TREE_READER.readTree(json);
+    }
+
+    /**
+     * Read a UTF-8 encoded JSON document into a tree.
+     *
+     * @param json JSON document.
+     * @return The root of the tree.
+     * @throws IOException if the document is not valid JSON.
+     */
+    public static JsonNode readTree(final byte[] json) throws IOException {
+        return TREE_READER.readValue(json);
+    }
+}
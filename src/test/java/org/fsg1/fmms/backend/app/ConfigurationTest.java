@@ -2,7 +2,14 @@ package org.fsg1.fmms.backend.app;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class ConfigurationTest {
 
@@ -15,6 +22,120 @@ public class ConfigurationTest {
         assertEquals("http://0.0.0.0:8080/fmms", configuration.getServerString());
         assertEquals("fmms", configuration.getAuthUsername());
         assertEquals("modulemanagement", configuration.getAuthPassword());
+        assertEquals(2, configuration.getPool().getInitialSize());
+        assertEquals(8, configuration.getPool().getMaxTotal());
+        assertEquals("SELECT 1", configuration.getPool().getValidationQuery());
+        assertTrue(configuration.getReplicaDbStrings().isEmpty());
+        assertEquals(0, configuration.getPool().getReadYourWritesMillis());
+        assertEquals(32L * 1024 * 1024, configuration.getCache().getMaxBytes());
+        assertEquals(60000, configuration.getCache().getTtlMillis());
+        assertEquals(128L * 1024 * 1024, configuration.getCache().getSnapshotMaxBytes());
+        assertTrue(configuration.getCache().isCoalescing());
+        assertEquals(5000, configuration.getCache().getCoalesceMaxWaitMillis());
+        assertEquals(500, configuration.getSlowQueries().getThresholdMillis());
+        assertEquals(20, configuration.getSlowQueries().getPlans());
+        assertEquals(10000, configuration.getSlowQueries().getExplainTimeoutMillis());
+        assertEquals(30000, configuration.getTimeouts().getMillis("ModulesService.moduleInformation"));
+        assertEquals(Arrays.asList("curricula", "qualifications"), configuration.getWarmUp().getPaths());
+    }
+
+    @Test
+    public void testWarmUpFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("WARM_UP_PATHS", " curricula, curriculum/1/semesters,,curriculum/1/module/BUA1 ");
+        assertEquals(Arrays.asList("curricula", "curriculum/1/semesters", "curriculum/1/module/BUA1"),
+                WarmUpConfiguration.fromEnv(env).getPaths());
+
+        env.put("WARM_UP_PATHS", "");
+        assertTrue(WarmUpConfiguration.fromEnv(env).getPaths().isEmpty());
+    }
+
+    @Test
+    public void testServerFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("SERVER_WORKER_THREADS", "16");
+        env.put("SERVER_WORKER_QUEUE_SIZE", "128");
+        env.put("SERVER_WORKER_REJECTION", "caller-runs");
+        env.put("SERVER_TCP_NO_DELAY", "false");
+        env.put("SERVER_MAX_BODY_BYTES", "1048576");
+        final ServerConfiguration server = ServerConfiguration.fromEnv(env);
+        assertEquals(16, server.getWorkerThreads());
+        assertEquals(128, server.getWorkerQueueSize());
+        assertEquals(ServerConfiguration.REJECT_CALLER_RUNS, server.getRejectionPolicy());
+        assertFalse(server.isTcpNoDelay());
+        assertEquals(1048576, server.getMaxBodyBytes());
+        assertEquals(30, server.getKeepAliveIdleSeconds());
+        assertEquals(4096, server.getBacklog());
+        assertEquals(8192, server.getMaxHeaderSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRejectionPolicyFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("SERVER_WORKER_REJECTION", "drop");
+        ServerConfiguration.fromEnv(env);
+    }
+
+    @Test
+    public void testCompressionFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        assertEquals(1024, CompressionConfiguration.fromEnv(env).getMinBytes());
+        assertTrue(CompressionConfiguration.fromEnv(env).isEnabled());
+
+        env.put("COMPRESSION_MIN_BYTES", "256");
+        env.put("COMPRESSION_LEVEL", "0");
+        final CompressionConfiguration compression = CompressionConfiguration.fromEnv(env);
+        assertEquals(256, compression.getMinBytes());
+        assertFalse(compression.isEnabled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCompressionLevelFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("COMPRESSION_LEVEL", "10");
+        CompressionConfiguration.fromEnv(env);
+    }
+
+    @Test
+    public void testRateLimitsFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("RATE_LIMITS", "pdf=0.5/4, write=0/1");
+        env.put("RATE_LIMIT_MAX_IN_FLIGHT", "64");
+        final RateLimitConfiguration rateLimits = RateLimitConfiguration.fromEnv(env);
+        assertTrue(rateLimits.isEnabled());
+        assertFalse(rateLimits.isForwardedFor());
+        assertEquals(64, rateLimits.getMaxInFlight());
+        assertEquals(0.5, rateLimits.getLimit(RateLimitConfiguration.ROUTE_PDF).getPerSecond(), 0.001);
+        assertEquals(4, rateLimits.getLimit(RateLimitConfiguration.ROUTE_PDF).getBurst());
+        assertEquals(100, rateLimits.getLimit(RateLimitConfiguration.ROUTE_READ).getBurst());
+        assertEquals(1, rateLimits.getLimit(RateLimitConfiguration.ROUTE_EXPORT).getPerSecond(), 0.001);
+        assertNull(rateLimits.getLimit(RateLimitConfiguration.ROUTE_WRITE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRateLimitRouteFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("RATE_LIMITS", "modules=1/1");
+        RateLimitConfiguration.fromEnv(env);
+    }
+
+    @Test
+    public void testTimeoutsFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("DB_STATEMENT_TIMEOUT_MS", "10000");
+        env.put("DB_STATEMENT_TIMEOUTS", "SemestersService.completeSemester = 5000, ModulesService.moduleInformation=0");
+        final TimeoutConfiguration timeouts = TimeoutConfiguration.fromEnv(env);
+        assertEquals(10000, timeouts.getDefaultMillis());
+        assertEquals(5000, timeouts.getMillis("SemestersService.completeSemester"));
+        assertEquals(0, timeouts.getMillis("ModulesService.moduleInformation"));
+        assertEquals(10000, timeouts.getMillis("CurriculaService.curricula"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTimeoutFromEnv() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("DB_STATEMENT_TIMEOUTS", "SemestersService.completeSemester");
+        TimeoutConfiguration.fromEnv(env);
     }
 
     @Test
@@ -27,8 +148,19 @@ public class ConfigurationTest {
                 .setDbUser("user")
                 .setDbPassword("pass")
                 .setDb("123.45.6.7:8900/database")
+                .setReplicas(Arrays.asList("123.45.6.8:8900/database", "123.45.6.9:8900/database"))
                 .setAuthUsername("123")
-                .setAuthPassword("456");
+                .setAuthPassword("456")
+                .setPool(new PoolConfiguration.Builder()
+                        .setMaxTotal(20)
+                        .setMinIdle(5)
+                        .setMaxWaitMillis(250)
+                        .setLeakTimeoutSeconds(0)
+                        .setReadYourWritesMillis(1000)
+                        .build())
+                .setCache(new CacheConfiguration.Builder()
+                        .setMaxBytes(0)
+                        .build());
 
         final Configuration configuration = builder.build();
         assertEquals("pass", configuration.getDbPassword());
@@ -37,5 +169,13 @@ public class ConfigurationTest {
         assertEquals("http://9.8.7.6:8080/database", configuration.getServerString());
         assertEquals("123", configuration.getAuthUsername());
         assertEquals("456", configuration.getAuthPassword());
+        assertEquals(20, configuration.getPool().getMaxTotal());
+        assertEquals(5, configuration.getPool().getMinIdle());
+        assertEquals(250, configuration.getPool().getMaxWaitMillis());
+        assertEquals(0, configuration.getPool().getLeakTimeoutSeconds());
+        assertEquals(Arrays.asList("jdbc:postgresql://123.45.6.8:8900/database",
+                "jdbc:postgresql://123.45.6.9:8900/database"), configuration.getReplicaDbStrings());
+        assertEquals(1000, configuration.getPool().getReadYourWritesMillis());
+        assertEquals(0, configuration.getCache().getMaxBytes());
     }
 }
@@ -1,10 +1,92 @@
 package org.fsg1.fmms.backend.app;
 
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.jersey.server.ResourceConfig;
 import org.junit.Test;
 
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import java.net.URI;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
 public class MainTest {
+
+    @Path("thread")
+    public static class ThreadResource {
+        @GET
+        public String thread() {
+            return Thread.currentThread().toString();
+        }
+    }
+
     @Test
     public void testStartingServer() {
         //Main.startServer();
     }
+
+    @Test
+    public void testCreateServer() throws Exception {
+        final ServerConfiguration config = new ServerConfiguration.Builder()
+                .setWorkerThreads(2)
+                .setWorkerQueueSize(16)
+                .setSelectorThreads(1)
+                .setTcpNoDelay(false)
+                .setBacklog(128)
+                .setKeepAliveIdleSeconds(5)
+                .build();
+        final HttpServer server = Main.createServer(URI.create("http://localhost:9997/"),
+                new ResourceConfig().register(ThreadResource.class), config);
+        try {
+            server.start();
+            final NetworkListener listener = server.getListeners().iterator().next();
+            final TCPNIOTransport transport = listener.getTransport();
+            assertFalse(transport.isTcpNoDelay());
+            assertEquals(128, transport.getServerConnectionBackLog());
+            assertEquals(1, transport.getSelectorRunnersCount());
+            assertEquals(5, listener.getKeepAlive().getIdleTimeoutInSeconds());
+
+            given()
+                    .get("http://localhost:9997/thread")
+                    .then()
+                    .statusCode(200)
+                    .body(containsString("http-worker-"));
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        final ServerConfiguration config = new ServerConfiguration.Builder()
+                .setVirtualThreads(true)
+                .build();
+        final ResourceConfig rc = new ResourceConfig().register(ThreadResource.class);
+        if (!System.getProperty("java.specification.version").matches("\\d{2,}")) {
+            try {
+                Main.createServer(URI.create("http://localhost:9997/"), rc, config);
+                fail();
+            } catch (IllegalStateException e) {
+                return;
+            }
+        }
+        final HttpServer server = Main.createServer(URI.create("http://localhost:9997/"), rc, config);
+        try {
+            server.start();
+            given()
+                    .get("http://localhost:9997/thread")
+                    .then()
+                    .statusCode(200)
+                    .body(startsWith("VirtualThread"));
+        } finally {
+            server.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package org.fsg1.fmms.backend.app;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.util.JsonMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ObjectMapperResolverTest {
+
+    @Test
+    public void testResolvesSharedMapper() {
+        ObjectMapperResolver resolver = new ObjectMapperResolver();
+        assertSame(JsonMapper.getMapper(), resolver.getContext(JsonNode.class));
+        assertSame(JsonMapper.getMapper(), resolver.getContext(String.class));
+    }
+
+    @Test
+    public void testReadTree() throws Exception {
+        JsonNode node = JsonMapper.readTree("{\"code\":\"2IPE0\"}");
+        assertEquals("2IPE0", node.get("code").asText());
+    }
+}
@@ -0,0 +1,267 @@
+package org.fsg1.fmms.backend.app;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of the HTTP server for different server settings, on JSON responses of the sizes the
+ * endpoints return: a list of curricula, a module document and the semesters of a curriculum. A second run compares
+ * platform and virtual worker threads at high concurrency, on requests that block like a query does.
+ * Run it with <code>mvn test -P benchmark</code>, or <code>mvn test -P jdk21,benchmark</code> on Java 21 to include
+ * virtual threads; <code>-Dbenchmark.clients</code>, <code>-Dbenchmark.blockingClients</code> and
+ * <code>-Dbenchmark.seconds</code> change the number of concurrent clients and the time per measurement.
+ */
+public class ServerBenchmark {
+
+    private static final URI BASE_URI = URI.create("http://localhost:9996/");
+
+    private static final int[] PAYLOAD_SIZES = {1024, 16 * 1024, 128 * 1024};
+
+    private static final Map<Integer, byte[]> PAYLOADS = new LinkedHashMap<>();
+
+    /**
+     * Time a blocking request waits, like a query on the database.
+     */
+    private static final int QUERY_MILLIS = 10;
+
+    /**
+     * Connections of the simulated pool, which is the default size of the connection pool.
+     */
+    private static final Semaphore POOL = new Semaphore(8);
+
+    static {
+        for (int size : PAYLOAD_SIZES) {
+            final StringBuilder json = new StringBuilder("[");
+            while (json.length() < size - 64) {
+                if (json.length() > 1) json.append(',');
+                json.append("{\"code\":\"BUA1\",\"name\":\"Business Analysis\",\"credits\":5}");
+            }
+            PAYLOADS.put(size, json.append(']').toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Path("payload/{size}")
+    public static class PayloadResource {
+        @GET
+        @Produces(MediaType.APPLICATION_JSON)
+        public byte[] payload(@PathParam("size") final int size) {
+            return PAYLOADS.get(size);
+        }
+    }
+
+    @Path("blocking")
+    public static class BlockingResource {
+        @GET
+        @Path("pooled")
+        @Produces(MediaType.APPLICATION_JSON)
+        public byte[] pooled() throws InterruptedException {
+            POOL.acquire();
+            try {
+                Thread.sleep(QUERY_MILLIS);
+            } finally {
+                POOL.release();
+            }
+            return PAYLOADS.get(PAYLOAD_SIZES[1]);
+        }
+
+        @GET
+        @Path("unpooled")
+        @Produces(MediaType.APPLICATION_JSON)
+        public byte[] unpooled() throws InterruptedException {
+            Thread.sleep(QUERY_MILLIS);
+            return PAYLOADS.get(PAYLOAD_SIZES[1]);
+        }
+    }
+
+    @Test
+    public void benchmarkThreads() throws Exception {
+        final int clients = Integer.getInteger("benchmark.blockingClients", 256);
+        final int seconds = Integer.getInteger("benchmark.seconds", 5);
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+
+        final Map<String, ServerConfiguration> settings = new LinkedHashMap<>();
+        settings.put("16 platform workers", new ServerConfiguration.Builder()
+                .setWorkerThreads(16)
+                .build());
+        settings.put("256 platform workers", new ServerConfiguration.Builder()
+                .setWorkerThreads(256)
+                .build());
+        if (System.getProperty("java.specification.version").matches("\\d{2,}")) {
+            settings.put("virtual threads", new ServerConfiguration.Builder()
+                    .setVirtualThreads(true)
+                    .build());
+        }
+
+        System.out.println(String.format("%d clients, %d s per measurement, %d ms per query, 8 connections",
+                clients, seconds, QUERY_MILLIS));
+        System.out.println(String.format("%-34s %10s %10s %9s %9s %9s %7s %8s",
+                "settings", "path", "req/s", "p50 ms", "p99 ms", "max ms", "errors", "threads"));
+        for (Map.Entry<String, ServerConfiguration> entry : settings.entrySet()) {
+            final HttpServer server = Main.createServer(BASE_URI,
+                    new ResourceConfig().register(BlockingResource.class), entry.getValue());
+            server.start();
+            final ExecutorService workers = server.getListeners().iterator().next().getTransport().getWorkerThreadPool();
+            try {
+                for (String path : Arrays.asList("pooled", "unpooled")) {
+                    run("blocking/" + path, clients, 1);
+                    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                    threads.resetPeakThreadCount();
+                    final Result result = run("blocking/" + path, clients, seconds);
+                    System.out.println(String.format("%-34s %10s %10.0f %9.2f %9.2f %9.2f %7d %8d",
+                            entry.getKey(), path, result.requests / (double) seconds, result.percentile(0.5),
+                            result.percentile(0.99), result.percentile(1), result.errors,
+                            threads.getPeakThreadCount()));
+                }
+            } finally {
+                server.shutdownNow();
+                //Grizzly does not shut down worker pools it did not create.
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        final int clients = Integer.getInteger("benchmark.clients", 32);
+        final int seconds = Integer.getInteger("benchmark.seconds", 5);
+
+        final Map<String, ServerConfiguration> settings = new LinkedHashMap<>();
+        settings.put("defaults", new ServerConfiguration.Builder().build());
+        settings.put("8 workers", new ServerConfiguration.Builder()
+                .setWorkerThreads(8)
+                .build());
+        settings.put("32 workers, queue 64", new ServerConfiguration.Builder()
+                .setWorkerThreads(32)
+                .setWorkerQueueSize(64)
+                .build());
+        settings.put("8 workers, queue 16, caller-runs", new ServerConfiguration.Builder()
+                .setWorkerThreads(8)
+                .setWorkerQueueSize(16)
+                .setRejectionPolicy(ServerConfiguration.REJECT_CALLER_RUNS)
+                .build());
+        settings.put("1 selector", new ServerConfiguration.Builder()
+                .setSelectorThreads(1)
+                .build());
+        settings.put("no TCP_NODELAY", new ServerConfiguration.Builder()
+                .setTcpNoDelay(false)
+                .build());
+        settings.put("64 KiB buffers", new ServerConfiguration.Builder()
+                .setReadBufferSize(64 * 1024)
+                .setWriteBufferSize(64 * 1024)
+                .build());
+
+        System.out.println(String.format("%d clients, %d s per measurement", clients, seconds));
+        System.out.println(String.format("%-34s %8s %10s %9s %9s %9s %7s",
+                "settings", "payload", "req/s", "p50 ms", "p99 ms", "max ms", "errors"));
+        for (Map.Entry<String, ServerConfiguration> entry : settings.entrySet()) {
+            final HttpServer server = Main.createServer(BASE_URI,
+                    new ResourceConfig().register(PayloadResource.class), entry.getValue());
+            server.start();
+            final ExecutorService workers = server.getListeners().iterator().next().getTransport().getWorkerThreadPool();
+            try {
+                for (int size : PAYLOAD_SIZES) {
+                    run("payload/" + size, clients, 1);
+                    final Result result = run("payload/" + size, clients, seconds);
+                    System.out.println(String.format("%-34s %7dK %10.0f %9.2f %9.2f %9.2f %7d",
+                            entry.getKey(), size / 1024, result.requests / (double) seconds,
+                            result.percentile(0.5), result.percentile(0.99), result.percentile(1), result.errors));
+                }
+            } finally {
+                server.shutdownNow();
+                //Grizzly does not shut down worker pools it did not create.
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Send requests for a path from a number of clients for a while.
+     */
+    private static Result run(final String path, final int clients, final int seconds) throws Exception {
+        final URL url = BASE_URI.resolve(path).toURL();
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        final List<Future<Result>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> {
+                final Result result = new Result();
+                final byte[] buffer = new byte[8192];
+                while (System.nanoTime() < end) {
+                    final long start = System.nanoTime();
+                    try {
+                        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                        try (InputStream in = connection.getInputStream()) {
+                            while (in.read(buffer) >= 0) {
+                                //Read the whole response, so the connection is kept alive.
+                            }
+                        }
+                        result.record(System.nanoTime() - start);
+                    } catch (IOException e) {
+                        result.errors++;
+                    }
+                }
+                return result;
+            }));
+        }
+        final Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.add(future.get());
+        }
+        executor.shutdown();
+        return total;
+    }
+
+    /**
+     * Latencies of the requests of one or more clients.
+     */
+    private static final class Result {
+        private long[] latencies = new long[1024];
+        private int requests;
+        private int errors;
+
+        void record(final long nanos) {
+            if (requests == latencies.length) latencies = Arrays.copyOf(latencies, requests * 2);
+            latencies[requests++] = nanos;
+        }
+
+        void add(final Result other) {
+            for (int i = 0; i < other.requests; i++) {
+                record(other.latencies[i]);
+            }
+            errors += other.errors;
+        }
+
+        double percentile(final double fraction) {
+            if (requests == 0) return 0;
+            final long[] sorted = Arrays.copyOf(latencies, requests);
+            Arrays.sort(sorted);
+            final int index = (int) Math.min(requests - 1, Math.ceil(fraction * requests) - 1);
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.fsg1.fmms.backend.app;
+
+import org.fsg1.fmms.backend.database.Connection;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WarmUpTest {
+    @Mock
+    private Connection connection;
+    @Mock
+    private ApplicationHandler handler;
+    @Mock
+    private ContainerResponse ok;
+    @Mock
+    private ContainerResponse notFound;
+
+    @Test
+    public void testRequestsAreReplayed() throws Exception {
+        when(connection.primePools()).thenReturn(4);
+        when(ok.getStatus()).thenReturn(200);
+        when(notFound.getStatus()).thenReturn(404);
+        when(handler.apply(any(ContainerRequest.class), any(OutputStream.class)))
+                .thenReturn(CompletableFuture.completedFuture(ok), CompletableFuture.completedFuture(notFound));
+
+        final WarmUpConfiguration config = new WarmUpConfiguration.Builder()
+                .setPaths(Arrays.asList("curricula", "curriculum/1/module/BUA1"))
+                .build();
+        assertTrue(new WarmUp(config, connection, handler).run() >= 0);
+
+        final ArgumentCaptor<ContainerRequest> requests = ArgumentCaptor.forClass(ContainerRequest.class);
+        verify(handler, times(2)).apply(requests.capture(), any(OutputStream.class));
+        final List<ContainerRequest> replayed = requests.getAllValues();
+        assertEquals("GET", replayed.get(0).getMethod());
+        assertEquals("/curricula", replayed.get(0).getRequestUri().getPath());
+        assertEquals("/curriculum/1/module/BUA1", replayed.get(1).getRequestUri().getPath());
+    }
+
+    @Test
+    public void testFailingDatabaseDoesNotStopWarmUp() throws Exception {
+        when(connection.primePools()).thenThrow(new SQLException("Connection refused"));
+        final CompletableFuture<ContainerResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Connection refused"));
+        when(handler.apply(any(ContainerRequest.class), any(OutputStream.class))).thenReturn(failed);
+
+        assertTrue(new WarmUp(new WarmUpConfiguration.Builder().build(), connection, handler).run() >= 0);
+        verify(handler, times(2)).apply(any(ContainerRequest.class), any(OutputStream.class));
+    }
+}
@@ -1,22 +1,54 @@
 package org.fsg1.fmms.backend.database;
 
 import com.mockrunner.jdbc.BasicJDBCTestCaseAdapter;
+import com.mockrunner.jdbc.PreparedStatementResultSetHandler;
 import com.mockrunner.mock.jdbc.MockParameterMap;
 import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
 import org.apache.commons.dbcp2.BasicDataSource;
+import org.fsg1.fmms.backend.app.CacheConfiguration;
 import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.app.PoolConfiguration;
+import org.fsg1.fmms.backend.app.SlowQueryConfiguration;
+import org.fsg1.fmms.backend.app.TimeoutConfiguration;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.fsg1.fmms.backend.metrics.QueryStats;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -26,6 +58,8 @@ public class ConnectionTest extends BasicJDBCTestCaseAdapter {
     private Configuration configMock;
     @Mock
     private BasicDataSource bds;
+    @Mock
+    private BasicDataSource replicaBds;
 
     @Before
     public void setupJDBC() throws SQLException {
@@ -35,6 +69,10 @@ public class ConnectionTest extends BasicJDBCTestCaseAdapter {
         when(configMock.getDbString()).thenReturn("jdbc:postgresql://localhost:5432/fmms");
         when(configMock.getDbUser()).thenReturn("fmms");
         when(configMock.getDbPassword()).thenReturn("test123456");
+        when(configMock.getPool()).thenReturn(new PoolConfiguration.Builder().build());
+        when(configMock.getCache()).thenReturn(new CacheConfiguration.Builder().build());
+        when(configMock.getSlowQueries()).thenReturn(new SlowQueryConfiguration.Builder().build());
+        when(configMock.getTimeouts()).thenReturn(new TimeoutConfiguration.Builder().build());
     }
 
     @Test
@@ -119,4 +157,502 @@ public class ConnectionTest extends BasicJDBCTestCaseAdapter {
             Assert.fail();
         }
     }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        String query = "SELECT * FROM ? WHERE id = ?";
+        conn.executeQuery(null, query, "tablename", 1);
+        conn.executeQuery(null, query, "tablename", 2);
+        conn.executeQuery(null, "SELECT 1", 3);
+
+        assertEquals(1, conn.getStatementCacheHits());
+        assertEquals(2, conn.getStatementCacheMisses());
+
+        final List<MockPreparedStatement> preparedStatements = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler().getPreparedStatements();
+        assertEquals(0, preparedStatements.get(2).getIndexedParameterMap().size());
+        assertEquals(2, preparedStatements.get(1).getIndexedParameterMap().get(2));
+    }
+
+    @Test
+    public void testPoolMonitor() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        conn.executeQuery(null, "SELECT 1");
+        conn.executeTransactional(conn1 -> conn.executeUpdate(conn1, "UPDATE ? SET x = 1", "tablename"));
+
+        final PoolMonitor monitor = conn.getPoolMonitor();
+        assertEquals(2, monitor.getBorrowWait().getCount());
+        assertEquals(0, monitor.getBorrowTimeouts());
+        assertEquals(0, monitor.getLeaks());
+        assertEquals(0, monitor.getOverdueLeases());
+        verify(bds).setMaxTotal(8);
+        verify(bds).setRemoveAbandonedTimeout(300);
+    }
+
+    @Test
+    public void testBorrowTimeout() throws Exception {
+        when(bds.getConnection()).thenThrow(new SQLException("Timeout", new NoSuchElementException()));
+        Connection conn = new Connection(configMock, bds);
+        try {
+            conn.executeQuery(null, "SELECT 1");
+            Assert.fail();
+        } catch (SQLException e) {
+            assertEquals(1, conn.getPoolMonitor().getBorrowTimeouts());
+            assertEquals(0, conn.getPoolMonitor().getBorrowWait().getCount());
+        }
+    }
+
+    @Test
+    public void testExecuteQueryAsync() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        conn.executeQueryAsync(null, "param1: '?'", "stringparam").get(5, TimeUnit.SECONDS);
+        final List<MockPreparedStatement> preparedStatements = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler().getPreparedStatements();
+        assertEquals(1, preparedStatements.size());
+        assertEquals("stringparam", preparedStatements.get(0).getIndexedParameterMap().get(1));
+        assertEquals(30000, conn.getAsyncTimeoutMillis());
+        verifyConnectionClosed();
+    }
+
+    @Test
+    public void testExecuteQueryAsyncRejected() throws Exception {
+        when(configMock.getPool()).thenReturn(new PoolConfiguration.Builder()
+                .setExecutorThreads(1)
+                .setExecutorQueueSize(1)
+                .build());
+        final CountDownLatch borrowing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final java.sql.Connection mockConnection = getJDBCMockObjectFactory().getMockConnection();
+        when(bds.getConnection()).thenAnswer(invocation -> {
+            borrowing.countDown();
+            release.await();
+            return mockConnection;
+        });
+        Connection conn = new Connection(configMock, bds);
+
+        final CompletableFuture<String> running = conn.executeQueryAsync(null, "SELECT 1");
+        borrowing.await();
+        final CompletableFuture<String> queued = conn.executeQueryAsync(null, "SELECT 1");
+        final CompletableFuture<String> rejected = conn.executeQueryAsync(null, "SELECT 1");
+        try {
+            rejected.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServerBusyException);
+        }
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testExecuteBatch() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        final List<Object[]> rows = Arrays.asList(new Object[]{1, "a"}, new Object[]{2, "b"});
+        conn.executeTransactional(conn1 -> {
+            assertEquals(2, conn.executeBatch(conn1, "INSERT INTO x VALUES (?, ?)", rows).length);
+            assertEquals(0, conn.executeBatch(conn1, "INSERT INTO y VALUES (?, ?)", Collections.emptyList()).length);
+        });
+        final List<MockPreparedStatement> preparedStatements = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler().getPreparedStatements();
+        assertEquals(1, preparedStatements.size());
+        verifySQLStatementExecuted("INSERT INTO x VALUES (?, ?)");
+        verifySQLStatementNotExecuted("INSERT INTO y VALUES (?, ?)");
+        verifyCommitted();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testExecuteBatchInsertWithoutKeys() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        final List<Object[]> rows = Collections.singletonList(new Object[]{1, "a"});
+        conn.executeTransactional(conn1 -> conn.executeBatchInsert(conn1, "INSERT INTO x VALUES (?, ?)", rows));
+    }
+
+    @Test
+    public void testExecuteQueryRaw() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"code\":\"BUA1\"}"});
+        handler.prepareGlobalResultSet(resultSet);
+
+        Connection conn = new Connection(configMock, bds);
+        final byte[] raw = conn.executeQueryRawAsync("module", "SELECT module FROM x WHERE code = ?", "BUA1")
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("{\"code\":\"BUA1\"}", new String(raw, StandardCharsets.UTF_8));
+        verifyConnectionClosed();
+    }
+
+    @Test
+    public void testExecuteQueryStreamed() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"code\":\"BUA1\"}", null, "{\"code\":\"JOS\"}"});
+        handler.prepareGlobalResultSet(resultSet);
+
+        Connection conn = new Connection(configMock, bds);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final long rows = conn.executeQueryStreamed("module", "SELECT module FROM x WHERE curriculum = ?", value -> {
+            written.write(value);
+            written.write('\n');
+        }, 1);
+
+        assertEquals(2, rows);
+        assertEquals("{\"code\":\"BUA1\"}\n{\"code\":\"JOS\"}\n", new String(written.toByteArray(), StandardCharsets.UTF_8));
+        final MockPreparedStatement statement = getPreparedStatement("SELECT module FROM x");
+        assertEquals(100, statement.getFetchSize());
+        assertTrue(!getJDBCMockObjectFactory().getMockConnection().getAutoCommit());
+        verifyCommitted();
+        verifyConnectionClosed();
+    }
+
+    @Test
+    public void testExecuteQueryStreamedWriteFails() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"code\":\"BUA1\"}"});
+        handler.prepareGlobalResultSet(resultSet);
+
+        Connection conn = new Connection(configMock, bds);
+        conn.nameQuery("SELECT module FROM x WHERE curriculum = ?", "export");
+        try {
+            conn.executeQueryStreamed("module", "SELECT module FROM x WHERE curriculum = ?", value -> {
+                throw new IOException("Broken pipe");
+            }, 1);
+            Assert.fail();
+        } catch (IOException e) {
+            verifyNotCommitted();
+            verifyConnectionClosed();
+        }
+        final QueryStats stats = conn.getQueryStats().stream()
+                .filter(s -> s.getName().equals("export")).findFirst().orElseThrow(AssertionError::new);
+        assertEquals(1, stats.getErrors());
+    }
+
+    @Test
+    public void testQueryStats() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"code\":\"BUA1\"}"});
+        handler.prepareResultSet("SELECT module FROM x", resultSet);
+        handler.prepareThrowsSQLException("SELECT broken", new SQLException("syntax error", "42601"));
+
+        Connection conn = new Connection(configMock, bds);
+        conn.nameQuery("SELECT module FROM x WHERE code = ?", "Test.module");
+        conn.executeQueryRaw("module", "SELECT module FROM x WHERE code = ?", "BUA1");
+        try {
+            conn.executeQueryRaw("module", "SELECT broken");
+            Assert.fail();
+        } catch (SQLException e) {
+            assertEquals(0, conn.getResultCache().getSize());
+        }
+        conn.executeTransactional(conn1 -> conn.executeUpdate(conn1, "DELETE FROM study.moduletopic WHERE id = ?", 1));
+
+        final Map<String, QueryStats> stats = new HashMap<>();
+        for (QueryStats query : conn.getQueryStats()) {
+            stats.put(query.getName(), query);
+        }
+        assertEquals(1, stats.get("Test.module").getExecute().getCount());
+        assertEquals(1, stats.get("Test.module").getBorrow().getCount());
+        assertEquals(15, stats.get("Test.module").getBytes().getMax());
+        assertEquals(1, stats.get("select").getErrors());
+        assertEquals(1, stats.get("delete study.moduletopic").getExecute().getCount());
+    }
+
+    @Test
+    public void testQueryStatsCountUtf8Bytes() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"name\":\"Übung € 😀\"}"});
+        handler.prepareResultSet("SELECT module FROM x", resultSet);
+
+        Connection conn = new Connection(configMock, bds);
+        conn.nameQuery("SELECT module FROM x WHERE code = ?", "Test.module");
+        conn.executeQuery("module", "SELECT module FROM x WHERE code = ?", "BUA1");
+
+        final Map<String, QueryStats> stats = new HashMap<>();
+        for (QueryStats query : conn.getQueryStats()) {
+            stats.put(query.getName(), query);
+        }
+        assertEquals(26, stats.get("Test.module").getBytes().getMax());
+        assertEquals(26, QueryStats.utf8Length("{\"name\":\"Übung € 😀\"}"));
+        assertEquals(3, QueryStats.utf8Length("\ud83d"));
+    }
+
+    @Test
+    public void testSlowQueryPlanIsCaptured() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"Seq Scan on x"});
+        handler.prepareGlobalResultSet(resultSet);
+        when(bds.getConnection()).thenAnswer(invocation -> {
+            Thread.sleep(5);
+            return getJDBCMockObjectFactory().getMockConnection();
+        });
+        when(configMock.getSlowQueries()).thenReturn(new SlowQueryConfiguration.Builder().setThresholdMillis(1).build());
+
+        Connection conn = new Connection(configMock, bds);
+        conn.executeQueryRaw("module", "SELECT module FROM x WHERE code = ?", "BUA1");
+
+        final SlowQueryLog.SlowQuery slow = conn.getSlowQueryLog().getQueries().get(0);
+        assertEquals(Collections.singletonList("BUA1"), slow.getParameters());
+        for (int i = 0; i < 100 && slow.getPlan() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("Seq Scan on x", slow.getPlan());
+        assertEquals(1, getPreparedStatements("EXPLAIN (ANALYZE, BUFFERS) SELECT module FROM x").size());
+        assertEquals(10, getPreparedStatements("EXPLAIN (ANALYZE, BUFFERS) SELECT module FROM x").get(0).getQueryTimeout());
+    }
+
+    @Test
+    public void testPrimePools() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        conn.nameQuery("SELECT module FROM x WHERE code = ?", "ModulesService.moduleInformation");
+        conn.executeQuery(null, "SELECT 1");
+
+        assertEquals(2, conn.primePools());
+        verify(bds, times(3)).getConnection();
+        assertEquals(2, getPreparedStatements("SELECT module FROM x").size());
+    }
+
+    @Test
+    public void testCopyIn() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        final CopyIn copy = mockCopy(transaction, "COPY x FROM STDIN");
+        final ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        doAnswer(invocation -> {
+            copied.write(invocation.<byte[]>getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(copy).writeToCopy(any(byte[].class), anyInt(), anyInt());
+        when(copy.getHandledRowCount()).thenReturn(2L);
+
+        Connection conn = new Connection(configMock, bds);
+        final long rows = conn.copyIn(transaction, "COPY x FROM STDIN",
+                out -> out.write("1\ta\n2\tb\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, rows);
+        assertEquals("1\ta\n2\tb\n", new String(copied.toByteArray(), StandardCharsets.UTF_8));
+        verify(copy, never()).cancelCopy();
+    }
+
+    @Test
+    public void testCopyInCancelsWhenWritingFails() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        final CopyIn copy = mockCopy(transaction, "COPY x FROM STDIN");
+        when(copy.isActive()).thenReturn(true);
+
+        Connection conn = new Connection(configMock, bds);
+        try {
+            conn.copyIn(transaction, "COPY x FROM STDIN", out -> {
+                throw new IOException("Client went away");
+            });
+            Assert.fail();
+        } catch (IOException e) {
+            verify(copy, times(1)).cancelCopy();
+            verify(copy, never()).endCopy();
+        }
+    }
+
+    private static CopyIn mockCopy(final java.sql.Connection transaction, final String statement) throws SQLException {
+        final PGConnection pgConnection = mock(PGConnection.class);
+        final CopyManager copyManager = mock(CopyManager.class);
+        final CopyIn copy = mock(CopyIn.class);
+        when(transaction.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn(statement)).thenReturn(copy);
+        return copy;
+    }
+
+    @Test
+    public void testExecuteQueryCached() throws Exception {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"code\":\"BUA1\"}"});
+        handler.prepareGlobalResultSet(resultSet);
+
+        Connection conn = new Connection(configMock, bds);
+        final List<String> tags = Collections.singletonList("module:BUA1");
+        conn.executeQueryCachedAsync(tags, "module", "SELECT module FROM x WHERE code = ?", "BUA1").get(5, TimeUnit.SECONDS);
+        final byte[] cached = conn.executeQueryCachedAsync(tags, "module", "SELECT module FROM x WHERE code = ?", "BUA1")
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("{\"code\":\"BUA1\"}", new String(cached, StandardCharsets.UTF_8));
+        assertEquals(1, conn.getResultCache().getHits());
+        assertEquals(1, conn.getResultCache().getMisses());
+        assertEquals(1, conn.getResultCache().getLoadTime().getCount());
+
+        conn.invalidate(tags);
+        conn.executeQueryCachedAsync(tags, "module", "SELECT module FROM x WHERE code = ?", "BUA1").get(5, TimeUnit.SECONDS);
+        assertEquals(2, conn.getResultCache().getMisses());
+        assertEquals(2, getPreparedStatements("SELECT module FROM x").size());
+    }
+
+    @Test
+    public void testStatementTimeouts() throws Exception {
+        when(configMock.getTimeouts()).thenReturn(new TimeoutConfiguration.Builder()
+                .setQueryMillis("Test.short", 1500)
+                .build());
+        Connection conn = new Connection(configMock, bds);
+        conn.nameQuery("SELECT 1", "Test.short");
+        conn.executeQuery(null, "SELECT 1");
+        conn.executeQuery(null, "SELECT 2");
+        final List<MockPreparedStatement> preparedStatements = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler().getPreparedStatements();
+        assertEquals(2, preparedStatements.get(0).getQueryTimeout());
+        assertEquals(30, preparedStatements.get(1).getQueryTimeout());
+    }
+
+    @Test
+    public void testDeadlineShortensTimeout() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        final QueryDeadline deadline = QueryDeadline.start(800);
+        try {
+            conn.executeQueryAsync(null, "SELECT 1").get(5, TimeUnit.SECONDS);
+        } finally {
+            deadline.finish();
+        }
+        final List<MockPreparedStatement> preparedStatements = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler().getPreparedStatements();
+        assertEquals(1, preparedStatements.get(0).getQueryTimeout());
+    }
+
+    @Test
+    public void testCancelledDeadline() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        final QueryDeadline deadline = QueryDeadline.start(0);
+        deadline.cancel();
+        try {
+            conn.executeQueryAsync(null, "SELECT 1").get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServerBusyException);
+        } finally {
+            deadline.finish();
+        }
+        assertTrue(getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler().getExecutedStatements().isEmpty());
+    }
+
+    @Test
+    public void testDeadlineCancelsStatements() throws Exception {
+        final QueryDeadline deadline = new QueryDeadline(0);
+        final java.sql.Statement running = mock(java.sql.Statement.class);
+        final java.sql.Statement completed = mock(java.sql.Statement.class);
+        deadline.register(running);
+        deadline.register(completed).close();
+        deadline.cancel();
+        verify(running).cancel();
+        verify(completed, never()).cancel();
+
+        final java.sql.Statement late = mock(java.sql.Statement.class);
+        deadline.register(late);
+        verify(late).cancel();
+    }
+
+    @Test
+    public void testFinishedDeadlineIsDropped() throws Exception {
+        final QueryDeadline deadline = QueryDeadline.start(0);
+        deadline.cancel();
+        //Finished from another thread, as a suspended response is.
+        final Thread other = new Thread(deadline::finish);
+        other.start();
+        other.join();
+        assertTrue(deadline.isFinished());
+        assertNull(QueryDeadline.current());
+
+        //The next request of the thread is not cancelled by the previous one.
+        final Connection conn = new Connection(configMock, bds);
+        conn.executeQueryAsync(null, "SELECT 1").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = ServerBusyException.class)
+    public void testCancelledStatement() throws Exception {
+        getJDBCMockObjectFactory().getMockConnection().getPreparedStatementResultSetHandler()
+                .prepareThrowsSQLException("SELECT 1", new SQLException("canceling statement", "57014"), new Object[0]);
+        Connection conn = new Connection(configMock, bds);
+        conn.executeQuery(null, "SELECT 1");
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void testExecuteQueryRawNotFound() throws Exception {
+        Connection conn = new Connection(configMock, bds);
+        conn.executeQueryRaw("module", "SELECT module FROM x WHERE code = ?", "BUA1");
+    }
+
+    @Test
+    public void testReadsGoToReplica() throws Exception {
+        when(configMock.getReplicaDbStrings()).thenReturn(Collections.singletonList("jdbc:postgresql://replica:5432/fmms"));
+        when(replicaBds.getConnection()).thenReturn(getJDBCMockObjectFactory().getMockConnection());
+        Connection conn = new Connection(configMock, bds, () -> replicaBds);
+
+        conn.executeQuery(null, "SELECT 1");
+        conn.executeTransactional(conn1 -> conn.executeUpdate(conn1, "UPDATE ? SET x = 1", "tablename"));
+
+        verify(replicaBds).setUrl("jdbc:postgresql://replica:5432/fmms");
+        verify(replicaBds, times(1)).getConnection();
+        verify(bds, times(1)).getConnection();
+        final ReplicaSet.Replica replica = conn.getReplicaSet().getReplicas().get(0);
+        assertEquals(1, replica.getReads());
+        assertEquals(0, conn.getReplicaSet().getPrimaryReads());
+    }
+
+    @Test
+    public void testKeptReadsGoToPrimary() throws Exception {
+        when(configMock.getReplicaDbStrings()).thenReturn(Collections.singletonList("jdbc:postgresql://replica:5432/fmms"));
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("module", new Object[]{"{\"code\":\"BUA1\"}"});
+        handler.prepareGlobalResultSet(resultSet);
+        Connection conn = new Connection(configMock, bds, () -> replicaBds);
+
+        conn.executeQueryRawOnPrimary("module", "SELECT module FROM x WHERE code = ?", "BUA1");
+        conn.executeQueryStreamedOnPrimary("module", "SELECT module FROM x", value -> { });
+        conn.executeQueryCachedAsync(Collections.singletonList("module:BUA1"), "module",
+                "SELECT module FROM x WHERE code = ?", "BUA1").get(5, TimeUnit.SECONDS);
+
+        verify(replicaBds, never()).getConnection();
+        verify(bds, times(3)).getConnection();
+        assertEquals(3, conn.getReplicaSet().getPrimaryReads());
+    }
+
+    @Test
+    public void testReplicaFailover() throws Exception {
+        when(configMock.getReplicaDbStrings()).thenReturn(Collections.singletonList("jdbc:postgresql://replica:5432/fmms"));
+        when(replicaBds.getConnection()).thenThrow(new SQLException("Connection refused", "08001"));
+        Connection conn = new Connection(configMock, bds, () -> replicaBds);
+
+        conn.executeQuery(null, "SELECT 1");
+        conn.executeQuery(null, "SELECT 1");
+
+        final ReplicaSet.Replica replica = conn.getReplicaSet().getReplicas().get(0);
+        assertEquals(1, replica.getFailures());
+        assertTrue(replica.isDown());
+        verify(replicaBds, times(1)).getConnection();
+        verify(bds, times(2)).getConnection();
+        assertEquals(1, conn.getReplicaSet().getPrimaryReads());
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        when(configMock.getReplicaDbStrings()).thenReturn(Collections.singletonList("jdbc:postgresql://replica:5432/fmms"));
+        when(configMock.getPool()).thenReturn(new PoolConfiguration.Builder()
+                .setReadYourWritesMillis(60000)
+                .build());
+        Connection conn = new Connection(configMock, bds, () -> replicaBds);
+
+        conn.executeTransactional(conn1 -> conn.executeUpdate(conn1, "UPDATE ? SET x = 1", "tablename"));
+        conn.executeQuery(null, "SELECT 1");
+
+        verify(replicaBds, never()).getConnection();
+        verify(bds, times(2)).getConnection();
+        assertEquals(1, conn.getReplicaSet().getPrimaryReads());
+    }
 }
@@ -0,0 +1,110 @@
+package org.fsg1.fmms.backend.database;
+
+import com.mockrunner.jdbc.BasicJDBCTestCaseAdapter;
+import com.mockrunner.jdbc.PreparedStatementResultSetHandler;
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockResultSet;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.fsg1.fmms.backend.app.CacheConfiguration;
+import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.app.PoolConfiguration;
+import org.fsg1.fmms.backend.app.SlowQueryConfiguration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MigratorTest extends BasicJDBCTestCaseAdapter {
+    private static final Migrator.Migration FIRST = new Migrator.Migration(1, "First", "CREATE TABLE study.a (id int)");
+
+    private static final Migrator.Migration SECOND = new Migrator.Migration(2, "Second",
+            "CREATE INDEX a_id ON study.a (id)");
+
+    @Mock
+    private Configuration configMock;
+    @Mock
+    private BasicDataSource bds;
+
+    private Migrator migrator;
+
+    @Before
+    public void setupJDBC() throws SQLException {
+        when(bds.getConnection()).thenReturn(getJDBCMockObjectFactory().getMockConnection());
+        when(configMock.getPool()).thenReturn(new PoolConfiguration.Builder().build());
+        when(configMock.getCache()).thenReturn(new CacheConfiguration.Builder().build());
+        when(configMock.getSlowQueries()).thenReturn(new SlowQueryConfiguration.Builder().build());
+        migrator = new Migrator(new Connection(configMock, bds));
+    }
+
+    @Test
+    public void testPendingMigrationsAreAppliedInOrder() throws Exception {
+        final List<Migrator.Migration> applied = migrator.migrate(Arrays.asList(SECOND, FIRST));
+
+        assertEquals(Arrays.asList(FIRST, SECOND), applied);
+        verifySQLStatementExecuted("pg_advisory_xact_lock");
+        verifySQLStatementExecuted("CREATE TABLE IF NOT EXISTS study.schema_migration");
+        verifySQLStatementExecuted("CREATE TABLE study.a (id int)");
+        verifySQLStatementExecuted("CREATE INDEX a_id ON study.a (id)");
+        final List<MockPreparedStatement> inserts = getPreparedStatements("INSERT INTO study.schema_migration");
+        assertEquals(2, inserts.size());
+        assertEquals(1, inserts.get(0).getIndexedParameterMap().get(1));
+        assertEquals(FIRST.getChecksum(), inserts.get(0).getIndexedParameterMap().get(3));
+        assertEquals(2, inserts.get(1).getIndexedParameterMap().get(1));
+        verifyCommitted();
+        verifyConnectionClosed();
+    }
+
+    @Test
+    public void testAppliedMigrationsAreSkipped() throws Exception {
+        prepareApplied(FIRST.getChecksum());
+
+        final List<Migrator.Migration> applied = migrator.migrate(Arrays.asList(FIRST, SECOND));
+
+        assertEquals(Arrays.asList(SECOND), applied);
+        verifySQLStatementNotExecuted("CREATE TABLE study.a (id int)");
+        verifySQLStatementExecuted("CREATE INDEX a_id ON study.a (id)");
+    }
+
+    @Test
+    public void testChangedMigrationIsRejected() throws Exception {
+        prepareApplied(FIRST.getChecksum() + 1);
+        try {
+            migrator.migrate(Arrays.asList(FIRST, SECOND));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            verifySQLStatementNotExecuted("CREATE INDEX a_id ON study.a (id)");
+            verifyNotCommitted();
+        }
+    }
+
+    @Test
+    public void testChecksumDependsOnStatements() {
+        assertEquals(FIRST.getChecksum(), new Migrator.Migration(1, "Other", "CREATE TABLE study.a (id int)").getChecksum());
+        Assert.assertNotEquals(FIRST.getChecksum(),
+                new Migrator.Migration(1, "First", "CREATE TABLE study.a (id bigint)").getChecksum());
+    }
+
+    /**
+     * Let the history say that the first migration was applied.
+     *
+     * @param checksum Recorded checksum of the migration.
+     */
+    private void prepareApplied(final long checksum) {
+        final PreparedStatementResultSetHandler handler = getJDBCMockObjectFactory().getMockConnection()
+                .getPreparedStatementResultSetHandler();
+        final MockResultSet resultSet = handler.createResultSet();
+        resultSet.addColumn("version", new Object[]{1});
+        resultSet.addColumn("checksum", new Object[]{checksum});
+        handler.prepareResultSet("SELECT version, checksum FROM study.schema_migration", resultSet);
+    }
+}
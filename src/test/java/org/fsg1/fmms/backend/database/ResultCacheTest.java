@@ -0,0 +1,178 @@
+package org.fsg1.fmms.backend.database;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+    private static final List<String> TAGS = Collections.singletonList("module:BUA1");
+
+    @Test
+    public void testGetAndInvalidate() {
+        final ResultCache cache = new ResultCache(4096, 0);
+        final ResultCache.Key key = new ResultCache.Key("module", "SELECT 1", "BUA1");
+        final byte[] value = {1, 2, 3};
+
+        assertNull(cache.get(key));
+        cache.put(key, value, TAGS, cache.getStamp());
+        assertArrayEquals(value, cache.get(new ResultCache.Key("module", "SELECT 1", "BUA1")));
+        assertNull(cache.get(new ResultCache.Key("module", "SELECT 1", "BUA2")));
+        assertEquals(1, cache.getSize());
+
+        cache.invalidate(Collections.singletonList("module:BUA2"));
+        assertEquals(1, cache.getSize());
+        cache.invalidate(TAGS);
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testLoadStartedBeforeInvalidationIsNotStored() {
+        final ResultCache cache = new ResultCache(4096, 0);
+        final ResultCache.Key key = new ResultCache.Key("module", "SELECT 1");
+
+        final long stamp = cache.getStamp();
+        cache.invalidate(TAGS);
+        cache.put(key, new byte[]{1}, TAGS, stamp);
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testFrequentResultIsNotEvictedByOneOffResult() {
+        final ResultCache cache = new ResultCache(1000, 0);
+        final ResultCache.Key frequent = new ResultCache.Key("module", "SELECT 1", 1);
+        for (int i = 0; i < 5; i++) {
+            cache.get(frequent);
+        }
+        cache.put(frequent, new byte[600], TAGS, cache.getStamp());
+
+        final ResultCache.Key oneOff = new ResultCache.Key("module", "SELECT 1", 2);
+        cache.get(oneOff);
+        cache.put(oneOff, new byte[600], TAGS, cache.getStamp());
+        assertNull(cache.get(oneOff));
+        assertEquals(1, cache.getRejections());
+
+        //Once it is requested more often than the cached result, it takes its place.
+        for (int i = 0; i < 10; i++) {
+            cache.get(oneOff);
+        }
+        cache.put(oneOff, new byte[600], TAGS, cache.getStamp());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getSize());
+        assertNull(cache.get(frequent));
+    }
+
+    @Test
+    public void testRejectedResultEvictsNothing() {
+        final ResultCache cache = new ResultCache(1000, 0);
+        final ResultCache.Key cold = new ResultCache.Key("module", "SELECT 1", 1);
+        final ResultCache.Key hot = new ResultCache.Key("module", "SELECT 1", 2);
+        cache.put(cold, new byte[200], TAGS, cache.getStamp());
+        for (int i = 0; i < 5; i++) {
+            cache.get(hot);
+        }
+        cache.put(hot, new byte[200], TAGS, cache.getStamp());
+
+        //The new result needs the room of both entries: it is colder than the second one, so neither is evicted.
+        final ResultCache.Key candidate = new ResultCache.Key("module", "SELECT 1", 3);
+        cache.get(candidate);
+        cache.get(candidate);
+        cache.put(candidate, new byte[500], TAGS, cache.getStamp());
+        assertEquals(1, cache.getRejections());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get(candidate));
+    }
+
+    @Test
+    public void testResultLargerThanCacheIsRejected() {
+        final ResultCache cache = new ResultCache(100, 0);
+        final ResultCache.Key key = new ResultCache.Key("module", "SELECT 1");
+        cache.put(key, new byte[200], TAGS, cache.getStamp());
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void testExpiredResultIsDropped() throws Exception {
+        final ResultCache cache = new ResultCache(4096, 1);
+        final ResultCache.Key key = new ResultCache.Key("module", "SELECT 1");
+        cache.put(key, new byte[]{1}, TAGS, cache.getStamp());
+        Thread.sleep(5);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testCompressedCopyIsKeptWithResult() {
+        final ResultCache cache = new ResultCache(4096, 0);
+        final ResultCache.Key key = new ResultCache.Key("module", "SELECT 1");
+        final byte[] value = new byte[100];
+        final AtomicInteger compressions = new AtomicInteger();
+        final UnaryOperator<byte[]> compressor = bytes -> {
+            compressions.incrementAndGet();
+            return new byte[10];
+        };
+        cache.put(key, value, TAGS, cache.getStamp());
+        final long bytes = cache.getBytes();
+
+        final byte[] compressed = cache.getCompressed(cache.get(key), compressor);
+        assertSame(compressed, cache.getCompressed(cache.get(key), compressor));
+        assertEquals(1, compressions.get());
+        assertEquals(1, cache.getCompressedHits());
+        assertEquals(bytes + 10, cache.getBytes());
+
+        //A result that is not cached, or no longer cached, is compressed every time.
+        cache.getCompressed(new byte[100], compressor);
+        cache.invalidate(TAGS);
+        assertEquals(0, cache.getBytes());
+        cache.getCompressed(value, compressor);
+        assertEquals(3, compressions.get());
+        assertEquals(1, cache.getCompressedHits());
+    }
+
+    @Test
+    public void testCompressedCopyIsAdmittedLikeAResult() {
+        final ResultCache cache = new ResultCache(1000, 0);
+        final ResultCache.Key hot = new ResultCache.Key("module", "SELECT 1", 1);
+        final ResultCache.Key cold = new ResultCache.Key("module", "SELECT 1", 2);
+        for (int i = 0; i < 5; i++) {
+            cache.get(hot);
+        }
+        cache.put(hot, new byte[300], TAGS, cache.getStamp());
+        cache.put(cold, new byte[300], TAGS, cache.getStamp());
+        final long bytes = cache.getBytes();
+        final AtomicInteger compressions = new AtomicInteger();
+        final UnaryOperator<byte[]> compressor = value -> {
+            compressions.incrementAndGet();
+            return new byte[200];
+        };
+
+        //The copy of the cold result does not fit without evicting the hot one, so it is not kept.
+        cache.getCompressed(cache.get(cold), compressor);
+        cache.getCompressed(cache.get(cold), compressor);
+        assertEquals(2, compressions.get());
+        assertEquals(bytes, cache.getBytes());
+        assertEquals(0, cache.getEvictions());
+
+        //The copy of the hot result evicts the cold one, and the cache stays within its size.
+        cache.getCompressed(cache.get(hot), compressor);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        cache.getCompressed(cache.get(hot), compressor);
+        assertEquals(3, compressions.get());
+    }
+}
@@ -0,0 +1,99 @@
+package org.fsg1.fmms.backend.database;
+
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private static final List<String> TAGS = Collections.singletonList("module:BUA1");
+
+    private static final ResultCache.Key KEY = new ResultCache.Key("module", "SELECT module", "BUA1");
+
+    @Test
+    public void testIdenticalReadsShareOneExecution() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight(true, 0, new TagVersions());
+        final CompletableFuture<byte[]> query = new CompletableFuture<>();
+        final AtomicInteger executions = new AtomicInteger();
+
+        final CompletableFuture<byte[]> first = singleFlight.execute(KEY, TAGS, () -> {
+            executions.incrementAndGet();
+            return query;
+        });
+        final CompletableFuture<byte[]> second = singleFlight.execute(KEY, TAGS, () -> {
+            executions.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(1, singleFlight.getInFlight());
+
+        //A waiter that gives up does not cancel the execution for the others.
+        first.cancel(true);
+        query.complete(new byte[]{1});
+        assertArrayEquals(new byte[]{1}, second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+        assertEquals(0, singleFlight.getInFlight());
+        assertEquals(1, singleFlight.getExecutions());
+        assertEquals(1, singleFlight.getCoalesced());
+        assertEquals(0.5, singleFlight.getCoalescingRatio(), 0.001);
+
+        singleFlight.execute(KEY, TAGS, () -> CompletableFuture.completedFuture(new byte[]{2}));
+        assertEquals(2, singleFlight.getExecutions());
+    }
+
+    @Test
+    public void testReadAfterWriteDoesNotJoin() throws Exception {
+        final TagVersions versions = new TagVersions();
+        final SingleFlight singleFlight = new SingleFlight(true, 0, versions);
+        final CompletableFuture<byte[]> before = new CompletableFuture<>();
+
+        final CompletableFuture<byte[]> first = singleFlight.execute(KEY, TAGS, () -> before);
+        versions.raise(TAGS);
+        final CompletableFuture<byte[]> second = singleFlight.execute(KEY, TAGS,
+                () -> CompletableFuture.completedFuture(new byte[]{2}));
+
+        assertArrayEquals(new byte[]{2}, second.get(1, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+        before.complete(new byte[]{1});
+        assertArrayEquals(new byte[]{1}, first.get(1, TimeUnit.SECONDS));
+        assertEquals(2, singleFlight.getExecutions());
+        assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    @Test
+    public void testWaitIsBounded() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight(true, 50, new TagVersions());
+        final CompletableFuture<byte[]> waiter = singleFlight.execute(KEY, TAGS, CompletableFuture::new);
+        try {
+            waiter.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServerBusyException);
+        }
+        assertEquals(1, singleFlight.getTimeouts());
+    }
+
+    @Test
+    public void testDisabled() {
+        final SingleFlight singleFlight = new SingleFlight(false, 0, new TagVersions());
+        final AtomicInteger executions = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            singleFlight.execute(KEY, TAGS, () -> {
+                executions.incrementAndGet();
+                return new CompletableFuture<>();
+            });
+        }
+        assertEquals(2, executions.get());
+        assertEquals(0, singleFlight.getExecutions());
+    }
+}
@@ -0,0 +1,49 @@
+package org.fsg1.fmms.backend.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SlowQueryLogTest {
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(150);
+
+    @Test
+    public void testFastQueryIsNotLogged() {
+        final SlowQueryLog log = new SlowQueryLog(100, 0, 0, 5);
+        assertNull(log.record("Test.query", "SELECT 1", new Object[0], TimeUnit.MILLISECONDS.toNanos(50)));
+        assertEquals(0, log.getCount());
+        assertEquals(0, log.getQueries().size());
+    }
+
+    @Test
+    public void testKeepsLastQueries() {
+        final SlowQueryLog log = new SlowQueryLog(100, -1, 0, 2);
+        for (int i = 0; i < 3; i++) {
+            assertNull(log.record("Test.query", "SELECT ?", new Object[]{i}, SLOW));
+        }
+        assertEquals(3, log.getCount());
+        assertEquals(2, log.getQueries().size());
+        assertEquals(Arrays.asList("1"), log.getQueries().get(0).getParameters());
+        assertEquals(Arrays.asList("2"), log.getQueries().get(1).getParameters());
+    }
+
+    @Test
+    public void testPlansAreRateLimited() {
+        final SlowQueryLog log = new SlowQueryLog(100, 60000, 0, 5);
+        assertNotNull(log.record("Test.query", "SELECT 1", new Object[0], SLOW));
+        assertNull(log.record("Test.query", "SELECT 1", new Object[0], SLOW));
+        assertEquals(2, log.getQueries().size());
+    }
+
+    @Test
+    public void testDisabled() {
+        final SlowQueryLog log = new SlowQueryLog(0, 0, 0, 5);
+        assertNull(log.record("Test.query", "SELECT 1", new Object[0], SLOW));
+        assertEquals(0, log.getCount());
+    }
+}
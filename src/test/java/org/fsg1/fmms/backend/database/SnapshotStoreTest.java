@@ -0,0 +1,102 @@
+package org.fsg1.fmms.backend.database;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStoreTest {
+    private static final List<String> TAGS = Collections.singletonList("module:BUA1");
+
+    private static final int MIB = 1024 * 1024;
+
+    @Test
+    public void testPutGetAndRemove() throws Exception {
+        final TagVersions versions = new TagVersions();
+        final SnapshotStore store = new SnapshotStore(8 * MIB, versions);
+        final byte[] value = "{\"code\":\"BUA1\"}".getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = {1, 2, 3};
+
+        assertNull(store.get("curriculum/1/module/BUA1"));
+        assertTrue(store.put("curriculum/1/module/BUA1", TAGS, versions.get(TAGS), value, compressed));
+        final SnapshotStore.Snapshot snapshot = store.get("curriculum/1/module/BUA1");
+        assertEquals(versions.get(TAGS), snapshot.getVersion());
+        assertTrue(snapshot.isCompressed());
+        assertArrayEquals(value, write(snapshot, false));
+        assertArrayEquals(value, write(snapshot, false));
+        assertArrayEquals(compressed, write(snapshot, true));
+        assertEquals(value.length + compressed.length, store.getBytes());
+
+        store.remove(Collections.singletonList("module:BUA2"));
+        assertEquals(1, store.getSize());
+        assertEquals(Collections.singleton("curriculum/1/module/BUA1"), store.remove(TAGS));
+        assertNull(store.get("curriculum/1/module/BUA1"));
+        assertEquals(0, store.getBytes());
+        assertEquals(1, store.getHits());
+        assertEquals(2, store.getMisses());
+    }
+
+    @Test
+    public void testRenderStartedBeforeRaiseIsNotStored() {
+        final TagVersions versions = new TagVersions();
+        final SnapshotStore store = new SnapshotStore(8 * MIB, versions);
+
+        final String version = versions.get(TAGS);
+        versions.raise(TAGS);
+        assertFalse(store.put("curriculum/1/module/BUA1", TAGS, version, new byte[]{1}, null));
+        assertEquals(0, store.getSize());
+    }
+
+    @Test
+    public void testDisabled() {
+        final TagVersions versions = new TagVersions();
+        final SnapshotStore store = new SnapshotStore(0, versions);
+        assertFalse(store.isEnabled());
+        assertFalse(store.put("curricula", TAGS, versions.get(TAGS), new byte[]{1}, null));
+    }
+
+    @Test
+    public void testReplacedSnapshotsAreCompacted() throws Exception {
+        final TagVersions versions = new TagVersions();
+        final SnapshotStore store = new SnapshotStore(8 * MIB, versions);
+        final List<String> other = Collections.singletonList("curricula");
+        assertTrue(store.put("curricula", other, versions.get(other), new byte[]{7}, null));
+
+        for (int i = 1; i <= 3; i++) {
+            final byte[] value = new byte[3 * MIB];
+            Arrays.fill(value, (byte) i);
+            assertTrue(store.put("curriculum/1/module/BUA1", TAGS, versions.get(TAGS), value, null));
+        }
+        assertEquals(1, store.getCompactions());
+        assertEquals(8 * MIB, store.getAllocatedBytes());
+        assertEquals(3 * MIB + 1, store.getBytes());
+        assertEquals(3, write(store.get("curriculum/1/module/BUA1"), false)[MIB]);
+        assertArrayEquals(new byte[]{7}, write(store.get("curricula"), false));
+
+        assertFalse(store.put("curriculum/1/module/BUA2", TAGS, versions.get(TAGS), new byte[9 * MIB], null));
+        assertEquals(1, store.getRejections());
+
+        store.removeAll();
+        assertEquals(0, store.getSize());
+        assertEquals(0, store.getAllocatedBytes());
+    }
+
+    private static byte[] write(final SnapshotStore.Snapshot snapshot, final boolean compressed) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (compressed) {
+            snapshot.writeCompressed(out);
+        } else {
+            snapshot.write(out);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,31 @@
+package org.fsg1.fmms.backend.database;
+
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class StatementCacheTest {
+
+    @Test
+    public void testBind() throws Exception {
+        final StatementCache.StatementPlan plan = new StatementCache()
+                .planFor("UPDATE study.module SET version = version + 1 WHERE id = ? AND version = ?");
+        final PreparedStatement ps = mock(PreparedStatement.class);
+
+        plan.bind(ps, 12, 3L, "ignored");
+        verify(ps).setInt(1, 12);
+        verify(ps).setLong(2, 3L);
+        verifyNoMoreInteractions(ps);
+    }
+
+    @Test(expected = SQLException.class)
+    public void testBindUnsupportedType() throws Exception {
+        final StatementCache.StatementPlan plan = new StatementCache().planFor("SELECT ?");
+        plan.bind(mock(PreparedStatement.class), new Object());
+    }
+}
@@ -0,0 +1,38 @@
+package org.fsg1.fmms.backend.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TagVersionsTest {
+    private static final List<String> SEMESTERS = Arrays.asList("curriculum:1", "modules");
+
+    @Test
+    public void testVersionChangesWithItsTags() {
+        final TagVersions versions = new TagVersions();
+        final String version = versions.get(SEMESTERS);
+        assertEquals(version, versions.get(SEMESTERS));
+
+        versions.raise(Collections.singletonList("curriculum:2"));
+        assertEquals(version, versions.get(SEMESTERS));
+
+        versions.raise(Collections.singletonList("modules"));
+        final String raised = versions.get(SEMESTERS);
+        assertNotEquals(version, raised);
+
+        versions.raiseAll();
+        assertNotEquals(raised, versions.get(SEMESTERS));
+    }
+
+    @Test
+    public void testVersionsDifferBetweenRestarts() throws Exception {
+        final TagVersions before = new TagVersions();
+        Thread.sleep(5);
+        assertNotEquals(before.get(SEMESTERS), new TagVersions().get(SEMESTERS));
+    }
+}
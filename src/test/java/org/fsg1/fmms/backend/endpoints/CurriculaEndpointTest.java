@@ -7,10 +7,14 @@ import io.restassured.filter.log.RequestLoggingFilter;
 import io.restassured.filter.log.ResponseLoggingFilter;
 import io.restassured.http.ContentType;
 import io.restassured.specification.RequestSpecification;
+import org.fsg1.fmms.backend.database.SnapshotStore;
 import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.exceptions.ServerBusyException;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.CurriculaService;
 import org.fsg1.fmms.backend.services.Service;
+import org.fsg1.fmms.backend.services.SnapshotService;
 import org.glassfish.jersey.internal.inject.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.test.JerseyTest;
@@ -22,11 +26,17 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -63,22 +73,79 @@ public class CurriculaEndpointTest extends JerseyTest {
 
     @Test
     public void testGetCurricula() throws Exception {
+        final String query = service.getQueryCurriculaString();
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/curricula.json")));
 
-        when(service.get(eq(service.getQueryCurriculaString()), eq("curricula")))
-                .thenReturn(node);
+        when(service.getCachedAsync(eq(Collections.singletonList(CacheTags.CURRICULA)), eq(query), eq("curricula")))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("curricula")
                 .then()
                 .statusCode(200)
-                .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(service.getQueryCurriculaString(), "curricula");
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .body(equalTo(node.toString()));
+        verify(service, times(2)).getCachedAsync(Collections.singletonList(CacheTags.CURRICULA), service.getQueryCurriculaString(), "curricula");
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        when(service.getVersion(Collections.singletonList(CacheTags.CURRICULA))).thenReturn("v1-0-3");
+        given()
+                .spec(spec)
+                .header("If-None-Match", "W/\"v1-0-3\"")
+                .get("curricula")
+                .then()
+                .statusCode(304)
+                .header("ETag", "W/\"v1-0-3\"")
+                .header("Cache-Control", "max-age=60");
+        verify(service, never()).getCachedAsync(any(), any(), any());
+    }
+
+    @Test
+    public void testGetSnapshot() throws Exception {
+        final SnapshotStore.Snapshot snapshot = mock(SnapshotStore.Snapshot.class);
+        when(snapshot.getVersion()).thenReturn("v1-0-5");
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write("[]".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(snapshot).write(any());
+        when(service.getSnapshot(SnapshotService.CURRICULA)).thenReturn(snapshot);
+        given()
+                .spec(spec)
+                .get("curricula")
+                .then()
+                .statusCode(200)
+                .header("ETag", "W/\"v1-0-5\"")
+                .header("Cache-Control", "max-age=60")
+                .body(equalTo("[]"));
+        given()
+                .spec(spec)
+                .header("If-None-Match", "W/\"v1-0-5\"")
+                .get("curricula")
+                .then()
+                .statusCode(304);
+        verify(service, never()).getCachedAsync(any(), any(), any());
+    }
+
+    @Test
+    public void testModified() throws Exception {
+        when(service.getVersion(Collections.singletonList(CacheTags.CURRICULA))).thenReturn("v1-0-4");
+        when(service.getCachedAsync(Collections.singletonList(CacheTags.CURRICULA), service.getQueryCurriculaString(), "curricula"))
+                .thenReturn(CompletableFuture.completedFuture("[]".getBytes(StandardCharsets.UTF_8)));
+        given()
+                .spec(spec)
+                .header("If-None-Match", "W/\"v1-0-3\"")
+                .get("curricula")
+                .then()
+                .statusCode(200)
+                .header("ETag", "W/\"v1-0-4\"")
+                .body(equalTo("[]"));
     }
 
     @Test
     public void testGetEmptySemester() throws Exception {
-        when(service.get(service.getQueryCurriculaString(), "curricula"))
+        when(service.getCachedAsync(Collections.singletonList(CacheTags.CURRICULA), service.getQueryCurriculaString(), "curricula"))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -89,6 +156,45 @@ public class CurriculaEndpointTest extends JerseyTest {
         verify(service, times(2)).getQueryCurriculaString();
     }
 
+    @Test
+    public void testGetFailedAsync() {
+        CompletableFuture<byte[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new CompletionException(new EntityNotFoundException()));
+        when(service.getCachedAsync(Collections.singletonList(CacheTags.CURRICULA), service.getQueryCurriculaString(), "curricula")).thenReturn(failed);
+
+        given()
+                .spec(spec)
+                .get("curricula")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    public void testServerBusy() {
+        CompletableFuture<byte[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new ServerBusyException("Busy"));
+        when(service.getCachedAsync(Collections.singletonList(CacheTags.CURRICULA), service.getQueryCurriculaString(), "curricula")).thenReturn(failed);
+
+        given()
+                .spec(spec)
+                .get("curricula")
+                .then()
+                .statusCode(503);
+    }
+
+    @Test
+    public void testAsyncTimeout() {
+        CompletableFuture<byte[]> pending = new CompletableFuture<>();
+        when(service.getAsyncTimeoutMillis()).thenReturn(50L);
+        when(service.getCachedAsync(Collections.singletonList(CacheTags.CURRICULA), service.getQueryCurriculaString(), "curricula")).thenReturn(pending);
+
+        given()
+                .spec(spec)
+                .get("curricula")
+                .then()
+                .statusCode(503);
+    }
+
     @Test
     public void testExpectServerError() throws IOException, SQLException, EntityNotFoundException {
         given()
@@ -9,6 +9,7 @@ import io.restassured.http.ContentType;
 import io.restassured.specification.RequestSpecification;
 import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.LayerActivityService;
 import org.fsg1.fmms.backend.services.Service;
 import org.glassfish.jersey.internal.inject.AbstractBinder;
@@ -23,6 +24,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 import javax.ws.rs.core.MediaType;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import static io.restassured.RestAssured.given;
 import static org.mockito.ArgumentMatchers.eq;
@@ -70,22 +73,24 @@ public class LayerActivityEndpointTest extends JerseyTest {
 
     @Test
     public void testGetQualificationsOverview() throws Exception {
+        final String query = service.getQueryQualificationsOverview();
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/qualificationsOverview.json")));
 
-        when(service.get(eq(service.getQueryQualificationsOverview()), eq("qualifications_overview"), eq(1), eq(1), eq(1)))
-                .thenReturn(node);
+        when(service.getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("qualifications_overview"), eq(1), eq(1), eq(1)))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("curriculum/1/architecturallayer/1/activity/1")
                 .then()
                 .statusCode(200)
                 .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(service.getQueryQualificationsOverview(), "qualifications_overview", 1, 1, 1);
+        verify(service, times(2)).getCachedAsync(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES), service.getQueryQualificationsOverview(), "qualifications_overview", 1, 1, 1);
     }
 
     @Test
     public void testGetNoQualificationsOverview() throws Exception {
-        when(service.get(eq(service.getQueryQualificationsOverview()), eq("qualifications_overview"), eq(1), eq(1), eq(1)))
+        final String query = service.getQueryQualificationsOverview();
+        when(service.getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("qualifications_overview"), eq(1), eq(1), eq(1)))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -93,6 +98,6 @@ public class LayerActivityEndpointTest extends JerseyTest {
                 .get("curriculum/1/architecturallayer/1/activity/1")
                 .then()
                 .statusCode(404);
-        verify(service, times(2)).get(eq(service.getQueryQualificationsOverview()), eq("qualifications_overview"), eq(1), eq(1), eq(1));
+        verify(service, times(1)).getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("qualifications_overview"), eq(1), eq(1), eq(1));
     }
 }
@@ -9,10 +9,11 @@ import io.restassured.http.ContentType;
 import io.restassured.specification.RequestSpecification;
 import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.exceptions.PreconditionFailedException;
 import org.fsg1.fmms.backend.filters.POSTRequestFilter;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.ModulesService;
 import org.fsg1.fmms.backend.services.Service;
-import org.fsg1.fmms.backend.services.TransactionRunner;
 import org.glassfish.jersey.internal.inject.AbstractBinder;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -21,16 +22,19 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.ws.rs.core.MediaType;
 import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.sql.Connection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -40,8 +44,6 @@ public class ModuleEndpointsTest extends JerseyTest {
     private ObjectMapper mapper = new ObjectMapper();
     @Mock
     private ModulesService service;
-    @Mock
-    private Connection connection;
 
     @BeforeClass
     public static void initSpec() {
@@ -57,6 +59,7 @@ public class ModuleEndpointsTest extends JerseyTest {
         return new ResourceConfig()
                 .register(EditableModuleEndpoint.class)
                 .register(ReadableModuleEndpoint.class)
+                .register(ModuleExportEndpoint.class)
                 .register(new AbstractBinder() {
                     @Override
                     protected void configure() {
@@ -85,7 +88,7 @@ public class ModuleEndpointsTest extends JerseyTest {
 
     @Test
     public void testGetNoModule() throws Exception {
-        when(service.get(eq(service.getQueryModuleInformation()), eq("module"), eq("BUA1"), eq(1)))
+        when(service.getModuleDocumentAsync("BUA1", 1))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -93,27 +96,40 @@ public class ModuleEndpointsTest extends JerseyTest {
                 .get("curriculum/1/module/BUA1")
                 .then()
                 .statusCode(404);
-        verify(service, times(2)).get(eq(service.getQueryModuleInformation()), eq("module"), eq(1), eq("BUA1"));
+        verify(service, times(1)).getModuleDocumentAsync("BUA1", 1);
     }
 
     @Test
     public void testGetModule() throws Exception {
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/module.json")));
 
-        when(service.get(eq(service.getQueryModuleInformation()), eq("module"), eq("BUA1"), eq(1)))
-                .thenReturn(node);
+        when(service.getModuleDocumentAsync("BUA1", 1))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("curriculum/1/module/BUA1")
                 .then()
                 .statusCode(200)
                 .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(eq(service.getQueryModuleInformation()), eq("module"), eq(1), eq("BUA1"));
+        verify(service, times(1)).getModuleDocumentAsync("BUA1", 1);
+    }
+
+    @Test
+    public void testGetModuleNotModified() throws Exception {
+        when(service.getVersion(Collections.singletonList(CacheTags.module("BUA1")))).thenReturn("v1-0-2");
+        given()
+                .spec(spec)
+                .header("If-None-Match", "W/\"v1-0-2\"")
+                .get("curriculum/1/module/BUA1")
+                .then()
+                .statusCode(304)
+                .header("Cache-Control", "no-cache");
+        verify(service, never()).getModuleDocumentAsync(any(), anyInt());
     }
 
     @Test
     public void testGetEditableModule() throws Exception {
-        when(service.get(eq(service.getQueryEditableModule()), eq("module"), eq("BUA1")))
+        when(service.getEditableModuleDocumentAsync("BUA1"))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -121,22 +137,79 @@ public class ModuleEndpointsTest extends JerseyTest {
                 .get("module/BUA1")
                 .then()
                 .statusCode(404);
-        verify(service, times(2)).get(eq(service.getQueryEditableModule()), eq("module"), eq("BUA1"));
+        verify(service, times(1)).getEditableModuleDocumentAsync("BUA1");
     }
 
     @Test
     public void testGetNoEditableModule() throws Exception {
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleOutput.json")));
 
-        when(service.get(eq(service.getQueryEditableModule()), eq("module"), eq("BUA1")))
-                .thenReturn(node);
+        when(service.getEditableModuleDocumentAsync("BUA1"))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("module/BUA1")
                 .then()
                 .statusCode(200)
                 .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(eq(service.getQueryEditableModule()), eq("module"), eq("BUA1"));
+        verify(service, times(1)).getEditableModuleDocumentAsync("BUA1");
+    }
+
+    @Test
+    public void testGetEditableModuleETag() throws Exception {
+        when(service.getEditableModuleDocumentAsync("BUA1")).thenReturn(CompletableFuture.completedFuture(
+                "{\"id\":1,\"lecturers\":[{\"id\":2}],\"version\":7}".getBytes(StandardCharsets.UTF_8)));
+        given()
+                .spec(spec)
+                .get("module/BUA1")
+                .then()
+                .statusCode(200)
+                .header("ETag", "\"7\"")
+                .header("Cache-Control", "no-cache");
+    }
+
+    @Test
+    public void testPostModuleIfMatch() throws Exception {
+        JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleInput.json")));
+        given()
+                .spec(spec)
+                .contentType(ContentType.JSON)
+                .header("If-Match", "\"7\"")
+                .body(node)
+                .post("module/9")
+                .then()
+                .statusCode(204)
+                .header("ETag", "\"8\"");
+
+        verify(service, times(1)).saveModule(node, 7L);
+        verify(service, never()).saveModule(node);
+    }
+
+    @Test
+    public void testPostModuleStale() throws Exception {
+        JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleInput.json")));
+        when(service.saveModule(node, 6L)).thenThrow(new PreconditionFailedException());
+        given()
+                .spec(spec)
+                .contentType(ContentType.JSON)
+                .header("If-Match", "\"6\"")
+                .body(node)
+                .post("module/9")
+                .then()
+                .statusCode(412);
+    }
+
+    @Test
+    public void testPostModuleIfMatchWeakTag() throws Exception {
+        given()
+                .spec(spec)
+                .contentType(ContentType.JSON)
+                .header("If-Match", "W/\"7\"")
+                .body("{}")
+                .post("module/9")
+                .then()
+                .statusCode(412);
+        verify(service, never()).saveModule(any(), anyLong());
     }
 
     @Test
@@ -147,11 +220,12 @@ public class ModuleEndpointsTest extends JerseyTest {
                 .post("module/BUA1")
                 .then()
                 .statusCode(400);
-        verify(service, times(0)).update(any(), anyString(), any(), any(), any());
+        verify(service, times(0)).saveModule(any());
     }
 
     @Test
     public void testPostServerError() throws Exception {
+        when(service.saveModule(any())).thenCallRealMethod();
         given()
                 .spec(spec)
                 .contentType(ContentType.JSON)
@@ -159,17 +233,11 @@ public class ModuleEndpointsTest extends JerseyTest {
                 .post("module/2")
                 .then()
                 .statusCode(500);
-        verify(service, times(0)).update(any(), any(), any());
+        verify(service, times(0)).executeTransactional(any());
     }
 
     @Test
     public void testPostModule() throws Exception {
-        when(service.getUpdateModuleInformationStatements()).thenCallRealMethod();
-        Mockito.doAnswer(invocation -> {
-            final TransactionRunner argument = invocation.getArgument(0);
-            argument.run(connection);
-            return 0;
-        }).when(service).executeTransactional(any());
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleInput.json")));
         given()
                 .spec(spec)
@@ -179,32 +247,36 @@ public class ModuleEndpointsTest extends JerseyTest {
                 .then()
                 .statusCode(204);
 
-        final String[] statements = service.getUpdateModuleInformationStatements();
-
-        verify(service, times(1)).executeTransactional(any(TransactionRunner.class));
-        verify(service, times(24)).update(any(Connection.class), any(), any());
-        verify(service, times(1)).update(any(Connection.class), eq(statements[0]), eq("JOS"), eq("Java on steroids"), eq(4), eq(1), eq(4), eq(true), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[1]), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[2]), eq(9), eq("Do some stuff"));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[2]), eq(9), eq("And other stuff too"));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[3]), eq("Hello"), eq("This course is impossible"), eq(""), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[4]), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[5]), eq(9), eq("BOOK"), eq("This book"));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[6]), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[7]), eq(9), eq(1));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[7]), eq(9), eq(2));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[8]), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[9]), eq(9), eq(4), eq("CONCURRENT"), eq("ya boi"));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[9]), eq(9), eq(7), eq("PRIOR"), eq("kom igen nu va fan"));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[10]), eq(9));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[11]), eq(9), eq("apply concepts of LG1 in a business game and company visit and analyse, advice, design and implement a strategy in the business game."), eq(0.4d), eq(false));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[11]), eq(9), eq("explain major concepts: difference between enterprises, businesses and organisation, primary and secondary processes of a business, organisational structures and Information systems and relations of an organisation and its environment."), eq(1.0d), eq(true));
-        verify(service, times(2)).update(any(Connection.class), eq(statements[12]), eq(0), eq(1), eq(1), eq(1));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[12]), eq(0), eq(1), eq(3), eq(1));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[12]), eq(0), eq(1), eq(4), eq(1));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[12]), eq(0), eq(1), eq(2), eq(1));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[13]), eq((9)));
-        verify(service, times(1)).update(any(Connection.class), eq(statements[14]), eq("BUKI"), eq(1.0d), eq(5.5d), eq(""), eq(9), eq("BLablablabla"));
+        verify(service, times(1)).saveModule(node);
+    }
+
+    @Test
+    public void testRebuildModuleDocuments() throws Exception {
+        when(service.rebuildAllDocuments()).thenReturn(12);
+        given()
+                .spec(spec)
+                .put("modules/documents")
+                .then()
+                .statusCode(200)
+                .body("documents", equalTo(12));
+        verify(service, times(1)).rebuildAllDocuments();
+    }
+
+    @Test
+    public void testExportModules() throws Exception {
+        when(service.exportModules(eq(1), any(OutputStream.class))).thenAnswer(invocation -> {
+            final OutputStream out = invocation.getArgument(1);
+            out.write("{\"code\":\"BUA1\"}\n{\"code\":\"JOS\"}\n".getBytes(StandardCharsets.UTF_8));
+            return 2L;
+        });
+        given()
+                .spec(spec)
+                .get("curriculum/1/modules")
+                .then()
+                .statusCode(200)
+                .contentType("application/x-ndjson")
+                .body(equalTo("{\"code\":\"BUA1\"}\n{\"code\":\"JOS\"}\n"));
+        verify(service, times(1)).exportModules(eq(1), any(OutputStream.class));
     }
 
 //    @Test
@@ -0,0 +1,103 @@
+package org.fsg1.fmms.backend.endpoints;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.filter.log.RequestLoggingFilter;
+import io.restassured.filter.log.ResponseLoggingFilter;
+import io.restassured.specification.RequestSpecification;
+import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
+import org.fsg1.fmms.backend.filters.POSTRequestFilter;
+import org.fsg1.fmms.backend.services.ImportService;
+import org.fsg1.fmms.backend.services.Service;
+import org.glassfish.jersey.internal.inject.AbstractBinder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ModuleImportEndpointTest extends JerseyTest {
+    private static final String BODY = "{\"code\": \"JOS\", \"name\": \"Java on steroids\", \"credits\": 4}\n" +
+            "{\"code\": \"WEB\", \"name\": \"Web\", \"credits\": 3}\n";
+
+    private static RequestSpecification spec;
+
+    @Mock
+    private ImportService service;
+
+    @BeforeClass
+    public static void initSpec() {
+        spec = new RequestSpecBuilder()
+                .setContentType(ModuleImportEndpoint.NDJSON)
+                .setBaseUri("http://localhost:9998/")
+                .addFilter(new ResponseLoggingFilter())
+                .addFilter(new RequestLoggingFilter())
+                .build();
+    }
+
+    @Override
+    public ResourceConfig configure() {
+        return new ResourceConfig()
+                .register(ModuleImportEndpoint.class)
+                .register(POSTRequestFilter.class)
+                .register(new AbstractBinder() {
+                    @Override
+                    protected void configure() {
+                        bind(service).to(Service.class);
+                    }
+                })
+                .register(AppExceptionMapper.class);
+    }
+
+    @Test
+    public void testImportModules() throws Exception {
+        final ObjectNode report = JsonNodeFactory.instance.objectNode();
+        report.put("received", 2);
+        report.put("imported", 2);
+        when(service.importModules(eq(1), any(InputStream.class))).thenAnswer(invocation -> {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(invocation.getArgument(1),
+                    StandardCharsets.UTF_8));
+            assertEquals(BODY, reader.lines().collect(Collectors.joining("\n", "", "\n")));
+            return report;
+        });
+
+        given()
+                .spec(spec)
+                .body(new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8)))
+                .post("curriculum/1/modules/import")
+                .then()
+                .statusCode(200)
+                .body("imported", equalTo(2));
+        verify(service, times(1)).importModules(eq(1), any(InputStream.class));
+    }
+
+    @Test
+    public void testImportModulesRequiresNdjson() throws Exception {
+        given()
+                .spec(spec)
+                .contentType("text/plain")
+                .body(BODY)
+                .post("curriculum/1/modules/import")
+                .then()
+                .statusCode(415);
+        verify(service, never()).importModules(anyInt(), any(InputStream.class));
+    }
+}
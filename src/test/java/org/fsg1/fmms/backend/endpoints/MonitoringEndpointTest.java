@@ -0,0 +1,164 @@
+package org.fsg1.fmms.backend.endpoints;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.filter.log.RequestLoggingFilter;
+import io.restassured.filter.log.ResponseLoggingFilter;
+import io.restassured.http.ContentType;
+import io.restassured.specification.RequestSpecification;
+import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
+import org.fsg1.fmms.backend.services.MonitoringService;
+import org.fsg1.fmms.backend.services.Service;
+import org.glassfish.jersey.internal.inject.AbstractBinder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.ws.rs.core.MediaType;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MonitoringEndpointTest extends JerseyTest {
+    private static RequestSpecification spec;
+
+    @Mock
+    private MonitoringService service;
+
+    @BeforeClass
+    public static void initSpec() {
+        spec = new RequestSpecBuilder()
+                .setContentType(ContentType.JSON)
+                .setBaseUri("http://localhost:9998/")
+                .addFilter(new ResponseLoggingFilter())
+                .addFilter(new RequestLoggingFilter())
+                .build();
+    }
+
+    @Override
+    public ResourceConfig configure() {
+        return new ResourceConfig()
+                .register(MonitoringEndpoint.class)
+                .register(HealthEndpoint.class)
+                .register(new AbstractBinder() {
+                    @Override
+                    protected void configure() {
+                        bind(service).to(Service.class);
+                    }
+                })
+                .register(AppExceptionMapper.class);
+    }
+
+    @Test
+    public void testGetPoolStatus() {
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("active", 3);
+        when(service.getPoolStatus()).thenReturn(status);
+
+        given()
+                .spec(spec)
+                .get("monitoring/pool")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .body("active", equalTo(3));
+        verify(service, times(1)).getPoolStatus();
+    }
+
+    @Test
+    public void testGetCacheStatus() {
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("hit_ratio", 0.5);
+        when(service.getCacheStatus()).thenReturn(status);
+
+        given()
+                .spec(spec)
+                .get("monitoring/cache")
+                .then()
+                .statusCode(200)
+                .body("hit_ratio", equalTo(0.5f));
+        verify(service, times(1)).getCacheStatus();
+    }
+
+    @Test
+    public void testGetHealthWhileStarting() {
+        final ObjectNode health = JsonNodeFactory.instance.objectNode();
+        health.put("status", "starting");
+        when(service.getHealth()).thenReturn(health);
+        when(service.isReady()).thenReturn(false);
+
+        given()
+                .spec(spec)
+                .get("health")
+                .then()
+                .statusCode(503)
+                .body("status", equalTo("starting"));
+    }
+
+    @Test
+    public void testGetHealthWhenReady() {
+        final ObjectNode health = JsonNodeFactory.instance.objectNode();
+        health.put("status", "ready");
+        when(service.getHealth()).thenReturn(health);
+        when(service.isReady()).thenReturn(true);
+
+        given()
+                .spec(spec)
+                .get("health")
+                .then()
+                .statusCode(200)
+                .body("status", equalTo("ready"));
+    }
+
+    @Test
+    public void testGetSlowQueries() {
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("count", 4);
+        when(service.getSlowQueries()).thenReturn(status);
+
+        given()
+                .spec(spec)
+                .get("monitoring/slow-queries")
+                .then()
+                .statusCode(200)
+                .body("count", equalTo(4));
+        verify(service, times(1)).getSlowQueries();
+    }
+
+    @Test
+    public void testGetPrometheusMetrics() {
+        when(service.getPrometheusMetrics()).thenReturn("fmms_pool_active_connections 3\n");
+
+        given()
+                .spec(spec)
+                .get("monitoring/metrics")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", containsString("text/plain"))
+                .body(equalTo("fmms_pool_active_connections 3\n"));
+        verify(service, times(1)).getPrometheusMetrics();
+    }
+
+    @Test
+    public void testGetModuleSaveStatus() {
+        final ObjectNode status = JsonNodeFactory.instance.objectNode();
+        status.put("saves", 2);
+        when(service.getModuleSaveStatus()).thenReturn(status);
+
+        given()
+                .spec(spec)
+                .get("monitoring/saves")
+                .then()
+                .statusCode(200)
+                .body("saves", equalTo(2));
+        verify(service, times(1)).getModuleSaveStatus();
+    }
+}
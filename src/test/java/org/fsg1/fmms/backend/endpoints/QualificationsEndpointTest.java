@@ -9,6 +9,7 @@ import io.restassured.http.ContentType;
 import io.restassured.specification.RequestSpecification;
 import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.QualificationsService;
 import org.fsg1.fmms.backend.services.Service;
 import org.glassfish.jersey.internal.inject.AbstractBinder;
@@ -23,6 +24,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 import javax.ws.rs.core.MediaType;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import static io.restassured.RestAssured.given;
 import static org.mockito.ArgumentMatchers.eq;
@@ -61,22 +64,24 @@ public class QualificationsEndpointTest extends JerseyTest {
 
     @Test
     public void testGetQualifications() throws Exception {
+        final String query = service.getQualificationsQuery();
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/qualifications.json")));
 
-        when(service.get(eq(service.getQualificationsQuery()), eq("qualifications")))
-                .thenReturn(node);
+        when(service.getCachedAsync(eq(Collections.singletonList(CacheTags.QUALIFICATIONS)), eq(query), eq("qualifications")))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("qualifications")
                 .then()
                 .statusCode(200)
                 .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(eq(service.getQualificationsQuery()), eq("qualifications"));
+        verify(service, times(1)).getCachedAsync(eq(Collections.singletonList(CacheTags.QUALIFICATIONS)), eq(query), eq("qualifications"));
     }
 
     @Test
     public void testGetNoQualifications() throws Exception {
-        when(service.get(eq(service.getQualificationsQuery()), eq("qualifications")))
+        final String query = service.getQualificationsQuery();
+        when(service.getCachedAsync(eq(Collections.singletonList(CacheTags.QUALIFICATIONS)), eq(query), eq("qualifications")))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -84,7 +89,7 @@ public class QualificationsEndpointTest extends JerseyTest {
                 .get("qualifications")
                 .then()
                 .statusCode(404);
-        verify(service, times(2)).get(eq(service.getQualificationsQuery()), eq("qualifications"));
+        verify(service, times(1)).getCachedAsync(eq(Collections.singletonList(CacheTags.QUALIFICATIONS)), eq(query), eq("qualifications"));
 
     }
 
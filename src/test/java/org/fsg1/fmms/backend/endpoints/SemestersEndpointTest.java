@@ -9,6 +9,7 @@ import io.restassured.http.ContentType;
 import io.restassured.specification.RequestSpecification;
 import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.services.CacheTags;
 import org.fsg1.fmms.backend.services.SemestersService;
 import org.fsg1.fmms.backend.services.Service;
 import org.glassfish.jersey.internal.inject.AbstractBinder;
@@ -23,6 +24,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 import javax.ws.rs.core.MediaType;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import static io.restassured.RestAssured.given;
 import static org.mockito.ArgumentMatchers.eq;
@@ -61,22 +64,24 @@ public class SemestersEndpointTest extends JerseyTest {
 
     @Test
     public void testGetSemesters() throws Exception {
+        final String query = service.getQueryCurriculumSemestersString();
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/semesterMultipleModules.json")));
 
-        when(service.get(eq(service.getQueryCurriculumSemestersString()), eq("semesters"), eq(1)))
-                .thenReturn(node);
+        when(service.getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("semesters"), eq(1)))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("curriculum/1/semesters")
                 .then()
                 .statusCode(200)
                 .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(eq(service.getQueryCurriculumSemestersString()), eq("semesters"), eq(1));
+        verify(service, times(1)).getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("semesters"), eq(1));
     }
 
     @Test
     public void testGetEmptySemester() throws Exception {
-        when(service.get(eq(service.getQueryCurriculumSemestersString()), eq("semesters"), eq(5)))
+        final String query = service.getQueryCurriculumSemestersString();
+        when(service.getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(5), CacheTags.MODULES)), eq(query), eq("semesters"), eq(5)))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -84,7 +89,7 @@ public class SemestersEndpointTest extends JerseyTest {
                 .get("curriculum/5/semesters")
                 .then()
                 .statusCode(404);
-        verify(service, times(2)).get(eq(service.getQueryCurriculumSemestersString()), eq("semesters"), eq(5));
+        verify(service, times(1)).getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(5), CacheTags.MODULES)), eq(query), eq("semesters"), eq(5));
     }
 
     @Test
@@ -104,22 +109,24 @@ public class SemestersEndpointTest extends JerseyTest {
 
     @Test
     public void testGetCompleteSemester() throws Exception {
+        final String query = service.getQueryCompleteSemester();
         JsonNode node = mapper.readTree(Files.readAllBytes(Paths.get("src/test/resources/json/completeSemester.json")));
 
-        when(service.get(eq(service.getQueryCompleteSemester()), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1)))
-                .thenReturn(node);
+        when(service.getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1)))
+                .thenReturn(CompletableFuture.completedFuture(mapper.writeValueAsBytes(node)));
         given()
                 .spec(spec)
                 .get("curriculum/1/semester/1")
                 .then()
                 .statusCode(200)
                 .header("Content-Type", MediaType.APPLICATION_JSON);
-        verify(service, times(2)).get(eq(service.getQueryCompleteSemester()), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1));
+        verify(service, times(1)).getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1));
     }
 
     @Test
     public void testGetNoSemester() throws Exception {
-        when(service.get(eq(service.getQueryCompleteSemester()), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1)))
+        final String query = service.getQueryCompleteSemester();
+        when(service.getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1)))
                 .thenThrow(new EntityNotFoundException());
 
         given()
@@ -127,6 +134,6 @@ public class SemestersEndpointTest extends JerseyTest {
                 .get("curriculum/1/semester/1")
                 .then()
                 .statusCode(404);
-        verify(service, times(2)).get(eq(service.getQueryCompleteSemester()), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1));
+        verify(service, times(1)).getCachedAsync(eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq(query), eq("complete_semester"), eq(1), eq(1), eq(1), eq(1));
     }
 }
@@ -23,6 +23,8 @@ public class CORSResponseFilterTest extends JerseyTest {
                 .then()
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT, OPTIONS")
-                .header("Access-Control-Allow-Headers", "X-Requested-With, Content-Type, Authorization");
+                .header("Access-Control-Allow-Headers", "X-Requested-With, Content-Type, Authorization, X-Request-Timeout-Ms"
+                        + ", If-Match, If-None-Match")
+                .header("Access-Control-Expose-Headers", "ETag");
     }
 }
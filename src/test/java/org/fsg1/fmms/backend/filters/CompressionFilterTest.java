@@ -0,0 +1,194 @@
+package org.fsg1.fmms.backend.filters;
+
+import org.fsg1.fmms.backend.app.CompressionConfiguration;
+import org.fsg1.fmms.backend.database.ResultCache;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.util.Gzip;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompressionFilterTest extends JerseyTest {
+
+    private static final byte[] LARGE = json(2048);
+
+    private static final byte[] SMALL = json(100);
+
+    /**
+     * Assigned in configure, which JerseyTest calls from its constructor.
+     */
+    private ResultCache cache;
+
+    /**
+     * Assigned in configure, like the cache.
+     */
+    private static SnapshotStore.Snapshot snapshot;
+
+    private static byte[] json(final int size) {
+        final char[] value = new char[size - 2];
+        Arrays.fill(value, 'a');
+        return ("\"" + new String(value) + "\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Path("compression")
+    public static class CompressionResource {
+        @GET
+        @Path("large")
+        @Produces(MediaType.APPLICATION_JSON)
+        public byte[] large() {
+            return LARGE;
+        }
+
+        @GET
+        @Path("small")
+        @Produces(MediaType.APPLICATION_JSON)
+        public byte[] small() {
+            return SMALL;
+        }
+
+        @GET
+        @Path("pdf")
+        @Produces("application/pdf")
+        public byte[] pdf() {
+            return LARGE;
+        }
+
+        @GET
+        @Path("stream")
+        @Produces("application/x-ndjson")
+        public StreamingOutput stream() {
+            return out -> out.write(LARGE);
+        }
+
+        @GET
+        @Path("snapshot")
+        @Produces(MediaType.APPLICATION_JSON)
+        public StreamingOutput snapshot() {
+            return snapshot;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Application configure() {
+        cache = mock(ResultCache.class);
+        when(cache.getCompressed(any(), any())).thenAnswer(invocation ->
+                ((UnaryOperator<byte[]>) invocation.getArgument(1)).apply(invocation.getArgument(0)));
+        snapshot = mock(SnapshotStore.Snapshot.class);
+        final CompressionConfiguration config = new CompressionConfiguration.Builder()
+                .setMinBytes(1024)
+                .build();
+        return new ResourceConfig()
+                .register(CompressionResource.class)
+                .register(new CompressionFilter(config, cache));
+    }
+
+    @Test
+    public void testLargeResponseIsCompressed() {
+        final byte[] body = given()
+                .header("Accept-Encoding", "deflate, gzip;q=0.5")
+                .get("http://localhost:9998/compression/large")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", equalTo("gzip"))
+                .header("Vary", equalTo("Accept-Encoding"))
+                .extract().asByteArray();
+        //RestAssured decompresses the body.
+        assertArrayEquals(LARGE, body);
+        //The entity is passed as it is, so the cache can find the compressed copy of a cached result.
+        verify(cache).getCompressed(same(LARGE), any());
+    }
+
+    @Test
+    public void testResponseIsNotCompressed() {
+        given()
+                .header("Accept-Encoding", "gzip;q=0, *")
+                .get("http://localhost:9998/compression/large")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", nullValue())
+                .header("Vary", equalTo("Accept-Encoding"));
+
+        given()
+                .header("Accept-Encoding", "gzip")
+                .get("http://localhost:9998/compression/small")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", nullValue());
+
+        given()
+                .header("Accept-Encoding", "gzip")
+                .get("http://localhost:9998/compression/pdf")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", nullValue());
+    }
+
+    @Test
+    public void testStreamIsCompressed() {
+        final byte[] body = given()
+                .header("Accept-Encoding", "gzip")
+                .get("http://localhost:9998/compression/stream")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", equalTo("gzip"))
+                .extract().asByteArray();
+        //RestAssured decompresses the body.
+        assertArrayEquals(LARGE, body);
+    }
+
+    @Test
+    public void testSnapshotIsSentCompressed() throws Exception {
+        when(snapshot.isCompressed()).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(Gzip.compress(LARGE, 6));
+            return null;
+        }).when(snapshot).writeCompressed(any());
+        final byte[] body = given()
+                .header("Accept-Encoding", "gzip")
+                .get("http://localhost:9998/compression/snapshot")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", equalTo("gzip"))
+                .extract().asByteArray();
+        //RestAssured decompresses the body.
+        assertArrayEquals(LARGE, body);
+        verify(snapshot, never()).write(any());
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(CompressionFilter.acceptsGzip("gzip, deflate, br"));
+        assertTrue(CompressionFilter.acceptsGzip("*"));
+        assertTrue(CompressionFilter.acceptsGzip("x-gzip;q=0.1"));
+        assertFalse(CompressionFilter.acceptsGzip(null));
+        assertFalse(CompressionFilter.acceptsGzip("identity"));
+        assertFalse(CompressionFilter.acceptsGzip("*;q=1, gzip;q=0"));
+        assertFalse(CompressionFilter.acceptsGzip("gzip;q=abc"));
+    }
+}
@@ -0,0 +1,76 @@
+package org.fsg1.fmms.backend.filters;
+
+import org.fsg1.fmms.backend.database.QueryDeadline;
+import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Application;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineFilterTest extends JerseyTest {
+
+    private static volatile QueryDeadline last;
+
+    @Path("deadline")
+    public static class DeadlineResource {
+        @GET
+        public String remaining() {
+            last = QueryDeadline.current();
+            final long remaining = last.remainingMillis();
+            if (remaining == Long.MAX_VALUE) return "unlimited";
+            return remaining <= 5000 ? "limited" : "too long";
+        }
+    }
+
+    @Override
+    protected Application configure() {
+        return new ResourceConfig()
+                .register(DeadlineResource.class)
+                .register(DeadlineFilter.class)
+                .register(AppExceptionMapper.class);
+    }
+
+    @Test
+    public void testWithoutHeader() throws Exception {
+        given()
+                .get("http://localhost:9998/deadline")
+                .then()
+                .statusCode(200)
+                .body(equalTo("unlimited"));
+        //The request finishes right after its response is written.
+        for (int i = 0; i < 100 && !last.isFinished(); i++) Thread.sleep(10);
+        assertTrue(last.isFinished());
+    }
+
+    @Test
+    public void testTimeoutHeader() {
+        given()
+                .header(DeadlineFilter.TIMEOUT_HEADER, "5000")
+                .get("http://localhost:9998/deadline")
+                .then()
+                .statusCode(200)
+                .body(equalTo("limited"));
+    }
+
+    @Test
+    public void testInvalidTimeoutHeader() {
+        given()
+                .header(DeadlineFilter.TIMEOUT_HEADER, "soon")
+                .get("http://localhost:9998/deadline")
+                .then()
+                .statusCode(400);
+
+        given()
+                .header(DeadlineFilter.TIMEOUT_HEADER, "-1")
+                .get("http://localhost:9998/deadline")
+                .then()
+                .statusCode(400);
+    }
+}
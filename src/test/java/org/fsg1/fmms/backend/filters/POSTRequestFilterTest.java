@@ -4,15 +4,49 @@ import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.test.JerseyTest;
 import org.junit.Test;
 
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
 import javax.ws.rs.core.Application;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static io.restassured.RestAssured.given;
+import static org.junit.Assert.assertEquals;
 
 public class POSTRequestFilterTest extends JerseyTest {
+
+    @Path("body")
+    public static class BodyResource {
+        @POST
+        @Consumes(MediaType.TEXT_PLAIN)
+        public String text(final String body) {
+            return String.valueOf(body.length());
+        }
+
+        @POST
+        @Consumes("application/x-ndjson")
+        public String ndjson(final InputStream body) throws IOException {
+            int length = 0;
+            while (body.read() >= 0) {
+                length++;
+            }
+            return String.valueOf(length);
+        }
+    }
+
     @Override
     protected Application configure() {
         return new ResourceConfig()
-                .register(POSTRequestFilter.class);
+                .register(new POSTRequestFilter(1024))
+                .register(BodyResource.class);
     }
 
     @Test
@@ -34,4 +68,47 @@ public class POSTRequestFilterTest extends JerseyTest {
                 .then()
                 .statusCode(404);
     }
+
+    @Test
+    public void testBodyTooLarge() {
+        given()
+                .body(new byte[2048])
+                .post("http://localhost:9998/fmms/post")
+                .then()
+                .statusCode(413);
+    }
+
+    @Test
+    public void testChunkedBodyIsAllowed() {
+        given()
+                .body(new ByteArrayInputStream("Hello".getBytes(StandardCharsets.UTF_8)))
+                .post("http://localhost:9998/fmms/post")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    public void testChunkedBodyTooLarge() throws IOException {
+        assertEquals(413, postChunked("text/plain", 2048));
+        assertEquals(200, postChunked("text/plain", 512));
+    }
+
+    @Test
+    public void testImportIsNotLimited() throws IOException {
+        assertEquals(200, postChunked("application/x-ndjson", 4096));
+    }
+
+    private static int postChunked(final String contentType, final int bytes) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:9998/body").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(256);
+        try (OutputStream out = connection.getOutputStream()) {
+            final byte[] body = new byte[bytes];
+            Arrays.fill(body, (byte) 'a');
+            out.write(body);
+        }
+        return connection.getResponseCode();
+    }
 }
@@ -0,0 +1,167 @@
+package org.fsg1.fmms.backend.filters;
+
+import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.app.RateLimitConfiguration;
+import org.fsg1.fmms.backend.exceptions.AppExceptionMapper;
+import org.glassfish.jersey.internal.inject.AbstractBinder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Application;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitFilterTest extends JerseyTest {
+
+    private static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+    private static final CountDownLatch STARTED = new CountDownLatch(1);
+
+    @Path("curriculum/1/module/BUA1")
+    public static class ModuleResource {
+        @GET
+        public String module() {
+            return "module";
+        }
+
+        @GET
+        @Path("pdf")
+        public String pdf() {
+            return "pdf";
+        }
+    }
+
+    @Path("blocking")
+    public static class BlockingResource {
+        @GET
+        public String blocking() throws InterruptedException {
+            STARTED.countDown();
+            RELEASE.await(5, TimeUnit.SECONDS);
+            return "done";
+        }
+    }
+
+    @Override
+    protected Application configure() {
+        final Configuration config = new Configuration.Builder()
+                .setRateLimits(new RateLimitConfiguration.Builder()
+                        .setLimit(RateLimitConfiguration.ROUTE_PDF, 0.1, 2)
+                        .setMaxInFlight(1)
+                        .build())
+                .build();
+        return new ResourceConfig()
+                .register(ModuleResource.class)
+                .register(BlockingResource.class)
+                .register(new AbstractBinder() {
+                    @Override
+                    protected void configure() {
+                        bind(config).to(Configuration.class).in(Singleton.class);
+                    }
+                })
+                .register(RateLimitFilter.class)
+                .register(AppExceptionMapper.class);
+    }
+
+    @Test
+    public void testRouteIsLimited() {
+        for (int i = 0; i < 2; i++) {
+            given()
+                    .get("http://localhost:9998/curriculum/1/module/BUA1/pdf")
+                    .then()
+                    .statusCode(200);
+        }
+        given()
+                .get("http://localhost:9998/curriculum/1/module/BUA1/pdf")
+                .then()
+                .statusCode(429)
+                .header("Retry-After", equalTo("10"));
+
+        //Other route classes have buckets of their own.
+        given()
+                .get("http://localhost:9998/curriculum/1/module/BUA1")
+                .then()
+                .statusCode(200)
+                .body(equalTo("module"));
+    }
+
+    @Test
+    public void testRequestsAreShedWhenFull() throws Exception {
+        final CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() ->
+                given().get("http://localhost:9998/blocking").statusCode());
+        assertTrue(STARTED.await(5, TimeUnit.SECONDS));
+        given()
+                .get("http://localhost:9998/curriculum/1/module/BUA1")
+                .then()
+                .statusCode(503)
+                .header("Retry-After", equalTo("1"));
+
+        RELEASE.countDown();
+        assertEquals(200, (int) first.get(5, TimeUnit.SECONDS));
+        given()
+                .get("http://localhost:9998/curriculum/1/module/BUA1")
+                .then()
+                .statusCode(200);
+    }
+
+    @Test
+    public void testRoute() {
+        assertEquals(RateLimitConfiguration.ROUTE_PDF, RateLimitFilter.route("GET", "curriculum/1/module/BUA1/pdf"));
+        assertEquals(RateLimitConfiguration.ROUTE_OVERVIEW,
+                RateLimitFilter.route("GET", "curriculum/1/architecturallayer/2/activity/3"));
+        assertEquals(RateLimitConfiguration.ROUTE_OVERVIEW, RateLimitFilter.route("GET", "curriculum/1/semester/2"));
+        assertEquals(RateLimitConfiguration.ROUTE_READ, RateLimitFilter.route("GET", "curriculum/1/semesters"));
+        assertEquals(RateLimitConfiguration.ROUTE_EXPORT, RateLimitFilter.route("GET", "curriculum/1/modules"));
+        assertEquals(RateLimitConfiguration.ROUTE_WRITE, RateLimitFilter.route("POST", "curriculum/1/modules/import"));
+        assertEquals(RateLimitConfiguration.ROUTE_WRITE, RateLimitFilter.route("POST", "module/12"));
+    }
+
+    @Test
+    public void testCredentials() {
+        //fmms:secret, fmms:guess and fmms:secret again.
+        final String credentials = RateLimitFilter.credentials("Basic Zm1tczpzZWNyZXQ=");
+        assertNotNull(credentials);
+        assertNotEquals(credentials, RateLimitFilter.credentials("Basic Zm1tczpndWVzcw=="));
+        assertEquals(credentials, RateLimitFilter.credentials("basic  Zm1tczpzZWNyZXQ="));
+        assertFalse(credentials.contains("fmms"));
+        assertNull(RateLimitFilter.credentials("Bearer Zm1tczpzZWNyZXQ="));
+        assertNull(RateLimitFilter.credentials("Basic %%%"));
+        assertNull(RateLimitFilter.credentials(null));
+    }
+
+    @Test
+    public void testBucket() {
+        final RateLimitConfiguration.Limit limit = new RateLimitConfiguration.Builder()
+                .setLimit(RateLimitConfiguration.ROUTE_READ, 10, 2)
+                .build()
+                .getLimit(RateLimitConfiguration.ROUTE_READ);
+        final RateLimitFilter.Bucket bucket = new RateLimitFilter.Bucket(0);
+        assertTrue(bucket.isFull(0));
+        assertEquals(0, bucket.acquire(limit, 0));
+        assertEquals(0, bucket.acquire(limit, 0));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.acquire(limit, 0));
+        assertEquals(0, bucket.acquire(limit, TimeUnit.MILLISECONDS.toNanos(100)));
+        assertTrue(bucket.isFull(TimeUnit.MILLISECONDS.toNanos(300)));
+
+        //A token that is given back can be taken again.
+        final RateLimitFilter.Bucket refunded = new RateLimitFilter.Bucket(0);
+        assertEquals(0, refunded.acquire(limit, 0));
+        assertEquals(0, refunded.acquire(limit, 0));
+        refunded.release(limit);
+        assertEquals(0, refunded.acquire(limit, 0));
+        assertTrue(refunded.acquire(limit, 0) > 0);
+    }
+}
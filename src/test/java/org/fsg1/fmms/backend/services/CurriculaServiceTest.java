@@ -14,6 +14,7 @@ import uk.co.datumedge.hamcrest.json.SameJSONAs;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
@@ -51,4 +52,17 @@ public class CurriculaServiceTest {
         assertThat(jsonString, SameJSONAs.sameJSONAs(node.toString()));
         verify(conn, times(1)).executeQuery("curricula", service.getQueryCurriculaString());
     }
+
+    @Test
+    public void testProcessCurriculaAsync() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        final String jsonString = mapper.readTree(Files.readAllBytes(Paths
+                .get("src/test/resources/json/curricula.json"))).toString();
+
+        when(conn.executeQueryAsync("curricula", service.getQueryCurriculaString()))
+                .thenReturn(CompletableFuture.completedFuture(jsonString));
+
+        final JsonNode node = service.getAsync(service.getQueryCurriculaString(), "curricula").get();
+        assertThat(jsonString, SameJSONAs.sameJSONAs(node.toString()));
+    }
 }
@@ -0,0 +1,176 @@
+package org.fsg1.fmms.backend.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.CopyWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ImportServiceTest {
+    @Mock
+    private Connection conn;
+    @Mock
+    private ModulesService modulesService;
+    @Mock
+    private java.sql.Connection transaction;
+    private ImportService service;
+    private ByteArrayOutputStream copied;
+
+    @Before
+    public void initMocks() throws Exception {
+        service = new ImportService(conn, modulesService);
+        copied = new ByteArrayOutputStream();
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.copyIn(eq(transaction), eq(ImportService.COPY_STAGING), any())).thenAnswer(invocation -> {
+            invocation.<CopyWriter>getArgument(2).write(copied);
+            return copied.toString("UTF-8").chars().filter(c -> c == '\n').count();
+        });
+    }
+
+    @Test
+    public void testImportCopiesValidRecordsAndMerges() throws Exception {
+        when(conn.executeUpdate(eq(transaction), anyString(), any())).thenReturn(1);
+        final String body = "{\"code\": \"JOS\", \"name\": \"Java on steroids\", \"credits\": 4, \"topics\": [\"C:\\\\temp\"]}\n" +
+                "\n" +
+                "{\"code\": \"BUA1\", \"name\": \"Business\", \"credits\": \"four\"}\n" +
+                "not json\n" +
+                "{\"code\": \"JOS\", \"name\": \"Again\", \"credits\": 4}\n" +
+                "{\"code\": \"WEB\", \"name\": \"Web\", \"credits\": 3, \"semester\": 2, \"lecturers\": [1, 2]}\n";
+
+        final JsonNode report = service.importModules(1, stream(body));
+
+        assertEquals("1\t{\"code\":\"JOS\",\"name\":\"Java on steroids\",\"credits\":4,\"topics\":[\"C:\\\\\\\\temp\"]}\n" +
+                        "6\t{\"code\":\"WEB\",\"name\":\"Web\",\"credits\":3,\"semester\":2,\"lecturers\":[1,2]}\n",
+                copied.toString("UTF-8"));
+        assertEquals(5, report.get("received").asInt());
+        assertEquals(2, report.get("imported").asInt());
+        assertEquals(1, report.get("inserted").asInt());
+        assertEquals(1, report.get("updated").asInt());
+        assertEquals(3, report.get("failed").asInt());
+        assertEquals(3, report.get("errors").get(0).get("line").asInt());
+        assertTrue(report.get("errors").get(0).get("error").asText().contains("credits"));
+        assertEquals(4, report.get("errors").get(1).get("line").asInt());
+        assertEquals(5, report.get("errors").get(2).get("line").asInt());
+        assertTrue(report.get("errors").get(2).get("error").asText().contains("more than once"));
+        assertTrue(report.has("records_per_second"));
+
+        final org.mockito.InOrder order = inOrder(conn, modulesService);
+        order.verify(conn).executeUpdate(transaction, ImportService.CREATE_STAGING);
+        order.verify(conn).copyIn(eq(transaction), eq(ImportService.COPY_STAGING), any());
+        order.verify(conn).executeUpdate(transaction, ImportService.STAGE_MODULES);
+        order.verify(conn).executeSelect(transaction, ImportService.REJECT_RECORDS);
+        order.verify(conn).executeUpdate(transaction, ImportService.INSERT_MODULES);
+        order.verify(conn).executeUpdate(transaction, ImportService.UPDATE_MODULES);
+        order.verify(conn).executeUpdate(transaction, ImportService.INCREMENT_VERSIONS);
+        for (String statement : ImportService.MERGE_CHILDREN) order.verify(conn).executeUpdate(transaction, statement);
+        order.verify(conn).executeUpdate(transaction, ImportService.LINK_PROFILES, 1);
+        order.verify(modulesService).rebuildAllDocuments(transaction);
+        order.verify(conn).invalidateAll();
+    }
+
+    @Test
+    public void testRecordsWithUnknownReferencesAreReported() throws Exception {
+        when(conn.executeSelect(transaction, ImportService.REJECT_RECORDS)).thenReturn(
+                Collections.singletonList(new Object[]{2, "Unknown lecturer: 99"}),
+                Collections.singletonList(new Object[]{1, "Unknown prior module: WEB"}),
+                Collections.emptyList());
+        final String body = "{\"code\": \"JOS\", \"name\": \"Java\", \"credits\": 4, " +
+                "\"prior_knowledge_references\": [{\"code\": \"WEB\", \"type\": \"prior\"}]}\n" +
+                "{\"code\": \"WEB\", \"name\": \"Web\", \"credits\": 3, \"lecturers\": [99]}\n" +
+                "{\"code\": \"SQL\", \"name\": \"Databases\", \"credits\": 3, " +
+                "\"teaching_material\": [{\"type\": \"book\", \"name\": \"SQL\"}]}\n";
+
+        final JsonNode report = service.importModules(1, stream(body));
+
+        assertEquals(3, report.get("received").asInt());
+        assertEquals(1, report.get("imported").asInt());
+        assertEquals(2, report.get("failed").asInt());
+        assertEquals(2, report.get("errors").get(0).get("line").asInt());
+        assertEquals("Unknown lecturer: 99", report.get("errors").get(0).get("error").asText());
+        assertEquals(1, report.get("errors").get(1).get("line").asInt());
+        verify(conn, times(3)).executeSelect(transaction, ImportService.REJECT_RECORDS);
+        verify(conn).executeUpdate(transaction, ImportService.INSERT_MODULES);
+        for (String statement : ImportService.MERGE_CHILDREN) verify(conn).executeUpdate(transaction, statement);
+    }
+
+    @Test
+    public void testImportWithOnlyUnknownTypesMergesNothing() throws Exception {
+        when(conn.executeSelect(transaction, ImportService.REJECT_RECORDS)).thenReturn(
+                Collections.singletonList(new Object[]{1, "Unknown teaching material type: scroll"}),
+                Collections.emptyList());
+        final String body = "{\"code\": \"JOS\", \"name\": \"Java\", \"credits\": 4, " +
+                "\"teaching_material\": [{\"type\": \"scroll\", \"name\": \"Papyrus\"}]}\n";
+
+        final JsonNode report = service.importModules(1, stream(body));
+
+        assertEquals(0, report.get("imported").asInt());
+        assertEquals(1, report.get("failed").asInt());
+        assertEquals("Unknown teaching material type: scroll", report.get("errors").get(0).get("error").asText());
+        verify(conn, never()).executeUpdate(transaction, ImportService.INSERT_MODULES);
+        verify(modulesService, never()).rebuildAllDocuments(any(java.sql.Connection.class));
+        verify(conn, never()).invalidateAll();
+    }
+
+    @Test
+    public void testImportWithoutValidRecordsMergesNothing() throws Exception {
+        final JsonNode report = service.importModules(1, stream("[]\n{\"code\": \"\"}\n"));
+
+        assertEquals(2, report.get("received").asInt());
+        assertEquals(0, report.get("imported").asInt());
+        assertEquals(2, report.get("failed").asInt());
+        verify(conn, times(1)).executeUpdate(transaction, ImportService.CREATE_STAGING);
+        verify(conn, never()).executeUpdate(transaction, ImportService.STAGE_MODULES);
+        verify(modulesService, never()).rebuildAllDocuments(any(java.sql.Connection.class));
+        verify(conn, never()).invalidateAll();
+    }
+
+    @Test
+    public void testReportedErrorsAreCapped() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < ImportService.MAX_REPORTED_ERRORS + 5; i++) body.append("{}\n");
+
+        final JsonNode report = service.importModules(1, stream(body.toString()));
+
+        assertEquals(ImportService.MAX_REPORTED_ERRORS + 5, report.get("failed").asInt());
+        assertEquals(ImportService.MAX_REPORTED_ERRORS, report.get("errors").size());
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final JsonNode module = mapper.readTree(getClass().getResource("/json/editableModuleInput.json"));
+        assertNull(ImportService.validate(module));
+        assertNull(ImportService.validate(mapper.readTree("{\"code\": \"A\", \"name\": \"B\", \"credits\": 1, \"semester\": null}")));
+        assertNotNull(ImportService.validate(mapper.readTree("{\"code\": \"A\", \"name\": \"B\", \"credits\": 1, \"lecturers\": [\"x\"]}")));
+        assertNotNull(ImportService.validate(mapper.readTree("{\"code\": \"A\", \"name\": \"B\", \"credits\": 1, " +
+                "\"learning_goals\": [{\"skillmatrix\": [{\"level\": 1}]}]}")));
+        assertNotNull(ImportService.validate(mapper.readTree("{\"code\": \"A\", \"name\": \"B\", \"credits\": 1, " +
+                "\"prior_knowledge_references\": [{\"type\": \"PRIOR\"}]}")));
+    }
+
+    private static InputStream stream(final String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,25 +3,47 @@ package org.fsg1.fmms.backend.services;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.RowWriter;
 import org.fsg1.fmms.backend.exceptions.EntityNotFoundException;
+import org.fsg1.fmms.backend.exceptions.PreconditionFailedException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 import uk.co.datumedge.hamcrest.json.SameJSONAs;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ModulesServiceTest {
+    private static final List<Object[]> QUALIFICATION_IDS = Arrays.asList(
+            new Object[]{1, 1, 1, 11},
+            new Object[]{1, 2, 1, 12},
+            new Object[]{1, 3, 1, 13},
+            new Object[]{1, 4, 1, 14});
+
     @Mock
     private Connection conn;
     private ModulesService service;
@@ -90,4 +112,350 @@ public class ModulesServiceTest {
         assertThat(jsonString, SameJSONAs.sameJSONAs(node.toString()));
         verify(conn, times(1)).executeQuery("module", service.getQueryEditableModule(), "BUA1");
     }
+
+    @Test
+    public void testExportModules() throws Exception {
+        when(conn.executeQueryStreamed(eq("module"), startsWith("SELECT document::text"), any(RowWriter.class), eq(1)))
+                .thenAnswer(invocation -> {
+                    final RowWriter writer = invocation.getArgument(2);
+                    writer.write("{\"code\":\"BUA1\"}".getBytes(StandardCharsets.UTF_8));
+                    writer.write("{\"code\":\"JOS\"}".getBytes(StandardCharsets.UTF_8));
+                    return 2L;
+                });
+        final ByteArrayOutputStream out = spy(new ByteArrayOutputStream());
+
+        assertEquals(2, service.exportModules(1, out));
+        assertEquals("{\"code\":\"BUA1\"}\n{\"code\":\"JOS\"}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        verify(out, times(1)).flush();
+    }
+
+    @Test
+    public void testExportModulesWithoutReadModel() throws Exception {
+        when(conn.executeQueryStreamed(eq("module"), startsWith("SELECT document::text"), any(RowWriter.class), eq(1)))
+                .thenThrow(new SQLException("relation \"study.module_document\" does not exist", "42P01"));
+        when(conn.executeQueryStreamed(eq("module"), eq(service.getQueryCurriculumModules()), any(RowWriter.class), eq(1)))
+                .thenReturn(0L);
+
+        assertEquals(0, service.exportModules(1, new ByteArrayOutputStream()));
+        verify(conn, times(1)).executeQueryStreamed(eq("module"), eq(service.getQueryCurriculumModules()),
+                any(RowWriter.class), eq(1));
+    }
+
+    @Test
+    public void testExportModulesWithEmptyReadModel() throws Exception {
+        when(conn.executeQueryStreamed(eq("module"), startsWith("SELECT document::text"), any(RowWriter.class), eq(1)))
+                .thenReturn(0L);
+        when(conn.executeQueryStreamed(eq("module"), eq(service.getQueryCurriculumModules()), any(RowWriter.class), eq(1)))
+                .thenAnswer(invocation -> {
+                    invocation.<RowWriter>getArgument(2).write("{\"code\":\"BUA1\"}".getBytes(StandardCharsets.UTF_8));
+                    return 1L;
+                });
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(1, service.exportModules(1, out));
+        assertEquals("{\"code\":\"BUA1\"}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSaveModuleWritesOnlyChanges() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeBatch(eq(transaction), anyString(), anyList())).thenAnswer(invocation -> {
+            final List<Object[]> rows = invocation.getArgument(2);
+            final int[] counts = new int[rows.size()];
+            Arrays.fill(counts, invocation.<String>getArgument(1).startsWith("UPDATE study.module ") ? 0 : 1);
+            return counts;
+        });
+        when(conn.executeSelect(eq(transaction), contains("FROM study.moduletopic"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(0,1)", 9, "Do some stuff", 1},
+                new Object[]{"(0,2)", 9, "Old topic", 2}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.teachingmaterial"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(0,3)", 9, "BOOK", "This book"},
+                new Object[]{"(0,4)", 9, "OTHER", "And this movie"}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.module_employee"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(0,5)", 9, 1},
+                new Object[]{"(0,6)", 9, 2}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.moduledependency"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(0,7)", 9, 4, "CONCURRENT", "ya boi"},
+                new Object[]{"(0,8)", 9, 7, "PRIOR", "old remark"}));
+        when(conn.executeSelect(eq(transaction), startsWith("SELECT id::int, module_id::int"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{5, 9, "explain major concepts: difference between enterprises, businesses and organisation, primary and secondary processes of a business, organisational structures and Information systems and relations of an organisation and its environment.", true, 1.0d, 1},
+                new Object[]{6, 9, "old goal", false, 0.4d, 2}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.learninggoal_qualification"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(1,1)", 5, 11},
+                new Object[]{"(1,2)", 6, 13}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.qualification"))).thenReturn(QUALIFICATION_IDS);
+        when(conn.executeSelect(eq(transaction), contains("FROM study.moduleassessment"), eq(9))).thenReturn(Collections.singletonList(
+                new Object[]{"(2,1)", 9, "BUKI", 1.0d, 5.5d, "", "BLablablabla"}));
+        when(conn.executeBatchInsert(eq(transaction), startsWith("INSERT INTO study.learninggoal("), anyList()))
+                .thenReturn(new int[]{7});
+        when(conn.executeSelect(eq(transaction), startsWith("SELECT code FROM study.module "), eq(9), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"BUA1"},
+                new Object[]{"BUA2"}));
+
+        final JsonNode module = new ObjectMapper().readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleInput.json")));
+        assertEquals(10, service.saveModule(module));
+
+        verify(conn).executeUpdate(transaction, "UPDATE study.module SET version = version + 1 WHERE id = ?", 9);
+
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.moduletopic"), rows(new Object[]{"(0,2)"}));
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.moduletopic"), rows(new Object[]{9, "And other stuff too", 2}));
+        verify(conn).executeBatch(eq(transaction), startsWith("UPDATE study.moduletopic"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.teachingmaterial"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.teachingmaterial"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.module_employee"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("UPDATE study.moduledependency"), rows(new Object[]{"PRIOR", "kom igen nu va fan", "(0,8)"}));
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.learninggoal WHERE"), rows(new Object[]{6}));
+        verify(conn).executeBatch(eq(transaction), startsWith("UPDATE study.learninggoal"), rows());
+        verify(conn).executeBatchInsert(eq(transaction), startsWith("INSERT INTO study.learninggoal("), rows(
+                new Object[]{9, "apply concepts of LG1 in a business game and company visit and analyse, advice, design and implement a strategy in the business game.", false, 0.4d, 2}));
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.learninggoal_qualification"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.learninggoal_qualification"), rows(
+                new Object[]{7, 13},
+                new Object[]{7, 14},
+                new Object[]{7, 12},
+                new Object[]{7, 11}));
+        verify(conn).executeBatch(eq(transaction), startsWith("UPDATE study.moduleassessment"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.moduleassessment"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.module_document"), rows(new Object[]{9, 9}));
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.module_document"), rows(new Object[]{9, 9}));
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.module_edit_document"), rows(new Object[]{9, 9}));
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.module_edit_document"), rows(new Object[]{9, 9}));
+
+        verify(conn).invalidate(new HashSet<>(Arrays.asList(
+                CacheTags.module("BUA1"), CacheTags.module("BUA2"), CacheTags.module("JOS"), CacheTags.MODULES)));
+
+        assertEquals(1, service.getRowsTouchedPerSave().getCount());
+        assertEquals(6, service.getRowsInserted());
+        assertEquals(2, service.getRowsUpdated());
+        assertEquals(2, service.getRowsDeleted());
+    }
+
+    @Test
+    public void testSaveModuleReordersRows() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeBatch(eq(transaction), anyString(), anyList())).thenAnswer(invocation ->
+                new int[invocation.<List<Object[]>>getArgument(2).size()]);
+        when(conn.executeSelect(eq(transaction), contains("FROM study.moduletopic"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(0,1)", 9, "And other stuff too", 1},
+                new Object[]{"(0,2)", 9, "Do some stuff", 2}));
+        final String second = "apply concepts of LG1 in a business game and company visit and analyse, advice, design and implement a strategy in the business game.";
+        when(conn.executeSelect(eq(transaction), startsWith("SELECT id::int, module_id::int"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{6, 9, second, false, 0.4d, 1},
+                new Object[]{5, 9, "explain major concepts", true, 1.0d, 2},
+                new Object[]{8, 9, "old goal", true, 1.0d, 4}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.learninggoal_qualification"), eq(9))).thenReturn(Arrays.asList(
+                new Object[]{"(1,1)", 6, 13},
+                new Object[]{"(1,2)", 6, 14},
+                new Object[]{"(1,3)", 6, 12},
+                new Object[]{"(1,4)", 6, 11},
+                new Object[]{"(1,5)", 5, 11}));
+        when(conn.executeSelect(eq(transaction), contains("FROM study.qualification"))).thenReturn(QUALIFICATION_IDS);
+        when(conn.executeBatchInsert(eq(transaction), startsWith("INSERT INTO study.learninggoal("), anyList()))
+                .thenReturn(new int[]{7});
+
+        final JsonNode module = new ObjectMapper().readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleInput.json")));
+        service.saveModule(module);
+
+        //Moved topics keep their row and get their new position.
+        verify(conn).executeBatch(eq(transaction), startsWith("UPDATE study.moduletopic"), rows(
+                new Object[]{1, "(0,2)"},
+                new Object[]{2, "(0,1)"}));
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.moduletopic"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.moduletopic"), rows());
+
+        //The edited goal keeps its position, and the goals are numbered without a gap.
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.learninggoal WHERE"), rows(
+                new Object[]{5},
+                new Object[]{8}));
+        verify(conn).executeBatch(eq(transaction), startsWith("UPDATE study.learninggoal"), rows(new Object[]{0.4d, 2, 6}));
+        verify(conn).executeBatchInsert(eq(transaction), startsWith("INSERT INTO study.learninggoal("), rows(
+                new Object[]{9, "explain major concepts: difference between enterprises, businesses and organisation, primary and secondary processes of a business, organisational structures and Information systems and relations of an organisation and its environment.", true, 1.0d, 1}));
+        verify(conn).executeBatch(eq(transaction), startsWith("DELETE FROM study.learninggoal_qualification"), rows());
+        verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.learninggoal_qualification"), rows(
+                new Object[]{7, 11}));
+        //The qualification ids are looked up once for the whole save.
+        verify(conn, times(1)).executeSelect(eq(transaction), contains("FROM study.qualification"));
+    }
+
+    @Test
+    public void testSaveModuleUnknownQualification() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeBatch(eq(transaction), anyString(), anyList())).thenAnswer(invocation ->
+                new int[invocation.<List<Object[]>>getArgument(2).size()]);
+        when(conn.executeBatchInsert(eq(transaction), startsWith("INSERT INTO study.learninggoal("), anyList()))
+                .thenReturn(new int[]{7, 8});
+        when(conn.executeSelect(eq(transaction), contains("FROM study.qualification"))).thenReturn(
+                QUALIFICATION_IDS.subList(0, 2));
+
+        final JsonNode module = new ObjectMapper().readTree(Files.readAllBytes(Paths.get("src/test/resources/json/editableModuleInput.json")));
+        try {
+            service.saveModule(module);
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("[1, 3, 1]"));
+        }
+        verify(conn, never()).executeBatch(eq(transaction), startsWith("INSERT INTO study.learninggoal_qualification"), anyList());
+    }
+
+    @Test
+    public void testSaveModuleStaleVersion() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeUpdate(eq(transaction), contains("FOR UPDATE NOWAIT"), eq(9), eq(3L))).thenReturn(0);
+        final JsonNode module = new ObjectMapper().readTree(Files.readAllBytes(Paths
+                .get("src/test/resources/json/editableModuleInput.json")));
+
+        try {
+            service.saveModule(module, 3L);
+            fail();
+        } catch (PreconditionFailedException e) {
+            assertEquals(412, e.getResponse().getStatus());
+        }
+        verify(conn, never()).executeBatch(any(), anyString(), anyList());
+        verify(conn, never()).invalidate(anyCollection());
+    }
+
+    @Test(expected = PreconditionFailedException.class)
+    public void testSaveModuleLocked() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeUpdate(eq(transaction), contains("FOR UPDATE NOWAIT"), eq(9), eq(3L)))
+                .thenThrow(new SQLException("could not obtain lock on row in relation \"module\"", "55P03"));
+        final JsonNode module = new ObjectMapper().readTree(Files.readAllBytes(Paths
+                .get("src/test/resources/json/editableModuleInput.json")));
+
+        service.saveModule(module, 3L);
+    }
+
+    @Test
+    public void testVersionOf() throws Exception {
+        assertEquals(Long.valueOf(12), ModulesService.versionOf(
+                "{\"id\":9,\"lecturers\":[{\"id\":1,\"version\":3}],\"version\":12}".getBytes(StandardCharsets.UTF_8)));
+        assertNull(ModulesService.versionOf("{\"id\":9}".getBytes(StandardCharsets.UTF_8)));
+        assertNull(ModulesService.versionOf("[]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testGetModuleDocument() throws Exception {
+        final byte[] document = "{\"code\":\"BUA1\"}".getBytes(StandardCharsets.UTF_8);
+        when(conn.executeQueryCachedAsync(anyCollection(), eq("module"), startsWith("SELECT document::text"), eq("BUA1"), eq(1)))
+                .thenReturn(CompletableFuture.completedFuture(document));
+
+        assertArrayEquals(document, service.getModuleDocumentAsync("BUA1", 1).get());
+        verify(conn, never()).executeQueryCachedAsync(Collections.singletonList(CacheTags.module("BUA1")), "module", service.getQueryModuleInformation(), "BUA1", 1);
+    }
+
+    @Test
+    public void testGetModuleDocumentNotBuiltYet() throws Exception {
+        final byte[] document = "{\"code\":\"BUA1\"}".getBytes(StandardCharsets.UTF_8);
+        when(conn.executeQueryCachedAsync(anyCollection(), eq("module"), startsWith("SELECT document::text"), eq("BUA1"), eq(1)))
+                .thenReturn(failed(new EntityNotFoundException()));
+        when(conn.executeQueryCachedAsync(Collections.singletonList(CacheTags.module("BUA1")), "module", service.getQueryModuleInformation(), "BUA1", 1))
+                .thenReturn(CompletableFuture.completedFuture(document));
+
+        assertArrayEquals(document, service.getModuleDocumentAsync("BUA1", 1).get());
+    }
+
+    @Test
+    public void testGetEditableModuleDocumentFails() throws Exception {
+        when(conn.executeQueryCachedAsync(anyCollection(), eq("module"), contains("FROM study.module_edit_document"), eq("BUA1")))
+                .thenReturn(failed(new SQLException("Connection reset", "08006")));
+
+        try {
+            service.getEditableModuleDocumentAsync("BUA1").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        verify(conn, never()).executeQueryCachedAsync(Arrays.asList(CacheTags.module("BUA1"), CacheTags.MODULES), "module", service.getQueryEditableModule(), "BUA1");
+    }
+
+    @Test
+    public void testRebuildAllDocuments() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeBatch(eq(transaction), startsWith("DELETE"), anyList())).thenReturn(new int[]{3});
+        when(conn.executeBatch(eq(transaction), startsWith("INSERT INTO study.module_document"), anyList())).thenReturn(new int[]{5});
+        when(conn.executeBatch(eq(transaction), startsWith("INSERT INTO study.module_edit_document"), anyList())).thenReturn(new int[]{4});
+
+        assertEquals(9, service.rebuildAllDocuments());
+        verify(conn).invalidateAll();
+    }
+
+    @Test
+    public void testBuildMissingDocuments() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeBatch(eq(transaction), startsWith("LOCK TABLE"), anyList())).thenReturn(new int[]{0});
+        when(conn.executeSelect(eq(transaction), startsWith("SELECT EXISTS"))).thenReturn(
+                Collections.singletonList(new Object[]{true}));
+        when(conn.executeBatch(eq(transaction), startsWith("DELETE"), anyList())).thenReturn(new int[]{0});
+        when(conn.executeBatch(eq(transaction), startsWith("INSERT INTO study.module_document"), anyList())).thenReturn(new int[]{5});
+        when(conn.executeBatch(eq(transaction), startsWith("INSERT INTO study.module_edit_document"), anyList())).thenReturn(new int[]{4});
+
+        assertEquals(9, service.buildMissingDocuments());
+        final InOrder order = inOrder(conn);
+        order.verify(conn).executeBatch(eq(transaction), startsWith("LOCK TABLE"), anyList());
+        order.verify(conn).executeSelect(eq(transaction), startsWith("SELECT EXISTS"));
+        order.verify(conn).executeBatch(eq(transaction), startsWith("INSERT INTO study.module_document"), anyList());
+        order.verify(conn).invalidateAll();
+    }
+
+    @Test
+    public void testBuildMissingDocumentsWhenNoneAreMissing() throws Exception {
+        final java.sql.Connection transaction = mock(java.sql.Connection.class);
+        doAnswer(invocation -> {
+            final TransactionRunner runner = invocation.getArgument(0);
+            runner.run(transaction);
+            return null;
+        }).when(conn).executeTransactional(any());
+        when(conn.executeBatch(eq(transaction), startsWith("LOCK TABLE"), anyList())).thenReturn(new int[]{0});
+        when(conn.executeSelect(eq(transaction), startsWith("SELECT EXISTS"))).thenReturn(
+                Collections.singletonList(new Object[]{false}));
+
+        assertEquals(0, service.buildMissingDocuments());
+        verify(conn, never()).executeBatch(eq(transaction), startsWith("INSERT"), anyList());
+        verify(conn, never()).invalidateAll();
+    }
+
+    private static CompletableFuture<byte[]> failed(final Throwable e) {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private static List<Object[]> rows(final Object[]... expected) {
+        return argThat(actual -> Arrays.deepEquals(actual.toArray(), expected));
+    }
 }
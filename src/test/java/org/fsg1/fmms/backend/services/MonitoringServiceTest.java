@@ -0,0 +1,211 @@
+package org.fsg1.fmms.backend.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.PoolMonitor;
+import org.fsg1.fmms.backend.database.ReplicaSet;
+import org.fsg1.fmms.backend.database.ResultCache;
+import org.fsg1.fmms.backend.database.SlowQueryLog;
+import org.fsg1.fmms.backend.database.SingleFlight;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.metrics.Histogram;
+import org.fsg1.fmms.backend.metrics.QueryStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MonitoringServiceTest {
+    @Mock
+    private Connection conn;
+    @Mock
+    private PoolMonitor monitor;
+    @Mock
+    private ModulesService modulesService;
+    @Mock
+    private ReplicaSet replicaSet;
+    @Mock
+    private ReplicaSet.Replica replica;
+    @Mock
+    private ResultCache cache;
+    @Mock
+    private SlowQueryLog slowQueryLog;
+    @Mock
+    private SlowQueryLog.SlowQuery slowQuery;
+    @Mock
+    private SnapshotStore snapshots;
+    @Mock
+    private SingleFlight singleFlight;
+
+    private MonitoringService service;
+
+    @Before
+    public void initMocks() {
+        service = new MonitoringService(conn, modulesService);
+    }
+
+    @Test
+    public void testPoolStatus() {
+        final Histogram borrowWait = Histogram.forLatency();
+        borrowWait.record(TimeUnit.MILLISECONDS.toNanos(1));
+        borrowWait.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        when(conn.getPoolMonitor()).thenReturn(monitor);
+        when(conn.getStatementCacheHits()).thenReturn(10L);
+        when(conn.getStatementCacheMisses()).thenReturn(2L);
+        when(monitor.getActive()).thenReturn(3);
+        when(monitor.getIdle()).thenReturn(5);
+        when(monitor.getMaxTotal()).thenReturn(8);
+        when(monitor.getBorrowWait()).thenReturn(borrowWait);
+        when(monitor.getBorrowTimeouts()).thenReturn(1L);
+        when(conn.getReplicaSet()).thenReturn(replicaSet);
+        when(replicaSet.getPrimaryReads()).thenReturn(4L);
+        when(replicaSet.getReplicas()).thenReturn(Collections.singletonList(replica));
+        when(replica.getUrl()).thenReturn("jdbc:postgresql://replica:5432/fmms");
+        when(replica.isDown()).thenReturn(true);
+        when(replica.getFailures()).thenReturn(2L);
+        when(replica.getMonitor()).thenReturn(monitor);
+
+        final JsonNode status = service.getPoolStatus();
+        assertEquals(3, status.get("active").asInt());
+        assertEquals(5, status.get("idle").asInt());
+        assertEquals(8, status.get("max_total").asInt());
+        assertEquals(1, status.get("borrow_timeouts").asInt());
+        assertEquals(2, status.get("borrow_wait").get("count").asInt());
+        assertEquals(2.0, status.get("borrow_wait").get("mean_ms").asDouble(), 0.001);
+        assertEquals(3.0, status.get("borrow_wait").get("p99_ms").asDouble(), 0.001);
+        assertEquals(10, status.get("statement_cache").get("hits").asInt());
+        assertEquals(4, status.get("primary_reads").asInt());
+        assertEquals(1, status.get("replicas").size());
+        assertTrue(status.get("replicas").get(0).get("down").asBoolean());
+        assertEquals(2, status.get("replicas").get(0).get("failures").asInt());
+    }
+
+    @Test
+    public void testCacheStatus() {
+        final Histogram loadTime = Histogram.forLatency();
+        loadTime.record(TimeUnit.MILLISECONDS.toNanos(4));
+
+        when(conn.getResultCache()).thenReturn(cache);
+        when(cache.getSize()).thenReturn(2);
+        when(cache.getBytes()).thenReturn(2048L);
+        when(cache.getMaxBytes()).thenReturn(4096L);
+        when(cache.getHits()).thenReturn(3L);
+        when(cache.getMisses()).thenReturn(1L);
+        when(cache.getHitRatio()).thenReturn(0.75);
+        when(cache.getEvictions()).thenReturn(5L);
+        when(cache.getRejections()).thenReturn(6L);
+        when(cache.getCompressedHits()).thenReturn(7L);
+        when(cache.getLoadTime()).thenReturn(loadTime);
+        when(conn.getSnapshots()).thenReturn(snapshots);
+        when(snapshots.getSize()).thenReturn(4);
+        when(snapshots.getAllocatedBytes()).thenReturn(4194304L);
+        when(snapshots.getHits()).thenReturn(8L);
+        when(conn.getSingleFlight()).thenReturn(singleFlight);
+        when(singleFlight.getCoalesced()).thenReturn(3L);
+        when(singleFlight.getCoalescingRatio()).thenReturn(0.6);
+
+        final JsonNode status = service.getCacheStatus();
+        assertEquals(2, status.get("size").asInt());
+        assertEquals(2048, status.get("bytes").asInt());
+        assertEquals(0.75, status.get("hit_ratio").asDouble(), 0.001);
+        assertEquals(5, status.get("evictions").asInt());
+        assertEquals(6, status.get("rejections").asInt());
+        assertEquals(7, status.get("compressed_hits").asInt());
+        assertEquals(4.0, status.get("load_time").get("mean_ms").asDouble(), 0.001);
+        assertEquals(4, status.get("snapshots").get("size").asInt());
+        assertEquals(4194304, status.get("snapshots").get("allocated_bytes").asInt());
+        assertEquals(8, status.get("snapshots").get("hits").asInt());
+        assertEquals(3, status.get("coalescing").get("coalesced").asInt());
+        assertEquals(0.6, status.get("coalescing").get("ratio").asDouble(), 0.001);
+    }
+
+    @Test
+    public void testPrometheusMetrics() {
+        final QueryStats query = new QueryStats("CurriculaService.curricula");
+        query.getExecute().record(TimeUnit.MILLISECONDS.toNanos(2));
+        query.getBytes().record(300);
+        query.recordError();
+
+        when(conn.getQueryStats()).thenReturn(Collections.singletonList(query));
+        when(conn.getPoolMonitor()).thenReturn(monitor);
+        when(monitor.getActive()).thenReturn(3);
+        when(conn.getResultCache()).thenReturn(cache);
+        when(cache.getHits()).thenReturn(7L);
+        when(conn.getSnapshots()).thenReturn(snapshots);
+        when(snapshots.getHits()).thenReturn(9L);
+        when(conn.getSingleFlight()).thenReturn(singleFlight);
+        when(singleFlight.getCoalesced()).thenReturn(11L);
+
+        final String metrics = service.getPrometheusMetrics();
+        assertTrue(metrics.contains("# TYPE fmms_query_execute_seconds histogram\n"));
+        assertTrue(metrics.contains("fmms_query_execute_seconds_bucket{query=\"CurriculaService.curricula\",le=\"0.001\"} 0\n"));
+        assertTrue(metrics.contains("fmms_query_execute_seconds_bucket{query=\"CurriculaService.curricula\",le=\"0.0025\"} 1\n"));
+        assertTrue(metrics.contains("fmms_query_execute_seconds_bucket{query=\"CurriculaService.curricula\",le=\"+Inf\"} 1\n"));
+        assertTrue(metrics.contains("fmms_query_execute_seconds_sum{query=\"CurriculaService.curricula\"} 0.002\n"));
+        assertTrue(metrics.contains("fmms_query_result_bytes_bucket{query=\"CurriculaService.curricula\",le=\"1024\"} 1\n"));
+        assertTrue(metrics.contains("fmms_query_errors_total{query=\"CurriculaService.curricula\"} 1\n"));
+        assertTrue(metrics.contains("fmms_pool_active_connections 3\n"));
+        assertTrue(metrics.contains("fmms_cache_hits_total 7\n"));
+        assertTrue(metrics.contains("fmms_snapshot_hits_total 9\n"));
+        assertTrue(metrics.contains("fmms_coalesced_reads_total 11\n"));
+    }
+
+    @Test
+    public void testHealth() {
+        assertFalse(service.isReady());
+        assertEquals("starting", service.getHealth().get("status").asText());
+
+        service.markReady(1200);
+        assertTrue(service.isReady());
+        assertEquals("ready", service.getHealth().get("status").asText());
+        assertEquals(1200, service.getHealth().get("warm_up_ms").asLong());
+    }
+
+    @Test
+    public void testSlowQueries() {
+        when(conn.getSlowQueryLog()).thenReturn(slowQueryLog);
+        when(slowQueryLog.getThresholdMillis()).thenReturn(1L);
+        when(slowQueryLog.getCount()).thenReturn(1L);
+        when(slowQueryLog.getQueries()).thenReturn(Collections.singletonList(slowQuery));
+        when(slowQuery.getName()).thenReturn("ModulesService.moduleInformation");
+        when(slowQuery.getParameters()).thenReturn(Collections.singletonList("BUA1"));
+        when(slowQuery.getNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(3));
+
+        final JsonNode status = service.getSlowQueries();
+        assertEquals(1, status.get("threshold_ms").asInt());
+        assertEquals(1, status.get("count").asInt());
+        assertEquals("ModulesService.moduleInformation", status.get("queries").get(0).get("query").asText());
+        assertEquals("BUA1", status.get("queries").get(0).get("parameters").get(0).asText());
+        assertEquals(3.0, status.get("queries").get(0).get("duration_ms").asDouble(), 0.001);
+    }
+
+    @Test
+    public void testModuleSaveStatus() {
+        final Histogram rowsTouched = new Histogram(0, 1, 2, 5, 10);
+        rowsTouched.record(1);
+        rowsTouched.record(5);
+
+        when(modulesService.getRowsTouchedPerSave()).thenReturn(rowsTouched);
+        when(modulesService.getRowsInserted()).thenReturn(4L);
+        when(modulesService.getRowsUpdated()).thenReturn(1L);
+        when(modulesService.getRowsDeleted()).thenReturn(1L);
+
+        final JsonNode status = service.getModuleSaveStatus();
+        assertEquals(2, status.get("saves").asInt());
+        assertEquals(3.0, status.get("rows_per_save").get("mean").asDouble(), 0.001);
+        assertEquals(5, status.get("rows_per_save").get("max").asInt());
+        assertEquals(4, status.get("inserted").asInt());
+        assertEquals(1, status.get("deleted").asInt());
+    }
+}
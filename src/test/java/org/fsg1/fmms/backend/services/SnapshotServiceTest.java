@@ -0,0 +1,152 @@
+package org.fsg1.fmms.backend.services;
+
+import org.fsg1.fmms.backend.app.CompressionConfiguration;
+import org.fsg1.fmms.backend.app.Configuration;
+import org.fsg1.fmms.backend.database.Connection;
+import org.fsg1.fmms.backend.database.RowWriter;
+import org.fsg1.fmms.backend.database.SnapshotStore;
+import org.fsg1.fmms.backend.database.TagVersions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SnapshotServiceTest {
+    private static final byte[] DOCUMENT = "{\"code\":\"BUA1\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Mock
+    private Connection conn;
+
+    @Mock
+    private Configuration config;
+
+    @Mock
+    private SnapshotStore snapshots;
+
+    @Mock
+    private TagVersions versions;
+
+    private CurriculaService curriculaService;
+
+    private QualificationsService qualificationsService;
+
+    private SemestersService semestersService;
+
+    private SnapshotService service;
+
+    @Before
+    public void initMocks() {
+        when(config.getCompression()).thenReturn(new CompressionConfiguration.Builder().setLevel(0).build());
+        when(conn.getSnapshots()).thenReturn(snapshots);
+        when(conn.getTagVersions()).thenReturn(versions);
+        curriculaService = new CurriculaService(conn);
+        qualificationsService = new QualificationsService(conn);
+        semestersService = new SemestersService(conn);
+        service = new SnapshotService(conn, config, curriculaService, qualificationsService, semestersService);
+    }
+
+    /**
+     * @param rows Rows of a streamed query.
+     * @return Answer that writes the rows to the writer of the query.
+     */
+    private static Answer<Long> rows(final String... rows) {
+        return invocation -> {
+            final RowWriter writer = invocation.getArgument(2);
+            for (String row : rows) {
+                writer.write(row.getBytes(StandardCharsets.UTF_8));
+            }
+            return (long) rows.length;
+        };
+    }
+
+    @Test
+    public void testStartRendersFromThePrimary() throws Exception {
+        when(snapshots.isEnabled()).thenReturn(true);
+        when(versions.get(any())).thenReturn("v1");
+        when(snapshots.put(anyString(), any(), anyString(), any(), any())).thenReturn(true);
+        when(conn.executeQueryRawOnPrimary("curricula", curriculaService.getQueryCurriculaString()))
+                .thenReturn("[]".getBytes(StandardCharsets.UTF_8));
+        when(conn.executeQueryRawOnPrimary("qualifications", qualificationsService.getQualificationsQuery()))
+                .thenReturn("[]".getBytes(StandardCharsets.UTF_8));
+        when(conn.executeQueryRawOnPrimary("semesters", semestersService.getQueryCurriculumSemestersString(), 1))
+                .thenReturn("[]".getBytes(StandardCharsets.UTF_8));
+        doAnswer(rows("1")).when(conn).executeQueryStreamedOnPrimary(eq("id"), anyString(), any(RowWriter.class));
+        doAnswer(rows("1\nBUA1\n{\"code\":\"BUA1\"}"))
+                .when(conn).executeQueryStreamedOnPrimary(eq("module"), anyString(), any(RowWriter.class));
+
+        assertEquals(4, service.start());
+        verify(versions).addListener(service);
+        verify(snapshots).put(SnapshotService.module(1, "BUA1"), Collections.singletonList(CacheTags.module("BUA1")),
+                "v1", DOCUMENT, null);
+        verify(snapshots).put(eq(SnapshotService.semesters(1)),
+                eq(Arrays.asList(CacheTags.curriculum(1), CacheTags.MODULES)), eq("v1"), any(), eq(null));
+        verify(conn, never()).executeQueryRaw(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testRaisedModuleIsRenderedUnderItsNewCode() throws Exception {
+        final Collection<String> raised = Arrays.asList(CacheTags.module("BUA1"), CacheTags.module("BUA2"),
+                CacheTags.MODULES);
+        final CountDownLatch rendered = new CountDownLatch(1);
+        when(versions.get(any())).thenReturn("v1");
+        doAnswer(invocation -> {
+            rendered.countDown();
+            return true;
+        }).when(snapshots).put(anyString(), any(), anyString(), any(), any());
+        doAnswer(rows("1\nBUA2\n{\"code\":\"BUA2\"}"))
+                .when(conn).executeQueryStreamedOnPrimary(eq("module"), anyString(), any(RowWriter.class), eq("BUA2"));
+
+        service.raised(raised);
+
+        assertTrue(rendered.await(5, TimeUnit.SECONDS));
+        verify(snapshots).remove(raised);
+        verify(snapshots).put(SnapshotService.module(1, "BUA2"),
+                Collections.singletonList(CacheTags.module("BUA2")), "v1",
+                "{\"code\":\"BUA2\"}".getBytes(StandardCharsets.UTF_8), null);
+        verify(snapshots, never()).put(eq(SnapshotService.module(1, "BUA1")), any(), anyString(), any(), any());
+    }
+
+    @Test
+    public void testDocumentReadAfterASaveIsRenderedAgain() throws Exception {
+        final List<String> tags = Collections.singletonList(CacheTags.module("BUA1"));
+        final CountDownLatch rendered = new CountDownLatch(1);
+        when(versions.get(tags)).thenReturn("v1", "v2", "v2");
+        doAnswer(invocation -> {
+            rendered.countDown();
+            return true;
+        }).when(snapshots).put(anyString(), any(), anyString(), any(), any());
+        //The module is saved while the stream reads it: its version changes between the start and the row.
+        doAnswer(rows("1\nBUA1\n{\"code\":\"BUA1\"}"))
+                .when(conn).executeQueryStreamedOnPrimary(eq("module"), anyString(), any(RowWriter.class), eq("BUA1"));
+        when(conn.executeQueryRawOnPrimary("module", ModulesService.SELECT_MODULE_DOCUMENT, "BUA1", 1))
+                .thenReturn(DOCUMENT);
+
+        service.raised(tags);
+
+        assertTrue(rendered.await(5, TimeUnit.SECONDS));
+        //The row was read after the save, so the document is read again under the version taken before the query.
+        verify(snapshots).put(SnapshotService.module(1, "BUA1"), tags, "v2", DOCUMENT, null);
+        verify(snapshots, never()).put(SnapshotService.module(1, "BUA1"), tags, "v1", DOCUMENT, null);
+    }
+}
@@ -0,0 +1,71 @@
+package org.fsg1.fmms.backend.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per request of reading a module document into a tree and writing it back, with a new
+ * <code>ObjectMapper</code> per request as the services did before, and with the shared reader and writer of
+ * {@link JsonMapper}. The GC profiler reports the allocation as <code>gc.alloc.rate.norm</code>, in bytes per
+ * operation. Run it with <code>mvn test -P benchmark -Dtest=JsonMapperBenchmark</code>;
+ * <code>-Dbenchmark.seconds</code> changes the time per iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonMapperBenchmark {
+
+    private String module;
+
+    @Setup
+    public void readModule() throws IOException {
+        module = new String(Files.readAllBytes(Paths.get("src/test/resources/json/module.json")), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] newMapperPerRequest() throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final JsonNode tree = mapper.readTree(module);
+        return mapper.writeValueAsBytes(tree);
+    }
+
+    @Benchmark
+    public byte[] sharedReaderAndWriter() throws IOException {
+        final JsonNode tree = JsonMapper.readTree(module);
+        return JsonMapper.getWriter().writeValueAsBytes(tree);
+    }
+
+    @Test
+    public void benchmarkMapping() throws Exception {
+        final int seconds = Integer.getInteger("benchmark.seconds", 5);
+        final Options options = new OptionsBuilder()
+                .include(JsonMapperBenchmark.class.getName() + "\\.")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(seconds))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(seconds))
+                .build();
+        new Runner(options).run();
+    }
+}